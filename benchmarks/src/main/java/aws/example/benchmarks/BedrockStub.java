@@ -0,0 +1,349 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import software.amazon.eventstream.HeaderValue;
+import software.amazon.eventstream.Message;
+
+import aws.example.AnthropicStreamDecoder;
+
+/*
+ * Local HTTP server that answers the Bedrock Runtime and Agents for Bedrock Runtime operations
+ * used by BedrockHelper, so that its client-side cost can be measured without calling AWS.
+ * Point a BedrockClients registry at endpoint() with BedrockClients.Builder.endpointOverride.
+ *
+ * Responses follow the services' wire formats: JSON bodies for InvokeModel, Converse and
+ * RetrieveAndGenerate, and event-stream framed chunks (with the same encoder the SDK decodes with)
+ * for InvokeModelWithResponseStream and InvokeAgent. Generated text comes from a recorded stream
+ * trace, and all responses are encoded once at startup, except embeddings: InvokeModel on a Titan
+ * or Cohere embedding model returns a bag-of-words vector of the input, so texts sharing most of
+ * their words get similar vectors, as they would from a real embedding model.
+ *
+ * latency delays the start of every response, tail delays a fraction of them by much longer
+ * (a slow replica or a cold model), chunkInterval spaces out stream events and throttleRate
+ * answers that fraction of requests with a ThrottlingException.
+ */
+final class BedrockStub implements AutoCloseable {
+
+    private static final Pattern INVOKE = Pattern.compile("/model/[^/]+/invoke");
+    private static final Pattern EMBED = Pattern.compile("/model/[^/]*embed[^/]*/invoke");
+    private static final Pattern INVOKE_STREAM = Pattern.compile("/model/[^/]+/invoke-with-response-stream");
+    private static final Pattern CONVERSE = Pattern.compile("/model/[^/]+/converse");
+    private static final Pattern INVOKE_AGENT = Pattern.compile("/agents/[^/]+/agentAliases/[^/]+/sessions/[^/]+/text");
+    private static final String RETRIEVE_AND_GENERATE = "/retrieveAndGenerate";
+
+    private static final String JSON = "application/json";
+    private static final String EVENT_STREAM = "application/vnd.amazon.eventstream";
+    private static final int AGENT_CHUNKS = 8;
+    private static final int EMBEDDING_DIMENSIONS = 1024;
+    private static final Pattern WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Duration latency;
+    private final double tailRate;
+    private final Duration tailLatency;
+    private final Duration chunkInterval;
+    private final double throttleRate;
+
+    private final byte[] invokeResponse;
+    private final List<byte[]> streamEvents = new ArrayList<>();
+    private final byte[] converseResponse;
+    private final byte[] toolUseResponse;
+    private final List<byte[]> agentEvents = new ArrayList<>();
+    private final byte[] knowledgeBaseResponse;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    private BedrockStub(Builder builder) throws IOException {
+        this.latency = builder.latency;
+        this.tailRate = builder.tailRate;
+        this.tailLatency = builder.tailLatency;
+        this.chunkInterval = builder.chunkInterval;
+        this.throttleRate = builder.throttleRate;
+
+        List<byte[]> chunks = Traces.chunks(builder.trace);
+        String text = generatedText(chunks);
+
+        invokeResponse = json(new JSONObject()
+                .put("id", "msg_stub")
+                .put("type", "message")
+                .put("role", "assistant")
+                .put("content", List.of(Map.of("type", "text", "text", text)))
+                .put("stop_reason", "end_turn")
+                .put("usage", Map.of("input_tokens", 31, "output_tokens", text.length() / 4)));
+        for (byte[] chunk : chunks) {
+            streamEvents.add(event("chunk", chunk));
+        }
+
+        converseResponse = json(new JSONObject()
+                .put("output", Map.of("message", Map.of(
+                        "role", "assistant",
+                        "content", List.of(Map.of("text", text)))))
+                .put("stopReason", "end_turn")
+                .put("usage", Map.of("inputTokens", 31, "outputTokens", text.length() / 4, "totalTokens", 31 + text.length() / 4))
+                .put("metrics", Map.of("latencyMs", latency.toMillis())));
+        var toolUse = Map.of(
+                "toolUseId", "tooluse_stub",
+                "name", "topSongsTool",
+                "input", Map.of("sign", "WZPZ"));
+        toolUseResponse = json(new JSONObject()
+                .put("output", Map.of("message", Map.of(
+                        "role", "assistant",
+                        "content", List.of(Map.of("toolUse", toolUse)))))
+                .put("stopReason", "tool_use")
+                .put("usage", Map.of("inputTokens", 31, "outputTokens", 20, "totalTokens", 51))
+                .put("metrics", Map.of("latencyMs", latency.toMillis())));
+
+        int piece = Math.max(1, text.length() / AGENT_CHUNKS);
+        for (int start = 0; start < text.length(); start += piece) {
+            agentEvents.add(event("chunk", text.substring(start, Math.min(text.length(), start + piece))
+                    .getBytes(StandardCharsets.UTF_8)));
+        }
+
+        knowledgeBaseResponse = json(new JSONObject()
+                .put("output", Map.of("text", text))
+                .put("sessionId", "stub-session")
+                .put("citations", List.of()));
+
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "bedrock-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    BedrockStub start() {
+        server.start();
+        return this;
+    }
+
+    URI endpoint() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    long throttled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // ---- Request handling ----
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            requests.increment();
+            String path = exchange.getRequestURI().getPath();
+            byte[] request = exchange.getRequestBody().readAllBytes();
+            pause(tailRate > 0 && ThreadLocalRandom.current().nextDouble() < tailRate ? tailLatency : latency);
+
+            if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+                throttled.increment();
+                error(exchange, 429, "ThrottlingException", "Too many requests, please wait before trying again.");
+            } else if (EMBED.matcher(path).matches()) {
+                respond(exchange, embeddingResponse(new JSONObject(new String(request, StandardCharsets.UTF_8))));
+            } else if (INVOKE.matcher(path).matches()) {
+                respond(exchange, invokeResponse);
+            } else if (INVOKE_STREAM.matcher(path).matches()) {
+                stream(exchange, streamEvents);
+            } else if (CONVERSE.matcher(path).matches()) {
+                // The first turn of a tool conversation asks for the tool; the turn carrying its result gets the answer.
+                String body = new String(request, StandardCharsets.UTF_8);
+                boolean toolTurn = body.contains("\"toolConfig\"") && !body.contains("\"toolResult\"");
+                respond(exchange, toolTurn ? toolUseResponse : converseResponse);
+            } else if (INVOKE_AGENT.matcher(path).matches()) {
+                exchange.getResponseHeaders().add("x-amzn-bedrock-agent-content-type", JSON);
+                exchange.getResponseHeaders().add("x-amz-bedrock-agent-session-id", "stub-session");
+                stream(exchange, agentEvents);
+            } else if (RETRIEVE_AND_GENERATE.equals(path)) {
+                respond(exchange, knowledgeBaseResponse);
+            } else {
+                error(exchange, 404, "ResourceNotFoundException", "The stub does not implement " + path);
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", JSON);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    // Sends the events with chunked transfer encoding, flushing each so the client sees them as they come.
+    private void stream(HttpExchange exchange, List<byte[]> events) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", EVENT_STREAM);
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        for (byte[] event : events) {
+            out.write(event);
+            out.flush();
+            pause(chunkInterval);
+        }
+    }
+
+    private static void error(HttpExchange exchange, int status, String type, String message) throws IOException {
+        byte[] body = json(new JSONObject().put("message", message));
+        exchange.getResponseHeaders().add("x-amzn-ErrorType", type);
+        exchange.getResponseHeaders().add("Content-Type", JSON);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void pause(Duration duration) {
+        if (duration.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---- Encoding ----
+
+    // Titan requests carry inputText and get one embedding; Cohere requests carry texts and get one each.
+    private static byte[] embeddingResponse(JSONObject request) {
+        int dimensions = request.optInt("dimensions", EMBEDDING_DIMENSIONS);
+        if (request.has("inputText")) {
+            return json(new JSONObject()
+                    .put("embedding", embedding(request.getString("inputText"), dimensions))
+                    .put("inputTextTokenCount", request.getString("inputText").length() / 4));
+        }
+        List<float[]> embeddings = new ArrayList<>();
+        for (Object text : request.getJSONArray("texts")) {
+            embeddings.add(embedding(text.toString(), dimensions));
+        }
+        return json(new JSONObject()
+                .put("id", "stub-embedding")
+                .put("embeddings", embeddings)
+                .put("texts", request.getJSONArray("texts")));
+    }
+
+    // Sum of one pseudo-random vector per word, seeded by the lowercase word.
+    static float[] embedding(String text, int dimensions) {
+        float[] vector = new float[dimensions];
+        for (String word : WORD.split(text.toLowerCase())) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            var random = new SplittableRandom(word.hashCode());
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] += (float) random.nextGaussian();
+            }
+        }
+        return vector;
+    }
+
+    // An event-stream message whose payload is a PayloadPart: {"bytes": "<base64 of the payload>"}.
+    private static byte[] event(String eventType, byte[] payload) {
+        Map<String, HeaderValue> headers = new LinkedHashMap<>();
+        headers.put(":event-type", HeaderValue.fromString(eventType));
+        headers.put(":content-type", HeaderValue.fromString(JSON));
+        headers.put(":message-type", HeaderValue.fromString("event"));
+        byte[] body = json(new JSONObject().put("bytes", Base64.getEncoder().encodeToString(payload)));
+
+        ByteBuffer encoded = new Message(headers, body).toByteBuffer();
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return bytes;
+    }
+
+    private static String generatedText(List<byte[]> chunks) {
+        var decoder = new AnthropicStreamDecoder();
+        var text = new StringBuilder();
+        for (byte[] chunk : chunks) {
+            decoder.decode(ByteBuffer.wrap(chunk), text);
+        }
+        return text.toString();
+    }
+
+    private static byte[] json(JSONObject object) {
+        return object.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static final class Builder {
+        private Duration latency = Duration.ZERO;
+        private double tailRate;
+        private Duration tailLatency = Duration.ZERO;
+        private Duration chunkInterval = Duration.ZERO;
+        private double throttleRate;
+        private String trace = "anthropic-claude3-beluga.jsonl";
+
+        private Builder() {
+        }
+
+        // Delay before every response, standing in for the model's time to first byte.
+        Builder latency(Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        // Fraction of requests, between 0 and 1, delayed by tailLatency instead of latency.
+        Builder tail(double tailRate, Duration tailLatency) {
+            this.tailRate = tailRate;
+            this.tailLatency = tailLatency;
+            return this;
+        }
+
+        // Delay between consecutive events of a streamed response.
+        Builder chunkInterval(Duration chunkInterval) {
+            this.chunkInterval = chunkInterval;
+            return this;
+        }
+
+        // Fraction of requests, between 0 and 1, answered with HTTP 429 ThrottlingException.
+        Builder throttleRate(double throttleRate) {
+            this.throttleRate = throttleRate;
+            return this;
+        }
+
+        // Stream trace (see Traces) that provides the generated text of every response.
+        Builder trace(String trace) {
+            this.trace = trace;
+            return this;
+        }
+
+        BedrockStub build() throws IOException {
+            return new BedrockStub(this);
+        }
+    }
+}
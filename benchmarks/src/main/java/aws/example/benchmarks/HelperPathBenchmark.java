@@ -0,0 +1,193 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.AdaptiveRateLimiter;
+import aws.example.AdmissionControl;
+import aws.example.BedrockClients;
+import aws.example.BedrockHelper;
+import aws.example.BedrockMetrics;
+import aws.example.JfrMetrics;
+import aws.example.MetricsRegistry;
+import aws.example.RetryScheduler;
+
+/*
+ * End-to-end cost of each BedrockHelper path against a local BedrockStub: request building,
+ * signing, HTTP, response parsing and (for streams) event-stream decoding.
+ *
+ * Sample-time mode reports latency percentiles per operation; add -prof gc for the allocation
+ * rate and -t to drive the shared clients from several threads. With latencyMillis at 0 the
+ * figures are almost entirely client-side overhead. A throttleRate above 0 installs an
+ * AdaptiveRateLimiter so the retry path is exercised; calls that still fail after their
+ * retries are counted and reported at the end of the trial instead of failing the run.
+ *
+ * metrics selects the installed BedrockMetrics (none, registry or jfr), to measure what
+ * instrumentation adds to each path; with registry, the recorded figures are printed at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HelperPathBenchmark {
+
+    private static final String MODEL_ID = "anthropic.claude-3-sonnet-20240229-v1:0";
+    private static final String MODEL_ARN = "arn:aws:bedrock:us-east-1::foundation-model/" + MODEL_ID;
+    private static final String PROMPT = "Provide details about beluga. Provide a lot of details and format your answer in JSON format";
+
+    @Param({"0"})
+    public int latencyMillis;
+
+    @Param({"0"})
+    public int chunkIntervalMillis;
+
+    @Param({"0"})
+    public double throttleRate;
+
+    @Param({"none", "registry", "jfr"})
+    public String metrics;
+
+    private final LongAdder failures = new LongAdder();
+
+    private BedrockStub stub;
+    private BedrockClients clients;
+    private BedrockClients previousClients;
+    private MetricsRegistry registry;
+    private Path image;
+    private Path document;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The stub does not check signatures, but the SDK still needs credentials and a region to sign with.
+        System.setProperty("aws.accessKeyId", "stub");
+        System.setProperty("aws.secretAccessKey", "stub");
+        System.setProperty("aws.region", "us-east-1");
+
+        stub = BedrockStub.builder()
+                .latency(Duration.ofMillis(latencyMillis))
+                .chunkInterval(Duration.ofMillis(chunkIntervalMillis))
+                .throttleRate(throttleRate)
+                .build()
+                .start();
+        clients = BedrockClients.builder().endpointOverride(stub.endpoint()).build();
+        previousClients = BedrockClients.setShared(clients);
+        if (throttleRate > 0) {
+            BedrockHelper.setAdmissionControl(AdaptiveRateLimiter.builder()
+                    .retries(RetryScheduler.builder().baseDelay(Duration.ofMillis(1)).build())
+                    .build());
+        }
+
+        switch (metrics) {
+            case "none" -> BedrockHelper.setMetrics(BedrockMetrics.none());
+            case "registry" -> BedrockHelper.setMetrics(registry = new MetricsRegistry());
+            case "jfr" -> BedrockHelper.setMetrics(new JfrMetrics());
+            default -> throw new IllegalArgumentException("Unknown metrics sink: " + metrics);
+        }
+
+        image = Files.createTempFile("benchmark-image", ".jpg");
+        Files.write(image, fill(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, 256 * 1024));
+        document = Files.createTempFile("benchmark-document", ".pdf");
+        Files.write(document, fill("%PDF-1.7\n".getBytes(), 1024 * 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BedrockHelper.setMetrics(BedrockMetrics.none());
+        BedrockHelper.setAdmissionControl(AdmissionControl.none());
+        BedrockClients.setShared(previousClients);
+        clients.close();
+        stub.close();
+        Files.deleteIfExists(image);
+        Files.deleteIfExists(document);
+        if (registry != null) {
+            registry.snapshot().forEach(System.err::println);
+        }
+        if (failures.sum() > 0) {
+            System.err.printf("%d of %d stub requests were throttled; %d calls failed after retries%n",
+                    stub.throttled(), stub.requests(), failures.sum());
+        }
+    }
+
+    @Benchmark
+    public String invokeModel() {
+        return tolerate(() -> BedrockHelper.invokeModel(MODEL_ID, PROMPT));
+    }
+
+    @Benchmark
+    public String invokeModelWithStream() {
+        return tolerate(() -> BedrockHelper.invokeModelWithStream(MODEL_ID, PROMPT));
+    }
+
+    @Benchmark
+    public String converseWithImage() {
+        return tolerate(() -> BedrockHelper.converseApi(MODEL_ID, image.toString()));
+    }
+
+    @Benchmark
+    public String documentInsight() {
+        return tolerate(() -> BedrockHelper.documentInsight(document.toString(), MODEL_ID, "Summarize the document"));
+    }
+
+    @Benchmark
+    public void toolLoop() {
+        tolerate(() -> {
+            BedrockHelper.useTool();
+            return null;
+        });
+    }
+
+    @Benchmark
+    public String invokeAgent() {
+        return tolerate(() -> BedrockHelper.invokeAgent(PROMPT, "agent", "alias", "session"));
+    }
+
+    @Benchmark
+    public String queryKnowledgeBase() {
+        return tolerate(() -> BedrockHelper.queryKnowledgeBase("knowledge-base", PROMPT, MODEL_ARN));
+    }
+
+    // Counts throttling failures that outlived their retries; anything else is a real failure.
+    private <T> T tolerate(Callable<T> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            if (throttleRate > 0 && RetryScheduler.isThrottle(cause)) {
+                failures.increment();
+                return null;
+            }
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] fill(byte[] header, int size) {
+        byte[] content = Arrays.copyOf(header, size);
+        for (int i = header.length; i < size; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+}
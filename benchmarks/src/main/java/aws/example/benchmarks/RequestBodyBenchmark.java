@@ -0,0 +1,73 @@
+package aws.example.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.InferenceRequest;
+import aws.example.ModelFamily;
+import software.amazon.awssdk.core.SdkBytes;
+
+/*
+ * Builds an Anthropic InvokeModel body per operation, comparing the previous template path
+ * (String.replace, then UTF-8 encoding in SdkBytes.fromUtf8String) with ModelFamily.body.
+ * The template path does no escaping, so its output is only valid JSON for prompts without quotes,
+ * backslashes or control characters; the prompts used here are plain text to keep the comparison fair.
+ * Run with -prof gc to compare allocation per request as well as time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+
+    private static final String TEMPLATE = """
+            {
+                "anthropic_version": "bedrock-2023-05-31",
+                "max_tokens": 512,
+                "temperature": 0.5,
+                "messages" : [
+                        {
+                        "role" : "user",
+                        "content" : [ {"type" : "text", "text" : "{{prompt}}"} ]
+                        }
+                ]
+            }""";
+
+    @Param({"100", "10000", "50000"})
+    public int promptChars;
+
+    private String prompt;
+
+    @Setup
+    public void setUp() {
+        var sentence = "Provide details about beluga whales and format your answer in JSON format. ";
+        prompt = sentence.repeat(promptChars / sentence.length() + 1).substring(0, promptChars);
+    }
+
+    @Benchmark
+    public SdkBytes template() {
+        return SdkBytes.fromUtf8String(TEMPLATE.replace("{{prompt}}", prompt));
+    }
+
+    @Benchmark
+    public SdkBytes modelFamily() {
+        return ModelFamily.ANTHROPIC.body(InferenceRequest.builder()
+                .prompt(prompt)
+                .maxTokens(512)
+                .temperature(0.5F)
+                .build());
+    }
+}
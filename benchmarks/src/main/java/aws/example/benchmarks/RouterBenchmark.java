@@ -0,0 +1,110 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.BedrockClients;
+import aws.example.InferenceRequest;
+import aws.example.ModelRouter;
+import software.amazon.awssdk.regions.Region;
+
+/*
+ * Tail latency of ModelRouter over several local BedrockStub endpoints standing in for regions.
+ *
+ * Every stub answers in latencyMillis, except a tailRate fraction of requests that take
+ * tailMillis. Sample-time mode reports the percentiles: with hedging off, p99 sits at the slow
+ * answers whenever tailRate is above 1%; with hedging on, a call that outlives its route's p95 is
+ * sent to another stub as well, which pulls p99 back towards latencyMillis at the cost of the
+ * extra requests printed at the end of the trial. A throttleRate above 0 throttles the first
+ * stub, so the figures include failing over and taking it out of rotation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RouterBenchmark {
+
+    private static final String MODEL_ID = "us.anthropic.claude-3-haiku-20240307-v1:0";
+    private static final InferenceRequest REQUEST = InferenceRequest.builder()
+            .prompt("Provide details about beluga. Provide a lot of details and format your answer in JSON format")
+            .maxTokens(512)
+            .build();
+
+    @Param({"3"})
+    public int endpoints;
+
+    @Param({"20"})
+    public int latencyMillis;
+
+    @Param({"0.03"})
+    public double tailRate;
+
+    @Param({"500"})
+    public int tailMillis;
+
+    @Param({"0"})
+    public double throttleRate;
+
+    @Param({"false", "true"})
+    public boolean hedging;
+
+    private final List<BedrockStub> stubs = new ArrayList<>();
+    private final List<BedrockClients> clients = new ArrayList<>();
+    private ModelRouter router;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // The stubs do not check signatures, but the SDK still needs credentials to sign with.
+        System.setProperty("aws.accessKeyId", "stub");
+        System.setProperty("aws.secretAccessKey", "stub");
+
+        ModelRouter.Builder builder = ModelRouter.builder()
+                .hedging(hedging)
+                .minHedgeDelay(Duration.ofMillis(latencyMillis / 2));
+        for (int i = 0; i < endpoints; i++) {
+            BedrockStub stub = BedrockStub.builder()
+                    .latency(Duration.ofMillis(latencyMillis))
+                    .tail(tailRate, Duration.ofMillis(tailMillis))
+                    .throttleRate(i == 0 ? throttleRate : 0)
+                    .build()
+                    .start();
+            BedrockClients registry = BedrockClients.builder().endpointOverride(stub.endpoint()).build();
+            stubs.add(stub);
+            clients.add(registry);
+            builder.route("stub-" + i, registry.runtime(Region.US_EAST_1), MODEL_ID);
+        }
+        router = builder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        router.stats().forEach(System.err::println);
+        router.close();
+        clients.forEach(BedrockClients::close);
+        stubs.forEach(BedrockStub::close);
+    }
+
+    @Benchmark
+    public String invokeModel() {
+        return router.invokeModel(REQUEST);
+    }
+}
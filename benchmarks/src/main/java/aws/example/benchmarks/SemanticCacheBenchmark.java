@@ -0,0 +1,116 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.BedrockClients;
+import aws.example.BedrockHelper;
+import aws.example.EmbeddingModel;
+import aws.example.Embeddings;
+import aws.example.InferenceRequest;
+import aws.example.SemanticCache;
+
+/*
+ * invokeModel with a SemanticCache installed, against a local BedrockStub: a cache hit costs one
+ * embedding call plus the index search, a miss adds the model call. Compare with
+ * HelperPathBenchmark.invokeModel at the same latencyMillis; the stub delays embedding calls
+ * too, so set it to the gap between generation and embedding latency in your region.
+ *
+ * embedBatch measures Embeddings.embedAll over 500 texts in Cohere batches of 96, i.e. the
+ * cost of loading a corpus into an index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SemanticCacheBenchmark {
+
+    private static final String MODEL_ID = "anthropic.claude-3-sonnet-20240229-v1:0";
+    private static final String PROMPT = "Provide details about beluga. Provide a lot of details and format your answer in JSON format";
+    private static final String REWORDED = "Please provide details about the beluga, with a lot of details, and format your answer in JSON format";
+
+    @Param({"0"})
+    public int latencyMillis;
+
+    private BedrockStub stub;
+    private BedrockClients clients;
+    private BedrockClients previousClients;
+    private Embeddings cohere;
+    private List<String> corpus;
+    private long misses;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        System.setProperty("aws.accessKeyId", "stub");
+        System.setProperty("aws.secretAccessKey", "stub");
+        System.setProperty("aws.region", "us-east-1");
+
+        stub = BedrockStub.builder().latency(Duration.ofMillis(latencyMillis)).build().start();
+        clients = BedrockClients.builder().endpointOverride(stub.endpoint()).build();
+        previousClients = BedrockClients.setShared(clients);
+        BedrockHelper.setSemanticCache(SemanticCache.builder()
+                .embeddings(Embeddings.builder().build())
+                .threshold(0.8f)
+                .build());
+
+        cohere = Embeddings.builder().modelId("cohere.embed-english-v3").build();
+        corpus = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            corpus.add("Passage " + i + " of the corpus about whales, dolphins and porpoises.");
+        }
+
+        // Answered once, so that hit() finds it by its reworded form.
+        BedrockHelper.invokeModel(MODEL_ID, request(PROMPT));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BedrockHelper.setSemanticCache(null);
+        BedrockClients.setShared(previousClients);
+        clients.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public String hit() {
+        return BedrockHelper.invokeModel(MODEL_ID, request(REWORDED));
+    }
+
+    // A prompt no earlier call has been close to.
+    @Benchmark
+    public String miss() {
+        return BedrockHelper.invokeModel(MODEL_ID, request("Unrelated question number " + misses++));
+    }
+
+    @Benchmark
+    public List<float[]> embedBatch() throws InterruptedException {
+        return cohere.embedAll(corpus, EmbeddingModel.InputType.DOCUMENT);
+    }
+
+    private static InferenceRequest request(String prompt) {
+        return InferenceRequest.builder()
+                .prompt(prompt)
+                .maxTokens(1000)
+                .temperature(0F)
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONPointer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.AnthropicStreamDecoder;
+
+/*
+ * Decodes a whole Anthropic stream trace per operation, comparing the previous org.json path
+ * (UTF-8 String, JSONObject, JSONPointer per chunk) with AnthropicStreamDecoder.
+ * Run with -prof gc to compare allocation per stream as well as time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamDecoderBenchmark {
+
+    @Param({"anthropic-claude3-beluga.jsonl"})
+    public String trace;
+
+    private List<byte[]> chunks;
+    private List<ByteBuffer> buffers;
+    private AnthropicStreamDecoder decoder;
+    private StringBuilder buffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        chunks = Traces.chunks(trace);
+        // The decoder never moves a buffer's position, so the same wrappers are reused every operation.
+        buffers = chunks.stream().map(ByteBuffer::wrap).toList();
+        decoder = new AnthropicStreamDecoder();
+        buffer = new StringBuilder(4096);
+    }
+
+    @Benchmark
+    public String orgJson() {
+        var completeResponseTextBuffer = new StringBuilder();
+        for (byte[] chunk : chunks) {
+            var response = new JSONObject(new String(chunk, StandardCharsets.UTF_8));
+            if (Objects.equals(response.getString("type"), "content_block_delta")) {
+                var text = new JSONPointer("/delta/text").queryFrom(response);
+                completeResponseTextBuffer.append(text);
+            }
+        }
+        return completeResponseTextBuffer.toString();
+    }
+
+    @Benchmark
+    public int streamDecoder() {
+        buffer.setLength(0);
+        for (ByteBuffer chunk : buffers) {
+            decoder.decode(chunk, buffer);
+        }
+        return buffer.length();
+    }
+}
@@ -0,0 +1,68 @@
+package aws.example.benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.ModelFamily;
+import aws.example.TokenCounter;
+
+/*
+ * Cost of counting a prompt's tokens before it is sent, against the len/4 rule it replaces.
+ * Run with -prof gc: both counters should show no allocation per operation.
+ *
+ * The BPE counter needs a tiktoken-format vocabulary, which is not shipped with the samples;
+ * pass one with -p vocabulary=/path/to/tokenizer.model (e.g. Llama 3's) to include it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCounterBenchmark {
+
+    @Param({"100", "10000", "50000"})
+    public int promptChars;
+
+    @Param({""})
+    public String vocabulary;
+
+    private String prompt;
+    private TokenCounter estimator;
+    private TokenCounter bpe;
+
+    @Setup
+    public void setUp() {
+        var sentence = "Provide details about beluga whales, e.g. their 2024 population, and format your answer in JSON format.\n";
+        prompt = sentence.repeat(promptChars / sentence.length() + 1).substring(0, promptChars);
+        estimator = TokenCounter.estimator(ModelFamily.ANTHROPIC);
+        bpe = vocabulary.isEmpty() ? estimator : TokenCounter.bpe(Path.of(vocabulary));
+    }
+
+    @Benchmark
+    public int lengthRule() {
+        return (prompt.length() + 3) / 4;
+    }
+
+    @Benchmark
+    public int estimator() {
+        return estimator.count(prompt);
+    }
+
+    @Benchmark
+    public int bpe() {
+        return bpe.count(prompt);
+    }
+}
@@ -0,0 +1,37 @@
+package aws.example.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Loads stream traces from src/main/resources/traces.
+ * A trace is a JSON Lines file holding the decoded payload of each InvokeModelWithResponseStream chunk,
+ * in the order Bedrock sent them. Record more by dumping chunk.bytes().asUtf8String() one per line.
+ */
+final class Traces {
+
+    private Traces() {
+    }
+
+    static List<byte[]> chunks(String name) throws IOException {
+        try (InputStream in = Traces.class.getResourceAsStream("/traces/" + name)) {
+            if (in == null) {
+                throw new IOException("No trace named " + name);
+            }
+            List<byte[]> chunks = new ArrayList<>();
+            var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    chunks.add(line.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return chunks;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package aws.example.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import aws.example.VectorIndex;
+
+/*
+ * Top-k search cost of VectorIndex, the lookup behind every SemanticCache call.
+ *
+ * By default the index holds `size` random vectors of `dimensions` dimensions, grouped in
+ * clusters the way embeddings of related texts are. To measure recorded embeddings instead, save
+ * an index built from real vectors (Embeddings.embedAll, VectorIndex.add, VectorIndex.save) and
+ * pass its path with -p vectors=...; size and dimensions then come from the file. Queries are
+ * stored vectors with noise added, so each has a close but not identical match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorIndexBenchmark {
+
+    private static final int QUERIES = 256;
+    private static final int CLUSTERS = 64;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"1024"})
+    public int dimensions;
+
+    @Param({"10"})
+    public int k;
+
+    @Param({""})
+    public String vectors;
+
+    private VectorIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        var random = new SplittableRandom(42);
+        if (vectors.isEmpty()) {
+            float[][] centers = new float[CLUSTERS][];
+            for (int i = 0; i < CLUSTERS; i++) {
+                centers[i] = gaussian(random, dimensions, 1);
+            }
+            index = new VectorIndex(dimensions, size);
+            for (int i = 0; i < size; i++) {
+                index.add(add(centers[random.nextInt(CLUSTERS)], gaussian(random, dimensions, 0.5f)));
+            }
+        } else {
+            index = VectorIndex.load(Path.of(vectors));
+        }
+
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            float[] stored = index.vector(random.nextInt(index.size()));
+            queries[i] = add(stored, gaussian(random, index.dimensions(), 0.1f / (float) Math.sqrt(index.dimensions())));
+        }
+    }
+
+    @Benchmark
+    public List<VectorIndex.Hit> search() {
+        float[] query = queries[next++ & (QUERIES - 1)];
+        return index.search(query, k);
+    }
+
+    private static float[] gaussian(SplittableRandom random, int dimensions, float scale) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian() * scale;
+        }
+        return vector;
+    }
+
+    private static float[] add(float[] a, float[] b) {
+        float[] sum = new float[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+}
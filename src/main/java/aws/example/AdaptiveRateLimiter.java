@@ -0,0 +1,399 @@
+package aws.example;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+ * Client-side admission control that keeps traffic just under the account quota.
+ *
+ * Each model gets two token buckets, one for requests per minute and one for tokens per minute.
+ * The configured limits are a ceiling: the limiter runs at a fraction of them that follows AIMD
+ * (additive increase, multiplicative decrease). Every ThrottlingException halves the fraction,
+ * every success nudges it back up, so the send rate settles where Bedrock stops throttling.
+ * Throttled and transient failures are retried by a RetryScheduler with jitter and a retry budget.
+ *
+ * The clock and the sleep function can be replaced, so the behaviour can be exercised against
+ * a local stub that injects ThrottlingExceptions without real waiting.
+ */
+public final class AdaptiveRateLimiter implements AdmissionControl {
+
+    // Quota for one model. A value of 0 means "no limit" for that dimension.
+    public record Limit(double requestsPerMinute, double tokensPerMinute) {
+    }
+
+    /*
+    Live view of one model's limiter.
+    rateFraction: share of the configured limits currently allowed (1.0 = full quota).
+    */
+    public record Stats(String modelId,
+                        double rateFraction,
+                        long admitted,
+                        long throttles,
+                        long retries,
+                        double retryBudget) {
+    }
+
+    public interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private final Map<String, Limit> limits;
+    private final Limit defaultLimit;
+    private final Duration burst;
+    private final double minFraction;
+    private final double increaseStep;
+    private final double decreaseFactor;
+    private final long decreaseCooldownNanos;
+    private final RetryScheduler retries;
+    private final LongSupplier clock;
+    private final Sleeper sleeper;
+
+    private final Map<String, ModelLimiter> limiters = new ConcurrentHashMap<>();
+
+    private AdaptiveRateLimiter(Builder builder) {
+        this.limits = Map.copyOf(builder.limits);
+        this.defaultLimit = builder.defaultLimit;
+        this.burst = builder.burst;
+        this.minFraction = builder.minFraction;
+        this.increaseStep = builder.increaseStep;
+        this.decreaseFactor = builder.decreaseFactor;
+        this.decreaseCooldownNanos = builder.decreaseCooldown.toNanos();
+        this.retries = builder.retries;
+        this.clock = builder.clock;
+        this.sleeper = builder.sleeper;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public <T> T call(String modelId, int estimatedTokens, Supplier<T> call) {
+        return call(limiter(modelId, modelId), estimatedTokens, call, true);
+    }
+
+    @Override
+    public <T> T callOnce(String quota, String modelId, int estimatedTokens, Supplier<T> call) {
+        return call(limiter(quota, modelId), estimatedTokens, call, false);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> callAsync(String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call) {
+        return callAsync(limiter(modelId, modelId), estimatedTokens, call, true);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> callOnceAsync(String quota, String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call) {
+        return callAsync(limiter(quota, modelId), estimatedTokens, call, false);
+    }
+
+    private <T> T call(ModelLimiter limiter, int estimatedTokens, Supplier<T> call, boolean retry) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sleep(limiter.reserve(estimatedTokens));
+            } catch (RuntimeException e) {
+                // Interrupted while waiting for admission: the call is never sent.
+                limiter.release(estimatedTokens);
+                throw e;
+            }
+            try {
+                T result = call.get();
+                onSuccess(limiter);
+                return result;
+            } catch (RuntimeException e) {
+                long delay = onFailure(limiter, e, attempt, retry);
+                if (delay < 0) {
+                    throw e;
+                }
+                sleep(delay);
+            }
+        }
+    }
+
+    private <T> CompletableFuture<T> callAsync(ModelLimiter limiter,
+                                               int estimatedTokens,
+                                               Supplier<CompletableFuture<T>> call,
+                                               boolean retry) {
+        var result = new CompletableFuture<T>();
+        var inFlight = new AtomicReference<CompletableFuture<T>>();
+
+        // Cancelling or timing out the caller's future aborts the attempt in flight.
+        result.whenComplete((value, error) -> {
+            CompletableFuture<T> attempt = inFlight.get();
+            if (error != null && attempt != null) {
+                attempt.cancel(true);
+            }
+        });
+
+        attemptAsync(limiter, estimatedTokens, call, retry, 1, result, inFlight);
+        return result;
+    }
+
+    private <T> void attemptAsync(ModelLimiter limiter,
+                                  int estimatedTokens,
+                                  Supplier<CompletableFuture<T>> call,
+                                  boolean retry,
+                                  int attempt,
+                                  CompletableFuture<T> result,
+                                  AtomicReference<CompletableFuture<T>> inFlight) {
+        if (result.isDone()) {
+            return;
+        }
+        after(limiter.reserve(estimatedTokens)).execute(() -> {
+            if (result.isDone()) {
+                // Cancelled or timed out while waiting for admission: the call is never sent.
+                limiter.release(estimatedTokens);
+                return;
+            }
+            CompletableFuture<T> future;
+            try {
+                future = call.get();
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            inFlight.set(future);
+            if (result.isDone()) {
+                future.cancel(true);
+                return;
+            }
+
+            future.whenComplete((value, error) -> {
+                if (error == null) {
+                    onSuccess(limiter);
+                    result.complete(value);
+                    return;
+                }
+                long delay = onFailure(limiter, error, attempt, retry);
+                if (delay < 0) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+                after(delay).execute(() -> attemptAsync(limiter, estimatedTokens, call, retry, attempt + 1, result, inFlight));
+            });
+        });
+    }
+
+    // Current state of every model seen so far.
+    public Map<String, Stats> stats() {
+        Map<String, Stats> result = new TreeMap<>();
+        limiters.forEach((modelId, limiter) -> result.put(modelId, limiter.stats()));
+        return result;
+    }
+
+    /*
+    A ModelRouter route counts against its own quota, named after the route: each route (and so each
+    region) has its own. Unless that name has a limit of its own, it gets the limit of its model.
+    */
+    private ModelLimiter limiter(String quota, String modelId) {
+        return limiters.computeIfAbsent(quota, id -> new ModelLimiter(id, limit(id, modelId)));
+    }
+
+    private Limit limit(String quota, String modelId) {
+        Limit limit = limits.get(quota);
+        if (limit == null) {
+            limit = limits.get(modelId);
+        }
+        return limit != null ? limit : defaultLimit;
+    }
+
+    private void onSuccess(ModelLimiter limiter) {
+        limiter.onSuccess();
+        retries.onSuccess();
+    }
+
+    // Returns the delay before the next attempt, or -1 to give up.
+    private long onFailure(ModelLimiter limiter, Throwable error, int attempt, boolean retry) {
+        if (RetryScheduler.isThrottle(error)) {
+            limiter.onThrottle();
+        }
+        if (!retry) {
+            return -1;
+        }
+        long delay = retries.retryDelayNanos(error, attempt);
+        if (delay >= 0) {
+            limiter.retried.increment();
+        }
+        return delay;
+    }
+
+    private void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            sleeper.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Executor after(long nanos) {
+        return nanos > 0 ? CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS) : Runnable::run;
+    }
+
+    private final class ModelLimiter {
+        private final String modelId;
+        private final Limit limit;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder retried = new LongAdder();
+
+        private double fraction = 1.0;
+        private long lastDecrease;
+
+        ModelLimiter(String modelId, Limit limit) {
+            this.modelId = modelId;
+            this.limit = limit;
+            this.requests = bucket(limit.requestsPerMinute());
+            this.tokens = bucket(limit.tokensPerMinute());
+            this.lastDecrease = clock.getAsLong() - decreaseCooldownNanos;
+        }
+
+        private TokenBucket bucket(double perMinute) {
+            if (perMinute <= 0 || Double.isInfinite(perMinute)) {
+                return null;
+            }
+            double capacity = perMinute * burst.toNanos() / TimeUnit.MINUTES.toNanos(1);
+            return new TokenBucket(perMinute, capacity, clock);
+        }
+
+        long reserve(int estimatedTokens) {
+            admitted.increment();
+            long wait = requests == null ? 0 : requests.reserve(1);
+            if (tokens != null) {
+                wait = Math.max(wait, tokens.reserve(estimatedTokens));
+            }
+            return wait;
+        }
+
+        // Refunds a reservation whose call was abandoned before it was sent.
+        void release(int estimatedTokens) {
+            if (requests != null) {
+                requests.release(1);
+            }
+            if (tokens != null) {
+                tokens.release(estimatedTokens);
+            }
+        }
+
+        // Additive increase, back towards the configured quota.
+        synchronized void onSuccess() {
+            if (fraction < 1.0) {
+                fraction = Math.min(1.0, fraction + increaseStep);
+                applyFraction();
+            }
+        }
+
+        // Multiplicative decrease, at most once per cooldown so one burst of 429s counts once.
+        synchronized void onThrottle() {
+            throttles.increment();
+            long now = clock.getAsLong();
+            if (now - lastDecrease >= decreaseCooldownNanos) {
+                lastDecrease = now;
+                fraction = Math.max(minFraction, fraction * decreaseFactor);
+                applyFraction();
+            }
+        }
+
+        private void applyFraction() {
+            if (requests != null) {
+                requests.setRate(limit.requestsPerMinute() * fraction);
+            }
+            if (tokens != null) {
+                tokens.setRate(limit.tokensPerMinute() * fraction);
+            }
+        }
+
+        synchronized Stats stats() {
+            return new Stats(modelId, fraction, admitted.sum(), throttles.sum(), retried.sum(), retries.budget());
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Limit> limits = new HashMap<>();
+        private Limit defaultLimit = new Limit(0, 0);
+        private Duration burst = Duration.ofSeconds(10);
+        private double minFraction = 0.05;
+        private double increaseStep = 0.02;
+        private double decreaseFactor = 0.5;
+        private Duration decreaseCooldown = Duration.ofSeconds(1);
+        private RetryScheduler retries = RetryScheduler.builder().build();
+        private LongSupplier clock = System::nanoTime;
+        private Sleeper sleeper = TimeUnit.NANOSECONDS::sleep;
+
+        private Builder() {
+        }
+
+        /*
+        Quota for a specific model, e.g. the account's InvokeModel requests/tokens per minute.
+        ModelRouter routes of the model get it once per route, whatever the route is named;
+        a route name such as "us-west-2/<model ID>" sets a different quota for that route.
+        */
+        public Builder limit(String modelId, double requestsPerMinute, double tokensPerMinute) {
+            limits.put(modelId, new Limit(requestsPerMinute, tokensPerMinute));
+            return this;
+        }
+
+        // Quota for models without their own limit. Unlimited unless set.
+        public Builder defaultLimit(double requestsPerMinute, double tokensPerMinute) {
+            this.defaultLimit = new Limit(requestsPerMinute, tokensPerMinute);
+            return this;
+        }
+
+        // How much of a minute's quota may be sent back-to-back.
+        public Builder burst(Duration burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        /*
+        AIMD tuning.
+        increaseStep: fraction of the quota regained per successful call.
+        decreaseFactor: multiplier applied on throttling.
+        minFraction: floor, so a model is never starved completely.
+        */
+        public Builder aimd(double increaseStep, double decreaseFactor, double minFraction) {
+            this.increaseStep = increaseStep;
+            this.decreaseFactor = decreaseFactor;
+            this.minFraction = minFraction;
+            return this;
+        }
+
+        public Builder decreaseCooldown(Duration decreaseCooldown) {
+            this.decreaseCooldown = decreaseCooldown;
+            return this;
+        }
+
+        public Builder retries(RetryScheduler retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        public Builder clock(LongSupplier nanoClock) {
+            this.clock = nanoClock;
+            return this;
+        }
+
+        public Builder sleeper(Sleeper sleeper) {
+            this.sleeper = sleeper;
+            return this;
+        }
+
+        public AdaptiveRateLimiter build() {
+            return new AdaptiveRateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package aws.example;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/*
+ * Admission-control layer in front of every BedrockHelper and BedrockAsyncHelper call.
+ * An implementation decides when a call may be sent (rate limiting) and whether a failed call
+ * is sent again (retries). The runtime, agent runtime and Textract clients of BedrockClients do not
+ * retry on their own, so this layer is the only one that does. BedrockHelper's default is an
+ * AdaptiveRateLimiter without limits, which sends every call immediately and retries throttled and
+ * transient failures.
+ *
+ * Install a limiter with BedrockHelper.setAdmissionControl(...), e.g. an AdaptiveRateLimiter.
+ */
+public interface AdmissionControl {
+
+    /*
+    Runs a blocking call once admitted.
+    modelId: the quota the call counts against (a model ID, agent ID or knowledge base model ARN).
+    estimatedTokens: input plus reserved output tokens, charged against the tokens-per-minute budget.
+    */
+    <T> T call(String modelId, int estimatedTokens, Supplier<T> call);
+
+    /*
+    Non-blocking variant: the supplier is invoked once admitted, and again for every retry.
+    Cancelling the returned future cancels the attempt in flight and any pending retry.
+    */
+    <T> CompletableFuture<T> callAsync(String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call);
+
+    /*
+    Admits the call like call(...), but sends it only once: a failure is recorded (a throttle still
+    slows the quota down) and returned to the caller without retries. For callers that handle failures
+    themselves, such as ModelRouter, which moves a throttled call to another route instead of waiting.
+    quota: the budget the call counts against, e.g. a route; unless the limiter has a limit for it,
+    it gets the limit of modelId, the model the call goes to.
+    */
+    <T> T callOnce(String quota, String modelId, int estimatedTokens, Supplier<T> call);
+
+    <T> CompletableFuture<T> callOnceAsync(String quota, String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call);
+
+    // Pass-through: no limits and no retries, so each call is sent exactly once.
+    static AdmissionControl none() {
+        return new AdmissionControl() {
+            @Override
+            public <T> T call(String modelId, int estimatedTokens, Supplier<T> call) {
+                return call.get();
+            }
+
+            @Override
+            public <T> CompletableFuture<T> callAsync(String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call) {
+                return call.get();
+            }
+
+            @Override
+            public <T> T callOnce(String quota, String modelId, int estimatedTokens, Supplier<T> call) {
+                return call.get();
+            }
+
+            @Override
+            public <T> CompletableFuture<T> callOnceAsync(String quota, String modelId, int estimatedTokens, Supplier<CompletableFuture<T>> call) {
+                return call.get();
+            }
+        };
+    }
+
+    /*
+    Token estimate for budgeting before a call is sent, for callers that do not know the model;
+    BedrockHelper counts with the model family's TokenCounter where it does.
+    */
+    static int estimateTokens(String text) {
+        return TokenCounter.estimator().count(text);
+    }
+}
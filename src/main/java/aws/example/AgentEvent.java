@@ -0,0 +1,38 @@
+package aws.example;
+
+import java.util.List;
+
+import software.amazon.awssdk.services.bedrockagentruntime.model.Citation;
+import software.amazon.awssdk.services.bedrockagentruntime.model.OutputFile;
+import software.amazon.awssdk.services.bedrockagentruntime.model.PayloadPart;
+import software.amazon.awssdk.services.bedrockagentruntime.model.ReturnControlPayload;
+import software.amazon.awssdk.services.bedrockagentruntime.model.TracePart;
+
+/*
+ * One event of an InvokeAgent response stream, as published by AgentEventPublisher.
+ *
+ * Chunk carries a piece of the answer with the knowledge base citations that support it.
+ * Trace is only sent when the session enables traces. ReturnControl means the agent wants the
+ * caller to run an action: answer it with AgentSessions.Session.returnControl(...). Files holds
+ * files the agent generated, e.g. with the code interpreter.
+ */
+public sealed interface AgentEvent {
+
+    record Chunk(String text, List<Citation> citations) implements AgentEvent {
+        static Chunk of(PayloadPart part) {
+            List<Citation> citations = part.attribution() != null && part.attribution().hasCitations()
+                    ? part.attribution().citations()
+                    : List.of();
+            return new Chunk(part.bytes() == null ? "" : part.bytes().asUtf8String(), citations);
+        }
+    }
+
+    record Trace(TracePart trace) implements AgentEvent {
+    }
+
+    record ReturnControl(ReturnControlPayload payload) implements AgentEvent {
+    }
+
+    record Files(List<OutputFile> files) implements AgentEvent {
+    }
+}
@@ -0,0 +1,333 @@
+package aws.example;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.bedrockagentruntime.BedrockAgentRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockagentruntime.model.FilePart;
+import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentRequest;
+import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentResponseHandler;
+import software.amazon.awssdk.services.bedrockagentruntime.model.PayloadPart;
+import software.amazon.awssdk.services.bedrockagentruntime.model.ResponseStream;
+import software.amazon.awssdk.services.bedrockagentruntime.model.ReturnControlPayload;
+import software.amazon.awssdk.services.bedrockagentruntime.model.TracePart;
+
+/*
+ * Flow.Publisher of the events of one InvokeAgent call: answer chunks, traces, return-control
+ * requests and files, each emitted as soon as it arrives.
+ *
+ * Like TokenStreamPublisher, the call starts when a subscriber subscribes, one event is requested
+ * from the SDK's event stream at a time and only while the subscriber has outstanding demand,
+ * and cancelling the subscription aborts the HTTP stream. Events are delivered on the SDK's event
+ * loop threads, so subscribers must not block.
+ *
+ * Publishers created by an AgentSessions.Session wait for the session's previous call to finish
+ * before they start, because an agent session handles one invocation at a time. Each attempt is
+ * reported to the installed BedrockMetrics, with the time to the first answer chunk, when it ends.
+ * The publisher is single-use: it accepts one subscriber.
+ */
+public final class AgentEventPublisher implements Flow.Publisher<AgentEvent> {
+
+    // Serializes the calls of one agent session: completes with the action that lets the next call start.
+    @FunctionalInterface
+    interface Turns {
+        CompletableFuture<Runnable> acquire();
+
+        Turns NONE = () -> CompletableFuture.completedFuture(() -> {
+        });
+    }
+
+    private final BedrockAgentRuntimeAsyncClient client;
+    private final InvokeAgentRequest request;
+    private final AdmissionControl admissionControl;
+    private final int estimatedTokens;
+    private final Turns turns;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    AgentEventPublisher(BedrockAgentRuntimeAsyncClient client,
+                        InvokeAgentRequest request,
+                        AdmissionControl admissionControl,
+                        int estimatedTokens,
+                        Turns turns) {
+        this.client = client;
+        this.request = request;
+        this.admissionControl = admissionControl;
+        this.estimatedTokens = estimatedTokens;
+        this.turns = turns;
+    }
+
+    public String sessionId() {
+        return request.sessionId();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super AgentEvent> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("AgentEventPublisher accepts a single subscriber"));
+            return;
+        }
+        new Bridge(subscriber).start();
+    }
+
+    /*
+    Callback style: subscribes with unbounded demand, passes every event to action and completes
+    with the whole answer (the text of all chunks). Cancelling the returned future aborts the call.
+    */
+    public CompletableFuture<String> forEach(Consumer<? super AgentEvent> action) {
+        var answer = new CompletableFuture<String>();
+        subscribe(new Flow.Subscriber<>() {
+            private final StringBuilder text = new StringBuilder();
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                answer.whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        subscription.cancel();
+                    }
+                });
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(AgentEvent event) {
+                if (event instanceof AgentEvent.Chunk chunk) {
+                    text.append(chunk.text());
+                }
+                try {
+                    action.accept(event);
+                } catch (RuntimeException e) {
+                    subscription.cancel();
+                    answer.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                answer.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                answer.complete(text.toString());
+            }
+        });
+        return answer;
+    }
+
+    // Connects the SDK's reactive-streams event publisher to the Flow subscriber.
+    private final class Bridge implements Flow.Subscription, Subscriber<ResponseStream> {
+        private final Flow.Subscriber<? super AgentEvent> downstream;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean eventRequested = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicReference<Runnable> release = new AtomicReference<>();
+
+        private volatile Subscription upstream;
+        private volatile CompletableFuture<Void> call;
+        private volatile boolean emitted;
+        private volatile StreamMetrics streamMetrics;
+
+        Bridge(Flow.Subscriber<? super AgentEvent> downstream) {
+            this.downstream = downstream;
+        }
+
+        void start() {
+            downstream.onSubscribe(this);
+            if (done.get()) {
+                return;
+            }
+            turns.acquire().whenComplete((next, error) -> {
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                release.set(next);
+                if (done.get()) {
+                    releaseTurn();
+                } else {
+                    invoke();
+                }
+            });
+        }
+
+        private void invoke() {
+            CompletableFuture<Void> future = admissionControl.callAsync(request.agentId(), estimatedTokens, () -> {
+                // Throttling is reported before the first event; once events have gone out, a retry would repeat them.
+                if (emitted) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Agent stream failed after events were emitted"));
+                }
+                var attempt = StreamMetrics.start("InvokeAgent", request.agentId(),
+                        request.inputText() == null ? -1 : request.inputText().length());
+                streamMetrics = attempt;
+                var handler = InvokeAgentResponseHandler.builder()
+                        .subscriber(() -> this)
+                        .onError(attempt::complete)
+                        .build();
+                return client.invokeAgent(request, handler);
+            });
+            call = future;
+            future.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    fail(error);
+                }
+            });
+            if (done.get()) {
+                future.cancel(true);
+            }
+        }
+
+        // ---- Flow.Subscription, called by the downstream subscriber ----
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " items; demand must be positive"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            requestEvent();
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                abortUpstream();
+                releaseTurn();
+                complete(new CancellationException("Subscription cancelled"));
+            }
+        }
+
+        // ---- Subscriber<ResponseStream>, called by the SDK ----
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            eventRequested.set(false);
+            if (done.get()) {
+                subscription.cancel();
+            } else {
+                requestEvent();
+            }
+        }
+
+        @Override
+        public void onNext(ResponseStream event) {
+            eventRequested.set(false);
+            if (done.get()) {
+                return;
+            }
+            AgentEvent agentEvent = null;
+            if (event instanceof PayloadPart chunk) {
+                agentEvent = AgentEvent.Chunk.of(chunk);
+                streamMetrics.event(chunk.bytes() == null ? 0 : chunk.bytes().asByteArrayUnsafe().length, true);
+            } else if (event instanceof TracePart trace) {
+                agentEvent = new AgentEvent.Trace(trace);
+            } else if (event instanceof ReturnControlPayload returnControl) {
+                agentEvent = new AgentEvent.ReturnControl(returnControl);
+            } else if (event instanceof FilePart files) {
+                agentEvent = new AgentEvent.Files(files.files());
+            }
+            if (agentEvent != null) {
+                emit(agentEvent);
+            }
+            requestEvent();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done.compareAndSet(false, true)) {
+                complete(null);
+                releaseTurn();
+                synchronized (this) {
+                    downstream.onComplete();
+                }
+            }
+        }
+
+        // ---- Helpers ----
+
+        private void emit(AgentEvent event) {
+            emitted = true;
+            demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+            synchronized (this) {
+                downstream.onNext(event);
+            }
+        }
+
+        // Keeps at most one event outstanding, and only while the subscriber wants more.
+        private void requestEvent() {
+            Subscription subscription = upstream;
+            if (subscription != null && !done.get() && demand.get() > 0 && eventRequested.compareAndSet(false, true)) {
+                subscription.request(1);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (done.compareAndSet(false, true)) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                complete(cause);
+                abortUpstream();
+                releaseTurn();
+                synchronized (this) {
+                    downstream.onError(cause);
+                }
+            }
+        }
+
+        private void complete(Throwable error) {
+            StreamMetrics attempt = streamMetrics;
+            if (attempt != null) {
+                attempt.complete(error);
+            }
+        }
+
+        private void releaseTurn() {
+            Runnable next = release.getAndSet(null);
+            if (next != null) {
+                next.run();
+            }
+        }
+
+        // Cancelling the call future aborts the underlying HTTP stream.
+        private void abortUpstream() {
+            Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            CompletableFuture<Void> future = call;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package aws.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import software.amazon.awssdk.services.bedrockagentruntime.BedrockAgentRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockagentruntime.model.InvocationResultMember;
+import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentRequest;
+import software.amazon.awssdk.services.bedrockagentruntime.model.SessionState;
+
+/*
+ * Agent sessions of one Bedrock agent alias, keyed by the caller's conversation key (a chat ID,
+ * a user ID...), all sharing one async client.
+ *
+ * The first call for a key starts a new agent session with a generated session ID, and later calls
+ * with the same key continue it. Calls of one session run one after the other, while different
+ * sessions run concurrently, limited only by the client's maxConcurrency (see BedrockClients).
+ * Sessions unused for idleTimeout, or beyond maxSessions, are forgotten; the next call for their key
+ * starts a fresh session.
+ */
+public final class AgentSessions {
+
+    private final BedrockAgentRuntimeAsyncClient client;
+    private final String agentId;
+    private final String agentAliasId;
+    private final boolean enableTrace;
+    private final LruTtlCache<String, Session> sessions;
+
+    private AgentSessions(Builder builder) {
+        this.client = builder.client;
+        this.agentId = Objects.requireNonNull(builder.agentId, "agentId");
+        this.agentAliasId = Objects.requireNonNull(builder.agentAliasId, "agentAliasId");
+        this.enableTrace = builder.enableTrace;
+        this.sessions = new LruTtlCache<>(builder.maxSessions, builder.idleTimeout.toNanos(), System::nanoTime);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Returns the session of this conversation, starting a new one if there is none.
+    public Session session(String conversationKey) {
+        synchronized (sessions) {
+            Session session = sessions.get(conversationKey);
+            if (session == null) {
+                session = new Session(UUID.randomUUID().toString());
+            }
+            // Put again on every use, so that idleTimeout counts from the last use.
+            sessions.put(conversationKey, session);
+            return session;
+        }
+    }
+
+    // Forgets the session of this conversation; the next call for the key starts a new one.
+    public void remove(String conversationKey) {
+        sessions.remove(conversationKey);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    // Shortcut for session(conversationKey).stream(prompt).
+    public AgentEventPublisher stream(String conversationKey, String prompt) {
+        return session(conversationKey).stream(prompt);
+    }
+
+    public final class Session {
+        private final String sessionId;
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+        private Session(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        public String sessionId() {
+            return sessionId;
+        }
+
+        // Sends the prompt; the events stream once the publisher is subscribed to.
+        public AgentEventPublisher stream(String prompt) {
+            return publisher(request().inputText(prompt).build(), AdmissionControl.estimateTokens(prompt));
+        }
+
+        // Same as stream(prompt) with session attributes the agent's action groups can read.
+        public AgentEventPublisher stream(String prompt, Map<String, String> sessionAttributes) {
+            return publisher(request()
+                    .inputText(prompt)
+                    .sessionState(SessionState.builder().sessionAttributes(sessionAttributes).build())
+                    .build(), AdmissionControl.estimateTokens(prompt));
+        }
+
+        // Answers a ReturnControl event with the results of the actions the agent asked for.
+        public AgentEventPublisher returnControl(String invocationId, List<InvocationResultMember> results) {
+            return publisher(request()
+                    .sessionState(SessionState.builder()
+                            .invocationId(invocationId)
+                            .returnControlInvocationResults(results)
+                            .build())
+                    .build(), 0);
+        }
+
+        private InvokeAgentRequest.Builder request() {
+            return InvokeAgentRequest.builder()
+                    .agentId(agentId)
+                    .agentAliasId(agentAliasId)
+                    .sessionId(sessionId)
+                    .enableTrace(enableTrace);
+        }
+
+        private AgentEventPublisher publisher(InvokeAgentRequest request, int estimatedTokens) {
+            var runtime = client != null ? client : BedrockClients.shared().agentRuntimeAsync();
+            return new AgentEventPublisher(runtime, request, BedrockHelper.admissionControl(), estimatedTokens, this::acquire);
+        }
+
+        // Chains turns at subscription time, so a publisher that is never subscribed to holds nothing up.
+        private synchronized CompletableFuture<Runnable> acquire() {
+            CompletableFuture<Void> previous = last;
+            var finished = new CompletableFuture<Void>();
+            last = finished;
+            return previous.thenApply(ignored -> () -> finished.complete(null));
+        }
+    }
+
+    public static final class Builder {
+        private BedrockAgentRuntimeAsyncClient client;
+        private String agentId;
+        private String agentAliasId;
+        private boolean enableTrace;
+        private int maxSessions = 10_000;
+        private Duration idleTimeout = Duration.ofMinutes(30);
+
+        private Builder() {
+        }
+
+        // Defaults to the shared client of BedrockClients for the default region.
+        public Builder client(BedrockAgentRuntimeAsyncClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder agentId(String agentId) {
+            this.agentId = agentId;
+            return this;
+        }
+
+        public Builder agentAliasId(String agentAliasId) {
+            this.agentAliasId = agentAliasId;
+            return this;
+        }
+
+        // Asks the agent for its reasoning trace, published as AgentEvent.Trace.
+        public Builder enableTrace(boolean enableTrace) {
+            this.enableTrace = enableTrace;
+            return this;
+        }
+
+        public Builder maxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        // Matches the agent's idle session TTL by default (30 minutes).
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public AgentSessions build() {
+            return new AgentSessions(this);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package aws.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+/*
+ * Decoder for the JSON events of an Anthropic Messages response stream
+ * (InvokeModelWithResponseStream chunks).
+ *
+ * Instead of building a JSONObject per chunk and running a JSONPointer query, it scans the chunk
+ * bytes once, reads the top-level "type" and copies "delta.text" straight into the caller's
+ * buffer, unescaping and UTF-8 decoding on the fly. Every other value is skipped without
+ * being materialized, so a text delta costs no allocation beyond the growth of the output buffer.
+ *
+ * A decoder keeps no state between chunks and can be reused for a whole stream. It is not
+ * thread-safe; use one per stream.
+ *
+ * Token usage travels in the few events that carry no text (message_start, message_delta and the
+ * invocation metrics Bedrock adds to message_stop); usage() reads it from those.
+ */
+public final class AnthropicStreamDecoder {
+
+    public enum EventType {
+        MESSAGE_START("message_start"),
+        CONTENT_BLOCK_START("content_block_start"),
+        CONTENT_BLOCK_DELTA("content_block_delta"),
+        CONTENT_BLOCK_STOP("content_block_stop"),
+        MESSAGE_DELTA("message_delta"),
+        MESSAGE_STOP("message_stop"),
+        PING("ping"),
+        ERROR("error"),
+        OTHER("");
+
+        private final byte[] name;
+
+        EventType(String name) {
+            this.name = ascii(name);
+        }
+    }
+
+    // Token counts of a response so far; -1 when the event does not report one.
+    public record Usage(int inputTokens, int outputTokens) {
+    }
+
+    private static final EventType[] KNOWN_TYPES = {
+            EventType.CONTENT_BLOCK_DELTA,
+            EventType.MESSAGE_START,
+            EventType.CONTENT_BLOCK_START,
+            EventType.CONTENT_BLOCK_STOP,
+            EventType.MESSAGE_DELTA,
+            EventType.MESSAGE_STOP,
+            EventType.PING,
+            EventType.ERROR
+    };
+
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] DELTA = ascii("delta");
+    private static final byte[] TEXT = ascii("text");
+
+    private ByteBuffer in;
+    private int pos;
+    private int limit;
+
+    /*
+    Decodes one chunk. If it is a content_block_delta carrying text, the text is appended to out.
+    Returns the event type. The buffer's position is not changed.
+    */
+    public EventType decode(ByteBuffer chunk, StringBuilder out) {
+        this.in = chunk;
+        this.pos = chunk.position();
+        this.limit = chunk.limit();
+        int mark = out.length();
+        try {
+            EventType type = EventType.OTHER;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (!consume('}')) {
+                do {
+                    skipWhitespace();
+                    int keyStart = stringStart();
+                    int keyEnd = skipStringBody();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+
+                    if (keyEquals(keyStart, keyEnd, TYPE) && peek() == '"') {
+                        int valueStart = stringStart();
+                        type = eventType(valueStart, skipStringBody());
+                    } else if (keyEquals(keyStart, keyEnd, DELTA) && peek() == '{') {
+                        decodeDelta(out);
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                } while (consume(','));
+                expect('}');
+            }
+
+            // Only content_block_delta carries generated text; drop anything picked up from other events.
+            if (type != EventType.CONTENT_BLOCK_DELTA) {
+                out.setLength(mark);
+            }
+            return type;
+        } catch (RuntimeException e) {
+            out.setLength(mark);
+            throw e;
+        } finally {
+            this.in = null;
+        }
+    }
+
+    /*
+    Returns the token usage reported by a chunk decode() returned MESSAGE_START, MESSAGE_DELTA or
+    MESSAGE_STOP for, or null for other events. Output counts are cumulative, so the latest one wins.
+    These events come once per stream, so the chunk is simply parsed as JSON.
+    */
+    public static Usage usage(EventType type, ByteBuffer chunk) {
+        if (type != EventType.MESSAGE_START && type != EventType.MESSAGE_DELTA && type != EventType.MESSAGE_STOP) {
+            return null;
+        }
+        var event = new JSONObject(StandardCharsets.UTF_8.decode(chunk.duplicate()).toString());
+        JSONObject usage = switch (type) {
+            case MESSAGE_START -> event.optJSONObject("message", new JSONObject()).optJSONObject("usage");
+            case MESSAGE_DELTA -> event.optJSONObject("usage");
+            default -> null;
+        };
+        if (usage != null) {
+            return new Usage(usage.optInt("input_tokens", -1), usage.optInt("output_tokens", -1));
+        }
+        JSONObject metrics = event.optJSONObject("amazon-bedrock-invocationMetrics");
+        if (metrics != null) {
+            return new Usage(metrics.optInt("inputTokenCount", -1), metrics.optInt("outputTokenCount", -1));
+        }
+        return null;
+    }
+
+    // Copies the "text" member of the delta object, skipping everything else.
+    private void decodeDelta(StringBuilder out) {
+        expect('{');
+        skipWhitespace();
+        if (consume('}')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            int keyStart = stringStart();
+            int keyEnd = skipStringBody();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyEquals(keyStart, keyEnd, TEXT) && peek() == '"') {
+                stringStart();
+                readStringBody(out);
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+    }
+
+    private EventType eventType(int start, int end) {
+        for (EventType type : KNOWN_TYPES) {
+            if (keyEquals(start, end, type.name)) {
+                return type;
+            }
+        }
+        return EventType.OTHER;
+    }
+
+    // ---- Scanner ----
+
+    private void skipValue() {
+        byte b = peek();
+        switch (b) {
+            case '"' -> {
+                stringStart();
+                skipStringBody();
+            }
+            case '{', '[' -> skipContainer();
+            default -> {
+                // Number, true, false or null: runs until a structural character or whitespace.
+                while (pos < limit) {
+                    byte c = in.get(pos);
+                    if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                        break;
+                    }
+                    pos++;
+                }
+            }
+        }
+    }
+
+    // Skips a whole object or array, honouring nested strings that may contain brackets.
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            byte b = next();
+            if (b == '"') {
+                skipStringBody();
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    // Consumes the opening quote and returns the index of the first byte inside the string.
+    private int stringStart() {
+        expect('"');
+        return pos;
+    }
+
+    // Advances past the closing quote; returns the index of that quote.
+    private int skipStringBody() {
+        while (true) {
+            byte b = next();
+            if (b == '"') {
+                return pos - 1;
+            }
+            if (b == '\\') {
+                next();
+            }
+        }
+    }
+
+    // Unescapes and UTF-8 decodes the string into out, advancing past the closing quote.
+    private void readStringBody(StringBuilder out) {
+        while (true) {
+            int b = next();
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                readEscape(out);
+            } else if (b >= 0) {
+                out.append((char) b);
+            } else {
+                readMultiByte(b & 0xFF, out);
+            }
+        }
+    }
+
+    private void readEscape(StringBuilder out) {
+        byte e = next();
+        switch (e) {
+            case '"', '\\', '/' -> out.append((char) e);
+            case 'b' -> out.append('\b');
+            case 'f' -> out.append('\f');
+            case 'n' -> out.append('\n');
+            case 'r' -> out.append('\r');
+            case 't' -> out.append('\t');
+            // Surrogate pairs arrive as two consecutive \\u escapes and are appended one char at a time.
+            case 'u' -> out.append((char) ((hex(next()) << 12) | (hex(next()) << 8) | (hex(next()) << 4) | hex(next())));
+            default -> throw malformed("invalid escape");
+        }
+    }
+
+    private void readMultiByte(int lead, StringBuilder out) {
+        int codePoint;
+        int extra;
+        if ((lead & 0xE0) == 0xC0) {
+            codePoint = lead & 0x1F;
+            extra = 1;
+        } else if ((lead & 0xF0) == 0xE0) {
+            codePoint = lead & 0x0F;
+            extra = 2;
+        } else if ((lead & 0xF8) == 0xF0) {
+            codePoint = lead & 0x07;
+            extra = 3;
+        } else {
+            throw malformed("invalid UTF-8 lead byte");
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = next() & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                throw malformed("invalid UTF-8 continuation byte");
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        if (codePoint >= 0x10000) {
+            out.append(Character.highSurrogate(codePoint)).append(Character.lowSurrogate(codePoint));
+        } else {
+            out.append((char) codePoint);
+        }
+    }
+
+    private boolean keyEquals(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (in.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit) {
+            byte b = in.get(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean consume(char expected) {
+        if (pos < limit && in.get(pos) == expected) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) {
+        if (!consume(expected)) {
+            throw malformed("expected '" + expected + "'");
+        }
+    }
+
+    private byte peek() {
+        if (pos >= limit) {
+            throw malformed("unexpected end of chunk");
+        }
+        return in.get(pos);
+    }
+
+    private byte next() {
+        byte b = peek();
+        pos++;
+        return b;
+    }
+
+    private int hex(byte b) {
+        int value = Character.digit(b, 16);
+        if (value < 0) {
+            throw malformed("invalid \\u escape");
+        }
+        return value;
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Malformed stream chunk at offset " + pos + ": " + reason);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,507 @@
+package aws.example;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+
+/*
+ * Offline pipeline for large prompt sets on Bedrock batch inference, which costs about half of
+ * on-demand InvokeModel and is not subject to its per-minute quotas.
+ *
+ * run() goes through three steps, each also available on its own:
+ *  - prepare(): streams the prompts into JSON Lines part files of {"recordId", "modelInput"} records
+ *    in the ObjectStore, rolling over to a new part at maxRecordsPerFile records or maxBytesPerFile bytes;
+ *    the last part gets at least minRecordsPerFile records.
+ *  - execute(): runs one batch job per part, at most maxConcurrentJobs at a time, polling until all finish.
+ *  - merge(): reads the prompts again alongside each job's output and hands every prompt's BatchResult
+ *    to the caller in input order.
+ * The record ID is the prompt's position in the input, so merging never holds more than the records
+ * a job wrote out of order; memory use does not grow with the number of prompts.
+ *
+ * Keys in the store: <name>/input/part-00000.jsonl, and the job output below <name>/output/part-00000/.
+ * Bedrock requires a minimum number of records per job (see the batch inference quotas of your account);
+ * set minRecordsPerFile to it, and keep the input above it.
+ */
+public final class BatchInference {
+
+    // Bedrock batch inference limits per input file.
+    public static final int MAX_RECORDS_PER_FILE = 50_000;
+    public static final long MAX_BYTES_PER_FILE = 1_000_000_000L;
+    // Bedrock's default minimum records per batch inference job.
+    public static final int MIN_RECORDS_PER_FILE = 100;
+
+    private static final Pattern JOB_NAME = Pattern.compile("[a-zA-Z0-9](-*[a-zA-Z0-9+.])*");
+    private static final int RECORD_ID_DIGITS = 11;
+
+    // One input file: `records` prompts starting at position firstIndex.
+    public record Part(int number, String key, int firstIndex, int records) {
+    }
+
+    // The job that processed a part, and how it ended.
+    public record Run(Part part, String jobId, BatchJobApi.Status status) {
+    }
+
+    // failed counts the prompts whose BatchResult has an error.
+    public record Report(int records, int failed, List<Run> runs) {
+    }
+
+    private final ObjectStore store;
+    private final BatchJobApi jobs;
+    private final String modelId;
+    private final ModelFamily family;
+    private final String name;
+    private final Function<String, InferenceRequest> request;
+    private final int maxRecordsPerFile;
+    private final int minRecordsPerFile;
+    private final long maxBytesPerFile;
+    private final int maxConcurrentJobs;
+    private final Duration pollInterval;
+
+    private BatchInference(Builder builder) {
+        this.store = Objects.requireNonNull(builder.store, "store");
+        this.jobs = Objects.requireNonNull(builder.jobs, "jobs");
+        this.modelId = Objects.requireNonNull(builder.modelId, "modelId");
+        this.family = ModelFamily.of(modelId);
+        this.name = builder.name != null ? builder.name
+                : "batch-" + DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(ZonedDateTime.now(ZoneOffset.UTC));
+        this.request = builder.request;
+        this.maxRecordsPerFile = builder.maxRecordsPerFile;
+        this.minRecordsPerFile = builder.minRecordsPerFile;
+        this.maxBytesPerFile = builder.maxBytesPerFile;
+        this.maxConcurrentJobs = builder.maxConcurrentJobs;
+        this.pollInterval = builder.pollInterval;
+        // Job names are <name>-<part number>, at most 63 characters.
+        if (!JOB_NAME.matcher(name).matches() || name.length() > 57) {
+            throw new IllegalArgumentException("name must be at most 57 letters, digits, '-', '+' or '.': " + name);
+        }
+        if (maxRecordsPerFile < 1 || maxRecordsPerFile > MAX_RECORDS_PER_FILE) {
+            throw new IllegalArgumentException("maxRecordsPerFile must be between 1 and " + MAX_RECORDS_PER_FILE + ", was " + maxRecordsPerFile);
+        }
+        if (minRecordsPerFile < 0 || minRecordsPerFile > maxRecordsPerFile / 2) {
+            throw new IllegalArgumentException("minRecordsPerFile must be between 0 and half of maxRecordsPerFile, was " + minRecordsPerFile);
+        }
+        if (maxBytesPerFile < 1 || maxBytesPerFile > MAX_BYTES_PER_FILE) {
+            throw new IllegalArgumentException("maxBytesPerFile must be between 1 and " + MAX_BYTES_PER_FILE + ", was " + maxBytesPerFile);
+        }
+        if (maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("maxConcurrentJobs must be at least 1, was " + maxConcurrentJobs);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /*
+    Runs the prompts of a text file, one per line (blank lines are skipped), through batch inference
+    and passes each prompt's result to `results`, in input order. The file is read twice, never held in memory.
+    */
+    public Report run(Path prompts, Consumer<BatchResult> results) throws IOException, InterruptedException {
+        List<Part> parts;
+        try (Stream<String> lines = lines(prompts)) {
+            parts = prepare(lines.iterator());
+        }
+        List<Run> runs = execute(parts);
+        try (Stream<String> lines = lines(prompts)) {
+            return merge(lines.iterator(), runs, results);
+        }
+    }
+
+    /*
+    Writes the prompts to part files in the store and returns the parts, in order.
+    The last 2 * minRecordsPerFile records are held back until the input ends, then shared between the
+    last two parts so that neither falls below Bedrock's minimum records per job (unless the whole input does).
+    */
+    public List<Part> prepare(Iterator<String> prompts) throws IOException {
+        var parts = new PartWriter();
+        Deque<byte[]> held = new ArrayDeque<>();
+        long heldBytes = 0;
+        int index = 0;
+        try {
+            while (prompts.hasNext()) {
+                JsonWriter record = record(index, prompts.next());
+                long size = record.size() + 1;
+                if (size > maxBytesPerFile) {
+                    throw new IllegalArgumentException("Prompt " + index + " takes " + size + " bytes, more than maxBytesPerFile");
+                }
+                held.add(record.toSdkBytes().asByteArrayUnsafe());
+                heldBytes += size;
+                index++;
+                if (held.size() > 2 * minRecordsPerFile) {
+                    byte[] oldest = held.poll();
+                    heldBytes -= oldest.length + 1;
+                    parts.write(oldest);
+                }
+            }
+            // The held records join the current part if they fit; otherwise they top it up, leaving at least
+            // minRecordsPerFile of them for the last part.
+            int toCurrent = parts.fits(held.size(), heldBytes)
+                    ? held.size()
+                    : Math.max(0, Math.min(parts.room(), held.size() - minRecordsPerFile));
+            for (int i = 0; i < toCurrent; i++) {
+                parts.write(held.poll());
+            }
+            parts.finish();
+            while (!held.isEmpty()) {
+                parts.write(held.poll());
+            }
+            parts.finish();
+            return parts.parts;
+        } catch (Throwable e) {
+            parts.abort(e);
+            throw e;
+        }
+    }
+
+    // Appends records to part files, rolling over at maxRecordsPerFile records or maxBytesPerFile bytes.
+    private final class PartWriter {
+        private final List<Part> parts = new ArrayList<>();
+        private ObjectStore.Upload out;
+        private int first;
+        private int written;
+        private long bytes;
+
+        void write(byte[] record) throws IOException {
+            long size = record.length + 1;
+            if (!fits(1, size)) {
+                finish();
+            }
+            if (out == null) {
+                out = store.create(inputKey(parts.size()));
+                first = written;
+                bytes = 0;
+            }
+            out.write(record);
+            out.write('\n');
+            bytes += size;
+            written++;
+        }
+
+        // Whether the current part can take that many more records and bytes; false without a current part.
+        boolean fits(int records, long size) {
+            return out != null && written - first + records <= maxRecordsPerFile && bytes + size <= maxBytesPerFile;
+        }
+
+        // Records the current part can still take; 0 without a current part.
+        int room() {
+            return out == null ? 0 : maxRecordsPerFile - (written - first);
+        }
+
+        // Publishes the current part, if any.
+        void finish() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+                parts.add(new Part(parts.size(), inputKey(parts.size()), first, written - first));
+            }
+        }
+
+        // Never publishes a half-written part.
+        void abort(Throwable e) {
+            if (out != null) {
+                try {
+                    out.abort();
+                } catch (IOException abortFailure) {
+                    e.addSuppressed(abortFailure);
+                }
+                out = null;
+            }
+        }
+    }
+
+    /*
+    Submits a job per part, keeping at most maxConcurrentJobs running, and waits for all of them.
+    A submission refused for quota or throttling, or a throttled status poll, is retried at the next poll.
+    Returns the runs in part order.
+    */
+    public List<Run> execute(List<Part> parts) throws InterruptedException {
+        Deque<Part> queue = new ArrayDeque<>(parts);
+        Map<String, Part> running = new LinkedHashMap<>();
+        Run[] runs = new Run[parts.size()];
+        while (true) {
+            while (running.size() < maxConcurrentJobs && !queue.isEmpty()) {
+                Part part = queue.peek();
+                String jobId;
+                try {
+                    jobId = jobs.submit(new BatchJobApi.Job(name + "-" + suffix(part.number()), modelId,
+                            store.uri(part.key()), store.uri(outputPrefix(part))));
+                } catch (RuntimeException e) {
+                    if (!isOverCapacity(e)) {
+                        throw e;
+                    }
+                    break;
+                }
+                queue.poll();
+                running.put(jobId, part);
+            }
+            if (running.isEmpty() && queue.isEmpty()) {
+                return List.of(runs);
+            }
+
+            Thread.sleep(pollInterval.toMillis());
+            var jobsIterator = running.entrySet().iterator();
+            while (jobsIterator.hasNext()) {
+                var job = jobsIterator.next();
+                BatchJobApi.Status status;
+                try {
+                    status = jobs.status(job.getKey());
+                } catch (RuntimeException e) {
+                    if (!isOverCapacity(e)) {
+                        throw e;
+                    }
+                    // Throttled: this and the remaining jobs are polled again next time.
+                    break;
+                }
+                if (status.state().isTerminal()) {
+                    jobsIterator.remove();
+                    runs[job.getValue().number()] = new Run(job.getValue(), job.getKey(), status);
+                }
+            }
+        }
+    }
+
+    /*
+    Passes each prompt's result to `results`, in input order: the generated text, the record's error,
+    or, for a record missing from the output, an error with the state of its job.
+    `prompts` must yield the prompts given to prepare(), in the same order.
+    */
+    public Report merge(Iterator<String> prompts, List<Run> runs, Consumer<BatchResult> results) throws IOException {
+        int records = 0;
+        int failed = 0;
+        for (Run run : runs) {
+            Part part = run.part();
+            try (Outputs outputs = outputs(run)) {
+                for (int index = part.firstIndex(); index < part.firstIndex() + part.records(); index++) {
+                    if (!prompts.hasNext()) {
+                        throw new IllegalArgumentException("Fewer prompts than records: input ended at " + index);
+                    }
+                    String prompt = prompts.next();
+                    Outcome outcome = outputs.take(index);
+                    BatchResult result = outcome == null
+                            ? new BatchResult(index, prompt, null, new RuntimeException("No output for record " + recordId(index)
+                                    + " of job " + run.jobId() + " (" + run.status().state() + ")"
+                                    + (run.status().message() == null ? "" : ": " + run.status().message())))
+                            : new BatchResult(index, prompt, outcome.text(), outcome.error());
+                    records++;
+                    if (!result.isSuccess()) {
+                        failed++;
+                    }
+                    results.accept(result);
+                }
+            }
+        }
+        return new Report(records, failed, runs);
+    }
+
+    // The record as one line of a batch input file, in the thread's reusable writer.
+    private JsonWriter record(int index, String prompt) {
+        JsonWriter json = JsonWriter.reusable()
+                .beginObject()
+                .member("recordId", recordId(index))
+                .name("modelInput").beginObject();
+        family.write(request.apply(prompt), json);
+        return json.endObject().endObject();
+    }
+
+    private String inputKey(int part) {
+        return name + "/input/part-" + suffix(part) + ".jsonl";
+    }
+
+    private String outputPrefix(Part part) {
+        return name + "/output/part-" + suffix(part.number()) + "/";
+    }
+
+    // Bedrock writes a job's results to <output prefix>/<job ID>/<input file name>.out.
+    private Outputs outputs(Run run) throws IOException {
+        String fileName = run.part().key().substring(run.part().key().lastIndexOf('/') + 1) + ".out";
+        for (String key : store.list(outputPrefix(run.part()))) {
+            if (key.endsWith("/" + fileName)) {
+                return new Outputs(new BufferedReader(new InputStreamReader(store.open(key), StandardCharsets.UTF_8)));
+            }
+        }
+        return new Outputs(null);
+    }
+
+    // Generated text, or the error the job recorded instead.
+    private record Outcome(String text, RuntimeException error) {
+    }
+
+    /*
+    Reads one output file forward to the record asked for next. Records ahead of it are kept until
+    asked for, so an output written in input order (the usual case) holds nothing.
+    */
+    private final class Outputs implements Closeable {
+        private final BufferedReader reader;
+        private final TreeMap<Integer, Outcome> ahead = new TreeMap<>();
+
+        Outputs(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        // The outcome of record `index`, or null if the output has no such record.
+        Outcome take(int index) throws IOException {
+            Outcome outcome = ahead.remove(index);
+            if (outcome != null || reader == null) {
+                return outcome;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject record = new JSONObject(line);
+                int id = Integer.parseInt(record.getString("recordId"));
+                if (id == index) {
+                    return outcome(id, record);
+                }
+                if (id > index) {
+                    ahead.put(id, outcome(id, record));
+                }
+            }
+            return null;
+        }
+
+        private Outcome outcome(int id, JSONObject record) {
+            JSONObject output = record.optJSONObject("modelOutput");
+            if (output != null) {
+                try {
+                    return new Outcome(family.responseText(output), null);
+                } catch (RuntimeException e) {
+                    return new Outcome(null, new RuntimeException("Unexpected output for record " + recordId(id), e));
+                }
+            }
+            JSONObject error = record.optJSONObject("error");
+            String message = error == null ? record.toString() : error.optString("errorMessage", error.toString());
+            return new Outcome(null, new RuntimeException("Record " + recordId(id) + " failed: " + message));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    // Bedrock record IDs are 11 characters.
+    static String recordId(int index) {
+        String digits = Integer.toString(index);
+        return "0".repeat(RECORD_ID_DIGITS - digits.length()) + digits;
+    }
+
+    private static String suffix(int part) {
+        return String.format("%05d", part);
+    }
+
+    // Too many jobs in progress or submitted for the account's quota, or a throttled request.
+    private static boolean isOverCapacity(RuntimeException e) {
+        return RetryScheduler.isThrottle(e) || "ServiceQuotaExceededException".equals(MetricsInterceptor.errorType(e));
+    }
+
+    private static Stream<String> lines(Path file) throws IOException {
+        return Files.lines(file, StandardCharsets.UTF_8).filter(line -> !line.isBlank());
+    }
+
+    public static final class Builder {
+        private ObjectStore store;
+        private BatchJobApi jobs;
+        private String modelId;
+        private String name;
+        private Function<String, InferenceRequest> request = prompt -> InferenceRequest.builder().prompt(prompt).build();
+        private int maxRecordsPerFile = MAX_RECORDS_PER_FILE;
+        private int minRecordsPerFile = MIN_RECORDS_PER_FILE;
+        private long maxBytesPerFile = MAX_BYTES_PER_FILE;
+        private int maxConcurrentJobs = 10;
+        private Duration pollInterval = Duration.ofMinutes(1);
+
+        private Builder() {
+        }
+
+        // Where input and output files live, e.g. ObjectStore.s3(BedrockClients.shared().s3(), bucket, prefix).
+        public Builder store(ObjectStore store) {
+            this.store = store;
+            return this;
+        }
+
+        // E.g. BatchJobApi.bedrock(BedrockClients.shared().bedrock(), roleArn).
+        public Builder jobs(BatchJobApi jobs) {
+            this.jobs = jobs;
+            return this;
+        }
+
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        // Prefix of the run's keys and job names; "batch-<UTC timestamp>" by default.
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        // Inference parameters per prompt; by default the prompt with INVOKE_MAX_TOKENS.
+        public Builder request(Function<String, InferenceRequest> request) {
+            this.request = Objects.requireNonNull(request);
+            return this;
+        }
+
+        public Builder maxRecordsPerFile(int maxRecordsPerFile) {
+            this.maxRecordsPerFile = maxRecordsPerFile;
+            return this;
+        }
+
+        // Records the last part gets at least (unless the whole input is smaller); 0 to turn this off.
+        public Builder minRecordsPerFile(int minRecordsPerFile) {
+            this.minRecordsPerFile = minRecordsPerFile;
+            return this;
+        }
+
+        public Builder maxBytesPerFile(long maxBytesPerFile) {
+            this.maxBytesPerFile = maxBytesPerFile;
+            return this;
+        }
+
+        // Jobs in progress at once; Bedrock's default quota is 10 per model.
+        public Builder maxConcurrentJobs(int maxConcurrentJobs) {
+            this.maxConcurrentJobs = maxConcurrentJobs;
+            return this;
+        }
+
+        public Builder pollInterval(Duration pollInterval) {
+            this.pollInterval = Objects.requireNonNull(pollInterval);
+            return this;
+        }
+
+        public BatchInference build() {
+            return new BatchInference(this);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package aws.example;
+
+import software.amazon.awssdk.services.bedrock.BedrockClient;
+
+/*
+ * Submits and tracks the batch inference jobs of a BatchInference run.
+ *
+ * bedrock(...) runs them as Bedrock model invocation jobs. Any other implementation, e.g. one that
+ * answers from canned output files, lets the pipeline run without AWS.
+ */
+public interface BatchJobApi {
+
+    // A job over the JSON Lines file at inputUri, writing its results below outputUri.
+    record Job(String name, String modelId, String inputUri, String outputUri) {
+    }
+
+    enum State {
+        SUBMITTED,
+        IN_PROGRESS,
+        COMPLETED,
+        // Finished, but some records have an error instead of a model output.
+        PARTIALLY_COMPLETED,
+        FAILED,
+        STOPPED,
+        EXPIRED;
+
+        public boolean isTerminal() {
+            return this != SUBMITTED && this != IN_PROGRESS;
+        }
+    }
+
+    // message explains a failure; it may be null.
+    record Status(State state, String message) {
+    }
+
+    // Returns the job's ID.
+    String submit(Job job);
+
+    Status status(String jobId);
+
+    // Bedrock model invocation jobs, which read and write S3 with the permissions of roleArn.
+    static BatchJobApi bedrock(BedrockClient bedrock, String roleArn) {
+        return new BedrockBatchJobApi(bedrock, roleArn);
+    }
+}
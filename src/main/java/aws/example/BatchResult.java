@@ -0,0 +1,14 @@
+package aws.example;
+
+/*
+ * Outcome of one prompt in a batch run.
+ * index: position of the prompt in the input.
+ * text: the generated text, or null if the call failed.
+ * error: the failure, or null if the call succeeded.
+ */
+public record BatchResult(int index, String prompt, String text, Throwable error) {
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
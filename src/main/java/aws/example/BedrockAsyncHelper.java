@@ -0,0 +1,338 @@
+package aws.example;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.Trace;
+
+/*
+ * Non-blocking counterpart of BedrockHelper. Every operation returns a CompletableFuture
+ * that completes on the SDK's shared event loop, so no caller thread is parked while the model runs.
+ *
+ * Cancelling a returned future, or letting it time out (see withTimeout), aborts the underlying
+ * HTTP request instead of leaving it running in the background. The exception is a call served
+ * through the response cache, which keeps running for the other callers waiting on it.
+ */
+public class BedrockAsyncHelper {
+
+    /*
+    Invokes the model without streaming.
+    Returns a future with the generated text.
+    */
+    public static CompletableFuture<String> invokeModel(String modelId, String prompt) {
+        return invokeModel(modelId, BedrockHelper.sampleRequest(prompt, BedrockHelper.INVOKE_MAX_TOKENS));
+    }
+
+    // Same as above with explicit inference parameters, for any supported model family.
+    public static CompletableFuture<String> invokeModel(String modelId, InferenceRequest inferenceRequest) {
+        ModelFamily family;
+        int inputTokens;
+        InferenceRequest sizedRequest;
+        SdkBytes nativeRequest;
+        try {
+            family = ModelFamily.of(modelId);
+            inputTokens = BedrockHelper.inputTokens(modelId, inferenceRequest);
+            sizedRequest = BedrockHelper.fitted(modelId, inferenceRequest, inputTokens);
+            nativeRequest = family.body(sizedRequest);
+        } catch (IllegalArgumentException e) {
+            // An unsupported model, or a prompt that does not fit the model's context.
+            return CompletableFuture.failedFuture(e);
+        }
+        var client = BedrockClients.shared().runtimeAsync();
+
+        return BedrockHelper.cachedAsync(sizedRequest.temperature(),
+                () -> BedrockHelper.invokeModelKey(modelId, nativeRequest),
+                () -> BedrockHelper.semanticCachedAsync(modelId, sizedRequest,
+                        () -> map(BedrockHelper.routedAsync(modelId, inputTokens + sizedRequest.maxTokens(), client,
+                                        (routeClient, routeModelId) -> {
+                                            // A router may send the call to another model family, which needs its own body.
+                                            ModelFamily routeFamily = routeModelId.equals(modelId) ? family : ModelFamily.of(routeModelId);
+                                            SdkBytes body = routeModelId.equals(modelId)
+                                                    ? nativeRequest
+                                                    : routeFamily.body(BedrockHelper.fitted(routeModelId, inferenceRequest));
+                                            return routeClient.invokeModel(InvokeModelRequest.builder()
+                                                            .body(body)
+                                                            .modelId(routeModelId)
+                                                            .trace(Trace.ENABLED)
+                                                            .build())
+                                                    .thenApply(response -> routeFamily.responseText(response.body()));
+                                        }),
+                                Function.identity())));
+    }
+
+    /*
+    Invokes the model with streaming and completes with the whole generated text once the stream ends.
+    */
+    public static CompletableFuture<String> invokeModelWithStream(String modelId, String prompt) {
+        int inputTokens = BedrockHelper.countTokens(modelId, prompt);
+        int maxTokens;
+        try {
+            maxTokens = BedrockHelper.fitMaxTokens(modelId, inputTokens, BedrockHelper.STREAM_MAX_TOKENS);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        var client = BedrockClients.shared().runtimeAsync();
+        var request = BedrockHelper.streamRequest(modelId, prompt, maxTokens);
+        var completeResponseTextBuffer = new StringBuilder();
+
+        return map(BedrockHelper.admissionControl().callAsync(modelId,
+                        inputTokens + maxTokens,
+                        () -> {
+                            // A retried attempt starts over with an empty buffer.
+                            completeResponseTextBuffer.setLength(0);
+                            var handler = BedrockHelper.streamHandler(request, completeResponseTextBuffer, null);
+                            return client.invokeModelWithResponseStream(request, handler);
+                        }),
+                ignored -> completeResponseTextBuffer.toString());
+    }
+
+    /*
+    Streams the model's response as a Flow.Publisher of text deltas, e.g. to forward them over SSE.
+    Nothing is sent until a subscriber subscribes; cancelling the subscription aborts the HTTP stream.
+    */
+    public static TokenStreamPublisher streamTokens(String modelId, String prompt) {
+        int inputTokens = BedrockHelper.countTokens(modelId, prompt);
+        int maxTokens;
+        try {
+            maxTokens = BedrockHelper.fitMaxTokens(modelId, inputTokens, BedrockHelper.STREAM_MAX_TOKENS);
+        } catch (IllegalArgumentException e) {
+            // Reported to the subscriber, like any other failure of the stream.
+            return TokenStreamPublisher.failed(e);
+        }
+        return new TokenStreamPublisher(BedrockClients.shared().runtimeAsync(),
+                BedrockHelper.streamRequest(modelId, prompt, maxTokens),
+                BedrockHelper.admissionControl(),
+                inputTokens + maxTokens);
+    }
+
+    // Asks the model to describe an image using the Converse API.
+    public static CompletableFuture<String> converseApi(String modelId, String imagePath) {
+        Message message;
+        try {
+            message = BedrockHelper.imageMessage(imagePath);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var client = BedrockClients.shared().runtimeAsync();
+        var request = BedrockHelper.converseRequest(modelId, message);
+        return BedrockHelper.cachedAsync(request.inferenceConfig().temperature(),
+                () -> BedrockHelper.converseKey(request),
+                () -> map(BedrockHelper.routedAsync(modelId,
+                                BedrockHelper.IMAGE_TOKENS + BedrockHelper.CONVERSE_MAX_TOKENS, client,
+                                (routeClient, routeModelId) -> routeClient.converse(BedrockHelper.withModel(request, routeModelId))),
+                        response -> response.output().message().content().get(0).text()));
+    }
+
+    /*
+    Runs the command against a PDF document using the Converse API.
+    Text documents too long for the model's context are answered part by part, as in BedrockHelper.
+    */
+    public static CompletableFuture<String> documentInsight(String filePath, String modelId, String command) {
+        DocumentBlock document;
+        try {
+            document = MediaLoader.shared().document(Paths.get(filePath));
+        } catch (IOException | IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Used unless a router serving modelId is installed (see BedrockHelper.setRouter).
+        var client = BedrockClients.shared().runtimeAsync(Region.US_EAST_1);
+        int inputTokens = BedrockHelper.documentTokens(document) + BedrockHelper.countTokens(modelId, command);
+        try {
+            if (BedrockHelper.TEXT_DOCUMENTS.contains(document.format())) {
+                String text = document.source().bytes().asUtf8String();
+                inputTokens = BedrockHelper.countTokens(modelId, text) + BedrockHelper.countTokens(modelId, command);
+                if (inputTokens > BedrockHelper.promptTokens(modelId)) {
+                    return mapReduce(modelId, command, text, client);
+                }
+            } else {
+                BedrockHelper.checkDocumentFits(modelId, filePath, document, command);
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return map(BedrockHelper.routedAsync(modelId, inputTokens, client,
+                        (routeClient, routeModelId) -> routeClient.converse(
+                                BedrockHelper.documentRequest(routeModelId, document, command))),
+                response -> response.output().message().content().get(0).text());
+    }
+
+    /*
+    Same as above for documents already read by Textract (see analyzeIdWithTextract): their fields go
+    to the model as text. Fields of more documents than fit in the model's context are answered part by part.
+    */
+    public static CompletableFuture<String> documentInsight(List<TextractIngestion.ScannedDocument> documents,
+                                                            String modelId,
+                                                            String command) {
+        // Used unless a router serving modelId is installed (see BedrockHelper.setRouter).
+        var client = BedrockClients.shared().runtimeAsync(Region.US_EAST_1);
+        var prompt = BedrockHelper.scannedDocumentsPrompt(documents, command);
+        int inputTokens = BedrockHelper.countTokens(modelId, prompt);
+        if (inputTokens > BedrockHelper.promptTokens(modelId)) {
+            return mapReduce(modelId, command, BedrockHelper.scannedDocumentsContext(documents), client);
+        }
+
+        return map(BedrockHelper.routedAsync(modelId, inputTokens, client,
+                        (routeClient, routeModelId) -> routeClient.converse(BedrockHelper.textRequest(routeModelId, prompt))),
+                response -> response.output().message().content().get(0).text());
+    }
+
+    // Invokes a Bedrock agent and completes with the concatenated agent response.
+    public static CompletableFuture<String> invokeAgent(String prompt,
+                                                        String agentId,
+                                                        String agentAliasId,
+                                                        String sessionId) {
+        return streamAgent(prompt, agentId, agentAliasId, sessionId).forEach(event -> { });
+    }
+
+    /*
+    Invokes a Bedrock agent and publishes its answer chunks, traces and return-control requests
+    as they arrive. For many concurrent conversations, use AgentSessions to manage session IDs.
+    */
+    public static AgentEventPublisher streamAgent(String prompt, String agentId, String agentAliasId, String sessionId) {
+        return BedrockHelper.agentPublisher(prompt, agentId, agentAliasId, sessionId);
+    }
+
+    public static CompletableFuture<String> queryKnowledgeBase(String kbId, String text, String modelArn) {
+        var client = BedrockClients.shared().agentRuntimeAsync();
+        return BedrockHelper.cachedAsync(null,
+                () -> BedrockHelper.knowledgeBaseKey(kbId, text, modelArn),
+                () -> map(BedrockHelper.admissionControl().callAsync(modelArn, AdmissionControl.estimateTokens(text),
+                                () -> client.retrieveAndGenerate(BedrockHelper.knowledgeBaseRequest(kbId, text, modelArn))),
+                        response -> response.output().text()));
+    }
+
+    /*
+    Async version of BedrockHelper.useTool: asks the question, runs the requested tools and
+    completes with the model's final answer. Each model round-trip is chained without blocking.
+    */
+    public static CompletableFuture<String> useTool() {
+        return map(BedrockHelper.topSongsLoop().runAsync(BedrockHelper.TOP_SONGS_QUESTION), ToolLoop.Result::text);
+    }
+
+    /*
+    Async version of BedrockHelper.analyzeIdWithTextract: extracts the fields of an identity document
+    through TextractIngestion, splitting multi-page TIFFs and PDFs. A failure is returned in the document,
+    which can be passed on to documentInsight(List, ...).
+    */
+    public static CompletableFuture<TextractIngestion.ScannedDocument> analyzeIdWithTextract(String filePath) {
+        return BedrockHelper.TEXTRACT_INGESTION.scanAsync(Paths.get(filePath));
+    }
+
+    /*
+    Fails the future with a TimeoutException if it has not completed within the timeout.
+    Because futures from this class cancel their SDK call on any failure, the timed-out
+    request is aborted rather than left running.
+    */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, Duration timeout) {
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Async BedrockHelper.mapReduce: each round's parts are answered concurrently, the rounds one after the other.
+    private static CompletableFuture<String> mapReduce(String modelId, String command, String context,
+                                                       BedrockRuntimeAsyncClient client) {
+        var calls = new InFlight();
+        return calls.bind(converseAll(modelId, BedrockHelper.mapPrompts(modelId, command, context), client, calls)
+                .thenCompose(answers -> reduce(modelId, command, answers, client, calls)));
+    }
+
+    private static CompletableFuture<String> reduce(String modelId, String command, List<String> answers,
+                                                    BedrockRuntimeAsyncClient client, InFlight calls) {
+        List<String> prompts = BedrockHelper.reducePrompts(modelId, command, answers);
+        if (prompts.size() == 1) {
+            return calls.track(BedrockHelper.routedAsync(modelId, BedrockHelper.countTokens(modelId, prompts.get(0)), client,
+                            (routeClient, routeModelId) -> routeClient.converse(BedrockHelper.textRequest(routeModelId, prompts.get(0)))))
+                    .thenApply(response -> response.output().message().content().get(0).text());
+        }
+        return converseAll(modelId, prompts, client, calls)
+                .thenCompose(next -> reduce(modelId, command, next, client, calls));
+    }
+
+    /*
+    Answers of the prompts, in order, with at most DEFAULT_BATCH_CONCURRENCY calls in flight: each of
+    that many lanes takes the next unanswered prompt when its previous call completes. Fails as soon as one call fails.
+    */
+    private static CompletableFuture<List<String>> converseAll(String modelId, List<String> prompts,
+                                                               BedrockRuntimeAsyncClient client, InFlight calls) {
+        var answers = new String[prompts.size()];
+        var next = new AtomicInteger();
+        int lanes = Math.min(BedrockHelper.DEFAULT_BATCH_CONCURRENCY, prompts.size());
+        var running = new AtomicInteger(lanes);
+        var result = new CompletableFuture<List<String>>();
+        for (int lane = 0; lane < lanes; lane++) {
+            answerRemaining(modelId, prompts, answers, next, client, calls).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else if (running.decrementAndGet() == 0) {
+                    result.complete(List.of(answers));
+                }
+            });
+        }
+        return result;
+    }
+
+    private static CompletableFuture<Void> answerRemaining(String modelId, List<String> prompts, String[] answers,
+                                                           AtomicInteger next, BedrockRuntimeAsyncClient client, InFlight calls) {
+        int i = next.getAndIncrement();
+        if (i >= prompts.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        var request = BedrockHelper.partRequest(modelId, prompts.get(i));
+        return calls.track(BedrockHelper.routedAsync(modelId,
+                        BedrockHelper.countTokens(modelId, prompts.get(i)) + BedrockHelper.CONVERSE_MAX_TOKENS, client,
+                        (routeClient, routeModelId) -> routeClient.converse(BedrockHelper.withModel(request, routeModelId))))
+                .thenCompose(response -> {
+                    answers[i] = response.output().message().content().get(0).text();
+                    return answerRemaining(modelId, prompts, answers, next, client, calls);
+                });
+    }
+
+    // Maps the SDK result and cancels the SDK call if the mapped future is cancelled or times out.
+    private static <T, R> CompletableFuture<R> map(CompletableFuture<T> call, Function<? super T, ? extends R> mapper) {
+        var calls = new InFlight();
+        return calls.bind(calls.track(call).thenApply(mapper));
+    }
+
+    /*
+    Tracks the SDK calls behind one composed operation. When the operation completes
+    exceptionally (cancelled, timed out or failed) every tracked call is cancelled,
+    including calls started after that point.
+    */
+    static final class InFlight {
+        private final List<CompletableFuture<?>> calls = new CopyOnWriteArrayList<>();
+        private volatile boolean aborted;
+
+        <T> CompletableFuture<T> track(CompletableFuture<T> call) {
+            calls.add(call);
+            if (aborted) {
+                call.cancel(true);
+            }
+            return call;
+        }
+
+        <T> CompletableFuture<T> bind(CompletableFuture<T> operation) {
+            operation.whenComplete((result, error) -> {
+                if (error != null) {
+                    aborted = true;
+                    calls.forEach(call -> call.cancel(true));
+                }
+            });
+            return operation;
+        }
+    }
+}
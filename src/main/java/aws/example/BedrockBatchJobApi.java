@@ -0,0 +1,53 @@
+package aws.example;
+
+import software.amazon.awssdk.services.bedrock.BedrockClient;
+import software.amazon.awssdk.services.bedrock.model.GetModelInvocationJobResponse;
+import software.amazon.awssdk.services.bedrock.model.S3InputFormat;
+
+/*
+ * BatchJobApi on Bedrock's CreateModelInvocationJob and GetModelInvocationJob.
+ * Learn more at https://docs.aws.amazon.com/bedrock/latest/userguide/batch-inference.html
+ */
+final class BedrockBatchJobApi implements BatchJobApi {
+
+    private final BedrockClient bedrock;
+    private final String roleArn;
+
+    BedrockBatchJobApi(BedrockClient bedrock, String roleArn) {
+        this.bedrock = bedrock;
+        this.roleArn = roleArn;
+    }
+
+    @Override
+    public String submit(Job job) {
+        return bedrock.createModelInvocationJob(r -> r
+                        .jobName(job.name())
+                        .modelId(job.modelId())
+                        .roleArn(roleArn)
+                        .inputDataConfig(input -> input.s3InputDataConfig(s3 -> s3
+                                .s3Uri(job.inputUri())
+                                .s3InputFormat(S3InputFormat.JSONL)))
+                        .outputDataConfig(output -> output.s3OutputDataConfig(s3 -> s3
+                                .s3Uri(job.outputUri()))))
+                .jobArn();
+    }
+
+    @Override
+    public Status status(String jobId) {
+        GetModelInvocationJobResponse job = bedrock.getModelInvocationJob(r -> r.jobIdentifier(jobId));
+        return new Status(state(job.statusAsString()), job.message());
+    }
+
+    // Mapped from the status string, so statuses added to the API later still map to a known state.
+    private static State state(String status) {
+        return switch (status) {
+            case "Completed" -> State.COMPLETED;
+            case "PartiallyCompleted" -> State.PARTIALLY_COMPLETED;
+            case "Failed" -> State.FAILED;
+            case "Stopped" -> State.STOPPED;
+            case "Expired" -> State.EXPIRED;
+            case "InProgress", "Stopping" -> State.IN_PROGRESS;
+            default -> State.SUBMITTED;
+        };
+    }
+}
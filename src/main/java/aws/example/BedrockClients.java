@@ -0,0 +1,376 @@
+package aws.example;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+import software.amazon.awssdk.core.SdkClient;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrock.BedrockClient;
+import software.amazon.awssdk.services.bedrockagentruntime.BedrockAgentRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.textract.TextractAsyncClient;
+import software.amazon.awssdk.services.textract.TextractClient;
+
+/*
+ * Lifecycle-managed registry of the AWS clients used by BedrockHelper.
+ * Clients are built once per (region, credentials provider) pair and then reused, so steady-state
+ * calls skip connection pool creation, TLS handshakes and credential chain resolution.
+ * All sync clients share one pooled Apache HTTP client and all async clients share one Netty
+ * client running on a single event loop group. close() shuts everything down in order.
+ *
+ * Runtime, agent runtime and Textract clients do not retry on their own: their calls go through
+ * BedrockHelper's AdmissionControl, which owns retries, so a throttle reaches the rate limiter (and
+ * ModelRouter's failover) on the first attempt and the retry budget caps the attempts actually sent.
+ * The Bedrock control plane and S3 clients are not admission-controlled and keep the SDK's retries.
+ */
+public final class BedrockClients implements AutoCloseable {
+
+    // A null region means "resolve it from the default region provider chain".
+    record ClientKey(Region region, AwsCredentialsProvider credentialsProvider) {
+    }
+
+    private static volatile BedrockClients shared;
+
+    private final SdkHttpClient httpClient;
+    private final SdkEventLoopGroup eventLoopGroup;
+    private final SdkAsyncHttpClient asyncHttpClient;
+    private final PoolMetrics poolMetrics = new PoolMetrics();
+    private final URI endpointOverride;
+
+    private final Map<ClientKey, BedrockRuntimeClient> runtimeClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, BedrockRuntimeAsyncClient> runtimeAsyncClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, BedrockAgentRuntimeAsyncClient> agentRuntimeAsyncClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, TextractClient> textractClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, TextractAsyncClient> textractAsyncClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, BedrockClient> bedrockClients = new ConcurrentHashMap<>();
+    private final Map<ClientKey, S3Client> s3Clients = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    private BedrockClients(Builder builder) {
+        this.endpointOverride = builder.endpointOverride;
+        this.httpClient = ApacheHttpClient.builder()
+                .maxConnections(builder.maxConnections)
+                .connectionTimeout(builder.connectionTimeout)
+                .connectionAcquisitionTimeout(builder.connectionAcquisitionTimeout)
+                .socketTimeout(builder.readTimeout)
+                .connectionMaxIdleTime(builder.connectionMaxIdleTime)
+                .tcpKeepAlive(true)
+                .build();
+
+        this.eventLoopGroup = SdkEventLoopGroup.builder()
+                .numberOfThreads(builder.eventLoopThreads)
+                .threadFactory(TaskExecutors.daemonThreadFactory("bedrock-event-loop-"))
+                .build();
+
+        this.asyncHttpClient = NettyNioAsyncHttpClient.builder()
+                .eventLoopGroup(eventLoopGroup)
+                .maxConcurrency(builder.maxConcurrency)
+                .maxPendingConnectionAcquires(builder.maxPendingConnectionAcquires)
+                .connectionTimeout(builder.connectionTimeout)
+                .connectionAcquisitionTimeout(builder.connectionAcquisitionTimeout)
+                .readTimeout(builder.readTimeout)
+                .connectionMaxIdleTime(builder.connectionMaxIdleTime)
+                .tcpKeepAlive(true)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /*
+    Returns the process-wide registry used by BedrockHelper, creating it with default settings on first use.
+    The default registry is closed by a JVM shutdown hook.
+    */
+    public static BedrockClients shared() {
+        BedrockClients registry = shared;
+        if (registry == null) {
+            synchronized (BedrockClients.class) {
+                registry = shared;
+                if (registry == null) {
+                    registry = builder().build();
+                    Runtime.getRuntime().addShutdownHook(new Thread(registry::close, "bedrock-clients-shutdown"));
+                    shared = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    /*
+    Replaces the process-wide registry, e.g. with one tuned for a high-concurrency service.
+    The previous registry is returned and is not closed; the caller owns it from now on.
+    */
+    public static synchronized BedrockClients setShared(BedrockClients registry) {
+        BedrockClients previous = shared;
+        shared = registry;
+        return previous;
+    }
+
+    public BedrockRuntimeClient runtime() {
+        return runtime(null);
+    }
+
+    public BedrockRuntimeClient runtime(Region region) {
+        return runtime(region, DefaultCredentialsProvider.create());
+    }
+
+    public BedrockRuntimeClient runtime(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(runtimeClients, region, credentialsProvider, key ->
+                admitted(BedrockRuntimeClient.builder(), key).httpClient(httpClient).build());
+    }
+
+    public BedrockRuntimeAsyncClient runtimeAsync() {
+        return runtimeAsync(null);
+    }
+
+    public BedrockRuntimeAsyncClient runtimeAsync(Region region) {
+        return runtimeAsync(region, DefaultCredentialsProvider.create());
+    }
+
+    public BedrockRuntimeAsyncClient runtimeAsync(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(runtimeAsyncClients, region, credentialsProvider, key ->
+                admitted(BedrockRuntimeAsyncClient.builder(), key).httpClient(asyncHttpClient).build());
+    }
+
+    public BedrockAgentRuntimeAsyncClient agentRuntimeAsync() {
+        return agentRuntimeAsync(null);
+    }
+
+    public BedrockAgentRuntimeAsyncClient agentRuntimeAsync(Region region) {
+        return agentRuntimeAsync(region, DefaultCredentialsProvider.create());
+    }
+
+    public BedrockAgentRuntimeAsyncClient agentRuntimeAsync(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(agentRuntimeAsyncClients, region, credentialsProvider, key ->
+                admitted(BedrockAgentRuntimeAsyncClient.builder(), key).httpClient(asyncHttpClient).build());
+    }
+
+    public TextractClient textract() {
+        return textract(null);
+    }
+
+    public TextractClient textract(Region region) {
+        return textract(region, DefaultCredentialsProvider.create());
+    }
+
+    public TextractClient textract(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(textractClients, region, credentialsProvider, key ->
+                admitted(TextractClient.builder(), key).httpClient(httpClient).build());
+    }
+
+    public TextractAsyncClient textractAsync() {
+        return textractAsync(null);
+    }
+
+    public TextractAsyncClient textractAsync(Region region) {
+        return textractAsync(region, DefaultCredentialsProvider.create());
+    }
+
+    public TextractAsyncClient textractAsync(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(textractAsyncClients, region, credentialsProvider, key ->
+                admitted(TextractAsyncClient.builder(), key).httpClient(asyncHttpClient).build());
+    }
+
+    // Bedrock control plane, e.g. for batch inference jobs (see BatchJobApi).
+    public BedrockClient bedrock() {
+        return bedrock(null);
+    }
+
+    public BedrockClient bedrock(Region region) {
+        return bedrock(region, DefaultCredentialsProvider.create());
+    }
+
+    public BedrockClient bedrock(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(bedrockClients, region, credentialsProvider, key ->
+                configure(BedrockClient.builder(), key).httpClient(httpClient).build());
+    }
+
+    // S3, e.g. for batch inference input and output files (see ObjectStore).
+    public S3Client s3() {
+        return s3(null);
+    }
+
+    public S3Client s3(Region region) {
+        return s3(region, DefaultCredentialsProvider.create());
+    }
+
+    public S3Client s3(Region region, AwsCredentialsProvider credentialsProvider) {
+        return client(s3Clients, region, credentialsProvider, key ->
+                configure(S3Client.builder(), key).httpClient(httpClient).build());
+    }
+
+    // Latest connection pool figures for every service this registry has talked to.
+    public Map<String, PoolMetrics.Snapshot> poolMetrics() {
+        return poolMetrics.snapshot();
+    }
+
+    private <C extends SdkClient> C client(Map<ClientKey, C> clients,
+                                           Region region,
+                                           AwsCredentialsProvider credentialsProvider,
+                                           Function<ClientKey, C> factory) {
+        if (closed) {
+            throw new IllegalStateException("BedrockClients registry is closed");
+        }
+        return clients.computeIfAbsent(new ClientKey(region, credentialsProvider), factory);
+    }
+
+    // For clients whose calls go through AdmissionControl, which does the retrying.
+    private <B extends AwsClientBuilder<B, ?>> B admitted(B builder, ClientKey key) {
+        return configure(builder, key, false);
+    }
+
+    private <B extends AwsClientBuilder<B, ?>> B configure(B builder, ClientKey key) {
+        return configure(builder, key, true);
+    }
+
+    private <B extends AwsClientBuilder<B, ?>> B configure(B builder, ClientKey key, boolean sdkRetries) {
+        if (key.region() != null) {
+            builder.region(key.region());
+        }
+        if (endpointOverride != null) {
+            builder.endpointOverride(endpointOverride);
+        }
+        return builder
+                .credentialsProvider(key.credentialsProvider())
+                .overrideConfiguration(o -> {
+                    o.addMetricPublisher(poolMetrics)
+                            .addExecutionInterceptor(PromptCachePoints.INSTANCE)
+                            .addExecutionInterceptor(MetricsInterceptor.INSTANCE);
+                    if (!sdkRetries) {
+                        o.retryStrategy(AwsRetryStrategy.doNotRetry());
+                    }
+                });
+    }
+
+    /*
+    Closes the service clients first, then the shared HTTP clients, then the event loop,
+    so no in-flight request is left without a transport. Safe to call more than once.
+    */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        List<SdkClient> clients = new ArrayList<>();
+        clients.addAll(runtimeClients.values());
+        clients.addAll(runtimeAsyncClients.values());
+        clients.addAll(agentRuntimeAsyncClients.values());
+        clients.addAll(textractClients.values());
+        clients.addAll(textractAsyncClients.values());
+        clients.addAll(bedrockClients.values());
+        clients.addAll(s3Clients.values());
+        clients.forEach(SdkClient::close);
+
+        runtimeClients.clear();
+        runtimeAsyncClients.clear();
+        agentRuntimeAsyncClients.clear();
+        textractClients.clear();
+        textractAsyncClients.clear();
+        bedrockClients.clear();
+        s3Clients.clear();
+
+        httpClient.close();
+        asyncHttpClient.close();
+        eventLoopGroup.eventLoopGroup().shutdownGracefully(0, 5, TimeUnit.SECONDS).awaitUninterruptibly();
+    }
+
+    /*
+    Connection pool settings for the shared HTTP clients.
+    Defaults favour long-running model calls: generous read timeouts and enough pooled
+    connections to keep many requests in flight against a single region.
+    */
+    public static final class Builder {
+        private int maxConnections = 50;
+        private int maxConcurrency = 200;
+        private int maxPendingConnectionAcquires = 10_000;
+        private int eventLoopThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private Duration connectionTimeout = Duration.ofSeconds(5);
+        private Duration connectionAcquisitionTimeout = Duration.ofSeconds(30);
+        private Duration readTimeout = Duration.ofMinutes(2);
+        private Duration connectionMaxIdleTime = Duration.ofSeconds(60);
+        private URI endpointOverride;
+
+        private Builder() {
+        }
+
+        // Pool size of the shared sync (Apache) HTTP client.
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        // Maximum concurrent requests on the shared async (Netty) HTTP client.
+        public Builder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        public Builder maxPendingConnectionAcquires(int maxPendingConnectionAcquires) {
+            this.maxPendingConnectionAcquires = maxPendingConnectionAcquires;
+            return this;
+        }
+
+        // Threads in the single event loop group shared by all async clients.
+        public Builder eventLoopThreads(int eventLoopThreads) {
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder connectionTimeout(Duration connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public Builder connectionAcquisitionTimeout(Duration connectionAcquisitionTimeout) {
+            this.connectionAcquisitionTimeout = connectionAcquisitionTimeout;
+            return this;
+        }
+
+        // Socket read timeout; model responses can take a long time before the first byte arrives.
+        public Builder readTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder connectionMaxIdleTime(Duration connectionMaxIdleTime) {
+            this.connectionMaxIdleTime = connectionMaxIdleTime;
+            return this;
+        }
+
+        /*
+        Sends the requests of every client in the registry to this endpoint instead of the regional
+        AWS endpoint, e.g. a local stub server for benchmarks and tests.
+        */
+        public Builder endpointOverride(URI endpointOverride) {
+            this.endpointOverride = endpointOverride;
+            return this;
+        }
+
+        public BedrockClients build() {
+            return new BedrockClients(this);
+        }
+    }
+}
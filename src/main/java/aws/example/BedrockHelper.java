@@ -1,33 +1,34 @@
 package aws.example;
 
-import java.io.File;
 import java.io.IOException;
-import java.lang.module.ModuleDescriptor.Builder;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import org.json.JSONObject;
-import org.json.JSONPointer;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.core.document.Document;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
 import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
 import software.amazon.awssdk.services.bedrockagentruntime.*;
 import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentRequest;
-import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentResponse;
-import software.amazon.awssdk.services.bedrockagentruntime.model.InvokeAgentResponseHandler;
 import software.amazon.awssdk.services.bedrockagentruntime.model.KnowledgeBaseRetrieveAndGenerateConfiguration;
 import software.amazon.awssdk.services.bedrockagentruntime.model.RetrieveAndGenerateConfiguration;
 import software.amazon.awssdk.services.bedrockagentruntime.model.RetrieveAndGenerateInput;
@@ -36,38 +37,108 @@ import software.amazon.awssdk.services.bedrockagentruntime.model.RetrieveAndGene
 import software.amazon.awssdk.services.bedrockagentruntime.model.RetrieveRequest;
 import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
 import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseRequest;
 import software.amazon.awssdk.services.bedrockruntime.model.ConverseResponse;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentBlock;
 import software.amazon.awssdk.services.bedrockruntime.model.DocumentFormat;
-import software.amazon.awssdk.services.bedrockruntime.model.DocumentSource;
-import software.amazon.awssdk.services.bedrockruntime.model.ImageBlock;
-import software.amazon.awssdk.services.bedrockruntime.model.ImageFormat;
-import software.amazon.awssdk.services.bedrockruntime.model.ImageSource;
-import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamRequest;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
 import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler.Visitor;
 import software.amazon.awssdk.services.bedrockruntime.model.Message;
-import software.amazon.awssdk.services.bedrockruntime.model.Tool;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolConfiguration;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolInputSchema;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolResultBlock;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolResultContentBlock;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolSpecification;
-import software.amazon.awssdk.services.bedrockruntime.model.ToolUseBlock;
 import software.amazon.awssdk.services.bedrockruntime.model.Trace;
-import software.amazon.awssdk.services.textract.TextractClient;
-import software.amazon.awssdk.services.textract.model.AnalyzeIdRequest;
-import software.amazon.awssdk.services.textract.model.AnalyzeIdResponse;
-
-import software.amazon.awssdk.services.textract.model.IdentityDocument;
-import software.amazon.awssdk.services.textract.model.TextractException;
 
 /*
  * This class contains basic methods for invoking AWS Bedrock generative AI model.
  * It supports knowledge bases, invoking the model with streaming, invoking hte model without streaming
  */
 public class BedrockHelper {
+
+    // No limits, but throttled and transient failures are retried: the shared clients do not retry on their own.
+    private static volatile AdmissionControl admissionControl = AdaptiveRateLimiter.builder().build();
+
+    /*
+    Installs the admission-control layer (rate limiting and retries) used by every call
+    in BedrockHelper and BedrockAsyncHelper, e.g. an AdaptiveRateLimiter with the account's quotas.
+    */
+    public static void setAdmissionControl(AdmissionControl control) {
+        admissionControl = Objects.requireNonNull(control);
+    }
+
+    static AdmissionControl admissionControl() {
+        return admissionControl;
+    }
+
+    private static volatile ModelRouter router;
+
+    /*
+    Installs a ModelRouter: invokeModel, converseApi and documentInsight calls (sync and async) for
+    a model it serves are spread over its regions and models, with failover and optional hedging
+    (see ModelRouter). Streaming calls are not routed. null removes it.
+    */
+    public static void setRouter(ModelRouter modelRouter) {
+        router = modelRouter;
+    }
+
+    private static final Map<ModelFamily, TokenCounter> tokenCounters = new ConcurrentHashMap<>();
+
+    /*
+    Installs the token counter for a model family, e.g. TokenCounter.bpe(path) with the family's
+    published vocabulary. Without one, the family's TokenCounter.estimator(family) is used.
+    */
+    public static void setTokenCounter(ModelFamily family, TokenCounter counter) {
+        tokenCounters.put(family, Objects.requireNonNull(counter));
+    }
+
+    private static volatile ResponseCache responseCache;
+
+    /*
+    Installs a cache for invokeModel, converseApi and queryKnowledgeBase responses (sync and async),
+    or removes it when null. Without a cache every call goes to Bedrock.
+    */
+    public static void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+
+    private static volatile SemanticCache semanticCache;
+
+    /*
+    Installs a semantic cache for invokeModel (sync and async), or removes it when null: a prompt
+    similar enough to one already answered by the same model, with the same inference parameters,
+    gets that answer. An installed ResponseCache is checked first.
+    */
+    public static void setSemanticCache(SemanticCache cache) {
+        semanticCache = cache;
+    }
+
+    private static volatile BedrockMetrics metrics = BedrockMetrics.none();
+
+    /*
+    Installs the metrics sink that every call made through a BedrockClients client reports to,
+    e.g. a MetricsRegistry or JfrMetrics. BedrockMetrics.none() (the default) turns recording off.
+    */
+    public static void setMetrics(BedrockMetrics sink) {
+        metrics = Objects.requireNonNull(sink);
+    }
+
+    static BedrockMetrics metrics() {
+        return metrics;
+    }
+
+    private static volatile OutputSink output = OutputSink.none();
+
+    /*
+    Installs where the samples print their responses and errors, e.g. OutputSink.console().
+    By default nothing is printed.
+    */
+    public static void setOutput(OutputSink sink) {
+        output = Objects.requireNonNull(sink);
+    }
+
+    static OutputSink output() {
+        return output;
+    }
+
     /*
     method to invoke AWS Bedrock model and get the response without streaming. 
     Parameters:
@@ -77,64 +148,113 @@ public class BedrockHelper {
     The response from the model as a JSON string.
     */
     public static String invokeModel(String modelId, String prompt) {
+        return invokeModel(modelId, sampleRequest(prompt, INVOKE_MAX_TOKENS));
+    }
+
+    /*
+    Same as above with explicit inference parameters, for any supported model family
+    (see ModelFamily), e.g. with temperature 0 so that the response can be cached.
+    */
+    public static String invokeModel(String modelId, InferenceRequest inferenceRequest) {
         
 
-            // Create a Bedrock Runtime client in the AWS Region you want to use.
-            // Replace the DefaultCredentialsProvider with your preferred credentials provider.
-            BedrockRuntimeClient client = BedrockRuntimeClient.builder()
-                    .credentialsProvider(DefaultCredentialsProvider.create())
-                    .build();
+            // Reuse the shared Bedrock Runtime client for the default AWS Region.
+            // Use BedrockClients.shared().runtime(region, credentialsProvider) for another region or credentials.
+            BedrockRuntimeClient client = BedrockClients.shared().runtime();
     
-            // Set the model ID, e.g., Claude 3 Haiku.
-            
-    
-            // The InvokeModel API uses the model's native payload.
-            // Learn more about the available inference parameters and response fields at:
-            // https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters-anthropic-claude-messages.html
-            var nativeRequestTemplate = """
-                    {
-                        "anthropic_version": "bedrock-2023-05-31",
-                        "max_tokens": 512,
-                        "temperature": 0.5,
-                        "messages" : [
-                                {
-                                "role" : "user",
-                                "content" : [ {"type" : "text", "text" : "{{prompt}}"} ]
-                                }
-                        ]
-                    }""";
-    
-            // Define the prompt for the model.
-           
+            // Find the native request format of the model, e.g. Anthropic Messages for Claude 3 Haiku.
+            ModelFamily family = ModelFamily.of(modelId);
+
+            // Count the prompt locally and cap max_tokens at what the model can return after it;
+            // a prompt that does not fit the model's context is rejected here, before any round-trip.
+            int inputTokens = inputTokens(modelId, inferenceRequest);
+            var sizedRequest = fitted(modelId, inferenceRequest, inputTokens);
     
-            // Embed the prompt in the model's native request payload.
-            String nativeRequest = nativeRequestTemplate.replace("{{prompt}}", prompt);
+            // Encode the prompt in the model's native request payload.
+            SdkBytes nativeRequest = family.body(sizedRequest);
     
             try {
-                // Encode and send the request to the Bedrock Runtime.
-                InvokeModelResponse response = client.invokeModel(request -> request
-                        .body(SdkBytes.fromUtf8String(nativeRequest))
-                        .modelId(modelId)
-                        .trace(Trace.ENABLED)
-                );
-    
-                // Decode the response body.
-                var responseBody = new JSONObject(response.body().asUtf8String());
-    
-                // Retrieve the generated text from the model's response.
-                var text = new JSONPointer("/content/0/text").queryFrom(responseBody).toString();
-                System.out.println(text);
+                // Encode and send the request to the Bedrock Runtime, unless the response is already cached.
+                var text = cached(sizedRequest.temperature(), () -> invokeModelKey(modelId, nativeRequest),
+                        () -> semanticCached(modelId, sizedRequest, () ->
+                                routed(modelId, inputTokens + sizedRequest.maxTokens(), client, (routeClient, routeModelId) -> {
+                                    // A router may send the call to another model family, which needs its own body.
+                                    ModelFamily routeFamily = routeModelId.equals(modelId) ? family : ModelFamily.of(routeModelId);
+                                    SdkBytes body = routeModelId.equals(modelId)
+                                            ? nativeRequest
+                                            : routeFamily.body(fitted(routeModelId, inferenceRequest));
+                                    InvokeModelResponse response = routeClient.invokeModel(request -> request
+                                            .body(body)
+                                            .modelId(routeModelId)
+                                            .trace(Trace.ENABLED)
+                                    );
+
+                                    // Decode the response body and retrieve the generated text.
+                                    return routeFamily.responseText(response.body());
+                                })));
+                output.text(text);
     
                 return text;
     
             } 
             catch (SdkClientException e) 
             {
-                System.err.printf("ERROR: Can't invoke '%s'. Reason: %s", modelId, e.getMessage());
+                output.error(String.format("ERROR: Can't invoke '%s'. Reason: %s", modelId, e.getMessage()));
                 throw new RuntimeException(e);
             }
     }
 
+    /*
+    method to invoke AWS Bedrock model for many prompts concurrently, e.g. for nightly batches.
+    Each call runs on its own thread (a virtual thread on Java 21+) with at most
+    DEFAULT_BATCH_CONCURRENCY calls in flight.
+    Returns:
+    One BatchResult per prompt, in input order. A failed prompt is reported in its result
+    and does not fail the rest of the batch.
+    */
+    public static List<BatchResult> invokeModelBatch(String modelId, Iterable<String> prompts) throws InterruptedException {
+        return invokeModelBatch(modelId, prompts, DEFAULT_BATCH_CONCURRENCY);
+    }
+
+    // Same as above with an explicit cap on the number of calls in flight.
+    public static List<BatchResult> invokeModelBatch(String modelId, Iterable<String> prompts, int concurrency) throws InterruptedException {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1, was " + concurrency);
+        }
+
+        var permits = new Semaphore(concurrency);
+        var executor = TaskExecutors.newTaskExecutor(concurrency, "bedrock-batch-");
+        List<Future<BatchResult>> pending = new ArrayList<>();
+        try {
+            int index = 0;
+            for (String prompt : prompts) {
+                // Wait for a free slot, so prompts are pulled from the input only as fast as calls complete.
+                permits.acquire();
+                int position = index++;
+                pending.add(executor.submit(() -> {
+                    try {
+                        return new BatchResult(position, prompt, invokeModel(modelId, prompt), null);
+                    } catch (RuntimeException e) {
+                        return new BatchResult(position, prompt, null, e);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<BatchResult> results = new ArrayList<>(pending.size());
+            for (Future<BatchResult> result : pending) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            // Only reachable for Errors; per-prompt exceptions are captured in their BatchResult.
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Interrupts in-flight calls if we are leaving early; a no-op once every call has finished.
+            executor.shutdownNow();
+        }
+    }
 
    /*
     method to invoke AWS Bedrock model and get the response with streaming.
@@ -145,65 +265,40 @@ public class BedrockHelper {
     The response from the model as a stream of JSON strings.
     */
     public static String invokeModelWithStream(String modelId, String prompt) {
-        // Create a Bedrock Runtime client in the AWS Region you want to use.
-        // Replace the DefaultCredentialsProvider with your preferred credentials provider.
-        var client = BedrockRuntimeAsyncClient.builder()
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+        // Reuse the shared async Bedrock Runtime client for the default AWS Region.
+        // Use BedrockClients.shared().runtimeAsync(region, credentialsProvider) for another region or credentials.
+        var client = BedrockClients.shared().runtimeAsync();
 
   
 
-        // The InvokeModelWithResponseStream API uses the model's native payload.
-        // Learn more about the available inference parameters and response fields at:
-        // https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters-anthropic-claude-messages.html
-        var nativeRequestTemplate = """
-                {
-                    "anthropic_version": "bedrock-2023-05-31",
-                    "max_tokens": 15120,
-                    "temperature": 0.5,
-                    "messages": [{
-                        "role": "user",
-                        "content" : [ {"type" : "text", "text" : "{{prompt}}"} ]
-                    }]
-                }""";
-
-        
-        // Embed the prompt in the model's native request payload.
-        String nativeRequest = nativeRequestTemplate.replace("{{prompt}}", prompt);
-
-        // Create a request with the model ID and the model's native request payload.
-        var request = InvokeModelWithResponseStreamRequest.builder()
-                .body(SdkBytes.fromUtf8String(nativeRequest))
-                .modelId(modelId)
-                .build();
+        // Create a request with the model ID and the model's native request payload,
+        // asking for no more output than the model can return after the prompt.
+        int inputTokens = countTokens(modelId, prompt);
+        int maxTokens = fitMaxTokens(modelId, inputTokens, STREAM_MAX_TOKENS);
+        var request = streamRequest(modelId, prompt, maxTokens);
 
         // Prepare a buffer to accumulate the generated response text.
         var completeResponseTextBuffer = new StringBuilder();
 
-        // Prepare a handler to extract, accumulate, and print the response text in real-time.
-        var responseStreamHandler = InvokeModelWithResponseStreamResponseHandler.builder()
-                .subscriber(Visitor.builder().onChunk(chunk -> {
-                    var response = new JSONObject(chunk.bytes().asUtf8String());
-
-                    // Extract and print the text from the content blocks.
-                    if (Objects.equals(response.getString("type"), "content_block_delta")) {
-                        var text = new JSONPointer("/delta/text").queryFrom(response);
-                        System.out.print(text);
-
-                        // Append the text to the response text buffer.
-                        completeResponseTextBuffer.append(text);
-                    }
-                }).build()).build();
-
         try {
             // Send the request and wait for the handler to process the response.
-            client.invokeModelWithResponseStream(request, responseStreamHandler).get();
+            // A retried attempt starts over with an empty buffer and a fresh handler.
+            admissionControl.callAsync(modelId,
+                    inputTokens + maxTokens,
+                    () -> {
+                        completeResponseTextBuffer.setLength(0);
+                        // Prepare a handler to extract, accumulate, and print the response text in real-time.
+                        OutputSink sink = output;
+                        var responseStreamHandler = streamHandler(request, completeResponseTextBuffer,
+                                sink == OutputSink.NONE ? null : sink::delta);
+                        return client.invokeModelWithResponseStream(request, responseStreamHandler);
+                    }).get();
 
             // Return the complete response text.
             return completeResponseTextBuffer.toString();
 
         } catch (ExecutionException | InterruptedException e) {
-            System.err.printf("Can't invoke '%s': %s", modelId, e.getCause().getMessage());
+            output.error(String.format("Can't invoke '%s': %s", modelId, e.getCause().getMessage()));
             throw new RuntimeException(e);
         }
     }
@@ -213,53 +308,30 @@ public class BedrockHelper {
     public static String converseApi(String modelId,String imagePath) throws IOException {
 
 
-        // Create a Bedrock Runtime client in the AWS Region you want to use.
-        // Replace the DefaultCredentialsProvider with your preferred credentials provider.
-        var client = BedrockRuntimeClient.builder()
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+        // Reuse the shared Bedrock Runtime client for the default AWS Region.
+        // Use BedrockClients.shared().runtime(region, credentialsProvider) for another region or credentials.
+        var client = BedrockClients.shared().runtime();
 
         
         // Create the input text and embed it in a message object with the user role.
-        var inputText = "Describe the content of the image.";
-
-        File fi = new File(imagePath);
-        byte[] fileContent = Files.readAllBytes(fi.toPath());
-
-        Collection<ContentBlock> col = new ArrayList<ContentBlock>();
-
-        col.add(ContentBlock.fromImage(ImageBlock.builder()
-                .source(ImageSource.builder()
-                    .bytes(SdkBytes.fromByteArray(fileContent))
-                    .build())
-                .format(ImageFormat.JPEG)
-                .build()));
-        col.add(ContentBlock.fromText(inputText));     
-
-        var message = Message.builder()
-                .content(col)
-                .role(ConversationRole.USER)
-                .build();
-
+        var message = imageMessage(imagePath);
 
         try {
-            // Send the message with a basic inference configuration.
-            ConverseResponse response = client.converse(request -> request
-                    .modelId(modelId)
-                    .messages(message)
-                    .inferenceConfig(config -> config
-                            .maxTokens(1024)
-                            .temperature(0.5F)
-                            .topP(0.9F)));
-
-            // Retrieve the generated text from Bedrock's response object.
-            var responseText = response.output().message().content().get(0).text();
-            System.out.println("\n"+responseText);
+            // Send the message with a basic inference configuration, unless the response is already cached.
+            var request = converseRequest(modelId, message);
+            var responseText = cached(request.inferenceConfig().temperature(), () -> converseKey(request), () -> {
+                ConverseResponse response = routed(modelId, IMAGE_TOKENS + CONVERSE_MAX_TOKENS, client,
+                        (routeClient, routeModelId) -> routeClient.converse(withModel(request, routeModelId)));
+
+                // Retrieve the generated text from Bedrock's response object.
+                return response.output().message().content().get(0).text();
+            });
+            output.text("\n"+responseText);
 
             return responseText;
 
         } catch (SdkClientException e) {
-            System.err.printf("ERROR: Can't invoke '%s'. Reason: %s", modelId, e.getMessage());
+            output.error(String.format("ERROR: Can't invoke '%s'. Reason: %s", modelId, e.getMessage()));
             throw new RuntimeException(e);
         }
     }
@@ -270,67 +342,69 @@ public class BedrockHelper {
                                      String agentAlisId,
                                      String sessionId) throws ExecutionException, InterruptedException {
         
-        BedrockAgentRuntimeAsyncClient client  = BedrockAgentRuntimeAsyncClient.builder().build();
-
-        var completeResponseTextBuffer = new StringBuilder();
-    
-        var handler = InvokeAgentResponseHandler.builder()
-                .subscriber(InvokeAgentResponseHandler.Visitor.builder()
-                        .onChunk(chunk -> completeResponseTextBuffer.append(chunk.bytes().asUtf8String()))
-                        .build())
-                .build();
-    
-        var request = InvokeAgentRequest.builder()
-                .agentId(agentId)
-                .agentAliasId(agentAlisId)
-                .sessionId(sessionId)
-                .inputText(prompt)
-                .build();
-    
-        client.invokeAgent(request, handler).get();
-    
-        String response =  completeResponseTextBuffer.toString();
-        System.out.println(response);
+        // Events are handled as they arrive; this sample only needs the text of the answer chunks.
+        String response = agentPublisher(prompt, agentId, agentAlisId, sessionId)
+                .forEach(event -> { })
+                .get();
+        output.text(response);
         return response;
     }
 
     //Real-time document insight
     public static String documentInsight(String filePath,String modelId,String command) throws IOException {
-        var client = BedrockRuntimeClient.builder().region(Region.US_EAST_1).build();
+        // Used unless a router serving modelId is installed (see setRouter).
+        var client = BedrockClients.shared().runtime(Region.US_EAST_1);
 
         
-        var fileContent = SdkBytes.fromByteArray(Files.readAllBytes(Paths.get(filePath)));
+        // Read once and reused while the same file is queried with other commands.
+        var document = MediaLoader.shared().document(Paths.get(filePath));
+
+        // Text documents too long for the model's context are answered part by part; PDFs too long are rejected here.
+        int inputTokens = documentTokens(document) + countTokens(modelId, command);
+        if (TEXT_DOCUMENTS.contains(document.format())) {
+            String text = document.source().bytes().asUtf8String();
+            inputTokens = countTokens(modelId, text) + countTokens(modelId, command);
+            if (inputTokens > promptTokens(modelId)) {
+                return mapReduce(modelId, command, text, client);
+            }
+        } else {
+            checkDocumentFits(modelId, filePath, document, command);
+        }
 
-        var textMessage = ContentBlock.fromText(command);
-        var document = ContentBlock.fromDocument(doc -> doc.name("document")
-                .format(DocumentFormat.PDF)
-                .source(DocumentSource.fromBytes(fileContent)));
-
-        var response = client.converse(req -> req
-                .modelId(modelId)
-                .messages(message -> message
-                        .role(ConversationRole.USER)
-                        .content(textMessage, document)));
+        var response = routed(modelId, inputTokens, client,
+                (routeClient, routeModelId) -> routeClient.converse(documentRequest(routeModelId, document, command)));
 
         return response.output().message().content().get(0).text();    
     }
 
+    /*
+    Same as above for documents already read by Textract (see TextractIngestion): their fields go to
+    the model as text, so it answers from the extracted values rather than from the scans.
+    Fields of more documents than fit in the model's context are answered part by part.
+    */
+    public static String documentInsight(List<TextractIngestion.ScannedDocument> documents, String modelId, String command) {
+        // Used unless a router serving modelId is installed (see setRouter).
+        var client = BedrockClients.shared().runtime(Region.US_EAST_1);
+        var prompt = scannedDocumentsPrompt(documents, command);
+        int inputTokens = countTokens(modelId, prompt);
+        if (inputTokens > promptTokens(modelId)) {
+            return mapReduce(modelId, command, scannedDocumentsContext(documents), client);
+        }
+
+        var response = routed(modelId, inputTokens, client,
+                (routeClient, routeModelId) -> routeClient.converse(textRequest(routeModelId, prompt)));
+
+        return response.output().message().content().get(0).text();
+    }
+
     public static String queryKnowledgeBase(String kbId,String text,String modelArn) throws InterruptedException, ExecutionException
     {
-        BedrockAgentRuntimeAsyncClient client  = BedrockAgentRuntimeAsyncClient.builder().build();
-        return client.retrieveAndGenerate(RetrieveAndGenerateRequest.builder()
-                .input(RetrieveAndGenerateInput.builder()
-                        .text(text)
-                        .build())  
-                .retrieveAndGenerateConfiguration(RetrieveAndGenerateConfiguration.builder()
-                        .knowledgeBaseConfiguration(KnowledgeBaseRetrieveAndGenerateConfiguration.builder()
-                                        .knowledgeBaseId(kbId)
-                                        .modelArn(modelArn)
-                                        .build() )                       
-                        .type(RetrieveAndGenerateType.KNOWLEDGE_BASE)
-                        .build())              
-                .build())
-        .get().output().text();
+        BedrockAgentRuntimeAsyncClient client  = BedrockClients.shared().agentRuntimeAsync();
+        return cachedAsync(null, () -> knowledgeBaseKey(kbId, text, modelArn),
+                () -> admissionControl.callAsync(modelArn, AdmissionControl.estimateTokens(text),
+                        () -> client.retrieveAndGenerate(knowledgeBaseRequest(kbId, text, modelArn)))
+                .thenApply(response -> response.output().text()))
+        .get();
     }
     private static String getTopSong(String sign)
     {
@@ -348,136 +422,523 @@ public class BedrockHelper {
 
     return song;
     }
-    //direct conversion of https://docs.aws.amazon.com/bedrock/latest/userguide/tool-use-examples.html to Java
+    //direct conversion of https://docs.aws.amazon.com/bedrock/latest/userguide/tool-use-examples.html to Java,
+    //now running on ToolLoop: the model can call the tool over several turns before it answers.
     public static void useTool()
     {
-       Collection<Message> allMessages = new ArrayList<Message>();
-
-       String modelId="cohere.command-r-v1:0";
-       
-       Document sign = Document.mapBuilder()
-                .putString("type", "string")
-                .putString("description", "The call sign for the radio station for which you want the most popular song. Example calls signs are WZPZ, and WKRP.").build();
-        Document required = Document.listBuilder()
-                .addString("sign").build();
-        Document properties = Document.mapBuilder()
-                .putDocument("sign", sign).build();
-        Document json = Document.mapBuilder()
-                .putString("type", "object")
-                .putDocument("properties", properties)
-                .putDocument("required", required).build();
-        String toolName = "topSongsTool";
-        ToolSpecification.Builder builder  = ToolSpecification.builder().inputSchema(ToolInputSchema.builder().json(json).build());
-        builder.name(toolName);
-        Tool tool = Tool.fromToolSpec(builder.build());
-        ToolConfiguration tc = ToolConfiguration.builder().tools(tool).build();
-        var client = BedrockRuntimeClient.builder().build();
-        Message message = Message.builder()
-                .content(ContentBlock.fromText("What is the most popular song on WZPZ?"))
-                .role(ConversationRole.USER)
+        output.text(topSongsLoop().run(TOP_SONGS_QUESTION));
+    }
+
+    /*
+    method to extract the fields of an identity document (driver's license, passport...) with Textract.
+    A multi-page TIFF is split into its pages. Each field is also shown through the installed OutputSink;
+    a failure is shown there and returned in the result. See TextractIngestion for whole directories.
+    */
+    public static TextractIngestion.ScannedDocument analyzeIdWithTextract(String filePath) throws InterruptedException {
+        var document = TEXTRACT_INGESTION.scan(Paths.get(filePath));
+        if (document.isSuccess()) {
+            document.fields().forEach(field -> output.text(field.type() + ": " + field.value()));
+        } else {
+            output.error(document.error().getMessage());
+        }
+        return document;
+    }
+
+    // ---- Request and response building shared by BedrockHelper and BedrockAsyncHelper ----
+
+    static final int DEFAULT_BATCH_CONCURRENCY = 16;
+    static final int INVOKE_MAX_TOKENS = 512;
+    static final int STREAM_MAX_TOKENS = 15120;
+    static final int CONVERSE_MAX_TOKENS = 1024;
+    // Rough input-token allowances used for tokens-per-minute budgeting of non-text content.
+    static final int IMAGE_TOKENS = 1600;
+    // Per page of a PDF: its text plus, for models that read pages as images, the page image.
+    static final int PDF_PAGE_TOKENS = 1500;
+    // Document formats sent as plain text, which can be counted and split.
+    static final Set<DocumentFormat> TEXT_DOCUMENTS = EnumSet.of(DocumentFormat.TXT, DocumentFormat.MD,
+            DocumentFormat.CSV, DocumentFormat.HTML);
+    static final String MAP_INSTRUCTIONS = "\n\nThe documents are too long to read at once, so they are given in parts. "
+            + "Answer from this part only, and say so briefly if it holds nothing relevant.\n\n";
+    static final String REDUCE_INSTRUCTIONS = "\n\nThe documents were too long to read at once, so they were "
+            + "read in parts. Combine the answers found in each part into one answer.\n\n";
+    static final String TEXTRACT_QUOTA = "textract";
+    static final TextractIngestion TEXTRACT_INGESTION = TextractIngestion.builder().build();
+    static final String TOOL_MODEL_ID = "cohere.command-r-v1:0";
+    static final String TOP_SONGS_TOOL = "topSongsTool";
+    static final String TOP_SONGS_QUESTION = "What is the most popular song on WZPZ?";
+    static final float SAMPLE_TEMPERATURE = 0.5F;
+
+    // The samples' inference parameters; InvokeModel uses the model's native payload built by ModelFamily.
+    static InferenceRequest sampleRequest(String prompt, int maxTokens) {
+        return InferenceRequest.builder()
+                .prompt(prompt)
+                .maxTokens(maxTokens)
+                .temperature(SAMPLE_TEMPERATURE)
                 .build();
-        
-        allMessages.add(message);
-
-        // Send the message with a basic inference configuration.
-        ConverseResponse response = client.converse(request -> request
-        .modelId(modelId)
-        .messages(message)
-        .toolConfig(tc)
-        .inferenceConfig(config -> config
-                .maxTokens(1024)
-                .temperature(0.5F)
-                .topP(0.9F)));
-       
-        allMessages.add(response.output().message());
-        Collection<ContentBlock> col = response.output().message().content();
-        col.forEach(cb ->
-        {
-          ToolUseBlock tub = cb.toolUse();
-            if (tub!=null)
-            if (tub.name().equals(toolName))
-                    {
-                        String signValue = tub.input().asMap().get("sign").asString();
-                        try {
-                            String song = getTopSong(signValue);
-                            Collection<ToolResultContentBlock> trc = new ArrayList<ToolResultContentBlock>();
-                            Document td = Document.mapBuilder()
-                                          .putString("song", song)
-                                          .putString("artist", "8 Storey Hike")
-                                          .build();
-                            Document top = Document.mapBuilder()
-                                .putDocument("json", td)
-                                .build();
-                            trc.add(ToolResultContentBlock.fromJson(top));
-                            ToolResultBlock trb = ToolResultBlock.builder()
-                                            .toolUseId(tub.toolUseId())
-                                            .content(trc)
-                                            .build();
-                            
-                                         
-                            var messageTr = Message.builder()
-                                    .role(ConversationRole.USER)
-                                    .content(ContentBlock.fromToolResult(trb))
-                                    .build();
-
-                            allMessages.add(messageTr);
-
-                         
-                            var responseTr = client.converse(request -> request
-                                                .modelId(modelId)
-                                                .messages(allMessages)
-                                                .toolConfig(tc)
-                                                .inferenceConfig(config -> config
-                                                        .maxTokens(1024)
-                                                        .temperature(0.5F)
-                                                        .topP(0.9F)));
-                            System.out.println(responseTr.output().message().content().get(0).text());
-                        } catch (Exception e) {
-                            System.out.println("\n"+e.getMessage());
-                        }
+    }
+
+    /*
+    Runs a call for modelId through the installed router when it serves that model,
+    otherwise on client under admission control. The call gets the client and model ID to use.
+    */
+    static <T> T routed(String modelId, int estimatedTokens, BedrockRuntimeClient client,
+                        BiFunction<BedrockRuntimeClient, String, T> call) {
+        ModelRouter modelRouter = router;
+        if (modelRouter != null && modelRouter.serves(modelId)) {
+            return modelRouter.call(estimatedTokens, call);
+        }
+        return admissionControl.call(modelId, estimatedTokens, () -> call.apply(client, modelId));
+    }
+
+    static <T> CompletableFuture<T> routedAsync(String modelId, int estimatedTokens, BedrockRuntimeAsyncClient client,
+                                                BiFunction<BedrockRuntimeAsyncClient, String, CompletableFuture<T>> call) {
+        ModelRouter modelRouter = router;
+        if (modelRouter != null && modelRouter.serves(modelId)) {
+            return modelRouter.callAsync(estimatedTokens, call);
+        }
+        return admissionControl.callAsync(modelId, estimatedTokens, () -> call.apply(client, modelId));
+    }
+
+    static ConverseRequest withModel(ConverseRequest request, String modelId) {
+        return request.modelId().equals(modelId) ? request : request.toBuilder().modelId(modelId).build();
+    }
+
+    // The installed counter of the model's family, or an estimator for it.
+    static TokenCounter tokenCounter(String modelId) {
+        ModelFamily family = ModelFamily.find(modelId);
+        if (family == null) {
+            return TokenCounter.estimator();
+        }
+        TokenCounter counter = tokenCounters.get(family);
+        return counter != null ? counter : TokenCounter.estimator(family);
+    }
+
+    static int countTokens(String modelId, String text) {
+        return tokenCounter(modelId).count(text);
+    }
+
+    /*
+    Output tokens to ask for: requested, capped at the model's output limit and at the room the input
+    leaves in its context (see ModelLimits). Throws IllegalArgumentException when the input alone
+    does not fit, so the call fails here instead of after a round-trip.
+    */
+    static int fitMaxTokens(String modelId, int inputTokens, int requested) {
+        ModelLimits limits = ModelLimits.of(modelId);
+        int room = limits.contextTokens() - inputTokens;
+        if (room < 1) {
+            throw new IllegalArgumentException(String.format("The prompt (about %d tokens) does not fit in the %d-token context of %s",
+                    inputTokens, limits.contextTokens(), modelId));
+        }
+        return Math.min(requested, Math.min(limits.maxOutputTokens(), room));
+    }
+
+    // Input tokens a prompt may use when CONVERSE_MAX_TOKENS are kept for the answer.
+    static int promptTokens(String modelId) {
+        ModelLimits limits = ModelLimits.of(modelId);
+        return limits.contextTokens() - Math.min(CONVERSE_MAX_TOKENS, limits.maxOutputTokens());
+    }
+
+    static int inputTokens(String modelId, InferenceRequest request) {
+        TokenCounter counter = tokenCounter(modelId);
+        return counter.count(request.system()) + counter.count(request.prompt());
+    }
+
+    // The request with max_tokens fitted to the model (see fitMaxTokens).
+    static InferenceRequest fitted(String modelId, InferenceRequest request) {
+        return fitted(modelId, request, inputTokens(modelId, request));
+    }
+
+    static InferenceRequest fitted(String modelId, InferenceRequest request, int inputTokens) {
+        int maxTokens = fitMaxTokens(modelId, inputTokens, request.maxTokens());
+        return maxTokens == request.maxTokens() ? request : request.toBuilder().maxTokens(maxTokens).build();
+    }
+
+    // Streaming is decoded by AnthropicStreamDecoder, so the stream samples use the Anthropic Messages payload.
+    static InvokeModelWithResponseStreamRequest streamRequest(String modelId, String prompt, int maxTokens) {
+        return InvokeModelWithResponseStreamRequest.builder()
+                .body(ModelFamily.ANTHROPIC.body(sampleRequest(prompt, maxTokens)))
+                .modelId(modelId)
+                .build();
+    }
+
+    /*
+    Handler that appends every text delta to the buffer as it arrives.
+    The chunk bytes are decoded in place by an AnthropicStreamDecoder, with no per-chunk JSON tree.
+    onText, if not null, also receives each delta as a String (e.g. to print it).
+    The stream is reported to the installed BedrockMetrics when it ends.
+    */
+    static InvokeModelWithResponseStreamResponseHandler streamHandler(InvokeModelWithResponseStreamRequest request,
+                                                                     StringBuilder buffer,
+                                                                     Consumer<String> onText) {
+        var decoder = new AnthropicStreamDecoder();
+        var streamMetrics = StreamMetrics.start("InvokeModelWithResponseStream", request.modelId(),
+                request.body().asByteArrayUnsafe().length);
+        return InvokeModelWithResponseStreamResponseHandler.builder()
+                .onComplete(() -> streamMetrics.complete(null))
+                .onError(streamMetrics::complete)
+                .subscriber(Visitor.builder().onChunk(chunk -> {
+                    int start = buffer.length();
+
+                    // Append the text of content_block_delta events straight into the response buffer.
+                    ByteBuffer bytes = chunk.bytes().asByteBuffer();
+                    var type = decoder.decode(bytes, buffer);
+                    streamMetrics.chunk(type, bytes, buffer.length() > start);
+
+                    if (onText != null && buffer.length() > start) {
+                        onText.accept(buffer.substring(start));
                     }
-        });
+                }).build()).build();
     }
 
-    
-    public static void analyzeIdWithTextract( String filePath) throws IOException {
-        
-        TextractClient textractClient = null;
-        try {
-                textractClient= TextractClient.builder()
+    /*
+    Runs the call through the installed response cache, if any, when the cache accepts requests
+    with this temperature (null when unknown). The key is only computed when needed.
+    */
+    static String cached(Float temperature, Supplier<ResponseCache.Key> key, Supplier<String> call) {
+        ResponseCache cache = responseCache;
+        if (cache == null || !cache.accepts(temperature)) {
+            return call.get();
+        }
+        return cache.get(key.get(), call);
+    }
+
+    static CompletableFuture<String> cachedAsync(Float temperature,
+                                                 Supplier<ResponseCache.Key> key,
+                                                 Supplier<CompletableFuture<String>> call) {
+        ResponseCache cache = responseCache;
+        if (cache == null || !cache.accepts(temperature)) {
+            return call.get();
+        }
+        return cache.getAsync(key.get(), call);
+    }
+
+    // Runs an invokeModel call through the installed semantic cache, if any, like cached() above.
+    static String semanticCached(String modelId, InferenceRequest request, Supplier<String> call) {
+        SemanticCache cache = semanticCache;
+        if (cache == null || !cache.accepts(request.temperature())) {
+            return call.get();
+        }
+        return cache.get(semanticScope(modelId, request), request.prompt(), call);
+    }
+
+    static CompletableFuture<String> semanticCachedAsync(String modelId,
+                                                         InferenceRequest request,
+                                                         Supplier<CompletableFuture<String>> call) {
+        SemanticCache cache = semanticCache;
+        if (cache == null || !cache.accepts(request.temperature())) {
+            return call.get();
+        }
+        return cache.getAsync(semanticScope(modelId, request), request.prompt(), call);
+    }
+
+    // Everything but the prompt: answers are only shared between requests that agree on all of it.
+    static String semanticScope(String modelId, InferenceRequest request) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("system", request.system());
+        parameters.put("maxTokens", request.maxTokens());
+        parameters.put("temperature", request.temperature());
+        parameters.put("topP", request.topP());
+        parameters.put("stopSequences", request.stopSequences());
+        return ResponseCache.key("InvokeModel", modelId, parameters).hash();
+    }
+
+    // The native request body already carries every inference parameter.
+    static ResponseCache.Key invokeModelKey(String modelId, SdkBytes nativeRequest) {
+        return ResponseCache.key("InvokeModel", modelId, Map.of(), nativeRequest.asByteArrayUnsafe());
+    }
+
+    // Keys a Converse request on its inference parameters and the content of every message.
+    static ResponseCache.Key converseKey(ConverseRequest request) {
+        Map<String, Object> parameters = new HashMap<>();
+        var config = request.inferenceConfig();
+        if (config != null) {
+            parameters.put("maxTokens", config.maxTokens());
+            parameters.put("temperature", config.temperature());
+            parameters.put("topP", config.topP());
+            parameters.put("stopSequences", config.stopSequences());
+        }
+        List<byte[]> inputs = new ArrayList<>();
+        for (Message message : request.messages()) {
+            inputs.add(message.roleAsString().getBytes(StandardCharsets.UTF_8));
+            for (ContentBlock block : message.content()) {
+                if (block.text() != null) {
+                    inputs.add(block.text().getBytes(StandardCharsets.UTF_8));
+                } else if (block.image() != null) {
+                    inputs.add(block.image().formatAsString().getBytes(StandardCharsets.UTF_8));
+                    inputs.add(block.image().source().bytes().asByteArrayUnsafe());
+                } else if (block.document() != null) {
+                    inputs.add(block.document().formatAsString().getBytes(StandardCharsets.UTF_8));
+                    inputs.add(block.document().source().bytes().asByteArrayUnsafe());
+                } else {
+                    inputs.add(block.toString().getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return ResponseCache.key("Converse", request.modelId(), parameters, inputs.toArray(new byte[0][]));
+    }
+
+    static ResponseCache.Key knowledgeBaseKey(String kbId, String text, String modelArn) {
+        return ResponseCache.key("RetrieveAndGenerate", modelArn, Map.of("knowledgeBaseId", kbId),
+                text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Message imageMessage(String imagePath) throws IOException {
+        var inputText = "Describe the content of the image.";
+
+        Collection<ContentBlock> col = new ArrayList<ContentBlock>();
+
+        col.add(ContentBlock.fromImage(MediaLoader.shared().image(Paths.get(imagePath))));
+        col.add(ContentBlock.fromText(inputText));
+
+        return Message.builder()
+                .content(col)
+                .role(ConversationRole.USER)
                 .build();
-           
-                // Create a Document object and import image
-            software.amazon.awssdk.services.textract.model.Document myDoc = software.amazon.awssdk.services.textract.model.Document.builder()
-                    .bytes(SdkBytes.fromByteArray(Files.readAllBytes(Paths.get(filePath))))
-                    .build();
-            
-            AnalyzeIdRequest analyzeIdRequest = AnalyzeIdRequest.builder()
-                    .documentPages(myDoc).build();
-            
-            AnalyzeIdResponse analyzeId = textractClient.analyzeID(analyzeIdRequest);
-            
-           // System.out.println(analyzeExpense.toString());          
-            List<IdentityDocument> Docs = analyzeId.identityDocuments();
-            for (IdentityDocument doc: Docs) {
-               doc.identityDocumentFields().forEach((field)->{
-                  System.out.println(field.toString());
-               });;
+    }
+
+    static ConverseRequest converseRequest(String modelId, Message message) {
+        return ConverseRequest.builder()
+                .modelId(modelId)
+                .messages(message)
+                .inferenceConfig(config -> config
+                        .maxTokens(CONVERSE_MAX_TOKENS)
+                        .temperature(SAMPLE_TEMPERATURE)
+                        .topP(0.9F))
+                .build();
+    }
+
+    /*
+    Rough token allowance for a document. PDFs are charged per page, since most of their bytes are
+    images and fonts; other formats fall back to about four bytes of file per token.
+    */
+    static int documentTokens(DocumentBlock document) {
+        int pages = document.format() == DocumentFormat.PDF ? TextractIngestion.pdfPages(document.source().bytes()) : 0;
+        if (pages > 0) {
+            return pages * PDF_PAGE_TOKENS;
+        }
+        return document.source().bytes().asByteBuffer().remaining() / 4;
+    }
+
+    /*
+    Throws IllegalArgumentException when a PDF does not fit in the model's context, judged from its page
+    count, so it fails before the upload instead of after it. Other formats, and PDFs whose pages can't be
+    counted (e.g. page objects inside compressed object streams), are left to Bedrock, since their size
+    alone says little about their tokens; MediaLoader has already applied the API's byte limit.
+    */
+    static void checkDocumentFits(String modelId, String filePath, DocumentBlock document, String command) {
+        int pages = document.format() == DocumentFormat.PDF ? TextractIngestion.pdfPages(document.source().bytes()) : 0;
+        if (pages == 0) {
+            return;
+        }
+        int inputTokens = pages * PDF_PAGE_TOKENS + countTokens(modelId, command);
+        if (inputTokens > promptTokens(modelId)) {
+            throw new IllegalArgumentException(String.format("%s (%d pages, about %d tokens with the command) does not fit in the %d-token context of %s; "
+                    + "split it or extract its text first", filePath, pages, inputTokens, ModelLimits.of(modelId).contextTokens(), modelId));
+        }
+    }
+
+    static ConverseRequest documentRequest(String modelId, DocumentBlock document, String command) {
+        var textMessage = ContentBlock.fromText(command);
+
+        return ConverseRequest.builder()
+                .modelId(modelId)
+                .messages(Message.builder()
+                        .role(ConversationRole.USER)
+                        .content(textMessage, ContentBlock.fromDocument(document))
+                        .build())
+                .build();
+    }
+
+    // The command followed by each document's fields.
+    static String scannedDocumentsPrompt(List<TextractIngestion.ScannedDocument> documents, String command) {
+        return command + "\n\n" + scannedDocumentsContext(documents);
+    }
+
+    // One <document> element per file, separated by blank lines so that long contexts split between documents.
+    static String scannedDocumentsContext(List<TextractIngestion.ScannedDocument> documents) {
+        StringBuilder context = new StringBuilder();
+        for (TextractIngestion.ScannedDocument document : documents) {
+            context.append("<document source=\"").append(document.source().getFileName())
+                    .append("\" pages=\"").append(document.pages()).append("\">\n")
+                    .append(document.toContext())
+                    .append("</document>\n\n");
+        }
+        return context.toString();
+    }
+
+    /*
+    Answers the command over a context too long for one prompt: the command is run on each part of
+    the context that fits, concurrently, and the answers are combined, in several rounds if even they
+    do not fit in one prompt. Each partial answer is limited to CONVERSE_MAX_TOKENS.
+    */
+    static String mapReduce(String modelId, String command, String context, BedrockRuntimeClient client) {
+        List<String> answers = converseAll(modelId, mapPrompts(modelId, command, context), client);
+        while (true) {
+            List<String> prompts = reducePrompts(modelId, command, answers);
+            if (prompts.size() == 1) {
+                return routed(modelId, countTokens(modelId, prompts.get(0)), client,
+                        (routeClient, routeModelId) -> routeClient.converse(textRequest(routeModelId, prompts.get(0))))
+                        .output().message().content().get(0).text();
             }
-            
-            
-        } 
-        catch (TextractException e) {
+            answers = converseAll(modelId, prompts, client);
+        }
+    }
 
-            System.err.println(e.getMessage());
-            
+    // The first round of mapReduce: the command on each part of the context that fits in one prompt.
+    static List<String> mapPrompts(String modelId, String command, String context) {
+        TokenCounter counter = tokenCounter(modelId);
+        int partTokens = promptTokens(modelId) - counter.count(command) - counter.count(MAP_INSTRUCTIONS);
+        int answerTokens = promptTokens(modelId) - counter.count(command) - counter.count(REDUCE_INSTRUCTIONS);
+        // Every round must combine several answers, with room for counting errors.
+        if (Math.min(partTokens, answerTokens) < 4 * CONVERSE_MAX_TOKENS) {
+            throw new IllegalArgumentException("The command is too long to answer over documents in parts with " + modelId);
         }
-        finally
-        {
-                textractClient.close();
+
+        List<String> prompts = new ArrayList<>();
+        for (String part : TextChunker.split(context, counter, partTokens)) {
+            prompts.add(command + MAP_INSTRUCTIONS + part);
         }
+        return prompts;
     }
-    
 
-    
+    // The next round of mapReduce: the answers so far, grouped into as few prompts as fit. A single prompt is the last round.
+    static List<String> reducePrompts(String modelId, String command, List<String> answers) {
+        TokenCounter counter = tokenCounter(modelId);
+        int answerTokens = promptTokens(modelId) - counter.count(command) - counter.count(REDUCE_INSTRUCTIONS);
+        List<String> prompts = new ArrayList<>();
+        StringBuilder group = new StringBuilder();
+        int groupTokens = 0;
+        for (int i = 0; i < answers.size(); i++) {
+            String answer = "<answer part=\"" + (i + 1) + "\">\n" + answers.get(i) + "\n</answer>\n";
+            int tokens = counter.count(answer);
+            if (groupTokens + tokens > answerTokens && groupTokens > 0) {
+                prompts.add(command + REDUCE_INSTRUCTIONS + group);
+                group.setLength(0);
+                groupTokens = 0;
+            }
+            group.append(answer);
+            groupTokens += tokens;
+        }
+        prompts.add(command + REDUCE_INSTRUCTIONS + group);
+        if (prompts.size() > 1 && prompts.size() >= answers.size()) {
+            throw new IllegalStateException("The answers of the document parts are too long to combine with " + modelId);
+        }
+        return prompts;
+    }
+
+    // A part's prompt with its answer limited to CONVERSE_MAX_TOKENS.
+    static ConverseRequest partRequest(String modelId, String prompt) {
+        return textRequest(modelId, prompt).toBuilder()
+                .inferenceConfig(config -> config.maxTokens(CONVERSE_MAX_TOKENS))
+                .build();
+    }
+
+    // Answers of text prompts of at most CONVERSE_MAX_TOKENS, in order, with DEFAULT_BATCH_CONCURRENCY calls at most in flight.
+    static List<String> converseAll(String modelId, List<String> prompts, BedrockRuntimeClient client) {
+        var permits = new Semaphore(DEFAULT_BATCH_CONCURRENCY);
+        var executor = TaskExecutors.newTaskExecutor(DEFAULT_BATCH_CONCURRENCY, "bedrock-parts-");
+        try {
+            List<Future<String>> pending = new ArrayList<>(prompts.size());
+            for (String prompt : prompts) {
+                permits.acquire();
+                pending.add(executor.submit(() -> {
+                    try {
+                        var request = partRequest(modelId, prompt);
+                        return routed(modelId, countTokens(modelId, prompt) + CONVERSE_MAX_TOKENS, client,
+                                (routeClient, routeModelId) -> routeClient.converse(withModel(request, routeModelId)))
+                                .output().message().content().get(0).text();
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<String> answers = new ArrayList<>(pending.size());
+            for (Future<String> answer : pending) {
+                answers.add(answer.get());
+            }
+            return answers;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while answering over document parts");
+        } finally {
+            // Stops the remaining parts if one of them failed; a no-op once every call has finished.
+            executor.shutdownNow();
+        }
+    }
+
+    static ConverseRequest textRequest(String modelId, String prompt) {
+        return ConverseRequest.builder()
+                .modelId(modelId)
+                .messages(Message.builder()
+                        .role(ConversationRole.USER)
+                        .content(ContentBlock.fromText(prompt))
+                        .build())
+                .build();
+    }
+
+    static InvokeAgentRequest agentRequest(String prompt, String agentId, String agentAliasId, String sessionId) {
+        return InvokeAgentRequest.builder()
+                .agentId(agentId)
+                .agentAliasId(agentAliasId)
+                .sessionId(sessionId)
+                .inputText(prompt)
+                .build();
+    }
+
+    static AgentEventPublisher agentPublisher(String prompt, String agentId, String agentAliasId, String sessionId) {
+        return new AgentEventPublisher(BedrockClients.shared().agentRuntimeAsync(),
+                agentRequest(prompt, agentId, agentAliasId, sessionId),
+                admissionControl,
+                AdmissionControl.estimateTokens(prompt),
+                AgentEventPublisher.Turns.NONE);
+    }
+
+    static RetrieveAndGenerateRequest knowledgeBaseRequest(String kbId, String text, String modelArn) {
+        return RetrieveAndGenerateRequest.builder()
+                .input(RetrieveAndGenerateInput.builder()
+                        .text(text)
+                        .build())
+                .retrieveAndGenerateConfiguration(RetrieveAndGenerateConfiguration.builder()
+                        .knowledgeBaseConfiguration(KnowledgeBaseRetrieveAndGenerateConfiguration.builder()
+                                        .knowledgeBaseId(kbId)
+                                        .modelArn(modelArn)
+                                        .build())
+                        .type(RetrieveAndGenerateType.KNOWLEDGE_BASE)
+                        .build())
+                .build();
+    }
+
+    static RetrieveRequest retrieveRequest(String kbId, String text, int numberOfResults) {
+        return RetrieveRequest.builder()
+                .knowledgeBaseId(kbId)
+                .retrievalQuery(query -> query.text(text))
+                .retrievalConfiguration(configuration -> configuration
+                        .vectorSearchConfiguration(search -> search.numberOfResults(numberOfResults)))
+                .build();
+    }
+
+    record TopSongRequest(
+            @ToolRegistry.Description("The call sign for the radio station for which you want the most popular song. Example calls signs are WZPZ, and WKRP.")
+            String sign) {
+    }
+
+    record TopSong(String song, String artist) {
+    }
+
+    static ToolLoop topSongsLoop() {
+        ToolRegistry tools = ToolRegistry.create()
+                .register(TOP_SONGS_TOOL, "Get the most popular song played on a radio station.",
+                        TopSongRequest.class, request -> new TopSong(getTopSong(request.sign()), "8 Storey Hike"));
+        return ToolLoop.builder()
+                .modelId(TOOL_MODEL_ID)
+                .tools(tools)
+                .inferenceConfig(config -> config
+                        .maxTokens(CONVERSE_MAX_TOKENS)
+                        .temperature(SAMPLE_TEMPERATURE)
+                        .topP(0.9F))
+                .build();
+    }
 }
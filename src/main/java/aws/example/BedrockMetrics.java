@@ -0,0 +1,70 @@
+package aws.example;
+
+import java.util.List;
+
+/*
+ * Receives one Call per finished Bedrock, Agents for Bedrock or Textract call made through a
+ * BedrockClients client, whether it succeeded or failed. Install one with BedrockHelper.setMetrics(...).
+ *
+ * MetricsRegistry aggregates calls into per-model histograms and counters, JfrMetrics turns them
+ * into JDK Flight Recorder events. To export to another registry (Micrometer, OpenTelemetry...),
+ * implement onCall, e.g. with a Micrometer Timer per operation and model:
+ *     call -> Timer.builder("bedrock.calls").tag("model", call.modelId()).register(registry)
+ *                  .record(call.latencyNanos(), TimeUnit.NANOSECONDS)
+ *
+ * onCall runs on the thread that finished the call (often an SDK event loop thread), so it must
+ * be fast and must not block. The default, none(), records nothing and adds no work to any call.
+ */
+@FunctionalInterface
+public interface BedrockMetrics {
+
+    /*
+    One call. Figures that do not apply or are unknown are -1.
+    operation: the API operation, e.g. "Converse" or "InvokeModelWithResponseStream".
+    modelId: the model ID, agent ID or knowledge base ID the call was for.
+    latencyNanos: from sending the request to the end of the response (the last event for streams).
+    timeToFirstTokenNanos: for streams, from sending the request to the first generated text.
+    inputTokens, outputTokens: token usage reported by the service.
+    requestBytes, responseBytes: body sizes on the wire.
+    attempts: HTTP attempts, above 1 when the SDK retried.
+    throttles: attempts rejected with HTTP 429.
+    error: the error code or exception type of a failed call, null on success.
+    */
+    record Call(String operation,
+                String modelId,
+                long latencyNanos,
+                long timeToFirstTokenNanos,
+                int inputTokens,
+                int outputTokens,
+                long requestBytes,
+                long responseBytes,
+                int attempts,
+                int throttles,
+                String error) {
+
+        // Output tokens per second of generation (after the first token for streams), or -1.
+        public double tokensPerSecond() {
+            long generation = timeToFirstTokenNanos > 0 ? latencyNanos - timeToFirstTokenNanos : latencyNanos;
+            return outputTokens > 0 && generation > 0 ? outputTokens * 1e9 / generation : -1;
+        }
+    }
+
+    void onCall(Call call);
+
+    BedrockMetrics NONE = call -> {
+    };
+
+    static BedrockMetrics none() {
+        return NONE;
+    }
+
+    // Passes every call to each of the sinks, in order.
+    static BedrockMetrics composite(BedrockMetrics... sinks) {
+        List<BedrockMetrics> all = List.of(sinks);
+        return call -> {
+            for (BedrockMetrics sink : all) {
+                sink.onCall(call);
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Exact token counts with a byte-pair-encoding vocabulary in tiktoken format.
+ *
+ * The text is cut into pieces with the pre-tokenizer pattern, each piece is encoded as UTF-8 and
+ * its bytes are merged pairwise, lowest rank first, until no adjacent pair is in the vocabulary;
+ * the pieces left are the tokens. Only the count is kept, so no token IDs are materialized.
+ *
+ * The vocabulary is an open-addressing table over one byte array, looked up by byte range, and every
+ * thread reuses its own matcher and buffers, so counting allocates nothing once a thread has warmed up.
+ */
+final class BpeTokenCounter implements TokenCounter {
+
+    // Llama 3's pre-tokenizer, which is also that of tiktoken's cl100k_base.
+    static final Pattern LLAMA3_PIECES = Pattern.compile(
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+                    + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+");
+
+    // Pieces longer than this (e.g. base64 or long runs of one character) are merged in windows of this size.
+    private static final int MAX_PIECE_BYTES = 512;
+    private static final int NO_RANK = Integer.MAX_VALUE;
+
+    private record Key(Path vocabulary, String pieces) {
+    }
+
+    private static final Map<Key, BpeTokenCounter> LOADED = new ConcurrentHashMap<>();
+
+    // Token i is bytes[offsets[i], offsets[i + 1]) with rank ranks[i]; slots hold token index + 1, 0 if free.
+    private final byte[] bytes;
+    private final int[] offsets;
+    private final int[] ranks;
+    private final int[] slots;
+    private final ThreadLocal<Scratch> scratch;
+
+    private BpeTokenCounter(List<String> lines, Pattern pieces) {
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[][] tokens = new byte[lines.size()][];
+        int[] tokenRanks = new int[lines.size()];
+        int count = 0;
+        int size = 0;
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IllegalArgumentException("Not a tiktoken vocabulary line: " + line);
+            }
+            tokens[count] = decoder.decode(line.substring(0, space));
+            tokenRanks[count] = Integer.parseInt(line.substring(space + 1).trim());
+            size += tokens[count].length;
+            count++;
+        }
+
+        this.bytes = new byte[size];
+        this.offsets = new int[count + 1];
+        this.ranks = Arrays.copyOf(tokenRanks, count);
+        this.slots = new int[Integer.highestOneBit(Math.max(count, 1) * 2) * 2];
+        for (int i = 0, offset = 0; i < count; i++) {
+            System.arraycopy(tokens[i], 0, bytes, offset, tokens[i].length);
+            offsets[i] = offset;
+            offset += tokens[i].length;
+            offsets[i + 1] = offset;
+            int slot = hash(bytes, offsets[i], offset) & (slots.length - 1);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            slots[slot] = i + 1;
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(pieces.matcher("")));
+    }
+
+    static BpeTokenCounter load(Path vocabulary, Pattern pieces) {
+        return LOADED.computeIfAbsent(new Key(vocabulary.toAbsolutePath().normalize(), pieces.pattern()), key -> {
+            try {
+                return new BpeTokenCounter(Files.readAllLines(key.vocabulary(), StandardCharsets.US_ASCII), pieces);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't read the token vocabulary " + key.vocabulary(), e);
+            }
+        });
+    }
+
+    @Override
+    public int count(CharSequence text, int start, int end) {
+        Scratch buffers = scratch.get();
+        Matcher matcher = buffers.matcher.reset(text).region(start, end);
+        int tokens = 0;
+        while (matcher.find()) {
+            int length = buffers.encode(text, matcher.start(), matcher.end());
+            for (int from = 0; from < length; from += MAX_PIECE_BYTES) {
+                tokens += merge(buffers, from, Math.min(length, from + MAX_PIECE_BYTES));
+            }
+        }
+        // Do not keep the text reachable from the thread.
+        matcher.reset("");
+        return tokens;
+    }
+
+    // Tokens of the UTF-8 bytes in buffers.bytes[from, to) after byte-pair merging.
+    private int merge(Scratch buffers, int from, int to) {
+        byte[] piece = buffers.bytes;
+        if (to - from == 1 || rank(piece, from, to) != NO_RANK) {
+            return 1;
+        }
+
+        // Part i is piece[bounds[i], bounds[i + 1]); pairRanks[i] is the rank of parts i and i + 1 merged.
+        int[] bounds = buffers.bounds;
+        int[] pairRanks = buffers.pairRanks;
+        int boundaries = to - from + 1;
+        for (int i = 0; i < boundaries; i++) {
+            bounds[i] = from + i;
+        }
+        for (int i = 0; i < boundaries - 2; i++) {
+            pairRanks[i] = rank(piece, bounds[i], bounds[i + 2]);
+        }
+
+        while (boundaries > 2) {
+            int best = -1;
+            int bestRank = NO_RANK;
+            for (int i = 0; i < boundaries - 2; i++) {
+                if (pairRanks[i] < bestRank) {
+                    bestRank = pairRanks[i];
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            // Merge parts best and best + 1 by dropping the boundary between them.
+            System.arraycopy(bounds, best + 2, bounds, best + 1, boundaries - best - 2);
+            System.arraycopy(pairRanks, best + 2, pairRanks, best + 1, Math.max(boundaries - best - 4, 0));
+            boundaries--;
+            if (best < boundaries - 2) {
+                pairRanks[best] = rank(piece, bounds[best], bounds[best + 2]);
+            }
+            if (best > 0) {
+                pairRanks[best - 1] = rank(piece, bounds[best - 1], bounds[best + 1]);
+            }
+        }
+        return boundaries - 1;
+    }
+
+    private int rank(byte[] piece, int from, int to) {
+        int slot = hash(piece, from, to) & (slots.length - 1);
+        int length = to - from;
+        for (int entry = slots[slot]; entry != 0; entry = slots[slot]) {
+            int token = entry - 1;
+            int offset = offsets[token];
+            if (offsets[token + 1] - offset == length
+                    && Arrays.equals(bytes, offset, offset + length, piece, from, to)) {
+                return ranks[token];
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return NO_RANK;
+    }
+
+    // FNV-1a.
+    private static int hash(byte[] data, int from, int to) {
+        int hash = 0x811C9DC5;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // Per-thread matcher and buffers; bytes grows to the longest piece seen.
+    private static final class Scratch {
+        final Matcher matcher;
+        byte[] bytes = new byte[256];
+        int[] bounds = new int[MAX_PIECE_BYTES + 1];
+        int[] pairRanks = new int[MAX_PIECE_BYTES];
+
+        Scratch(Matcher matcher) {
+            this.matcher = matcher;
+        }
+
+        // Encodes text[start, end) as UTF-8 into bytes and returns the length.
+        int encode(CharSequence text, int start, int end) {
+            if (bytes.length < (end - start) * 3) {
+                bytes = new byte[(end - start) * 3];
+            }
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | c >> 6);
+                    bytes[length++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+                } else {
+                    bytes[length++] = (byte) (0xE0 | c >> 12);
+                    bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                    bytes[length++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package aws.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InferenceConfiguration;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.StopReason;
+import software.amazon.awssdk.services.bedrockruntime.model.SystemContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.TokenUsage;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolUseBlock;
+
+/*
+ * Multi-turn Converse conversation that keeps its history within a token budget.
+ *
+ * Each turn sends the history plus the new user message, and appends the user message and the reply
+ * to the history and to the optional ConversationStore (only the new messages are written).
+ * When the estimated request size would exceed tokenBudget, the oldest whole turns are dropped
+ * until the history is back to half the budget: TRUNCATE discards them, SUMMARIZE first has the
+ * model fold them into a running summary that is sent as part of the system prompt. Compacting
+ * well below the budget means it happens only every few turns, and in between the start of every
+ * request is identical to the previous one.
+ *
+ * That stable prefix is what Bedrock prompt caching reuses: with promptCaching(true) each request
+ * carries cache checkpoints after the system prompt and after the previous turn, so only the new
+ * turn is processed at full input cost and latency. Use it with models that support prompt caching.
+ *
+ * Turns of one session run one at a time, in the order they were sent. Sessions are independent.
+ */
+public final class ConversationSession {
+
+    public enum Compaction {
+        TRUNCATE,
+        SUMMARIZE
+    }
+
+    // lastInputTokens is the input size of the last request as reported by Bedrock (0 for tool turns).
+    public record Stats(int messages, int estimatedTokens, int lastInputTokens, int compactions) {
+    }
+
+    private record Entry(Message message, int tokens) {
+    }
+
+    static final int SUMMARY_MAX_TOKENS = 512;
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+    private static final String SUMMARIZE_INSTRUCTION = "Summarize the conversation below for the assistant that will continue it. "
+            + "Keep facts, names, numbers, decisions and open questions; drop pleasantries. "
+            + "Answer with the summary only.";
+
+    private final BedrockRuntimeAsyncClient client;
+    private final String modelId;
+    private final String summaryModelId;
+    private final String sessionId;
+    private final ConversationStore store;
+    private final List<SystemContentBlock> system;
+    private final int systemTokens;
+    private final InferenceConfiguration inferenceConfig;
+    private final int tokenBudget;
+    private final Compaction compaction;
+    private final boolean promptCaching;
+
+    // Guarded by this.
+    private final List<Entry> history = new ArrayList<>();
+    private int historyTokens;
+    private String summary;
+    private int lastInputTokens;
+    private int compactions;
+    private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+    private ConversationSession(Builder builder) {
+        this.client = builder.client;
+        this.modelId = Objects.requireNonNull(builder.modelId, "modelId");
+        this.summaryModelId = builder.summaryModelId != null ? builder.summaryModelId : builder.modelId;
+        this.sessionId = builder.sessionId != null ? builder.sessionId : UUID.randomUUID().toString();
+        this.store = builder.store;
+        this.system = builder.system == null ? List.of() : List.of(SystemContentBlock.fromText(builder.system));
+        this.systemTokens = AdmissionControl.estimateTokens(builder.system);
+        this.inferenceConfig = builder.inferenceConfig;
+        this.tokenBudget = builder.tokenBudget;
+        this.compaction = builder.compaction;
+        this.promptCaching = builder.promptCaching;
+        if (tokenBudget < 1) {
+            throw new IllegalArgumentException("tokenBudget must be at least 1, was " + tokenBudget);
+        }
+
+        if (store != null) {
+            ConversationStore.Snapshot snapshot;
+            try {
+                snapshot = store.load(sessionId);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't load conversation " + sessionId, e);
+            }
+            summary = snapshot.summary();
+            for (Message message : snapshot.messages()) {
+                add(message);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String sessionId() {
+        return sessionId;
+    }
+
+    // Sends the prompt and returns the model's answer.
+    public String send(String prompt) {
+        return join(sendAsync(prompt));
+    }
+
+    /*
+    Sends the prompt through a ToolLoop, so the model can use its tools before it answers.
+    The loop's model, system prompt and inference configuration apply to this turn; the session
+    contributes the history and summary, and keeps every message of the turn.
+    */
+    public String send(ToolLoop tools, String prompt) {
+        return join(sendAsync(tools, prompt));
+    }
+
+    public CompletableFuture<String> sendAsync(String prompt) {
+        Message user = userMessage(prompt);
+        return enqueue(calls -> compact(tokens(user), calls).thenCompose(ignored -> {
+            var request = request(user);
+            var runtime = client != null ? client : BedrockClients.shared().runtimeAsync();
+            return calls.track(BedrockHelper.admissionControl().callAsync(modelId, estimatedTokens(user),
+                            () -> runtime.converse(request)))
+                    .thenApply(response -> {
+                        Message reply = response.output().message();
+                        record(List.of(user, reply), response.usage());
+                        return text(reply);
+                    });
+        }));
+    }
+
+    public CompletableFuture<String> sendAsync(ToolLoop tools, String prompt) {
+        Message user = userMessage(prompt);
+        return enqueue(calls -> compact(tokens(user), calls).thenCompose(ignored -> {
+            List<Message> conversation = messages();
+            int start = conversation.size();
+            conversation = new ArrayList<>(conversation);
+            conversation.add(user);
+            return calls.track(tools.runAsync(conversation, summaryBlock()))
+                    .thenApply(result -> {
+                        // The loop's result holds the whole conversation; only this turn is new.
+                        List<Message> turn = new ArrayList<>(result.messages().subList(start, result.messages().size()));
+                        if (result.stopReason() == StopReason.TOOL_USE) {
+                            // The loop hit maxTurns: a toolUse without its toolResult would fail every later request.
+                            turn.set(turn.size() - 1, withoutToolUse(turn.get(turn.size() - 1)));
+                        }
+                        record(turn, null);
+                        return result.text();
+                    });
+        }));
+    }
+
+    public synchronized List<Message> messages() {
+        List<Message> messages = new ArrayList<>(history.size());
+        for (Entry entry : history) {
+            messages.add(entry.message());
+        }
+        return List.copyOf(messages);
+    }
+
+    // Summary of the turns compacted so far, or null.
+    public synchronized String summary() {
+        return summary;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(history.size(), fixedTokens() + historyTokens, lastInputTokens, compactions);
+    }
+
+    // Forgets the conversation, here and in the store.
+    public synchronized void clear() throws IOException {
+        if (store != null) {
+            store.delete(sessionId);
+        }
+        history.clear();
+        historyTokens = 0;
+        summary = null;
+    }
+
+    // ---- Turns ----
+
+    // Chains the turn after the previous one; cancelling its future cancels the calls it has made.
+    private synchronized <T> CompletableFuture<T> enqueue(Function<BedrockAsyncHelper.InFlight, CompletableFuture<T>> turn) {
+        var calls = new BedrockAsyncHelper.InFlight();
+        CompletableFuture<T> next = tail.handle((result, error) -> null).thenCompose(ignored -> turn.apply(calls));
+        tail = next;
+        return calls.bind(next);
+    }
+
+    private synchronized ConverseRequest request(Message user) {
+        List<Message> messages = new ArrayList<>(history.size() + 1);
+        for (Entry entry : history) {
+            messages.add(entry.message());
+        }
+        messages.add(user);
+
+        List<SystemContentBlock> systemBlocks = system;
+        if (summary != null) {
+            systemBlocks = new ArrayList<>(system);
+            systemBlocks.add(SystemContentBlock.fromText(summaryBlock()));
+        }
+
+        var request = ConverseRequest.builder()
+                .modelId(modelId)
+                .messages(messages)
+                .system(systemBlocks)
+                .inferenceConfig(inferenceConfig);
+        if (promptCaching) {
+            // One checkpoint after the system prompt and one after the last turn: everything before the new message.
+            var checkpoints = new PromptCachePoints.Checkpoints(!systemBlocks.isEmpty(),
+                    history.isEmpty() ? List.of() : List.of(history.size() - 1));
+            request.overrideConfiguration(o -> o.putExecutionAttribute(PromptCachePoints.CHECKPOINTS, checkpoints));
+        }
+        return request.build();
+    }
+
+    private synchronized void record(List<Message> messages, TokenUsage usage) {
+        if (store != null) {
+            try {
+                store.append(sessionId, messages);
+            } catch (IOException e) {
+                throw new RuntimeException("Can't save conversation " + sessionId, e);
+            }
+        }
+        messages.forEach(this::add);
+        if (usage != null && usage.inputTokens() != null) {
+            lastInputTokens = usage.inputTokens();
+        }
+    }
+
+    private void add(Message message) {
+        int tokens = tokens(message);
+        history.add(new Entry(message, tokens));
+        historyTokens += tokens;
+    }
+
+    private synchronized int estimatedTokens(Message user) {
+        int maxTokens = inferenceConfig != null && inferenceConfig.maxTokens() != null
+                ? inferenceConfig.maxTokens()
+                : BedrockHelper.CONVERSE_MAX_TOKENS;
+        return fixedTokens() + historyTokens + tokens(user) + maxTokens;
+    }
+
+    // ---- Compaction ----
+
+    /*
+    Drops the oldest whole turns when the next request would exceed the budget. A turn starts at a
+    user message that is not a tool result, so a toolUse is never separated from its result and the
+    history still starts with a user message.
+    */
+    private CompletableFuture<Void> compact(int incomingTokens, BedrockAsyncHelper.InFlight calls) {
+        int cut;
+        String previousSummary;
+        List<Message> dropped = new ArrayList<>();
+        synchronized (this) {
+            if (history.isEmpty() || fixedTokens() + historyTokens + incomingTokens <= tokenBudget) {
+                return CompletableFuture.completedFuture(null);
+            }
+            int target = tokenBudget / 2 - incomingTokens - fixedTokens();
+            int remaining = historyTokens;
+            cut = history.size();
+            for (int i = 1; i < history.size(); i++) {
+                remaining -= history.get(i - 1).tokens();
+                if (isTurnStart(history.get(i).message()) && remaining <= target) {
+                    cut = i;
+                    break;
+                }
+            }
+            for (int i = 0; i < cut; i++) {
+                dropped.add(history.get(i).message());
+            }
+            previousSummary = summary;
+        }
+
+        if (compaction == Compaction.TRUNCATE) {
+            apply(cut, previousSummary);
+            return CompletableFuture.completedFuture(null);
+        }
+        int droppedMessages = cut;
+        return calls.track(summarize(previousSummary, dropped))
+                .thenAccept(newSummary -> apply(droppedMessages, newSummary));
+    }
+
+    private synchronized void apply(int cut, String newSummary) {
+        for (int i = 0; i < cut; i++) {
+            historyTokens -= history.get(i).tokens();
+        }
+        history.subList(0, cut).clear();
+        summary = newSummary;
+        compactions++;
+        if (store != null) {
+            try {
+                store.replace(sessionId, new ConversationStore.Snapshot(summary, messages()));
+            } catch (IOException e) {
+                throw new RuntimeException("Can't save conversation " + sessionId, e);
+            }
+        }
+    }
+
+    private CompletableFuture<String> summarize(String previousSummary, List<Message> dropped) {
+        var transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("Earlier summary: ").append(previousSummary).append("\n\n");
+        }
+        for (Message message : dropped) {
+            transcript.append(message.role() == ConversationRole.USER ? "User: " : "Assistant: ");
+            for (ContentBlock block : message.content()) {
+                transcript.append(describe(block)).append(' ');
+            }
+            transcript.append('\n');
+        }
+
+        var request = ConverseRequest.builder()
+                .modelId(summaryModelId)
+                .system(SystemContentBlock.fromText(SUMMARIZE_INSTRUCTION))
+                .messages(userMessage(transcript.toString()))
+                .inferenceConfig(config -> config.maxTokens(SUMMARY_MAX_TOKENS).temperature(0F))
+                .build();
+        var runtime = client != null ? client : BedrockClients.shared().runtimeAsync();
+        return BedrockHelper.admissionControl().callAsync(summaryModelId,
+                        AdmissionControl.estimateTokens(transcript.toString()) + SUMMARY_MAX_TOKENS,
+                        () -> runtime.converse(request))
+                .thenApply(response -> text(response.output().message()));
+    }
+
+    private static String describe(ContentBlock block) {
+        if (block.text() != null) {
+            return block.text();
+        }
+        if (block.toolUse() != null) {
+            ToolUseBlock toolUse = block.toolUse();
+            return "[used tool " + toolUse.name() + " with " + toolUse.input() + "]";
+        }
+        if (block.toolResult() != null) {
+            ToolResultBlock toolResult = block.toolResult();
+            var text = new StringBuilder("[tool result:");
+            toolResult.content().forEach(part -> text.append(' ').append(part.text() != null ? part.text() : part.json()));
+            return text.append(']').toString();
+        }
+        if (block.image() != null) {
+            return "[image]";
+        }
+        if (block.document() != null) {
+            return "[document " + block.document().name() + "]";
+        }
+        return "";
+    }
+
+    // ---- Helpers ----
+
+    private String summaryBlock() {
+        String current = summary();
+        return current == null ? null : SUMMARY_PREFIX + current;
+    }
+
+    // The system prompt and the summary, which every request carries.
+    private int fixedTokens() {
+        return systemTokens + (summary == null ? 0 : AdmissionControl.estimateTokens(SUMMARY_PREFIX + summary));
+    }
+
+    private static boolean isTurnStart(Message message) {
+        if (message.role() != ConversationRole.USER) {
+            return false;
+        }
+        for (ContentBlock block : message.content()) {
+            if (block.toolResult() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rough size of a message, using the same allowances as the rest of the samples for images and documents.
+    private static int tokens(Message message) {
+        int tokens = 0;
+        for (ContentBlock block : message.content()) {
+            if (block.text() != null) {
+                tokens += AdmissionControl.estimateTokens(block.text());
+            } else if (block.image() != null) {
+                tokens += BedrockHelper.IMAGE_TOKENS;
+            } else if (block.document() != null) {
+                tokens += BedrockHelper.documentTokens(block.document());
+            } else {
+                tokens += AdmissionControl.estimateTokens(block.toString());
+            }
+        }
+        return tokens;
+    }
+
+    private static Message userMessage(String prompt) {
+        return Message.builder()
+                .role(ConversationRole.USER)
+                .content(ContentBlock.fromText(prompt))
+                .build();
+    }
+
+    /*
+    The assistant message without its toolUse blocks, keeping any text. Dropping the message instead
+    would leave two user messages in a row, which Bedrock rejects as well.
+    */
+    private static Message withoutToolUse(Message message) {
+        List<ContentBlock> content = new ArrayList<>();
+        for (ContentBlock block : message.content()) {
+            if (block.toolUse() == null) {
+                content.add(block);
+            }
+        }
+        if (content.isEmpty()) {
+            content.add(ContentBlock.fromText("(Stopped at the tool-use limit before using tools.)"));
+        }
+        return message.toBuilder().content(content).build();
+    }
+
+    private static String text(Message message) {
+        var text = new StringBuilder();
+        for (ContentBlock block : message.content()) {
+            if (block.text() != null) {
+                text.append(block.text());
+            }
+        }
+        return text.toString();
+    }
+
+    private static String join(CompletableFuture<String> answer) {
+        try {
+            return answer.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static final class Builder {
+        private BedrockRuntimeAsyncClient client;
+        private String modelId;
+        private String summaryModelId;
+        private String sessionId;
+        private ConversationStore store;
+        private String system;
+        private InferenceConfiguration inferenceConfig;
+        private int tokenBudget = 16_000;
+        private Compaction compaction = Compaction.TRUNCATE;
+        private boolean promptCaching;
+
+        private Builder() {
+        }
+
+        // Defaults to the shared client of BedrockClients for the default region.
+        public Builder client(BedrockRuntimeAsyncClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        // Model that writes summaries for Compaction.SUMMARIZE; defaults to modelId.
+        public Builder summaryModelId(String summaryModelId) {
+            this.summaryModelId = summaryModelId;
+            return this;
+        }
+
+        // Identifies the conversation in the store; a new random ID by default.
+        public Builder sessionId(String sessionId) {
+            this.sessionId = sessionId;
+            return this;
+        }
+
+        // Where the history is kept; an existing session is resumed. None by default.
+        public Builder store(ConversationStore store) {
+            this.store = store;
+            return this;
+        }
+
+        public Builder system(String system) {
+            this.system = system;
+            return this;
+        }
+
+        public Builder inferenceConfig(Consumer<InferenceConfiguration.Builder> inferenceConfig) {
+            var config = InferenceConfiguration.builder();
+            inferenceConfig.accept(config);
+            this.inferenceConfig = config.build();
+            return this;
+        }
+
+        // Estimated input tokens (system prompt, summary and history) a request may reach before the history is compacted.
+        public Builder tokenBudget(int tokenBudget) {
+            this.tokenBudget = tokenBudget;
+            return this;
+        }
+
+        public Builder compaction(Compaction compaction) {
+            this.compaction = Objects.requireNonNull(compaction, "compaction");
+            return this;
+        }
+
+        // Adds prompt-cache checkpoints to every request; only for models that support prompt caching.
+        public Builder promptCaching(boolean promptCaching) {
+            this.promptCaching = promptCaching;
+            return this;
+        }
+
+        public ConversationSession build() {
+            return new ConversationSession(this);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package aws.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+
+/*
+ * Where a ConversationSession keeps its history between turns and across restarts.
+ *
+ * Sessions write incrementally: every turn appends only its new messages, and the whole history
+ * is rewritten only when the session compacts it. inMemory() keeps nothing beyond the process;
+ * directory(path) keeps one append-only JSON Lines file per session.
+ */
+public interface ConversationStore {
+
+    // The persisted state of a session: the summary of compacted turns (or null) and the remaining messages.
+    record Snapshot(String summary, List<Message> messages) {
+        public Snapshot {
+            messages = List.copyOf(messages);
+        }
+
+        static final Snapshot EMPTY = new Snapshot(null, List.of());
+    }
+
+    // Returns an empty snapshot for an unknown session.
+    Snapshot load(String sessionId) throws IOException;
+
+    void append(String sessionId, List<Message> messages) throws IOException;
+
+    // Replaces the whole session, after compaction.
+    void replace(String sessionId, Snapshot snapshot) throws IOException;
+
+    void delete(String sessionId) throws IOException;
+
+    static ConversationStore inMemory() {
+        return new ConversationStore() {
+            private record Stored(String summary, List<Message> messages) {
+            }
+
+            private final Map<String, Stored> sessions = new ConcurrentHashMap<>();
+
+            @Override
+            public Snapshot load(String sessionId) {
+                Stored stored = sessions.get(sessionId);
+                if (stored == null) {
+                    return Snapshot.EMPTY;
+                }
+                synchronized (stored) {
+                    return new Snapshot(stored.summary(), stored.messages());
+                }
+            }
+
+            @Override
+            public void append(String sessionId, List<Message> messages) {
+                Stored stored = sessions.computeIfAbsent(sessionId, id -> new Stored(null, new ArrayList<>()));
+                synchronized (stored) {
+                    stored.messages().addAll(messages);
+                }
+            }
+
+            @Override
+            public void replace(String sessionId, Snapshot snapshot) {
+                sessions.put(sessionId, new Stored(snapshot.summary(), new ArrayList<>(snapshot.messages())));
+            }
+
+            @Override
+            public void delete(String sessionId) {
+                sessions.remove(sessionId);
+            }
+        };
+    }
+
+    static ConversationStore directory(Path directory) {
+        return new FileConversationStore(directory);
+    }
+}
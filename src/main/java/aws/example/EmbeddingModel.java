@@ -0,0 +1,111 @@
+package aws.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import software.amazon.awssdk.core.SdkBytes;
+
+/*
+ * Native InvokeModel payload formats of the supported embedding models.
+ * Learn more about their parameters at:
+ * https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters-embed.html
+ *
+ * Titan embeds one text per call, Cohere up to maxBatchSize texts; Embeddings splits larger
+ * inputs into batches of that size.
+ */
+public enum EmbeddingModel {
+
+    // Amazon Titan Text Embeddings (v1 and v2). Only v2 accepts dimensions (256, 512 or 1024).
+    TITAN("amazon.titan-embed-text", 1) {
+        @Override
+        void write(List<String> texts, InputType inputType, Integer dimensions, JsonWriter json) {
+            json.member("inputText", texts.get(0));
+            if (dimensions != null) {
+                json.member("dimensions", dimensions);
+            }
+        }
+
+        @Override
+        List<float[]> vectors(JSONObject response) {
+            return List.of(floats(response.getJSONArray("embedding")));
+        }
+    },
+
+    // Cohere Embed English and Multilingual, which distinguish documents from search queries.
+    COHERE("cohere.embed", 96) {
+        @Override
+        void write(List<String> texts, InputType inputType, Integer dimensions, JsonWriter json) {
+            json.member("texts", texts)
+                    .member("input_type", inputType == InputType.QUERY ? "search_query" : "search_document")
+                    .member("truncate", "END");
+        }
+
+        @Override
+        List<float[]> vectors(JSONObject response) {
+            JSONArray embeddings = response.getJSONArray("embeddings");
+            List<float[]> vectors = new ArrayList<>(embeddings.length());
+            for (int i = 0; i < embeddings.length(); i++) {
+                vectors.add(floats(embeddings.getJSONArray(i)));
+            }
+            return vectors;
+        }
+    };
+
+    // What the text is used for: stored and searched (DOCUMENT), or searched with (QUERY).
+    public enum InputType {
+        DOCUMENT, QUERY
+    }
+
+    private final String modelIdMarker;
+    private final int maxBatchSize;
+
+    EmbeddingModel(String modelIdMarker, int maxBatchSize) {
+        this.modelIdMarker = modelIdMarker;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    // Writes the members of the request object (between its braces).
+    abstract void write(List<String> texts, InputType inputType, Integer dimensions, JsonWriter json);
+
+    abstract List<float[]> vectors(JSONObject response);
+
+    // Returns the embedding model of a model ID or ARN, e.g. "amazon.titan-embed-text-v2:0".
+    public static EmbeddingModel of(String modelId) {
+        for (EmbeddingModel model : values()) {
+            if (modelId.contains(model.modelIdMarker)) {
+                return model;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported embedding model: " + modelId);
+    }
+
+    // Maximum number of texts embedded by one call.
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    // Encodes the texts (at most maxBatchSize) as this model's native InvokeModel body.
+    public SdkBytes body(List<String> texts, InputType inputType, Integer dimensions) {
+        if (texts.isEmpty() || texts.size() > maxBatchSize) {
+            throw new IllegalArgumentException(name() + " embeds 1 to " + maxBatchSize + " texts per call, got " + texts.size());
+        }
+        JsonWriter json = JsonWriter.reusable().beginObject();
+        write(texts, inputType, dimensions, json);
+        return json.endObject().toSdkBytes();
+    }
+
+    // Retrieves the vectors, in input order, from this model's native InvokeModel response body.
+    public List<float[]> vectors(SdkBytes body) {
+        return vectors(new JSONObject(body.asUtf8String()));
+    }
+
+    private static float[] floats(JSONArray array) {
+        float[] vector = new float[array.length()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = array.getFloat(i);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,199 @@
+package aws.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+
+/*
+ * Text embeddings from a Titan or Cohere embedding model (see EmbeddingModel).
+ *
+ * embedAll() splits its input into batches of the model's batch size (96 texts for Cohere, one for
+ * Titan) and sends up to `concurrency` batches at once, so embedding a corpus takes a few round
+ * trips instead of one per text. Every call goes through BedrockHelper's admission control.
+ * Vectors are returned as the model produced them; VectorIndex normalizes them for cosine search.
+ */
+public final class Embeddings {
+
+    private final BedrockRuntimeClient client;
+    private final BedrockRuntimeAsyncClient asyncClient;
+    private final String modelId;
+    private final EmbeddingModel model;
+    private final Integer dimensions;
+    private final int batchSize;
+    private final int concurrency;
+
+    private Embeddings(Builder builder) {
+        this.client = builder.client;
+        this.asyncClient = builder.asyncClient;
+        this.modelId = Objects.requireNonNull(builder.modelId, "modelId");
+        this.model = EmbeddingModel.of(modelId);
+        this.dimensions = builder.dimensions;
+        this.batchSize = builder.batchSize == 0 ? model.maxBatchSize() : builder.batchSize;
+        this.concurrency = builder.concurrency;
+        if (batchSize < 1 || batchSize > model.maxBatchSize()) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + model.maxBatchSize() + ", was " + batchSize);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1, was " + concurrency);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String modelId() {
+        return modelId;
+    }
+
+    public float[] embed(String text, EmbeddingModel.InputType inputType) {
+        return call(List.of(text), inputType).get(0);
+    }
+
+    // One vector per text, in input order.
+    public List<float[]> embedAll(List<String> texts, EmbeddingModel.InputType inputType) throws InterruptedException {
+        List<List<String>> batches = batches(texts);
+        if (batches.size() <= 1) {
+            return batches.isEmpty() ? List.of() : call(batches.get(0), inputType);
+        }
+
+        var executor = TaskExecutors.newTaskExecutor(Math.min(concurrency, batches.size()), "bedrock-embed-");
+        try {
+            List<Future<List<float[]>>> pending = new ArrayList<>(batches.size());
+            for (List<String> batch : batches) {
+                pending.add(executor.submit(() -> call(batch, inputType)));
+            }
+            List<float[]> vectors = new ArrayList<>(texts.size());
+            for (Future<List<float[]>> batch : pending) {
+                vectors.addAll(batch.get());
+            }
+            return vectors;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public CompletableFuture<float[]> embedAsync(String text, EmbeddingModel.InputType inputType) {
+        return callAsync(List.of(text), inputType).thenApply(vectors -> vectors.get(0));
+    }
+
+    // Sends every batch at once; the async client's maxConcurrency bounds the calls in flight.
+    public CompletableFuture<List<float[]>> embedAllAsync(List<String> texts, EmbeddingModel.InputType inputType) {
+        List<CompletableFuture<List<float[]>>> pending = new ArrayList<>();
+        for (List<String> batch : batches(texts)) {
+            pending.add(callAsync(batch, inputType));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<float[]> vectors = new ArrayList<>(texts.size());
+                    pending.forEach(batch -> vectors.addAll(batch.join()));
+                    return vectors;
+                });
+    }
+
+    private List<List<String>> batches(List<String> texts) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            batches.add(texts.subList(start, Math.min(texts.size(), start + batchSize)));
+        }
+        return batches;
+    }
+
+    private List<float[]> call(List<String> texts, EmbeddingModel.InputType inputType) {
+        var runtime = client != null ? client : BedrockClients.shared().runtime();
+        var request = request(texts, inputType);
+        var response = BedrockHelper.admissionControl().call(modelId, tokens(texts), () -> runtime.invokeModel(request));
+        return vectors(texts, response.body());
+    }
+
+    private CompletableFuture<List<float[]>> callAsync(List<String> texts, EmbeddingModel.InputType inputType) {
+        var runtime = asyncClient != null ? asyncClient : BedrockClients.shared().runtimeAsync();
+        var request = request(texts, inputType);
+        return BedrockHelper.admissionControl().callAsync(modelId, tokens(texts), () -> runtime.invokeModel(request))
+                .thenApply(response -> vectors(texts, response.body()));
+    }
+
+    private InvokeModelRequest request(List<String> texts, EmbeddingModel.InputType inputType) {
+        return InvokeModelRequest.builder()
+                .modelId(modelId)
+                .body(model.body(texts, inputType, dimensions))
+                .build();
+    }
+
+    private List<float[]> vectors(List<String> texts, SdkBytes body) {
+        List<float[]> vectors = model.vectors(body);
+        if (vectors.size() != texts.size()) {
+            throw new IllegalStateException(modelId + " returned " + vectors.size() + " embeddings for " + texts.size() + " texts");
+        }
+        return vectors;
+    }
+
+    private static int tokens(List<String> texts) {
+        int tokens = 0;
+        for (String text : texts) {
+            tokens += AdmissionControl.estimateTokens(text);
+        }
+        return tokens;
+    }
+
+    public static final class Builder {
+        private BedrockRuntimeClient client;
+        private BedrockRuntimeAsyncClient asyncClient;
+        private String modelId = "amazon.titan-embed-text-v2:0";
+        private Integer dimensions;
+        private int batchSize;
+        private int concurrency = 8;
+
+        private Builder() {
+        }
+
+        // Clients default to the shared clients of BedrockClients for the default region.
+        public Builder client(BedrockRuntimeClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder asyncClient(BedrockRuntimeAsyncClient asyncClient) {
+            this.asyncClient = asyncClient;
+            return this;
+        }
+
+        // Titan Text Embeddings v2 by default.
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        // Output size for models that support it (Titan v2); the model's default otherwise.
+        public Builder dimensions(Integer dimensions) {
+            this.dimensions = dimensions;
+            return this;
+        }
+
+        // Texts per call, at most the model's maxBatchSize (the default).
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        // Batches embedAll sends at once.
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public Embeddings build() {
+            return new Embeddings(this);
+        }
+    }
+}
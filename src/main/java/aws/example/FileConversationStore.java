@@ -0,0 +1,110 @@
+package aws.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+
+/*
+ * ConversationStore with one JSON Lines file per session, <directory>/<sessionId>.jsonl.
+ * Each line is a message (see MessageCodec) or, first in the file, {"summary": ...}.
+ *
+ * Turns are appended to the end of the file; compaction writes the new file next to the old one
+ * and moves it into place, so a crash never leaves a partial history behind.
+ */
+final class FileConversationStore implements ConversationStore {
+
+    private static final Pattern SESSION_ID = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+    private static final String SUMMARY = "summary";
+
+    private final Path directory;
+
+    FileConversationStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public synchronized Snapshot load(String sessionId) throws IOException {
+        String summary = null;
+        List<Message> messages = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file(sessionId), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (line.startsWith("{\"" + SUMMARY + "\"")) {
+                    summary = new JSONObject(line).getString(SUMMARY);
+                } else {
+                    messages.add(MessageCodec.decode(line));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Snapshot.EMPTY;
+        }
+        return new Snapshot(summary, messages);
+    }
+
+    @Override
+    public synchronized void append(String sessionId, List<Message> messages) throws IOException {
+        Files.createDirectories(directory);
+        try (BufferedWriter writer = Files.newBufferedWriter(file(sessionId), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            write(writer, messages);
+        }
+    }
+
+    @Override
+    public synchronized void replace(String sessionId, Snapshot snapshot) throws IOException {
+        Path file = file(sessionId);
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, sessionId, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                if (snapshot.summary() != null) {
+                    writer.write(new JSONObject().put(SUMMARY, snapshot.summary()).toString());
+                    writer.newLine();
+                }
+                write(writer, snapshot.messages());
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public synchronized void delete(String sessionId) throws IOException {
+        Files.deleteIfExists(file(sessionId));
+    }
+
+    private static void write(BufferedWriter writer, List<Message> messages) throws IOException {
+        for (Message message : messages) {
+            writer.write(MessageCodec.encode(message));
+            writer.newLine();
+        }
+    }
+
+    private Path file(String sessionId) {
+        if (!SESSION_ID.matcher(sessionId).matches()) {
+            throw new IllegalArgumentException("Session IDs may only contain letters, digits, '.', '_' and '-': " + sessionId);
+        }
+        return directory.resolve(sessionId + ".jsonl");
+    }
+}
@@ -0,0 +1,71 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * ObjectStore on a local directory: key a/b.jsonl is the file <root>/a/b.jsonl.
+ *
+ * Like S3, an object is never visible half-written: create() writes to a temporary file that is
+ * moved into place when the upload is closed, and deleted if it is aborted.
+ */
+final class FileObjectStore implements ObjectStore {
+
+    private final Path root;
+
+    FileObjectStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public Upload create(String key) throws IOException {
+        Path file = file(key);
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        return new SpooledUpload(tmp, written -> {
+            try {
+                Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(written, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        });
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(file(key));
+    }
+
+    @Override
+    public List<String> list(String prefix) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(path -> root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/"))
+                    .filter(key -> key.startsWith(prefix) && !key.endsWith(".tmp"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    @Override
+    public String uri(String key) {
+        return file(key).toUri().toString();
+    }
+
+    private Path file(String key) {
+        Path file = root.resolve(key).normalize();
+        if (key.isEmpty() || !file.startsWith(root) || file.equals(root)) {
+            throw new IllegalArgumentException("Invalid object key: " + key);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,107 @@
+package aws.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free histogram of non-negative long values (latencies in nanoseconds, tokens per second...)
+ * in the style of HdrHistogram: log-linear buckets that keep every value within 1/64 (about 1.6%)
+ * of its true size, from 0 to Long.MAX_VALUE, in a fixed 3712-counter array.
+ *
+ * Recording is one bucket computation and one atomic increment, so it can sit on every call path.
+ * Readers see a consistent-enough view for monitoring; counts recorded during a read may or may
+ * not be included.
+ */
+public final class Histogram {
+
+    // 128 linear buckets below 128, then 64 buckets per power of two: 6 significant bits.
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Histogram values must not be negative, was " + value);
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /*
+    The value below which `percentile` percent of the recorded values fall, e.g. percentile(99),
+    reported as the middle of its bucket (never above max()). 0 when nothing has been recorded.
+    */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, was " + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long low = lowestValue(i);
+                long middle = low + (highestValue(i) - low) / 2;
+                return Math.min(middle, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Keep the top SUB_BUCKET_BITS - 1 bits below the highest set bit.
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int offset = index - SUB_BUCKETS;
+        int shift = offset / HALF + 1;
+        return (long) (offset % HALF + HALF) << shift;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long low = lowestValue(index);
+        // The last bucket ends at Long.MAX_VALUE; computing its end would overflow.
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : low + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,116 @@
+package aws.example;
+
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * Model-independent description of a single-turn text generation request.
+ * ModelFamily turns it into the native InvokeModel body of a specific model family.
+ *
+ * Optional parameters left unset (null) are omitted from the body, so the model's own defaults apply.
+ */
+public final class InferenceRequest {
+
+    private final String prompt;
+    private final String system;
+    private final int maxTokens;
+    private final Float temperature;
+    private final Float topP;
+    private final List<String> stopSequences;
+
+    private InferenceRequest(Builder builder) {
+        this.prompt = Objects.requireNonNull(builder.prompt, "prompt");
+        this.system = builder.system;
+        this.maxTokens = builder.maxTokens;
+        this.temperature = builder.temperature;
+        this.topP = builder.topP;
+        this.stopSequences = builder.stopSequences;
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens must be at least 1, was " + maxTokens);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String prompt() {
+        return prompt;
+    }
+
+    public String system() {
+        return system;
+    }
+
+    public int maxTokens() {
+        return maxTokens;
+    }
+
+    public Float temperature() {
+        return temperature;
+    }
+
+    public Float topP() {
+        return topP;
+    }
+
+    public List<String> stopSequences() {
+        return stopSequences;
+    }
+
+    public Builder toBuilder() {
+        return new Builder()
+                .prompt(prompt)
+                .system(system)
+                .maxTokens(maxTokens)
+                .temperature(temperature)
+                .topP(topP)
+                .stopSequences(stopSequences);
+    }
+
+    public static final class Builder {
+        private String prompt;
+        private String system;
+        private int maxTokens = BedrockHelper.INVOKE_MAX_TOKENS;
+        private Float temperature;
+        private Float topP;
+        private List<String> stopSequences;
+
+        private Builder() {
+        }
+
+        public Builder prompt(String prompt) {
+            this.prompt = prompt;
+            return this;
+        }
+
+        public Builder system(String system) {
+            this.system = system;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder temperature(Float temperature) {
+            this.temperature = temperature;
+            return this;
+        }
+
+        public Builder topP(Float topP) {
+            this.topP = topP;
+            return this;
+        }
+
+        public Builder stopSequences(List<String> stopSequences) {
+            this.stopSequences = stopSequences == null ? null : List.copyOf(stopSequences);
+            return this;
+        }
+
+        public InferenceRequest build() {
+            return new InferenceRequest(this);
+        }
+    }
+}
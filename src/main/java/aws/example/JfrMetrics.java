@@ -0,0 +1,90 @@
+package aws.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * BedrockMetrics that emits an "aws.example.BedrockCall" JDK Flight Recorder event per call,
+ * so Bedrock calls show up next to GC, thread and I/O events in JDK Mission Control.
+ *
+ * When no recording is running, or the event is disabled in the recording settings, onCall
+ * only checks a flag. Record with e.g.
+ *     java -XX:StartFlightRecording:filename=bedrock.jfr ...
+ *     jfr print --events aws.example.BedrockCall bedrock.jfr
+ */
+public final class JfrMetrics implements BedrockMetrics {
+
+    @Name("aws.example.BedrockCall")
+    @Label("Bedrock Call")
+    @Category({"AWS", "Bedrock"})
+    @Description("A finished Bedrock, Agents for Bedrock or Textract API call")
+    @StackTrace(false)
+    static final class CallEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Model")
+        String modelId;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Time to First Token")
+        @Timespan(Timespan.NANOSECONDS)
+        long timeToFirstToken;
+
+        @Label("Input Tokens")
+        int inputTokens;
+
+        @Label("Output Tokens")
+        int outputTokens;
+
+        @Label("Tokens per Second")
+        double tokensPerSecond;
+
+        @Label("Request Size")
+        @DataAmount
+        long requestBytes;
+
+        @Label("Response Size")
+        @DataAmount
+        long responseBytes;
+
+        @Label("Attempts")
+        int attempts;
+
+        @Label("Throttles")
+        int throttles;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Override
+    public void onCall(Call call) {
+        var event = new CallEvent();
+        if (!event.shouldCommit()) {
+            return;
+        }
+        event.operation = call.operation();
+        event.modelId = call.modelId();
+        event.latency = call.latencyNanos();
+        event.timeToFirstToken = call.timeToFirstTokenNanos();
+        event.inputTokens = call.inputTokens();
+        event.outputTokens = call.outputTokens();
+        event.tokensPerSecond = call.tokensPerSecond();
+        event.requestBytes = call.requestBytes();
+        event.responseBytes = call.responseBytes();
+        event.attempts = call.attempts();
+        event.throttles = call.throttles();
+        event.error = call.error();
+        event.commit();
+    }
+}
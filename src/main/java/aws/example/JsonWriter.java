@@ -0,0 +1,255 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import software.amazon.awssdk.core.SdkBytes;
+
+/*
+ * Minimal streaming JSON writer that encodes straight to UTF-8 in a growable byte array.
+ *
+ * Strings are escaped and encoded in a single pass over their chars, so a prompt is never
+ * copied into an intermediate escaped String or re-encoded. Each thread has one reusable writer
+ * (see reusable()), and toSdkBytes() hands the request body to the SDK with a single exact-size copy.
+ *
+ * The writer does not validate structure beyond inserting commas; callers pair begin/end calls
+ * and call name() before every object member.
+ */
+final class JsonWriter {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    // Buffers grown beyond this by an unusually large request are not kept for reuse.
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final ThreadLocal<JsonWriter> REUSABLE = ThreadLocal.withInitial(JsonWriter::new);
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int size;
+    // True until the first member or element of the current container (or after a name) is written.
+    private boolean first = true;
+
+    // Returns this thread's writer, emptied. Not reentrant: finish one body before starting another.
+    static JsonWriter reusable() {
+        JsonWriter writer = REUSABLE.get();
+        writer.size = 0;
+        writer.first = true;
+        return writer;
+    }
+
+    JsonWriter beginObject() {
+        separate();
+        writeByte('{');
+        first = true;
+        return this;
+    }
+
+    JsonWriter endObject() {
+        writeByte('}');
+        first = false;
+        return this;
+    }
+
+    JsonWriter beginArray() {
+        separate();
+        writeByte('[');
+        first = true;
+        return this;
+    }
+
+    JsonWriter endArray() {
+        writeByte(']');
+        first = false;
+        return this;
+    }
+
+    JsonWriter name(String name) {
+        separate();
+        writeQuoted(name);
+        writeByte(':');
+        first = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            writeAscii("null");
+        } else {
+            writeQuoted(value);
+        }
+        first = false;
+        return this;
+    }
+
+    // Writes the concatenation of the parts as one JSON string, without building it first.
+    JsonWriter value(String... parts) {
+        separate();
+        ensure(1);
+        buf[size++] = '"';
+        for (String part : parts) {
+            writeEscaped(part);
+        }
+        ensure(1);
+        buf[size++] = '"';
+        first = false;
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        separate();
+        writeAscii(Long.toString(value));
+        first = false;
+        return this;
+    }
+
+    JsonWriter value(float value) {
+        if (!Float.isFinite(value)) {
+            throw new IllegalArgumentException("JSON numbers must be finite, was " + value);
+        }
+        separate();
+        writeAscii(Float.toString(value));
+        first = false;
+        return this;
+    }
+
+    // Convenience for optional members: writes nothing when the value is null.
+    JsonWriter member(String name, Float value) {
+        return value == null ? this : name(name).value(value.floatValue());
+    }
+
+    JsonWriter member(String name, String value) {
+        return value == null ? this : name(name).value(value);
+    }
+
+    JsonWriter member(String name, long value) {
+        return name(name).value(value);
+    }
+
+    JsonWriter member(String name, Iterable<String> values) {
+        if (values == null) {
+            return this;
+        }
+        name(name).beginArray();
+        for (String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Copies the written bytes once into an array owned by the returned SdkBytes.
+    SdkBytes toSdkBytes() {
+        byte[] body = Arrays.copyOf(buf, size);
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+        return SdkBytes.fromByteArrayUnsafe(body);
+    }
+
+    // Writes the bytes to out without a copy, e.g. as one line of a JSON Lines file.
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, size);
+        if (buf.length > MAX_RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+    }
+
+    // ---- Encoding ----
+
+    private void separate() {
+        if (!first) {
+            writeByte(',');
+        }
+    }
+
+    private void writeQuoted(String value) {
+        ensure(1);
+        buf[size++] = '"';
+        writeEscaped(value);
+        ensure(1);
+        buf[size++] = '"';
+    }
+
+    private void writeEscaped(String value) {
+        int length = value.length();
+        // Three bytes per char covers any UTF-8 encoding; only escapes (up to six bytes) need more room.
+        ensure(length * 3);
+        byte[] buf = this.buf;
+        int size = this.size;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buf[size++] = (byte) c;
+                } else {
+                    this.size = size;
+                    ensure(6 + (length - i) * 3);
+                    writeEscape(c);
+                    buf = this.buf;
+                    size = this.size;
+                }
+            } else if (c < 0x800) {
+                buf[size++] = (byte) (0xC0 | (c >> 6));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: replaced like String.getBytes(UTF_8) does.
+                buf[size++] = '?';
+            } else {
+                buf[size++] = (byte) (0xE0 | (c >> 12));
+                buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        this.size = size;
+    }
+
+    private void writeEscape(char c) {
+        buf[size++] = '\\';
+        switch (c) {
+            case '"' -> buf[size++] = '"';
+            case '\\' -> buf[size++] = '\\';
+            case '\n' -> buf[size++] = 'n';
+            case '\r' -> buf[size++] = 'r';
+            case '\t' -> buf[size++] = 't';
+            case '\b' -> buf[size++] = 'b';
+            case '\f' -> buf[size++] = 'f';
+            default -> {
+                buf[size++] = 'u';
+                buf[size++] = '0';
+                buf[size++] = '0';
+                buf[size++] = HEX[c >> 4];
+                buf[size++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    private void writeAscii(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buf[size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(char c) {
+        ensure(1);
+        buf[size++] = (byte) c;
+    }
+
+    private void ensure(int bytes) {
+        if (buf.length - size < bytes) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes));
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package aws.example;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import software.amazon.awssdk.core.document.Document;
+import software.amazon.awssdk.services.bedrockagentruntime.BedrockAgentRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockagentruntime.model.KnowledgeBaseRetrievalResult;
+import software.amazon.awssdk.services.bedrockagentruntime.model.RetrievalResultLocation;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.SystemContentBlock;
+
+/*
+ * Two-stage alternative to queryKnowledgeBase (RetrieveAndGenerate): retrieve passages with the
+ * Retrieve API, then generate a cited answer from them with Converse.
+ *
+ * Retrieved passages are cached by normalized query (case, accents, punctuation and spacing are
+ * ignored), so repeated and trivially reworded questions skip the retrieval round-trip, and
+ * concurrent retrievals of the same query share one call. A question can also be retrieved with
+ * several phrasings at once (retrieveMerged), and many questions can be retrieved concurrently
+ * (retrieveAll); all retrieval goes through BedrockHelper's admission control.
+ */
+public final class KnowledgeBase {
+
+    // A retrieved passage; source is the URI or URL of the document it comes from, if known.
+    public record Passage(String text, double score, String source, Map<String, Document> metadata) {
+    }
+
+    // The generated answer and the passages it cites, in citation order.
+    public record Answer(String text, List<Passage> citations) {
+    }
+
+    public record Stats(long hits, long misses, long coalesced, long evictions, int size) {
+    }
+
+    private static final Pattern CITATION = Pattern.compile("\\[(\\d+)]");
+    private static final Pattern PUNCTUATION = Pattern.compile("[\\p{P}\\p{S}]+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+    private static final String ANSWER_INSTRUCTION = "Answer the question using only the numbered passages. "
+            + "After each sentence, cite the passages that support it as [1], [2]... "
+            + "If the passages do not contain the answer, say that you don't know.";
+
+    private final BedrockAgentRuntimeAsyncClient agentClient;
+    private final BedrockRuntimeAsyncClient runtimeClient;
+    private final String knowledgeBaseId;
+    private final String modelId;
+    private final int numberOfResults;
+    private final int maxTokens;
+    private final LruTtlCache<String, List<Passage>> passages;
+    private final Map<String, CompletableFuture<List<Passage>>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    private KnowledgeBase(Builder builder) {
+        this.agentClient = builder.agentClient;
+        this.runtimeClient = builder.runtimeClient;
+        this.knowledgeBaseId = Objects.requireNonNull(builder.knowledgeBaseId, "knowledgeBaseId");
+        this.modelId = builder.modelId;
+        this.numberOfResults = builder.numberOfResults;
+        this.maxTokens = builder.maxTokens;
+        this.passages = new LruTtlCache<>(builder.cacheEntries, builder.cacheTtl.toNanos(), System::nanoTime);
+        if (numberOfResults < 1) {
+            throw new IllegalArgumentException("numberOfResults must be at least 1, was " + numberOfResults);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // ---- Retrieval ----
+
+    public CompletableFuture<List<Passage>> retrieve(String query) {
+        return retrieve(query, numberOfResults);
+    }
+
+    // Up to numberOfResults passages, best first.
+    public CompletableFuture<List<Passage>> retrieve(String query, int numberOfResults) {
+        String key = normalize(query) + '\u0000' + numberOfResults;
+        List<Passage> cached = passages.get(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        var call = new CompletableFuture<List<Passage>>();
+        CompletableFuture<List<Passage>> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            coalesced.increment();
+            return running.thenApply(result -> result);
+        }
+        misses.increment();
+
+        var client = agentClient != null ? agentClient : BedrockClients.shared().agentRuntimeAsync();
+        var request = BedrockHelper.retrieveRequest(knowledgeBaseId, query, numberOfResults);
+        BedrockHelper.admissionControl().callAsync(knowledgeBaseId, AdmissionControl.estimateTokens(query),
+                        () -> client.retrieve(request))
+                .whenComplete((response, error) -> {
+                    inFlight.remove(key, call);
+                    if (error != null) {
+                        call.completeExceptionally(error);
+                        return;
+                    }
+                    List<Passage> result;
+                    try {
+                        result = new ArrayList<>(response.retrievalResults().size());
+                        for (KnowledgeBaseRetrievalResult item : response.retrievalResults()) {
+                            result.add(new Passage(item.content().text(),
+                                    item.score() == null ? 0 : item.score(),
+                                    source(item.location()),
+                                    item.hasMetadata() ? item.metadata() : Map.of()));
+                        }
+                        result = List.copyOf(result);
+                    } catch (RuntimeException e) {
+                        // e.g. a result without content; fail the caller and every coalesced waiter.
+                        call.completeExceptionally(e);
+                        return;
+                    }
+                    passages.put(key, result);
+                    call.complete(result);
+                });
+        // Callers get a copy, so one caller cancelling does not fail the others.
+        return call.thenApply(result -> result);
+    }
+
+    /*
+    Retrieves every phrasing of one question concurrently and merges the results: passages found
+    by several queries are kept once, with their best score, and the best numberOfResults are returned.
+    */
+    public CompletableFuture<List<Passage>> retrieveMerged(List<String> queries) {
+        return retrieveAll(queries).thenApply(results -> {
+            Map<String, Passage> merged = new LinkedHashMap<>();
+            results.values().forEach(found -> found.forEach(passage ->
+                    merged.merge(passage.source() + '\u0000' + passage.text(), passage,
+                            (current, other) -> other.score() > current.score() ? other : current)));
+            return merged.values().stream()
+                    .sorted((a, b) -> Double.compare(b.score(), a.score()))
+                    .limit(numberOfResults)
+                    .toList();
+        });
+    }
+
+    // Retrieves many questions concurrently; the map follows the order of the queries.
+    public CompletableFuture<Map<String, List<Passage>>> retrieveAll(Collection<String> queries) {
+        Map<String, CompletableFuture<List<Passage>>> calls = new LinkedHashMap<>();
+        for (String query : queries) {
+            calls.computeIfAbsent(query, this::retrieve);
+        }
+        var batch = CompletableFuture.allOf(calls.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, List<Passage>> results = new LinkedHashMap<>();
+            calls.forEach((query, call) -> results.put(query, call.join()));
+            return results;
+        });
+        /*
+        Cancelling the returned future, or one retrieval failing, stops waiting for the others.
+        The retrievals themselves still finish and are cached, since other callers may be waiting on them.
+        */
+        batch.whenComplete((ignored, error) -> {
+            if (error != null) {
+                calls.values().forEach(call -> call.cancel(true));
+            }
+        });
+        return batch;
+    }
+
+    // ---- Generation ----
+
+    // Retrieves passages for the question and answers it from them.
+    public CompletableFuture<Answer> ask(String question) {
+        return retrieve(question).thenCompose(found -> generate(question, found));
+    }
+
+    /*
+    Answers the question from the given passages, e.g. passages retrieved earlier for a similar
+    question. The model cites passages by number; the answer lists the cited passages.
+    */
+    public CompletableFuture<Answer> generate(String question, List<Passage> passages) {
+        if (modelId == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("No modelId configured for generation"));
+        }
+        var prompt = new StringBuilder("Passages:\n");
+        for (int i = 0; i < passages.size(); i++) {
+            prompt.append('[').append(i + 1).append("] ").append(passages.get(i).text()).append('\n');
+        }
+        prompt.append("\nQuestion: ").append(question);
+
+        var request = ConverseRequest.builder()
+                .modelId(modelId)
+                .system(SystemContentBlock.fromText(ANSWER_INSTRUCTION))
+                .messages(Message.builder()
+                        .role(ConversationRole.USER)
+                        .content(ContentBlock.fromText(prompt.toString()))
+                        .build())
+                .inferenceConfig(config -> config.maxTokens(maxTokens).temperature(0F))
+                .build();
+        var client = runtimeClient != null ? runtimeClient : BedrockClients.shared().runtimeAsync();
+        return BedrockHelper.admissionControl().callAsync(modelId,
+                        AdmissionControl.estimateTokens(prompt.toString()) + maxTokens,
+                        () -> client.converse(request))
+                .thenApply(response -> {
+                    String text = response.output().message().content().get(0).text();
+                    return new Answer(text, citations(text, passages));
+                });
+    }
+
+    // Blocking form of ask, for the samples.
+    public Answer askAndWait(String question) throws InterruptedException, ExecutionException {
+        return ask(question).get();
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), coalesced.sum(), passages.evictions(), passages.size());
+    }
+
+    // ---- Helpers ----
+
+    // Lowercase, without accents or punctuation, with single spaces.
+    static String normalize(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKD);
+        text = ACCENTS.matcher(text).replaceAll("");
+        text = PUNCTUATION.matcher(text).replaceAll(" ");
+        return SPACES.matcher(text).replaceAll(" ").strip().toLowerCase();
+    }
+
+    private static List<Passage> citations(String answer, List<Passage> passages) {
+        List<Passage> cited = new ArrayList<>();
+        Matcher matcher = CITATION.matcher(answer);
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1)) - 1;
+            if (index >= 0 && index < passages.size() && !cited.contains(passages.get(index))) {
+                cited.add(passages.get(index));
+            }
+        }
+        return List.copyOf(cited);
+    }
+
+    private static String source(RetrievalResultLocation location) {
+        if (location == null) {
+            return null;
+        }
+        if (location.s3Location() != null) {
+            return location.s3Location().uri();
+        }
+        if (location.webLocation() != null) {
+            return location.webLocation().url();
+        }
+        if (location.confluenceLocation() != null) {
+            return location.confluenceLocation().url();
+        }
+        if (location.salesforceLocation() != null) {
+            return location.salesforceLocation().url();
+        }
+        if (location.sharePointLocation() != null) {
+            return location.sharePointLocation().url();
+        }
+        return null;
+    }
+
+    public static final class Builder {
+        private BedrockAgentRuntimeAsyncClient agentClient;
+        private BedrockRuntimeAsyncClient runtimeClient;
+        private String knowledgeBaseId;
+        private String modelId;
+        private int numberOfResults = 5;
+        private int maxTokens = BedrockHelper.CONVERSE_MAX_TOKENS;
+        private int cacheEntries = 1000;
+        private Duration cacheTtl = Duration.ofMinutes(15);
+
+        private Builder() {
+        }
+
+        // Clients default to the shared clients of BedrockClients for the default region.
+        public Builder agentClient(BedrockAgentRuntimeAsyncClient agentClient) {
+            this.agentClient = agentClient;
+            return this;
+        }
+
+        public Builder runtimeClient(BedrockRuntimeAsyncClient runtimeClient) {
+            this.runtimeClient = runtimeClient;
+            return this;
+        }
+
+        public Builder knowledgeBaseId(String knowledgeBaseId) {
+            this.knowledgeBaseId = knowledgeBaseId;
+            return this;
+        }
+
+        // Model ID or ARN that generates answers; retrieval alone needs none.
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        public Builder numberOfResults(int numberOfResults) {
+            this.numberOfResults = numberOfResults;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder cacheEntries(int cacheEntries) {
+            this.cacheEntries = cacheEntries;
+            return this;
+        }
+
+        // How long retrieved passages are reused; keep it below the knowledge base's sync interval.
+        public Builder cacheTtl(Duration cacheTtl) {
+            this.cacheTtl = cacheTtl;
+            return this;
+        }
+
+        public KnowledgeBase build() {
+            return new KnowledgeBase(this);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package aws.example;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/*
+ * Bounded in-memory map with least-recently-used eviction and a time-to-live per entry.
+ * The bound is either a number of entries or a total weight (e.g. bytes) computed per value.
+ * Expired entries are dropped when they are read or when they become the least recently used.
+ * All operations are synchronized; values are expected to be cheap to copy references to.
+ */
+final class LruTtlCache<K, V> {
+
+    private record Entry<V>(V value, long weight, long expiresAtNanos) {
+    }
+
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long weight;
+    private long evictions;
+
+    LruTtlCache(int maxEntries, long ttlNanos, LongSupplier clock) {
+        this(maxEntries, value -> 1, ttlNanos, clock);
+    }
+
+    LruTtlCache(long maxWeight, ToLongFunction<? super V> weigher, long ttlNanos, LongSupplier clock) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlNanos = ttlNanos;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.getAsLong() - entry.expiresAtNanos() >= 0) {
+            entries.remove(key);
+            weight -= entry.weight();
+            evictions++;
+            return null;
+        }
+        return entry.value();
+    }
+
+    // A value heavier than the whole cache is not stored.
+    synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        remove(key);
+        if (valueWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, valueWeight, clock.getAsLong() + ttlNanos));
+        weight += valueWeight;
+        // Iteration order is access order, so the first entries are the least recently used.
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            weight -= it.next().weight();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized void remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight();
+        }
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+}
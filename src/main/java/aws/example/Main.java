@@ -9,6 +9,8 @@ public class Main {
     public static void main(String[] args) throws IOException, ExecutionException, InterruptedException {
         String modelId = "anthropic.claude-3-sonnet-20240229-v1:0";
         String prompt = "Provide details about beluga. Provide a lot of details and format your answer in JSON format";
+        // The samples print their responses; BedrockHelper prints nothing by default.
+        BedrockHelper.setOutput(OutputSink.console());
         BedrockHelper.analyzeIdWithTextract("/dummy_full_path_to_document");
         BedrockHelper.invokeModel(modelId, prompt);
 
@@ -0,0 +1,348 @@
+package aws.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentFormat;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentSource;
+import software.amazon.awssdk.services.bedrockruntime.model.ImageBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ImageFormat;
+import software.amazon.awssdk.services.bedrockruntime.model.ImageSource;
+
+/*
+ * Loads images and documents for the Converse API and Textract.
+ *
+ * A file is read once, straight into an array of its exact size that SdkBytes then wraps without
+ * copying (Files.readAllBytes followed by SdkBytes.fromByteArray holds two copies). Its size is
+ * checked against the limit before anything is read, and its format is detected from its first
+ * bytes rather than assumed. Recently loaded files are kept, bounded by total bytes, and reused
+ * as long as their size and modification time are unchanged, so asking several questions about
+ * the same document reads it only once. Concurrent loads of the same file share one read.
+ */
+public final class MediaLoader {
+
+    // Converse API limits per image and per document.
+    public static final long DEFAULT_MAX_IMAGE_BYTES = 3_750_000;
+    public static final long DEFAULT_MAX_DOCUMENT_BYTES = 4_500_000;
+    // Synchronous Textract operations accept documents of up to 10 MB.
+    public static final long DEFAULT_MAX_TEXTRACT_BYTES = 10L * 1024 * 1024;
+
+    // Converse document names may only contain alphanumerics, whitespace, hyphens, parentheses and brackets.
+    private static final String DOCUMENT_NAME = "document";
+    private static final int SNIFF_BYTES = 4096;
+
+    private record FileKey(Path path, long size, FileTime modified) {
+    }
+
+    private static volatile MediaLoader shared;
+
+    private final long maxImageBytes;
+    private final long maxDocumentBytes;
+    private final long maxTextractBytes;
+    private final LruTtlCache<FileKey, SdkBytes> cache;
+    private final Map<FileKey, CompletableFuture<SdkBytes>> inFlight = new ConcurrentHashMap<>();
+
+    private MediaLoader(Builder builder) {
+        this.maxImageBytes = builder.maxImageBytes;
+        this.maxDocumentBytes = builder.maxDocumentBytes;
+        this.maxTextractBytes = builder.maxTextractBytes;
+        this.cache = new LruTtlCache<>(builder.cacheBytes, bytes -> bytes.asByteArrayUnsafe().length,
+                builder.cacheTtl.toNanos(), System::nanoTime);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // The loader used by BedrockHelper and BedrockAsyncHelper.
+    public static MediaLoader shared() {
+        MediaLoader loader = shared;
+        if (loader == null) {
+            synchronized (MediaLoader.class) {
+                loader = shared;
+                if (loader == null) {
+                    shared = loader = builder().build();
+                }
+            }
+        }
+        return loader;
+    }
+
+    // Replaces the shared loader, e.g. to change the size limits. Returns the previous one.
+    public static MediaLoader setShared(MediaLoader loader) {
+        synchronized (MediaLoader.class) {
+            MediaLoader previous = shared;
+            shared = loader;
+            return previous;
+        }
+    }
+
+    // Image content for the Converse API; JPEG, PNG, GIF and WebP are recognised.
+    public ImageBlock image(Path path) throws IOException {
+        SdkBytes bytes = load(path, maxImageBytes, "image");
+        ImageFormat format = imageFormat(bytes.asByteBuffer());
+        if (format == null) {
+            throw new IllegalArgumentException(path + " is not a JPEG, PNG, GIF or WebP image");
+        }
+        return ImageBlock.builder()
+                .format(format)
+                .source(ImageSource.fromBytes(bytes))
+                .build();
+    }
+
+    /*
+    Document content for the Converse API. PDF, Word, Excel and HTML are recognised from their
+    contents; CSV, plain text and Markdown, which have no signature, from the file extension.
+    */
+    public DocumentBlock document(Path path) throws IOException {
+        SdkBytes bytes = load(path, maxDocumentBytes, "document");
+        DocumentFormat format = documentFormat(bytes.asByteBuffer(), path);
+        if (format == null) {
+            throw new IllegalArgumentException(path + " is not a supported document format");
+        }
+        return DocumentBlock.builder()
+                .name(DOCUMENT_NAME)
+                .format(format)
+                .source(DocumentSource.fromBytes(bytes))
+                .build();
+    }
+
+    // Document for synchronous Textract operations; JPEG, PNG, PDF and TIFF are accepted.
+    public software.amazon.awssdk.services.textract.model.Document textractDocument(Path path) throws IOException {
+        SdkBytes bytes = load(path, maxTextractBytes, "Textract document");
+        ByteBuffer head = bytes.asByteBuffer();
+        if (!startsWith(head, JPEG) && !startsWith(head, PNG) && !startsWith(head, PDF)
+                && !startsWith(head, TIFF_LE) && !startsWith(head, TIFF_BE)) {
+            throw new IllegalArgumentException(path + " is not a JPEG, PNG, PDF or TIFF file");
+        }
+        return software.amazon.awssdk.services.textract.model.Document.builder()
+                .bytes(bytes)
+                .build();
+    }
+
+    /*
+    Returns the file's bytes, from the cache when the file is unchanged. Fails before reading
+    if the file is larger than maxBytes.
+    */
+    public SdkBytes load(Path path, long maxBytes, String kind) throws IOException {
+        Path file = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.size() > maxBytes) {
+            throw new IllegalArgumentException(String.format("%s is %,d bytes; the %s limit is %,d bytes",
+                    path, attributes.size(), kind, maxBytes));
+        }
+
+        var key = new FileKey(file, attributes.size(), attributes.lastModifiedTime());
+        SdkBytes cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var mine = new CompletableFuture<SdkBytes>();
+        CompletableFuture<SdkBytes> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException cause) {
+                    throw cause;
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            SdkBytes bytes = SdkBytes.fromByteArrayUnsafe(read(file, attributes.size()));
+            cache.put(key, bytes);
+            mine.complete(bytes);
+            return bytes;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // Reads exactly size bytes into a new array, failing if the file changed length meanwhile.
+    private static byte[] read(Path file, long size) throws IOException {
+        byte[] content = new byte[(int) size];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer target = ByteBuffer.wrap(content);
+            while (target.hasRemaining()) {
+                if (channel.read(target) < 0) {
+                    throw new EOFException(file + " was truncated while being read");
+                }
+            }
+            if (channel.size() != size) {
+                throw new IOException(file + " changed size while being read");
+            }
+        }
+        return content;
+    }
+
+    // ---- Format detection ----
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF = ascii("GIF8");
+    private static final byte[] RIFF = ascii("RIFF");
+    private static final byte[] WEBP = ascii("WEBP");
+    private static final byte[] PDF = ascii("%PDF-");
+    private static final byte[] ZIP = {'P', 'K', 3, 4};
+    private static final byte[] OLE = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1};
+    private static final byte[] TIFF_LE = {'I', 'I', '*', 0};
+    private static final byte[] TIFF_BE = {'M', 'M', 0, '*'};
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    static ImageFormat imageFormat(ByteBuffer head) {
+        if (startsWith(head, JPEG)) {
+            return ImageFormat.JPEG;
+        }
+        if (startsWith(head, PNG)) {
+            return ImageFormat.PNG;
+        }
+        if (startsWith(head, GIF)) {
+            return ImageFormat.GIF;
+        }
+        if (startsWith(head, RIFF) && head.remaining() >= 12 && startsWith(head.duplicate().position(head.position() + 8), WEBP)) {
+            return ImageFormat.WEBP;
+        }
+        return null;
+    }
+
+    static DocumentFormat documentFormat(ByteBuffer head, Path path) {
+        if (startsWith(head, PDF)) {
+            return DocumentFormat.PDF;
+        }
+        String extension = extension(path);
+        if (startsWith(head, ZIP)) {
+            // Office Open XML: the part names near the start of the archive tell Word from Excel.
+            String names = new String(prefix(head), StandardCharsets.ISO_8859_1);
+            if (names.contains("word/")) {
+                return DocumentFormat.DOCX;
+            }
+            if (names.contains("xl/")) {
+                return DocumentFormat.XLSX;
+            }
+            return switch (extension) {
+                case "docx" -> DocumentFormat.DOCX;
+                case "xlsx" -> DocumentFormat.XLSX;
+                default -> null;
+            };
+        }
+        if (startsWith(head, OLE)) {
+            // Legacy Office files share one container format; only the extension tells them apart.
+            return switch (extension) {
+                case "doc" -> DocumentFormat.DOC;
+                case "xls" -> DocumentFormat.XLS;
+                default -> null;
+            };
+        }
+
+        String text = new String(prefix(head), StandardCharsets.ISO_8859_1);
+        if (startsWith(head, UTF8_BOM)) {
+            text = text.substring(UTF8_BOM.length);
+        }
+        String start = text.stripLeading().toLowerCase(Locale.ROOT);
+        if (start.startsWith("<!doctype html") || start.startsWith("<html")) {
+            return DocumentFormat.HTML;
+        }
+        if (text.indexOf('\0') >= 0) {
+            return null;
+        }
+        return switch (extension) {
+            case "csv" -> DocumentFormat.CSV;
+            case "md", "markdown" -> DocumentFormat.MD;
+            case "html", "htm" -> DocumentFormat.HTML;
+            case "txt", "text", "" -> DocumentFormat.TXT;
+            default -> null;
+        };
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, byte[] signature) {
+        if (buffer.remaining() < signature.length) {
+            return false;
+        }
+        int start = buffer.position();
+        for (int i = 0; i < signature.length; i++) {
+            if (buffer.get(start + i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] prefix(ByteBuffer buffer) {
+        byte[] prefix = new byte[Math.min(SNIFF_BYTES, buffer.remaining())];
+        buffer.duplicate().get(prefix);
+        return prefix;
+    }
+
+    private static String extension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static final class Builder {
+        private long maxImageBytes = DEFAULT_MAX_IMAGE_BYTES;
+        private long maxDocumentBytes = DEFAULT_MAX_DOCUMENT_BYTES;
+        private long maxTextractBytes = DEFAULT_MAX_TEXTRACT_BYTES;
+        private long cacheBytes = 64L * 1024 * 1024;
+        private Duration cacheTtl = Duration.ofMinutes(10);
+
+        private Builder() {
+        }
+
+        public Builder maxImageBytes(long maxImageBytes) {
+            this.maxImageBytes = maxImageBytes;
+            return this;
+        }
+
+        public Builder maxDocumentBytes(long maxDocumentBytes) {
+            this.maxDocumentBytes = maxDocumentBytes;
+            return this;
+        }
+
+        public Builder maxTextractBytes(long maxTextractBytes) {
+            this.maxTextractBytes = maxTextractBytes;
+            return this;
+        }
+
+        // Total size of the recently loaded files kept for reuse; 0 disables reuse.
+        public Builder cacheBytes(long cacheBytes) {
+            this.cacheBytes = cacheBytes;
+            return this;
+        }
+
+        public Builder cacheTtl(Duration cacheTtl) {
+            this.cacheTtl = cacheTtl;
+            return this;
+        }
+
+        public MediaLoader build() {
+            return new MediaLoader(this);
+        }
+    }
+}
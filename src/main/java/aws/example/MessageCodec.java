@@ -0,0 +1,244 @@
+package aws.example;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.document.Document;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.DocumentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ImageBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolUseBlock;
+
+/*
+ * JSON form of Converse messages for FileConversationStore, one message per line.
+ * The shape follows the Converse wire format: {"role": ..., "content": [{"text": ...}, {"toolUse": ...}, ...]},
+ * with image and document bytes in base64.
+ *
+ * Text, image, document, toolUse and toolResult blocks are supported, which covers every message
+ * the samples send or receive.
+ */
+final class MessageCodec {
+
+    private MessageCodec() {
+    }
+
+    static String encode(Message message) {
+        var content = new JSONArray();
+        for (ContentBlock block : message.content()) {
+            content.put(encode(block));
+        }
+        return new JSONObject()
+                .put("role", message.roleAsString())
+                .put("content", content)
+                .toString();
+    }
+
+    static Message decode(String line) {
+        var json = new JSONObject(line);
+        List<ContentBlock> content = new ArrayList<>();
+        for (Object block : json.getJSONArray("content")) {
+            content.add(decodeContent((JSONObject) block));
+        }
+        return Message.builder()
+                .role(json.getString("role"))
+                .content(content)
+                .build();
+    }
+
+    // ---- Content blocks ----
+
+    private static JSONObject encode(ContentBlock block) {
+        if (block.text() != null) {
+            return new JSONObject().put("text", block.text());
+        }
+        if (block.image() != null) {
+            return new JSONObject().put("image", encode(block.image()));
+        }
+        if (block.document() != null) {
+            return new JSONObject().put("document", encode(block.document()));
+        }
+        if (block.toolUse() != null) {
+            ToolUseBlock toolUse = block.toolUse();
+            return new JSONObject().put("toolUse", new JSONObject()
+                    .put("toolUseId", toolUse.toolUseId())
+                    .put("name", toolUse.name())
+                    .put("input", toJson(toolUse.input())));
+        }
+        if (block.toolResult() != null) {
+            ToolResultBlock toolResult = block.toolResult();
+            var content = new JSONArray();
+            for (ToolResultContentBlock part : toolResult.content()) {
+                content.put(encode(part));
+            }
+            var json = new JSONObject()
+                    .put("toolUseId", toolResult.toolUseId())
+                    .put("content", content);
+            if (toolResult.status() != null) {
+                json.put("status", toolResult.statusAsString());
+            }
+            return new JSONObject().put("toolResult", json);
+        }
+        throw new IllegalArgumentException("Can't store content block " + block.type());
+    }
+
+    private static ContentBlock decodeContent(JSONObject json) {
+        if (json.has("text")) {
+            return ContentBlock.fromText(json.getString("text"));
+        }
+        if (json.has("image")) {
+            return ContentBlock.fromImage(image(json.getJSONObject("image")));
+        }
+        if (json.has("document")) {
+            return ContentBlock.fromDocument(document(json.getJSONObject("document")));
+        }
+        if (json.has("toolUse")) {
+            JSONObject toolUse = json.getJSONObject("toolUse");
+            return ContentBlock.fromToolUse(ToolUseBlock.builder()
+                    .toolUseId(toolUse.getString("toolUseId"))
+                    .name(toolUse.getString("name"))
+                    .input(fromJson(toolUse.get("input")))
+                    .build());
+        }
+        if (json.has("toolResult")) {
+            JSONObject toolResult = json.getJSONObject("toolResult");
+            List<ToolResultContentBlock> content = new ArrayList<>();
+            for (Object part : toolResult.getJSONArray("content")) {
+                content.add(decodeToolResultContent((JSONObject) part));
+            }
+            return ContentBlock.fromToolResult(ToolResultBlock.builder()
+                    .toolUseId(toolResult.getString("toolUseId"))
+                    .status(toolResult.optString("status", null))
+                    .content(content)
+                    .build());
+        }
+        throw new IllegalArgumentException("Unknown content block " + json.keySet());
+    }
+
+    private static JSONObject encode(ToolResultContentBlock block) {
+        if (block.text() != null) {
+            return new JSONObject().put("text", block.text());
+        }
+        if (block.json() != null) {
+            return new JSONObject().put("json", toJson(block.json()));
+        }
+        if (block.image() != null) {
+            return new JSONObject().put("image", encode(block.image()));
+        }
+        if (block.document() != null) {
+            return new JSONObject().put("document", encode(block.document()));
+        }
+        throw new IllegalArgumentException("Can't store tool result block " + block.type());
+    }
+
+    private static ToolResultContentBlock decodeToolResultContent(JSONObject json) {
+        if (json.has("text")) {
+            return ToolResultContentBlock.fromText(json.getString("text"));
+        }
+        if (json.has("json")) {
+            return ToolResultContentBlock.fromJson(fromJson(json.get("json")));
+        }
+        if (json.has("image")) {
+            return ToolResultContentBlock.fromImage(image(json.getJSONObject("image")));
+        }
+        if (json.has("document")) {
+            return ToolResultContentBlock.fromDocument(document(json.getJSONObject("document")));
+        }
+        throw new IllegalArgumentException("Unknown tool result block " + json.keySet());
+    }
+
+    private static JSONObject encode(ImageBlock image) {
+        return new JSONObject()
+                .put("format", image.formatAsString())
+                .put("bytes", base64(image.source().bytes()));
+    }
+
+    private static ImageBlock image(JSONObject json) {
+        return ImageBlock.builder()
+                .format(json.getString("format"))
+                .source(source -> source.bytes(bytes(json.getString("bytes"))))
+                .build();
+    }
+
+    private static JSONObject encode(DocumentBlock document) {
+        return new JSONObject()
+                .put("format", document.formatAsString())
+                .put("name", document.name())
+                .put("bytes", base64(document.source().bytes()));
+    }
+
+    private static DocumentBlock document(JSONObject json) {
+        return DocumentBlock.builder()
+                .format(json.getString("format"))
+                .name(json.getString("name"))
+                .source(source -> source.bytes(bytes(json.getString("bytes"))))
+                .build();
+    }
+
+    private static String base64(SdkBytes bytes) {
+        return Base64.getEncoder().encodeToString(bytes.asByteArrayUnsafe());
+    }
+
+    private static SdkBytes bytes(String base64) {
+        return SdkBytes.fromByteArrayUnsafe(Base64.getDecoder().decode(base64));
+    }
+
+    // ---- Documents (tool inputs and JSON results) ----
+
+    private static Object toJson(Document document) {
+        if (document == null || document.isNull()) {
+            return JSONObject.NULL;
+        }
+        if (document.isString()) {
+            return document.asString();
+        }
+        if (document.isBoolean()) {
+            return document.asBoolean();
+        }
+        if (document.isNumber()) {
+            return document.asNumber().bigDecimalValue();
+        }
+        if (document.isList()) {
+            var array = new JSONArray();
+            document.asList().forEach(element -> array.put(toJson(element)));
+            return array;
+        }
+        var object = new JSONObject();
+        document.asMap().forEach((name, member) -> object.put(name, toJson(member)));
+        return object;
+    }
+
+    private static Document fromJson(Object json) {
+        if (json == null || json == JSONObject.NULL) {
+            return Document.fromNull();
+        }
+        if (json instanceof String text) {
+            return Document.fromString(text);
+        }
+        if (json instanceof Boolean bool) {
+            return Document.fromBoolean(bool);
+        }
+        if (json instanceof Number number) {
+            return Document.fromNumber(new BigDecimal(number.toString()));
+        }
+        if (json instanceof JSONArray array) {
+            List<Document> elements = new ArrayList<>(array.length());
+            array.forEach(element -> elements.add(fromJson(element)));
+            return Document.fromList(elements);
+        }
+        var object = (JSONObject) json;
+        var members = new LinkedHashMap<String, Document>();
+        for (String name : object.keySet()) {
+            members.put(name, fromJson(object.get(name)));
+        }
+        return Document.fromMap(members);
+    }
+}
@@ -0,0 +1,161 @@
+package aws.example;
+
+import java.util.Optional;
+import java.util.Set;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseResponse;
+
+/*
+ * Reports every call of a BedrockClients client to the BedrockMetrics installed with
+ * BedrockHelper.setMetrics(...): latency, SDK attempts and throttles, body sizes, and token usage
+ * (from the Converse usage block, or the token count headers of InvokeModel).
+ *
+ * Streaming operations are skipped here: their response ends long after the SDK's execution does,
+ * so StreamMetrics reports them from the code that consumes the stream. With the default
+ * BedrockMetrics.none() every hook returns after one attribute lookup.
+ */
+final class MetricsInterceptor implements ExecutionInterceptor {
+
+    private static final Set<String> STREAMING_OPERATIONS = Set.of(
+            "InvokeModelWithResponseStream", "ConverseStream", "InvokeAgent");
+    private static final String INPUT_TOKENS = "X-Amzn-Bedrock-Input-Token-Count";
+    private static final String OUTPUT_TOKENS = "X-Amzn-Bedrock-Output-Token-Count";
+
+    // Per-execution state; the SDK runs the hooks of one execution one after the other.
+    private static final class Execution {
+        final BedrockMetrics metrics;
+        final long startNanos = System.nanoTime();
+        int attempts;
+        int throttles;
+        long requestBytes = -1;
+        long responseBytes = -1;
+
+        Execution(BedrockMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+
+    private static final ExecutionAttribute<Execution> EXECUTION = new ExecutionAttribute<>("aws.example.MetricsExecution");
+
+    static final MetricsInterceptor INSTANCE = new MetricsInterceptor();
+
+    private MetricsInterceptor() {
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes attributes) {
+        BedrockMetrics metrics = BedrockHelper.metrics();
+        if (metrics != BedrockMetrics.NONE
+                && !STREAMING_OPERATIONS.contains(attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME))) {
+            attributes.putAttribute(EXECUTION, new Execution(metrics));
+        }
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes attributes) {
+        Execution execution = attributes.getAttribute(EXECUTION);
+        if (execution != null) {
+            execution.attempts++;
+            execution.requestBytes = context.requestBody().flatMap(RequestBody::optionalContentLength)
+                    .or(() -> context.asyncRequestBody().flatMap(AsyncRequestBody::contentLength))
+                    .orElse(-1L);
+        }
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes attributes) {
+        Execution execution = attributes.getAttribute(EXECUTION);
+        if (execution != null) {
+            SdkHttpResponse response = context.httpResponse();
+            if (response.statusCode() == 429) {
+                execution.throttles++;
+            }
+            execution.responseBytes = header(response, "Content-Length");
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes attributes) {
+        Execution execution = attributes.getAttribute(EXECUTION);
+        if (execution == null) {
+            return;
+        }
+        int inputTokens = (int) header(context.httpResponse(), INPUT_TOKENS);
+        int outputTokens = (int) header(context.httpResponse(), OUTPUT_TOKENS);
+        if (context.response() instanceof ConverseResponse converse && converse.usage() != null) {
+            inputTokens = converse.usage().inputTokens();
+            outputTokens = converse.usage().outputTokens();
+        }
+        report(execution, context.request(), attributes, inputTokens, outputTokens, null);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes attributes) {
+        Execution execution = attributes.getAttribute(EXECUTION);
+        if (execution == null) {
+            return;
+        }
+        if (execution.throttles == 0 && RetryScheduler.isThrottle(context.exception())) {
+            execution.throttles = 1;
+        }
+        report(execution, context.request(), attributes, -1, -1, errorType(context.exception()));
+    }
+
+    private static void report(Execution execution, SdkRequest request, ExecutionAttributes attributes,
+                               int inputTokens, int outputTokens, String error) {
+        execution.metrics.onCall(new BedrockMetrics.Call(
+                attributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME),
+                target(request),
+                System.nanoTime() - execution.startNanos,
+                -1,
+                inputTokens,
+                outputTokens,
+                execution.requestBytes,
+                execution.responseBytes,
+                execution.attempts,
+                execution.throttles,
+                error));
+    }
+
+    // The model, agent or knowledge base a request is for; the operation alone identifies Textract calls.
+    static String target(SdkRequest request) {
+        for (String field : new String[]{"modelId", "agentId", "knowledgeBaseId"}) {
+            Optional<String> value = request.getValueForField(field, String.class);
+            if (value.isPresent()) {
+                return value.get();
+            }
+        }
+        return "-";
+    }
+
+    // The service's error code when there is one (e.g. "ThrottlingException"), else the exception type.
+    static String errorType(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && !(cause instanceof AwsServiceException)) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof AwsServiceException service && service.awsErrorDetails() != null
+                && service.awsErrorDetails().errorCode() != null) {
+            return service.awsErrorDetails().errorCode();
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    private static long header(SdkHttpResponse response, String name) {
+        try {
+            return response.firstMatchingHeader(name).map(Long::parseLong).orElse(-1L);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
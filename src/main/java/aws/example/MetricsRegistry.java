@@ -0,0 +1,123 @@
+package aws.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * In-memory BedrockMetrics: per operation and model, histograms of latency, time to first token
+ * and tokens per second, and counters of calls, errors, retries, throttles, tokens and bytes.
+ *
+ * Recording a call is a map lookup plus a few lock-free increments. snapshot() summarizes the
+ * figures since the registry was created, e.g. for a periodic log line or a status endpoint;
+ * histograms() exposes the underlying histograms for other percentiles.
+ */
+public final class MetricsRegistry implements BedrockMetrics {
+
+    // Summary of one operation and model. Latencies are in milliseconds.
+    public record Stats(String operation,
+                        String modelId,
+                        long calls,
+                        long errors,
+                        long retries,
+                        long throttles,
+                        double latencyP50Millis,
+                        double latencyP99Millis,
+                        double latencyMaxMillis,
+                        double timeToFirstTokenP50Millis,
+                        double timeToFirstTokenP99Millis,
+                        double tokensPerSecondP50,
+                        long inputTokens,
+                        long outputTokens,
+                        long requestBytes,
+                        long responseBytes) {
+    }
+
+    public record Histograms(Histogram latencyNanos, Histogram timeToFirstTokenNanos, Histogram tokensPerSecond) {
+    }
+
+    private record Key(String operation, String modelId) {
+    }
+
+    private static final class Series {
+        final Histograms histograms = new Histograms(new Histogram(), new Histogram(), new Histogram());
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder throttles = new LongAdder();
+        final LongAdder inputTokens = new LongAdder();
+        final LongAdder outputTokens = new LongAdder();
+        final LongAdder requestBytes = new LongAdder();
+        final LongAdder responseBytes = new LongAdder();
+    }
+
+    private final Map<Key, Series> series = new ConcurrentHashMap<>();
+
+    @Override
+    public void onCall(Call call) {
+        Series s = series.computeIfAbsent(new Key(call.operation(), String.valueOf(call.modelId())), key -> new Series());
+        s.calls.increment();
+        if (call.error() != null) {
+            s.errors.increment();
+        }
+        if (call.attempts() > 1) {
+            s.retries.add(call.attempts() - 1);
+        }
+        if (call.throttles() > 0) {
+            s.throttles.add(call.throttles());
+        }
+        if (call.latencyNanos() >= 0) {
+            s.histograms.latencyNanos().record(call.latencyNanos());
+        }
+        if (call.timeToFirstTokenNanos() >= 0) {
+            s.histograms.timeToFirstTokenNanos().record(call.timeToFirstTokenNanos());
+        }
+        double tokensPerSecond = call.tokensPerSecond();
+        if (tokensPerSecond >= 0) {
+            s.histograms.tokensPerSecond().record(Math.round(tokensPerSecond));
+        }
+        addKnown(s.inputTokens, call.inputTokens());
+        addKnown(s.outputTokens, call.outputTokens());
+        addKnown(s.requestBytes, call.requestBytes());
+        addKnown(s.responseBytes, call.responseBytes());
+    }
+
+    // One entry per operation and model, sorted by operation then model.
+    public List<Stats> snapshot() {
+        List<Stats> stats = new ArrayList<>(series.size());
+        series.forEach((key, s) -> {
+            Histograms h = s.histograms;
+            stats.add(new Stats(key.operation(), key.modelId(),
+                    s.calls.sum(), s.errors.sum(), s.retries.sum(), s.throttles.sum(),
+                    millis(h.latencyNanos().percentile(50)),
+                    millis(h.latencyNanos().percentile(99)),
+                    millis(h.latencyNanos().max()),
+                    millis(h.timeToFirstTokenNanos().percentile(50)),
+                    millis(h.timeToFirstTokenNanos().percentile(99)),
+                    h.tokensPerSecond().percentile(50),
+                    s.inputTokens.sum(), s.outputTokens.sum(),
+                    s.requestBytes.sum(), s.responseBytes.sum()));
+        });
+        stats.sort(Comparator.comparing(Stats::operation).thenComparing(Stats::modelId));
+        return stats;
+    }
+
+    // The histograms of one operation and model, or null if no such call was recorded.
+    public Histograms histograms(String operation, String modelId) {
+        Series s = series.get(new Key(operation, modelId));
+        return s == null ? null : s.histograms;
+    }
+
+    private static void addKnown(LongAdder adder, long value) {
+        if (value > 0) {
+            adder.add(value);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
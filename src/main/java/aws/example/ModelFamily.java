@@ -0,0 +1,164 @@
+package aws.example;
+
+import org.json.JSONObject;
+import org.json.JSONPointer;
+import software.amazon.awssdk.core.SdkBytes;
+
+/*
+ * Native InvokeModel payload formats of the supported model families.
+ * Learn more about each family's inference parameters and response fields at:
+ * https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters.html
+ *
+ * body() writes the request JSON directly into a reusable UTF-8 buffer (see JsonWriter), so the
+ * prompt is escaped correctly whatever it contains and is encoded exactly once.
+ */
+public enum ModelFamily {
+
+    // Anthropic Claude, Messages API.
+    ANTHROPIC("anthropic.", "/content/0/text") {
+        @Override
+        void write(InferenceRequest request, JsonWriter json) {
+            json.member("anthropic_version", "bedrock-2023-05-31")
+                    .member("max_tokens", request.maxTokens())
+                    .member("system", request.system())
+                    .member("temperature", request.temperature())
+                    .member("top_p", request.topP())
+                    .member("stop_sequences", request.stopSequences())
+                    .name("messages").beginArray()
+                    .beginObject()
+                    .member("role", "user")
+                    .name("content").beginArray()
+                    .beginObject()
+                    .member("type", "text")
+                    .member("text", request.prompt())
+                    .endObject()
+                    .endArray()
+                    .endObject()
+                    .endArray();
+        }
+    },
+
+    // Cohere Command R and Command R+.
+    COHERE("cohere.command-r", "/text") {
+        @Override
+        void write(InferenceRequest request, JsonWriter json) {
+            json.member("message", request.prompt())
+                    .member("preamble", request.system())
+                    .member("max_tokens", request.maxTokens())
+                    .member("temperature", request.temperature())
+                    .member("p", request.topP())
+                    .member("stop_sequences", request.stopSequences());
+        }
+    },
+
+    // Amazon Titan Text. Titan has no system prompt, so it is prepended to the input text.
+    TITAN("amazon.titan-text", "/results/0/outputText") {
+        @Override
+        void write(InferenceRequest request, JsonWriter json) {
+            json.name("inputText");
+            if (request.system() == null) {
+                json.value(request.prompt());
+            } else {
+                json.value(request.system(), "\n\n", request.prompt());
+            }
+            json.name("textGenerationConfig").beginObject()
+                    .member("maxTokenCount", request.maxTokens())
+                    .member("temperature", request.temperature())
+                    .member("topP", request.topP())
+                    .member("stopSequences", request.stopSequences())
+                    .endObject();
+        }
+    },
+
+    // Meta Llama 3.x instruct models, which take a prompt in the Llama 3 chat format.
+    LLAMA("meta.llama3", "/generation") {
+        @Override
+        void write(InferenceRequest request, JsonWriter json) {
+            json.name("prompt");
+            if (request.system() == null) {
+                json.value("<|begin_of_text|><|start_header_id|>user<|end_header_id|>\n\n",
+                        request.prompt(),
+                        "<|eot_id|><|start_header_id|>assistant<|end_header_id|>\n\n");
+            } else {
+                json.value("<|begin_of_text|><|start_header_id|>system<|end_header_id|>\n\n",
+                        request.system(),
+                        "<|eot_id|><|start_header_id|>user<|end_header_id|>\n\n",
+                        request.prompt(),
+                        "<|eot_id|><|start_header_id|>assistant<|end_header_id|>\n\n");
+            }
+            json.member("max_gen_len", request.maxTokens())
+                    .member("temperature", request.temperature())
+                    .member("top_p", request.topP());
+        }
+    },
+
+    // Mistral instruct models, which take a prompt in the [INST] format.
+    MISTRAL("mistral.", "/outputs/0/text") {
+        @Override
+        void write(InferenceRequest request, JsonWriter json) {
+            json.name("prompt");
+            if (request.system() == null) {
+                json.value("<s>[INST] ", request.prompt(), " [/INST]");
+            } else {
+                json.value("<s>[INST] ", request.system(), "\n\n", request.prompt(), " [/INST]");
+            }
+            json.member("max_tokens", request.maxTokens())
+                    .member("temperature", request.temperature())
+                    .member("top_p", request.topP())
+                    .member("stop", request.stopSequences());
+        }
+    };
+
+    // values() copies the array on every call.
+    private static final ModelFamily[] FAMILIES = values();
+
+    private final String modelIdMarker;
+    private final JSONPointer responseText;
+
+    ModelFamily(String modelIdMarker, String responseTextPointer) {
+        this.modelIdMarker = modelIdMarker;
+        this.responseText = new JSONPointer(responseTextPointer);
+    }
+
+    // Writes the members of the request object (between its braces).
+    abstract void write(InferenceRequest request, JsonWriter json);
+
+    /*
+    Returns the family of a model ID, inference profile ID or model ARN,
+    e.g. "anthropic.claude-3-haiku-20240307-v1:0" or "us.meta.llama3-1-8b-instruct-v1:0".
+    */
+    public static ModelFamily of(String modelId) {
+        ModelFamily family = find(modelId);
+        if (family == null) {
+            throw new IllegalArgumentException("Unsupported model family: " + modelId);
+        }
+        return family;
+    }
+
+    // Same as above, but null for models without an InvokeModel format here (e.g. Converse-only models).
+    static ModelFamily find(String modelId) {
+        for (ModelFamily family : FAMILIES) {
+            if (modelId.contains(family.modelIdMarker)) {
+                return family;
+            }
+        }
+        return null;
+    }
+
+    // Encodes the request as this family's native InvokeModel body.
+    public SdkBytes body(InferenceRequest request) {
+        JsonWriter json = JsonWriter.reusable().beginObject();
+        write(request, json);
+        return json.endObject().toSdkBytes();
+    }
+
+    // Retrieves the generated text from this family's native InvokeModel response body.
+    public String responseText(SdkBytes body) {
+        return responseText(new JSONObject(body.asUtf8String()));
+    }
+
+    // Same as above for a response already parsed, e.g. the modelOutput of a batch inference record.
+    public String responseText(JSONObject response) {
+        return responseText.queryFrom(response).toString();
+    }
+}
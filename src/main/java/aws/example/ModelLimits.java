@@ -0,0 +1,48 @@
+package aws.example;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Context window and output limit of a model, in tokens, as documented for Bedrock.
+ * BedrockHelper caps max_tokens at maxOutputTokens and at the room the prompt leaves in the
+ * context, and rejects prompts that do not fit before sending them.
+ * Learn more at https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters.html
+ */
+public record ModelLimits(int contextTokens, int maxOutputTokens) {
+
+    // For models not listed below: nothing is capped or rejected.
+    public static final ModelLimits UNKNOWN = new ModelLimits(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    // A model ID matches the first marker it contains, so more specific markers come first.
+    private static final List<Map.Entry<String, ModelLimits>> KNOWN = List.of(
+            Map.entry("anthropic.claude-opus-4", new ModelLimits(200_000, 32_000)),
+            Map.entry("anthropic.claude-sonnet-4", new ModelLimits(200_000, 64_000)),
+            Map.entry("anthropic.claude-3-7", new ModelLimits(200_000, 64_000)),
+            Map.entry("anthropic.claude-3-5", new ModelLimits(200_000, 8_192)),
+            Map.entry("anthropic.claude-3", new ModelLimits(200_000, 4_096)),
+            Map.entry("anthropic.claude-v2:1", new ModelLimits(200_000, 4_096)),
+            Map.entry("anthropic.claude", new ModelLimits(100_000, 4_096)),
+            Map.entry("meta.llama3-8b", new ModelLimits(8_192, 2_048)),
+            Map.entry("meta.llama3-70b", new ModelLimits(8_192, 2_048)),
+            Map.entry("meta.llama3", new ModelLimits(128_000, 2_048)),
+            Map.entry("mistral.mistral-large-2407", new ModelLimits(128_000, 8_192)),
+            Map.entry("mistral.mixtral", new ModelLimits(32_000, 4_096)),
+            Map.entry("mistral.", new ModelLimits(32_000, 8_192)),
+            Map.entry("cohere.command-r", new ModelLimits(128_000, 4_000)),
+            Map.entry("amazon.titan-text-premier", new ModelLimits(32_000, 3_072)),
+            Map.entry("amazon.titan-text-express", new ModelLimits(8_000, 8_192)),
+            Map.entry("amazon.titan-text-lite", new ModelLimits(4_000, 4_096)),
+            Map.entry("amazon.nova-micro", new ModelLimits(128_000, 10_000)),
+            Map.entry("amazon.nova-", new ModelLimits(300_000, 10_000)));
+
+    // Limits of a model ID, inference profile ID or model ARN; UNKNOWN if the model is not listed.
+    public static ModelLimits of(String modelId) {
+        for (Map.Entry<String, ModelLimits> known : KNOWN) {
+            if (modelId.contains(known.getKey())) {
+                return known.getValue();
+            }
+        }
+        return UNKNOWN;
+    }
+}
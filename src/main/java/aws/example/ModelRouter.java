@@ -0,0 +1,628 @@
+package aws.example;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseResponse;
+
+/*
+ * Spreads the calls for one logical model over several routes, each a model or inference profile
+ * in a region (or behind any client), and moves away from routes that are slow, failing or throttled.
+ *
+ * Routes are tried in tiers: the primary routes first, fallback routes (e.g. a smaller model) only
+ * when no primary route is available or every primary route failed the call. Within a tier a call
+ * goes to the route with the least work queued, judged by its calls in flight times its recent latency.
+ * A route is taken out of rotation for throttleCooldown after a throttle, and for cooldown after
+ * failureThreshold consecutive server or connection errors; a failed call moves on to the next route.
+ * Client errors (a bad request) are returned to the caller without trying other routes.
+ *
+ * With hedging on, a call that has not answered within its route's p95 latency is sent once more to
+ * the next best route, and whichever answer comes first is returned; the other call is cancelled.
+ * By construction about one call in twenty is duplicated, which trims the slowest calls (regional
+ * hiccups, cold capacity) for a small amount of extra load.
+ *
+ * Every attempt goes through BedrockHelper's admission control under the route's name, so each route
+ * (e.g. each region) has its own budget and a throttle in one region does not slow down the others.
+ * Attempts are sent once: instead of the limiter or the SDK retrying a throttled or failed call on the
+ * same route, the router moves it to the next one, and fails the call when no route is left to try.
+ * Routes added by region use BedrockClients, whose runtime clients do not retry; a client passed in
+ * should likewise be built with AwsRetryStrategy.doNotRetry(), or its retries delay failover and hedging.
+ * callAsync(...) does the same without blocking a thread, on each route's async client.
+ * Install a router for BedrockHelper and BedrockAsyncHelper with BedrockHelper.setRouter(...).
+ */
+public final class ModelRouter implements AutoCloseable {
+
+    // Current figures of one route. Latencies are over the last few hundred calls, in milliseconds.
+    public record RouteStats(String name,
+                             String modelId,
+                             boolean fallback,
+                             boolean available,
+                             int inFlight,
+                             long calls,
+                             long failures,
+                             long throttles,
+                             long hedges,
+                             double latencyP50Millis,
+                             double latencyP95Millis) {
+    }
+
+    // Latency percentiles are computed over at most this many recent calls of a route.
+    private static final int LATENCY_WINDOW = 512;
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final int EXPLORE_EVERY = 16;
+
+    private final List<RouteState> routes;
+    private final String modelId;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final Duration minHedgeDelay;
+    private final int minSamples;
+    private final int failureThreshold;
+    private final long cooldownNanos;
+    private final long throttleCooldownNanos;
+    private final ExecutorService executor;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    private ModelRouter(Builder builder) {
+        if (builder.routes.isEmpty() || builder.routes.stream().allMatch(Route::fallback)) {
+            throw new IllegalArgumentException("A router needs at least one primary route");
+        }
+        this.routes = builder.routes.stream().map(RouteState::new).toList();
+        this.modelId = builder.routes.stream().filter(route -> !route.fallback()).findFirst().orElseThrow().modelId();
+        this.hedging = builder.hedging;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.minHedgeDelay = builder.minHedgeDelay;
+        this.minSamples = builder.minSamples;
+        this.failureThreshold = builder.failureThreshold;
+        this.cooldownNanos = builder.cooldown.toNanos();
+        this.throttleCooldownNanos = builder.throttleCooldown.toNanos();
+        if (hedgePercentile <= 0 || hedgePercentile >= 100) {
+            throw new IllegalArgumentException("hedgePercentile must be between 0 and 100, was " + hedgePercentile);
+        }
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1, was " + failureThreshold);
+        }
+        // Unbounded, so a hedge never queues behind the primaries it is meant to race.
+        this.executor = hedging ? TaskExecutors.newUnboundedExecutor("bedrock-router-") : null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // The model ID of the first primary route, which callers use to ask for this router's model.
+    public String modelId() {
+        return modelId;
+    }
+
+    // Whether this router handles calls for modelId: the model ID or name of one of its primary routes.
+    public boolean serves(String modelId) {
+        for (RouteState route : routes) {
+            if (!route.fallback && (route.modelId.equals(modelId) || route.name.equals(modelId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    Runs the operation on the chosen route's client and model ID, moving to other routes as described above.
+    estimatedTokens: charged to admission control for every attempt.
+    */
+    public <T> T call(int estimatedTokens, BiFunction<BedrockRuntimeClient, String, T> operation) {
+        List<RouteState> tried = new ArrayList<>();
+        RuntimeException failure = null;
+        while (true) {
+            RouteState route = choose(tried);
+            if (route == null) {
+                throw failure != null ? failure : new IllegalStateException("No route left to try");
+            }
+            tried.add(route);
+            try {
+                return hedging ? hedged(route, tried, estimatedTokens, operation) : attempt(route, estimatedTokens, operation);
+            } catch (RuntimeException e) {
+                if (!isRouteFailure(e)) {
+                    throw e;
+                }
+                if (failure != null) {
+                    e.addSuppressed(failure);
+                }
+                failure = e;
+            }
+        }
+    }
+
+    // InvokeModel with the native body of each route's model family and max_tokens fitted to each route's model.
+    public String invokeModel(InferenceRequest request) {
+        int inputTokens = BedrockHelper.inputTokens(modelId, request);
+        int estimatedTokens = inputTokens + BedrockHelper.fitted(modelId, request, inputTokens).maxTokens();
+        return call(estimatedTokens, (client, routeModelId) -> {
+            ModelFamily family = ModelFamily.of(routeModelId);
+            SdkBytes body = family.body(BedrockHelper.fitted(routeModelId, request));
+            return family.responseText(client.invokeModel(r -> r.modelId(routeModelId).body(body)).body());
+        });
+    }
+
+    // Converse with the request's model ID replaced by each route's.
+    public ConverseResponse converse(ConverseRequest request, int estimatedTokens) {
+        return call(estimatedTokens, (client, routeModelId) ->
+                client.converse(request.toBuilder().modelId(routeModelId).build()));
+    }
+
+    /*
+    Non-blocking variant of call, over the routes that have an async client. Cancelling the returned
+    future cancels the attempts in flight, and a hedge is sent from a timer instead of a waiting thread.
+    */
+    public <T> CompletableFuture<T> callAsync(int estimatedTokens,
+                                              BiFunction<BedrockRuntimeAsyncClient, String, CompletableFuture<T>> operation) {
+        return new AsyncCall<>(estimatedTokens, operation).start();
+    }
+
+    public CompletableFuture<String> invokeModelAsync(InferenceRequest request) {
+        int inputTokens = BedrockHelper.inputTokens(modelId, request);
+        int estimatedTokens = inputTokens + BedrockHelper.fitted(modelId, request, inputTokens).maxTokens();
+        return callAsync(estimatedTokens, (client, routeModelId) -> {
+            ModelFamily family = ModelFamily.of(routeModelId);
+            SdkBytes body = family.body(BedrockHelper.fitted(routeModelId, request));
+            return client.invokeModel(r -> r.modelId(routeModelId).body(body))
+                    .thenApply(response -> family.responseText(response.body()));
+        });
+    }
+
+    public CompletableFuture<ConverseResponse> converseAsync(ConverseRequest request, int estimatedTokens) {
+        return callAsync(estimatedTokens, (client, routeModelId) ->
+                client.converse(request.toBuilder().modelId(routeModelId).build()));
+    }
+
+    public List<RouteStats> stats() {
+        long now = System.nanoTime();
+        List<RouteStats> stats = new ArrayList<>(routes.size());
+        for (RouteState route : routes) {
+            Histogram latencies = route.latencies();
+            stats.add(new RouteStats(route.name, route.modelId, route.fallback, route.isAvailable(now),
+                    route.inFlight.get(), route.calls.sum(), route.failures.sum(), route.throttles.sum(), route.hedges.sum(),
+                    latencies.percentile(50) / 1e6, latencies.percentile(95) / 1e6));
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---- Routing ----
+
+    /*
+    The best route not yet tried: available routes of the first tier that has one, least loaded first.
+    Every EXPLORE_EVERY-th choice goes round-robin instead, so that a route that was slow once
+    keeps getting calls and its latency figures recover.
+    When every untried route is cooling down, the one closest to the end of its cooldown is tried anyway.
+    Routes without a client of the kind the call needs (sync or async) are skipped.
+    */
+    private RouteState choose(List<RouteState> tried) {
+        return choose(tried, false);
+    }
+
+    private RouteState choose(List<RouteState> tried, boolean async) {
+        long now = System.nanoTime();
+        RouteState best = null;
+        double bestScore = Double.MAX_VALUE;
+        RouteState coolest = null;
+        int turn = rotation.getAndIncrement();
+        boolean explore = turn % EXPLORE_EVERY == 0;
+        int start = Math.floorMod(explore ? turn / EXPLORE_EVERY : turn, routes.size());
+        for (int i = 0; i < routes.size(); i++) {
+            RouteState route = routes.get((start + i) % routes.size());
+            if (tried.contains(route) || (async ? route.asyncClient : route.client) == null) {
+                continue;
+            }
+            if (!route.isAvailable(now)) {
+                if (coolest == null || route.availableAt < coolest.availableAt) {
+                    coolest = route;
+                }
+                continue;
+            }
+            double score = explore ? 0 : (route.inFlight.get() + 1) * Math.max(route.latencyNanos, 1);
+            if (best == null || (!route.fallback && best.fallback) || (route.fallback == best.fallback && score < bestScore)) {
+                best = route;
+                bestScore = score;
+            }
+        }
+        return best != null ? best : coolest;
+    }
+
+    private <T> T attempt(RouteState route, int estimatedTokens, BiFunction<BedrockRuntimeClient, String, T> operation) {
+        route.inFlight.incrementAndGet();
+        route.calls.increment();
+        long start = System.nanoTime();
+        try {
+            T result = BedrockHelper.admissionControl().callOnce(route.name, route.modelId, estimatedTokens,
+                    () -> operation.apply(route.client.get(), route.modelId));
+            route.succeeded(System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            // A call cancelled because its hedge answered first says nothing about the route.
+            if (!Thread.currentThread().isInterrupted() && !(e instanceof AbortedException)) {
+                route.failed(e);
+            }
+            throw e;
+        } finally {
+            route.inFlight.decrementAndGet();
+        }
+    }
+
+    private <T> T hedged(RouteState route, List<RouteState> tried, int estimatedTokens,
+                         BiFunction<BedrockRuntimeClient, String, T> operation) {
+        Histogram latencies = route.latencies();
+        if (latencies.count() < minSamples) {
+            return attempt(route, estimatedTokens, operation);
+        }
+        long delayNanos = Math.max(latencies.percentile(hedgePercentile), minHedgeDelay.toNanos());
+
+        var completion = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> calls = new ArrayList<>(2);
+        try {
+            calls.add(completion.submit(() -> attempt(route, estimatedTokens, operation)));
+            Future<T> done = completion.poll(delayNanos, TimeUnit.NANOSECONDS);
+            if (done != null) {
+                return result(done);
+            }
+
+            RouteState hedge = choose(tried);
+            if (hedge == null || !hedge.isAvailable(System.nanoTime())) {
+                return result(completion.take());
+            }
+            tried.add(hedge);
+            hedge.hedges.increment();
+            calls.add(completion.submit(() -> attempt(hedge, estimatedTokens, operation)));
+
+            // The first success wins; if the first call to finish failed, wait for the other one.
+            Future<T> first = completion.take();
+            try {
+                return result(first);
+            } catch (RuntimeException e) {
+                if (!isRouteFailure(e)) {
+                    throw e;
+                }
+                try {
+                    return result(completion.take());
+                } catch (RuntimeException second) {
+                    second.addSuppressed(e);
+                    throw second;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for " + route.name);
+        } finally {
+            for (Future<T> call : calls) {
+                call.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T result(Future<T> call) throws InterruptedException {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        }
+    }
+
+    /*
+    One callAsync: the same route order, failover and hedging as call, driven by completions.
+    An attempt that fails while another one of the call is still running waits for that one;
+    once none is running, the next route is tried.
+    */
+    private final class AsyncCall<T> {
+        private final int estimatedTokens;
+        private final BiFunction<BedrockRuntimeAsyncClient, String, CompletableFuture<T>> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<CompletableFuture<T>> attempts = new ArrayList<>();
+        private final List<RouteState> tried = new ArrayList<>();
+        private Throwable failure;
+        private int running;
+
+        AsyncCall(int estimatedTokens, BiFunction<BedrockRuntimeAsyncClient, String, CompletableFuture<T>> operation) {
+            this.estimatedTokens = estimatedTokens;
+            this.operation = operation;
+        }
+
+        CompletableFuture<T> start() {
+            // Once the call is decided (answered, failed, cancelled or timed out), the other attempts are cancelled.
+            result.whenComplete((value, error) -> {
+                List<CompletableFuture<T>> started;
+                synchronized (this) {
+                    started = List.copyOf(attempts);
+                }
+                started.forEach(attempt -> attempt.cancel(true));
+            });
+            next();
+            return result;
+        }
+
+        private void next() {
+            RouteState route;
+            synchronized (this) {
+                route = choose(tried, true);
+                if (route == null) {
+                    result.completeExceptionally(failure != null ? failure : new IllegalStateException("No route left to try"));
+                    return;
+                }
+                tried.add(route);
+            }
+            CompletableFuture<T> attempt = attempt(route);
+            Histogram latencies = route.latencies();
+            if (hedging && latencies.count() >= minSamples) {
+                long delayNanos = Math.max(latencies.percentile(hedgePercentile), minHedgeDelay.toNanos());
+                CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> hedge(attempt));
+            }
+        }
+
+        private void hedge(CompletableFuture<T> slow) {
+            RouteState hedge;
+            synchronized (this) {
+                if (result.isDone() || slow.isDone()) {
+                    return;
+                }
+                hedge = choose(tried, true);
+                if (hedge == null || !hedge.isAvailable(System.nanoTime())) {
+                    return;
+                }
+                tried.add(hedge);
+            }
+            hedge.hedges.increment();
+            attempt(hedge);
+        }
+
+        private CompletableFuture<T> attempt(RouteState route) {
+            route.inFlight.incrementAndGet();
+            route.calls.increment();
+            long start = System.nanoTime();
+            CompletableFuture<T> attempt = BedrockHelper.admissionControl().callOnceAsync(route.name, route.modelId, estimatedTokens,
+                    () -> operation.apply(route.asyncClient.get(), route.modelId));
+            synchronized (this) {
+                attempts.add(attempt);
+                running++;
+            }
+            if (result.isDone()) {
+                attempt.cancel(true);
+            }
+            attempt.whenComplete((value, error) -> {
+                route.inFlight.decrementAndGet();
+                if (error == null) {
+                    route.succeeded(System.nanoTime() - start);
+                    result.complete(value);
+                    return;
+                }
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                // An attempt cancelled because the call was decided says nothing about the route.
+                if (result.isDone() || cause instanceof CancellationException || cause instanceof AbortedException) {
+                    return;
+                }
+                route.failed(cause);
+                if (!isRouteFailure(cause)) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                boolean tryNext;
+                synchronized (this) {
+                    if (failure != null && failure != cause) {
+                        cause.addSuppressed(failure);
+                    }
+                    failure = cause;
+                    tryNext = --running == 0;
+                }
+                if (tryNext) {
+                    next();
+                }
+            });
+            return attempt;
+        }
+    }
+
+    // Throttles, server errors and connection failures: another route may well succeed.
+    private static boolean isRouteFailure(Throwable e) {
+        return RetryScheduler.isRetryable(e) || (e instanceof SdkClientException && e.getCause() instanceof IOException);
+    }
+
+    private record Route(String name,
+                         String modelId,
+                         boolean fallback,
+                         Supplier<BedrockRuntimeClient> client,
+                         Supplier<BedrockRuntimeAsyncClient> asyncClient) {
+    }
+
+    private final class RouteState {
+        final String name;
+        final String modelId;
+        final boolean fallback;
+        final Supplier<BedrockRuntimeClient> client;
+        final Supplier<BedrockRuntimeAsyncClient> asyncClient;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder throttles = new LongAdder();
+        final LongAdder hedges = new LongAdder();
+
+        // Recent latencies: the window being filled and the last full one.
+        private Histogram current = new Histogram();
+        private Histogram previous;
+        volatile double latencyNanos;
+        private int consecutiveFailures;
+        volatile long availableAt = Long.MIN_VALUE;
+
+        RouteState(Route route) {
+            this.name = route.name();
+            this.modelId = route.modelId();
+            this.fallback = route.fallback();
+            this.client = route.client();
+            this.asyncClient = route.asyncClient();
+        }
+
+        boolean isAvailable(long now) {
+            return availableAt == Long.MIN_VALUE || now - availableAt >= 0;
+        }
+
+        synchronized Histogram latencies() {
+            return previous != null && current.count() < minSamples ? previous : current;
+        }
+
+        synchronized void succeeded(long nanos) {
+            if (current.count() >= LATENCY_WINDOW) {
+                previous = current;
+                current = new Histogram();
+            }
+            current.record(nanos);
+            latencyNanos = latencyNanos == 0 ? nanos : latencyNanos + EWMA_WEIGHT * (nanos - latencyNanos);
+            consecutiveFailures = 0;
+            availableAt = Long.MIN_VALUE;
+        }
+
+        synchronized void failed(Throwable e) {
+            failures.increment();
+            if (RetryScheduler.isThrottle(e)) {
+                throttles.increment();
+                availableAt = System.nanoTime() + throttleCooldownNanos;
+            } else if (isRouteFailure(e) && ++consecutiveFailures >= failureThreshold) {
+                availableAt = System.nanoTime() + cooldownNanos;
+                consecutiveFailures = 0;
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final List<Route> routes = new ArrayList<>();
+        private boolean hedging;
+        private double hedgePercentile = 95;
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        private int minSamples = 20;
+        private int failureThreshold = 3;
+        private Duration cooldown = Duration.ofSeconds(30);
+        private Duration throttleCooldown = Duration.ofSeconds(5);
+
+        private Builder() {
+        }
+
+        /*
+        A primary route: modelId, e.g. a cross-region inference profile such as "us.anthropic.claude-3-haiku-...",
+        in region, through the shared BedrockClients.
+        */
+        public Builder route(Region region, String modelId) {
+            return add(region.id() + "/" + modelId, modelId, false,
+                    () -> BedrockClients.shared().runtime(region), () -> BedrockClients.shared().runtimeAsync(region));
+        }
+
+        /*
+        A primary route through any client, e.g. one for another account or a local stub endpoint; sync calls only.
+        The client should not retry on its own (see the class comment).
+        */
+        public Builder route(String name, BedrockRuntimeClient client, String modelId) {
+            return route(name, Objects.requireNonNull(client), null, modelId);
+        }
+
+        // Same with an async client for callAsync; either client may be null if that kind of call is not routed here.
+        public Builder route(String name, BedrockRuntimeClient client, BedrockRuntimeAsyncClient asyncClient, String modelId) {
+            return add(name, modelId, false, supplier(client), supplier(asyncClient));
+        }
+
+        // Used only when no primary route is available or all of them failed a call.
+        public Builder fallback(Region region, String modelId) {
+            return add(region.id() + "/" + modelId, modelId, true,
+                    () -> BedrockClients.shared().runtime(region), () -> BedrockClients.shared().runtimeAsync(region));
+        }
+
+        public Builder fallback(String name, BedrockRuntimeClient client, String modelId) {
+            return fallback(name, Objects.requireNonNull(client), null, modelId);
+        }
+
+        public Builder fallback(String name, BedrockRuntimeClient client, BedrockRuntimeAsyncClient asyncClient, String modelId) {
+            return add(name, modelId, true, supplier(client), supplier(asyncClient));
+        }
+
+        // Sends a second request when the first has not answered within the route's p95 latency; off by default.
+        public Builder hedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        public Builder hedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        // Lower bound of the hedge delay, so fast routes are not hedged on noise.
+        public Builder minHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = Objects.requireNonNull(minHedgeDelay);
+            return this;
+        }
+
+        // Calls a route must have answered before its latency percentile is trusted for hedging.
+        public Builder minSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        // Consecutive server or connection errors that take a route out of rotation for cooldown.
+        public Builder failureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public Builder cooldown(Duration cooldown) {
+            this.cooldown = Objects.requireNonNull(cooldown);
+            return this;
+        }
+
+        // How long a throttled route is left alone.
+        public Builder throttleCooldown(Duration throttleCooldown) {
+            this.throttleCooldown = Objects.requireNonNull(throttleCooldown);
+            return this;
+        }
+
+        public ModelRouter build() {
+            return new ModelRouter(this);
+        }
+
+        private Builder add(String name,
+                            String modelId,
+                            boolean fallback,
+                            Supplier<BedrockRuntimeClient> client,
+                            Supplier<BedrockRuntimeAsyncClient> asyncClient) {
+            if (client == null && asyncClient == null) {
+                throw new IllegalArgumentException("Route " + name + " needs a client");
+            }
+            routes.add(new Route(Objects.requireNonNull(name), Objects.requireNonNull(modelId), fallback, client, asyncClient));
+            return this;
+        }
+
+        private static <C> Supplier<C> supplier(C client) {
+            return client == null ? null : () -> client;
+        }
+    }
+}
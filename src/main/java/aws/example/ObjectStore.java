@@ -0,0 +1,47 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+/*
+ * Minimal object storage used by BatchInference for its input and output JSON Lines files.
+ *
+ * Keys are '/'-separated paths. Objects are written and read as streams, so a file of any size
+ * goes through a fixed-size buffer. s3(...) is the store Bedrock batch jobs read from and write to;
+ * directory(path) is a local stand-in with the same semantics, for tests and dry runs.
+ */
+public interface ObjectStore {
+
+    /*
+    An object being written. close() makes it visible, complete; abort() discards what was written
+    and leaves an existing object with the same key as it was. Whichever comes first ends the upload.
+    */
+    abstract class Upload extends OutputStream {
+        public abstract void abort() throws IOException;
+    }
+
+    Upload create(String key) throws IOException;
+
+    // Throws NoSuchFileException for a missing object.
+    InputStream open(String key) throws IOException;
+
+    // Keys of all objects whose key starts with prefix, sorted.
+    List<String> list(String prefix) throws IOException;
+
+    // The URI a batch job is given for this key, e.g. s3://bucket/key.
+    String uri(String key);
+
+    static ObjectStore directory(Path root) {
+        return new FileObjectStore(root);
+    }
+
+    // Objects under s3://bucket/prefix; prefix may be empty.
+    static ObjectStore s3(S3Client s3, String bucket, String prefix) {
+        return new S3ObjectStore(s3, bucket, prefix);
+    }
+}
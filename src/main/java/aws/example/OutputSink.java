@@ -0,0 +1,57 @@
+package aws.example;
+
+/*
+ * Where the BedrockHelper samples show their responses and errors.
+ *
+ * The default, none(), discards everything, so library use of BedrockHelper does no console I/O,
+ * not even per token while a response streams. console() restores the samples' printing (see Main);
+ * any other implementation can forward the text to a UI or a log.
+ */
+public interface OutputSink {
+
+    // A complete response.
+    void text(String text);
+
+    // The next piece of a streamed response.
+    void delta(String text);
+
+    void error(String message);
+
+    OutputSink NONE = new OutputSink() {
+        @Override
+        public void text(String text) {
+        }
+
+        @Override
+        public void delta(String text) {
+        }
+
+        @Override
+        public void error(String message) {
+        }
+    };
+
+    static OutputSink none() {
+        return NONE;
+    }
+
+    // Responses to System.out, one per line, stream deltas as they arrive; errors to System.err.
+    static OutputSink console() {
+        return new OutputSink() {
+            @Override
+            public void text(String text) {
+                System.out.println(text);
+            }
+
+            @Override
+            public void delta(String text) {
+                System.out.print(text);
+            }
+
+            @Override
+            public void error(String message) {
+                System.err.println(message);
+            }
+        };
+    }
+}
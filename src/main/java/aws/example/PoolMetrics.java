@@ -0,0 +1,95 @@
+package aws.example;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+
+/*
+ * Metric publisher attached to every client created by BedrockClients.
+ * It keeps the latest connection pool figures reported by the HTTP clients, per service,
+ * so callers can see how busy the shared pools are without enabling full SDK metrics.
+ */
+public final class PoolMetrics implements MetricPublisher {
+
+    /*
+    Point-in-time view of one service's connection pool.
+    maxConcurrency: connections (sync) or concurrent streams (async) the pool allows.
+    leased: connections in use by requests.
+    available: idle connections ready for reuse.
+    pendingAcquires: requests waiting for a connection.
+    calls: API calls published since the registry was created.
+    */
+    public record Snapshot(String serviceId,
+                           int maxConcurrency,
+                           int leased,
+                           int available,
+                           int pendingAcquires,
+                           long calls) {
+    }
+
+    private static final class PoolState {
+        volatile int maxConcurrency;
+        volatile int leased;
+        volatile int available;
+        volatile int pendingAcquires;
+        final LongAdder calls = new LongAdder();
+    }
+
+    private final Map<String, PoolState> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void publish(MetricCollection metrics) {
+        List<String> serviceIds = metrics.metricValues(CoreMetric.SERVICE_ID);
+        String serviceId = serviceIds.isEmpty() ? "unknown" : serviceIds.get(0);
+
+        PoolState state = pools.computeIfAbsent(serviceId, id -> new PoolState());
+        state.calls.increment();
+        record(metrics, state);
+    }
+
+    // The HTTP pool figures live in the "HttpClient" collection nested under each attempt.
+    private static void record(MetricCollection metrics, PoolState state) {
+        List<Integer> leased = metrics.metricValues(HttpMetric.LEASED_CONCURRENCY);
+        if (!leased.isEmpty()) {
+            state.leased = last(leased);
+            state.maxConcurrency = last(metrics.metricValues(HttpMetric.MAX_CONCURRENCY), state.maxConcurrency);
+            state.available = last(metrics.metricValues(HttpMetric.AVAILABLE_CONCURRENCY), state.available);
+            state.pendingAcquires = last(metrics.metricValues(HttpMetric.PENDING_CONCURRENCY_ACQUIRES), state.pendingAcquires);
+        }
+        for (MetricCollection child : metrics.children()) {
+            record(child, state);
+        }
+    }
+
+    private static int last(List<Integer> values) {
+        return values.get(values.size() - 1);
+    }
+
+    private static int last(List<Integer> values, int fallback) {
+        return values.isEmpty() ? fallback : last(values);
+    }
+
+    // Returns the latest pool figures keyed by service id, e.g. "Bedrock Runtime".
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        pools.forEach((serviceId, state) -> result.put(serviceId, new Snapshot(serviceId,
+                state.maxConcurrency,
+                state.leased,
+                state.available,
+                state.pendingAcquires,
+                state.calls.sum())));
+        return result;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release; the registry owns the lifecycle of the clients publishing here.
+    }
+}
@@ -0,0 +1,106 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.SdkHttpRequest;
+
+/*
+ * Adds Bedrock prompt-cache checkpoints ({"cachePoint": {"type": "default"}} blocks) to Converse
+ * requests. The SDK version used here has no CachePointBlock, so the blocks are inserted into the
+ * serialized request body, before it is signed.
+ *
+ * The interceptor is installed on every BedrockClients client and only touches requests that carry
+ * a CHECKPOINTS execution attribute, e.g.
+ *     ConverseRequest.builder()...overrideConfiguration(o -> o.putExecutionAttribute(CHECKPOINTS, checkpoints))
+ */
+final class PromptCachePoints implements ExecutionInterceptor {
+
+    // system: after the system prompt; messages: after the content of these messages (indexes into messages).
+    record Checkpoints(boolean system, List<Integer> messages) {
+    }
+
+    static final ExecutionAttribute<Checkpoints> CHECKPOINTS = new ExecutionAttribute<>("aws.example.PromptCacheCheckpoints");
+    private static final ExecutionAttribute<byte[]> BODY = new ExecutionAttribute<>("aws.example.PromptCacheBody");
+
+    static final PromptCachePoints INSTANCE = new PromptCachePoints();
+
+    private PromptCachePoints() {
+    }
+
+    // The SDK calls the content hooks before modifyHttpRequest, so the body is rewritten once, by whichever runs first.
+    @Override
+    public Optional<AsyncRequestBody> modifyAsyncHttpContent(Context.ModifyHttpRequest context, ExecutionAttributes attributes) {
+        byte[] body = body(context, attributes);
+        return body == null ? context.asyncRequestBody() : Optional.of(AsyncRequestBody.fromBytes(body));
+    }
+
+    @Override
+    public Optional<RequestBody> modifyHttpContent(Context.ModifyHttpRequest context, ExecutionAttributes attributes) {
+        byte[] body = body(context, attributes);
+        return body == null ? context.requestBody() : Optional.of(RequestBody.fromBytes(body));
+    }
+
+    @Override
+    public SdkHttpRequest modifyHttpRequest(Context.ModifyHttpRequest context, ExecutionAttributes attributes) {
+        byte[] body = body(context, attributes);
+        if (body == null) {
+            return context.httpRequest();
+        }
+        return context.httpRequest().toBuilder()
+                .putHeader("Content-Length", Integer.toString(body.length))
+                .build();
+    }
+
+    private static byte[] body(Context.ModifyHttpRequest context, ExecutionAttributes attributes) {
+        Checkpoints checkpoints = attributes.getAttribute(CHECKPOINTS);
+        if (checkpoints == null || context.requestBody().isEmpty()) {
+            return null;
+        }
+        byte[] body = attributes.getAttribute(BODY);
+        if (body == null) {
+            body = addCheckpoints(read(context.requestBody().get()), checkpoints);
+            attributes.putAttribute(BODY, body);
+        }
+        return body;
+    }
+
+    static byte[] addCheckpoints(byte[] body, Checkpoints checkpoints) {
+        var request = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        JSONArray system = request.optJSONArray("system");
+        if (checkpoints.system() && system != null && !system.isEmpty()) {
+            system.put(cachePoint());
+        }
+        JSONArray messages = request.optJSONArray("messages");
+        for (int index : checkpoints.messages()) {
+            if (messages != null && index >= 0 && index < messages.length()) {
+                messages.getJSONObject(index).getJSONArray("content").put(cachePoint());
+            }
+        }
+        return request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JSONObject cachePoint() {
+        return new JSONObject().put("cachePoint", new JSONObject().put("type", "default"));
+    }
+
+    private static byte[] read(RequestBody body) {
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Cache of model responses keyed by a canonical hash of the request
+ * (operation, model, inference parameters and input).
+ *
+ * Lookups go to a bounded in-memory LRU with TTL first and then, if configured, to a directory
+ * of one file per response that survives restarts. The directory is bounded too: when it grows past
+ * maxDiskBytes, expired files and then the oldest ones are deleted. Concurrent misses for the same
+ * key are coalesced: one caller runs the model call and the others wait for its result.
+ *
+ * Nothing is cached unless a cache is installed with BedrockHelper.setResponseCache(...), and by
+ * default only requests sent with temperature 0 are cached, because other responses are not
+ * expected to repeat. cacheNonDeterministic(true) lifts that restriction.
+ */
+public final class ResponseCache {
+
+    // SHA-256 of the canonical request, as lowercase hex.
+    public record Key(String hash) {
+    }
+
+    public record Stats(long hits, long diskHits, long misses, long coalesced, long evictions, long diskEvictions, int size) {
+    }
+
+    // A file of the disk tier, as seen by a sweep.
+    private record CachedFile(Path path, long size, long modifiedMillis) {
+    }
+
+    private final LruTtlCache<Key, String> memory;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final Duration ttl;
+    private final boolean cacheNonDeterministic;
+    private final Map<Key, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder diskEvictions = new LongAdder();
+    // Bytes in the disk tier, approximately: kept up to date by writes and recounted by every sweep.
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private ResponseCache(Builder builder) {
+        this.memory = new LruTtlCache<>(builder.maxEntries, builder.ttl.toNanos(), System::nanoTime);
+        this.directory = builder.directory;
+        this.maxDiskBytes = builder.maxDiskBytes;
+        this.ttl = builder.ttl;
+        this.cacheNonDeterministic = builder.cacheNonDeterministic;
+        if (maxDiskBytes < 1) {
+            throw new IllegalArgumentException("maxDiskBytes must be at least 1, was " + maxDiskBytes);
+        }
+        if (directory != null) {
+            // Counts what earlier runs left behind and clears out what has expired since.
+            sweepDisk();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /*
+    Builds the canonical key of a request. Parameters are sorted by name, and every part is
+    length-prefixed, so different requests cannot produce the same byte sequence.
+    */
+    public static Key key(String operation, String modelId, Map<String, ?> parameters, byte[]... inputs) {
+        MessageDigest digest = sha256();
+        update(digest, operation.getBytes(StandardCharsets.UTF_8));
+        update(digest, modelId.getBytes(StandardCharsets.UTF_8));
+        new TreeMap<>(parameters).forEach((name, value) ->
+                update(digest, (name + "=" + value).getBytes(StandardCharsets.UTF_8)));
+        for (byte[] input : inputs) {
+            update(digest, input);
+        }
+        return new Key(HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /*
+    Whether a request sent with this temperature may be cached. null means the temperature is unknown
+    or left to the model's default (e.g. RetrieveAndGenerate), which is treated as non-deterministic.
+    */
+    public boolean accepts(Float temperature) {
+        return cacheNonDeterministic || (temperature != null && temperature == 0f);
+    }
+
+    /*
+    Returns the cached response, or runs the loader (at most once across concurrent callers
+    with the same key) and caches its result. Loader failures are not cached.
+    */
+    public String get(Key key, Supplier<String> loader) {
+        String cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        var mine = new CompletableFuture<String>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            misses.increment();
+            String value = loader.get();
+            store(key, value);
+            mine.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too, or the callers waiting on this load would block forever.
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /*
+    Non-blocking variant of get. Waiters get their own dependent future, so cancelling one
+    caller's future does not cancel the shared model call.
+    */
+    public CompletableFuture<String> getAsync(Key key, Supplier<CompletableFuture<String>> loader) {
+        String cached = lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        var mine = new CompletableFuture<String>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.thenApply(value -> value);
+        }
+
+        misses.increment();
+        CompletableFuture<String> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        } catch (Error e) {
+            mine.completeExceptionally(e);
+            inFlight.remove(key, mine);
+            throw e;
+        }
+        load.whenComplete((value, error) -> {
+            try {
+                if (error == null) {
+                    store(key, value);
+                    mine.complete(value);
+                } else {
+                    mine.completeExceptionally(error);
+                }
+            } catch (Throwable e) {
+                mine.completeExceptionally(e);
+            } finally {
+                inFlight.remove(key, mine);
+            }
+        });
+        return mine.thenApply(value -> value);
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), diskHits.sum(), misses.sum(), coalesced.sum(), memory.evictions(),
+                diskEvictions.sum(), memory.size());
+    }
+
+    private String lookup(Key key) {
+        String value = memory.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        value = readDisk(key);
+        if (value != null) {
+            diskHits.increment();
+            memory.put(key, value);
+        }
+        return value;
+    }
+
+    private void store(Key key, String value) {
+        if (value == null) {
+            return;
+        }
+        memory.put(key, value);
+        writeDisk(key, value);
+    }
+
+    // ---- File tier: <directory>/<first two hex digits>/<hash>, expiring by modification time ----
+
+    private Path file(Key key) {
+        return directory.resolve(key.hash().substring(0, 2)).resolve(key.hash());
+    }
+
+    private String readDisk(Key key) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = file(key);
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long age = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis();
+            if (age > ttl.toMillis()) {
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-attributes.size());
+                }
+                return null;
+            }
+            return Files.readString(file, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            BedrockHelper.output().error(String.format("WARN: Can't read cached response %s. Reason: %s", file, e.getMessage()));
+            return null;
+        }
+    }
+
+    // Written to a temporary file and moved into place, so readers never see a partial response.
+    private void writeDisk(Key key, String value) {
+        if (directory == null) {
+            return;
+        }
+        Path file = file(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), key.hash(), TMP_SUFFIX);
+            Files.writeString(tmp, value, StandardCharsets.UTF_8);
+            long added = Files.size(tmp) - (Files.exists(file) ? Files.size(file) : 0);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (diskBytes.addAndGet(added) > maxDiskBytes) {
+                sweepDisk();
+            }
+        } catch (IOException e) {
+            BedrockHelper.output().error(String.format("WARN: Can't cache response in %s. Reason: %s", file, e.getMessage()));
+        }
+    }
+
+    /*
+    Deletes expired files, then the least recently written ones until the tier is down to 90% of
+    maxDiskBytes, so a full tier is not swept again on the next write. One sweep runs at a time;
+    writes that go over the limit meanwhile leave it to the running one.
+    */
+    private void sweepDisk() {
+        if (!Files.isDirectory(directory) || !sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            long total = 0;
+            List<CachedFile> files = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(directory, 2)) {
+                for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    long modified = attributes.lastModifiedTime().toMillis();
+                    if (now - modified > ttl.toMillis()) {
+                        // Expired responses, and temporary files left behind by a crash.
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    total += attributes.size();
+                    if (!file.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                        files.add(new CachedFile(file, attributes.size(), modified));
+                    }
+                }
+            }
+            if (total > maxDiskBytes) {
+                files.sort(Comparator.comparingLong(CachedFile::modifiedMillis));
+                long target = maxDiskBytes / 10 * 9;
+                for (CachedFile file : files) {
+                    if (total <= target) {
+                        break;
+                    }
+                    if (Files.deleteIfExists(file.path())) {
+                        diskEvictions.increment();
+                    }
+                    total -= file.size();
+                }
+            }
+            diskBytes.set(total);
+        } catch (IOException | UncheckedIOException e) {
+            BedrockHelper.output().error(String.format("WARN: Can't clean up cached responses in %s. Reason: %s", directory, e.getMessage()));
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static void update(MessageDigest digest, byte[] part) {
+        int length = part.length;
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(part);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static final class Builder {
+        private int maxEntries = 1_000;
+        private Duration ttl = Duration.ofHours(1);
+        private Path directory;
+        private long maxDiskBytes = 256L * 1024 * 1024;
+        private boolean cacheNonDeterministic;
+
+        private Builder() {
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        // Enables the file tier in this directory; cached responses then survive restarts.
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        // Size limit of the file tier; 256 MB by default.
+        public Builder maxDiskBytes(long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        // Also cache responses generated with a temperature above 0.
+        public Builder cacheNonDeterministic(boolean cacheNonDeterministic) {
+            this.cacheNonDeterministic = cacheNonDeterministic;
+            return this;
+        }
+
+        public ResponseCache build() {
+            return new ResponseCache(this);
+        }
+    }
+}
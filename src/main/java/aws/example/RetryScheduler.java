@@ -0,0 +1,154 @@
+package aws.example;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/*
+ * Decides whether and when a failed Bedrock call is retried.
+ * Delays use exponential backoff with full jitter, so clients throttled at the same moment
+ * do not retry in lockstep. A retry budget caps retries to a fraction of successful calls,
+ * which keeps retries from amplifying an overload into a retry storm.
+ */
+public final class RetryScheduler {
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final double budgetRatio;
+    private final double budgetCapacity;
+
+    private double budget;
+
+    private RetryScheduler(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayNanos = builder.baseDelay.toNanos();
+        this.maxDelayNanos = builder.maxDelay.toNanos();
+        this.budgetRatio = builder.budgetRatio;
+        this.budgetCapacity = builder.budgetCapacity;
+        this.budget = builder.budgetCapacity;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /*
+    Returns the backoff before the given retry (1 for the first retry), or -1 if the call
+    should not be retried: the error is not retryable, attempts are exhausted or the budget is empty.
+    */
+    long retryDelayNanos(Throwable error, int attemptsSoFar) {
+        if (!isRetryable(error) || attemptsSoFar >= maxAttempts || !withdraw()) {
+            return -1;
+        }
+        int shift = Math.min(attemptsSoFar - 1, 30);
+        long ceiling = Math.min(maxDelayNanos, baseDelayNanos << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // Every successful call earns back a fraction of a retry.
+    synchronized void onSuccess() {
+        budget = Math.min(budgetCapacity, budget + budgetRatio);
+    }
+
+    synchronized double budget() {
+        return budget;
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    // ThrottlingException (HTTP 429) from any Bedrock, Agent or Textract client, possibly wrapped.
+    public static boolean isThrottle(Throwable error) {
+        SdkServiceException e = serviceException(error);
+        return e != null && (e.isThrottlingException() || e.statusCode() == 429);
+    }
+
+    /*
+    Throttling plus transient failures: server-side (5xx, e.g. ServiceUnavailable or ModelNotReady) and
+    client-side I/O errors such as a reset connection, which the SDK clients would otherwise have retried.
+    */
+    public static boolean isRetryable(Throwable error) {
+        SdkServiceException e = serviceException(error);
+        if (e == null) {
+            return isIoFailure(error);
+        }
+        return isThrottle(e) || e.statusCode() >= 500 || e.isRetryableException();
+    }
+
+    private static boolean isIoFailure(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof SdkClientException && current.getCause() instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SdkServiceException serviceException(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof SdkServiceException e) {
+                return e;
+            }
+            if (!(current instanceof CompletionException
+                    || current instanceof ExecutionException
+                    || current.getClass() == RuntimeException.class)) {
+                return null;
+            }
+            current = current.getCause();
+        }
+        return null;
+    }
+
+    public static final class Builder {
+        private int maxAttempts = 4;
+        private Duration baseDelay = Duration.ofMillis(200);
+        private Duration maxDelay = Duration.ofSeconds(20);
+        private double budgetRatio = 0.1;
+        private double budgetCapacity = 20;
+
+        private Builder() {
+        }
+
+        // Total attempts including the first one.
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder baseDelay(Duration baseDelay) {
+            this.baseDelay = baseDelay;
+            return this;
+        }
+
+        public Builder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /*
+        ratio: retries earned per successful call (0.1 allows roughly one retry per ten successes).
+        capacity: retries that can be spent in a burst, and the starting balance.
+        */
+        public Builder budget(double ratio, double capacity) {
+            this.budgetRatio = ratio;
+            this.budgetCapacity = capacity;
+            return this;
+        }
+
+        public RetryScheduler build() {
+            return new RetryScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package aws.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/*
+ * ObjectStore on an S3 bucket, below an optional key prefix.
+ *
+ * create() spools the object to a temporary file and uploads it with a single PutObject when the
+ * upload is closed, so the object size never depends on the heap and S3 gets its content length
+ * up front; an aborted upload sends nothing. Batch inference input files are limited to 1 GB,
+ * well within a single upload.
+ */
+final class S3ObjectStore implements ObjectStore {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String prefix;
+
+    S3ObjectStore(S3Client s3, String bucket, String prefix) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.prefix = prefix == null || prefix.isEmpty() ? "" : prefix.endsWith("/") ? prefix : prefix + "/";
+    }
+
+    @Override
+    public Upload create(String key) throws IOException {
+        String objectKey = prefix + key;
+        return new SpooledUpload(Files.createTempFile("s3-object-", ".tmp"),
+                written -> s3.putObject(r -> r.bucket(bucket).key(objectKey), RequestBody.fromFile(written)));
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        try {
+            return s3.getObject(r -> r.bucket(bucket).key(prefix + key));
+        } catch (NoSuchKeyException e) {
+            throw (NoSuchFileException) new NoSuchFileException(uri(key)).initCause(e);
+        }
+    }
+
+    @Override
+    public List<String> list(String keyPrefix) {
+        return s3.listObjectsV2Paginator(r -> r.bucket(bucket).prefix(prefix + keyPrefix))
+                .contents().stream()
+                .map(S3Object::key)
+                .map(key -> key.substring(prefix.length()))
+                .sorted()
+                .toList();
+    }
+
+    @Override
+    public String uri(String key) {
+        return "s3://" + bucket + "/" + prefix + key;
+    }
+}
@@ -0,0 +1,231 @@
+package aws.example;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/*
+ * Cache of model responses looked up by meaning instead of exact text: a prompt whose embedding
+ * is at least `threshold` cosine-similar to one answered before gets that answer without a model call.
+ *
+ * Every lookup costs one embedding call, which is cheap and fast next to a generation but not
+ * free, so ResponseCache (exact matches) is consulted first when both are installed. Answers are
+ * only shared within a scope, i.e. the same model and inference parameters (see
+ * BedrockHelper.setSemanticCache). Once maxEntries answers are cached, the oldest is replaced.
+ *
+ * As with ResponseCache, only requests sent with temperature 0 are cached unless
+ * cacheNonDeterministic(true) is set. Choose the threshold for the embedding model: too low and
+ * different questions share an answer.
+ *
+ * The cache never fails a call: if the embedding call fails (e.g. the embedding model is throttled)
+ * or its vector does not match the index, the prompt is treated as a miss and sent to the model,
+ * and the failure is counted in Stats.errors and reported through the OutputSink.
+ */
+public final class SemanticCache {
+
+    public record Stats(long hits, long misses, long errors, int size) {
+    }
+
+    private record Entry(String scope, String response, long expiresAtNanos) {
+    }
+
+    // Nearest vectors checked for an entry of the right scope.
+    private static final int CANDIDATES = 4;
+
+    private final Embeddings embeddings;
+    private final float threshold;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final boolean cacheNonDeterministic;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Entry[] entries;
+    private VectorIndex index;
+    private long stored;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private SemanticCache(Builder builder) {
+        this.embeddings = Objects.requireNonNull(builder.embeddings, "embeddings");
+        this.threshold = builder.threshold;
+        this.maxEntries = builder.maxEntries;
+        this.ttlNanos = builder.ttl.toNanos();
+        this.cacheNonDeterministic = builder.cacheNonDeterministic;
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("threshold must be in (0, 1], was " + threshold);
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1, was " + maxEntries);
+        }
+        this.entries = new Entry[maxEntries];
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Same rule as ResponseCache.accepts: temperature 0 only, unless cacheNonDeterministic is set.
+    public boolean accepts(Float temperature) {
+        return cacheNonDeterministic || (temperature != null && temperature == 0f);
+    }
+
+    // Returns the answer of a similar prompt of the same scope, or runs the loader and caches its result.
+    public String get(String scope, String prompt, Supplier<String> loader) {
+        float[] vector;
+        try {
+            vector = embeddings.embed(prompt, EmbeddingModel.InputType.QUERY);
+        } catch (RuntimeException e) {
+            failed("embed the prompt", e);
+            vector = null;
+        }
+        String cached = lookup(scope, vector);
+        if (cached != null) {
+            return cached;
+        }
+        String response = loader.get();
+        store(scope, vector, response);
+        return response;
+    }
+
+    public CompletableFuture<String> getAsync(String scope, String prompt, Supplier<CompletableFuture<String>> loader) {
+        CompletableFuture<float[]> embedding;
+        try {
+            embedding = embeddings.embedAsync(prompt, EmbeddingModel.InputType.QUERY);
+        } catch (RuntimeException e) {
+            embedding = CompletableFuture.failedFuture(e);
+        }
+        return embedding
+                .exceptionally(error -> {
+                    failed("embed the prompt", error);
+                    return null;
+                })
+                .thenCompose(vector -> {
+                    String cached = lookup(scope, vector);
+                    if (cached != null) {
+                        return CompletableFuture.completedFuture(cached);
+                    }
+                    return loader.get().thenApply(response -> {
+                        store(scope, vector, response);
+                        return response;
+                    });
+                });
+    }
+
+    public Stats stats() {
+        lock.readLock().lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), errors.sum(), index == null ? 0 : index.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The cached answer, or null on a miss; a vector of null (the embedding failed) is a miss.
+    private String lookup(String scope, float[] vector) {
+        lock.readLock().lock();
+        try {
+            if (index != null && vector != null) {
+                long now = System.nanoTime();
+                List<VectorIndex.Hit> nearest = index.search(vector, CANDIDATES);
+                for (VectorIndex.Hit hit : nearest) {
+                    if (hit.score() < threshold) {
+                        break;
+                    }
+                    Entry entry = entries[hit.id()];
+                    if (entry.scope().equals(scope) && now - entry.expiresAtNanos() < 0) {
+                        hits.increment();
+                        return entry.response();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // E.g. a vector of other dimensions than the index, after the embedding model was changed.
+            failed("search the cache", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void store(String scope, float[] vector, String response) {
+        if (response == null || vector == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                index = new VectorIndex(vector.length, Math.min(maxEntries, 1024));
+            }
+            // Slots are reused in insertion order, so the oldest answer is the one replaced.
+            int slot = (int) (stored % maxEntries);
+            if (slot < index.size()) {
+                index.set(slot, vector);
+            } else {
+                index.add(vector);
+            }
+            entries[slot] = new Entry(scope, response, System.nanoTime() + ttlNanos);
+            // Only once the vector is in, so a rejected vector does not shift later slots.
+            stored++;
+        } catch (RuntimeException e) {
+            failed("cache the answer", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void failed(String action, Throwable error) {
+        errors.increment();
+        BedrockHelper.output().error(String.format("WARN: Semantic cache can't %s; treated as a miss. Reason: %s", action, error.getMessage()));
+    }
+
+    public static final class Builder {
+        private Embeddings embeddings;
+        private float threshold = 0.95f;
+        private int maxEntries = 10_000;
+        private Duration ttl = Duration.ofHours(1);
+        private boolean cacheNonDeterministic;
+
+        private Builder() {
+        }
+
+        // Embeds the prompts; use the same model for the lifetime of the cache.
+        public Builder embeddings(Embeddings embeddings) {
+            this.embeddings = embeddings;
+            return this;
+        }
+
+        // Minimum cosine similarity between two prompts for them to share an answer.
+        public Builder threshold(float threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        // Also cache responses generated with a temperature above 0.
+        public Builder cacheNonDeterministic(boolean cacheNonDeterministic) {
+            this.cacheNonDeterministic = cacheNonDeterministic;
+            return this;
+        }
+
+        public SemanticCache build() {
+            return new SemanticCache(this);
+        }
+    }
+}
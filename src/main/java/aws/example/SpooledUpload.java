@@ -0,0 +1,71 @@
+package aws.example;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Upload of both ObjectStore implementations: the object is written to a temporary file, and
+ * close() hands the finished file to the store to publish. abort() deletes it without publishing.
+ */
+final class SpooledUpload extends ObjectStore.Upload {
+
+    interface Publisher {
+        void publish(Path file) throws IOException;
+    }
+
+    private final Path tmp;
+    private final OutputStream out;
+    private final Publisher publisher;
+    private boolean done;
+
+    SpooledUpload(Path tmp, Publisher publisher) throws IOException {
+        this.tmp = tmp;
+        this.out = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024);
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (done) {
+            return;
+        }
+        done = true;
+        try {
+            out.close();
+            publisher.publish(tmp);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void abort() throws IOException {
+        if (done) {
+            return;
+        }
+        done = true;
+        try {
+            out.close();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
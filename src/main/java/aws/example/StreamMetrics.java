@@ -0,0 +1,87 @@
+package aws.example;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Reports one streamed call (InvokeModelWithResponseStream, InvokeAgent) to the installed
+ * BedrockMetrics: time to first token, token usage, bytes received and the latency to the last event.
+ *
+ * The stream consumers (BedrockHelper.streamHandler, TokenStreamPublisher, AgentEventPublisher)
+ * create one per attempt and feed it their events. Without metrics installed, start() returns a
+ * recorder whose methods return immediately, so the per-chunk cost is a field check.
+ */
+final class StreamMetrics {
+
+    private static final StreamMetrics DISABLED = new StreamMetrics(null, null, null, -1);
+
+    private final BedrockMetrics metrics;
+    private final String operation;
+    private final String modelId;
+    private final long requestBytes;
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    // Written by the single thread delivering the stream's events.
+    private long firstTokenNanos = -1;
+    private int inputTokens = -1;
+    private int outputTokens = -1;
+    private long responseBytes;
+
+    private StreamMetrics(BedrockMetrics metrics, String operation, String modelId, long requestBytes) {
+        this.metrics = metrics;
+        this.operation = operation;
+        this.modelId = modelId;
+        this.requestBytes = requestBytes;
+    }
+
+    static StreamMetrics start(String operation, String modelId, long requestBytes) {
+        BedrockMetrics metrics = BedrockHelper.metrics();
+        return metrics == BedrockMetrics.NONE ? DISABLED : new StreamMetrics(metrics, operation, modelId, requestBytes);
+    }
+
+    // An Anthropic Messages chunk that decode() returned `type` for, and whether it carried text.
+    void chunk(AnthropicStreamDecoder.EventType type, ByteBuffer bytes, boolean text) {
+        if (metrics == null) {
+            return;
+        }
+        event(bytes.remaining(), text);
+        AnthropicStreamDecoder.Usage usage = AnthropicStreamDecoder.usage(type, bytes);
+        if (usage != null) {
+            if (usage.inputTokens() >= 0) {
+                inputTokens = usage.inputTokens();
+            }
+            if (usage.outputTokens() >= 0) {
+                outputTokens = usage.outputTokens();
+            }
+        }
+    }
+
+    // Any other event of `bytes` bytes; text marks the first generated text.
+    void event(long bytes, boolean text) {
+        if (metrics == null) {
+            return;
+        }
+        responseBytes += bytes;
+        if (text && firstTokenNanos < 0) {
+            firstTokenNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    // Reports the call once, when the stream completes (error null), fails or is cancelled.
+    void complete(Throwable error) {
+        if (metrics == null || !reported.compareAndSet(false, true)) {
+            return;
+        }
+        metrics.onCall(new BedrockMetrics.Call(operation, modelId,
+                System.nanoTime() - startNanos,
+                firstTokenNanos,
+                inputTokens,
+                outputTokens,
+                requestBytes,
+                responseBytes,
+                1,
+                error != null && RetryScheduler.isThrottle(error) ? 1 : 0,
+                error == null ? null : MetricsInterceptor.errorType(error)));
+    }
+}
@@ -0,0 +1,74 @@
+package aws.example;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Executors for fanning out blocking Bedrock calls.
+ * The project targets Java 17, so virtual threads are looked up at runtime: on a Java 21+ JVM each
+ * task gets its own virtual thread, on older JVMs a fixed pool of daemon platform threads is used.
+ * Callers bound concurrency themselves (e.g. with a Semaphore), so both variants behave the same.
+ */
+final class TaskExecutors {
+
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private TaskExecutors() {
+    }
+
+    /*
+    Returns an executor able to run `concurrency` blocking tasks at once.
+    The caller must shut it down when done.
+    */
+    static ExecutorService newTaskExecutor(int concurrency, String threadNamePrefix) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invokeExact();
+            } catch (Throwable e) {
+                // Fall through to platform threads.
+            }
+        }
+        return Executors.newFixedThreadPool(concurrency, daemonThreadFactory(threadNamePrefix));
+    }
+
+    /*
+    Returns an executor that starts every task at once, however many are running: virtual threads on
+    Java 21+, otherwise a cached pool of daemon platform threads. For callers whose concurrency is
+    bounded elsewhere, where queueing a task would defeat its purpose (e.g. a hedged request).
+    The caller must shut it down when done.
+    */
+    static ExecutorService newUnboundedExecutor(String threadNamePrefix) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invokeExact();
+            } catch (Throwable e) {
+                // Fall through to platform threads.
+            }
+        }
+        return Executors.newCachedThreadPool(daemonThreadFactory(threadNamePrefix));
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static MethodHandle findVirtualThreadExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
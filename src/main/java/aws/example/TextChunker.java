@@ -0,0 +1,101 @@
+package aws.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Splits a text that is too long for one prompt into consecutive chunks of at most maxTokens,
+ * cutting at the coarsest boundary that works: blank lines, then line breaks, then sentence ends,
+ * then spaces, and only as a last resort inside a word. Chunks are packed as full as they can be,
+ * and together they are exactly the original text.
+ */
+final class TextChunker {
+
+    private static final String[] SEPARATORS = {"\n\n", "\n", ". ", " "};
+
+    private final CharSequence text;
+    private final TokenCounter counter;
+    private final int maxTokens;
+    private final List<String> chunks = new ArrayList<>();
+    private int chunkStart;
+    private int chunkTokens;
+
+    private TextChunker(CharSequence text, TokenCounter counter, int maxTokens) {
+        this.text = text;
+        this.counter = counter;
+        this.maxTokens = maxTokens;
+    }
+
+    static List<String> split(CharSequence text, TokenCounter counter, int maxTokens) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens must be at least 1, was " + maxTokens);
+        }
+        TextChunker chunker = new TextChunker(text, counter, maxTokens);
+        chunker.add(0, text.length(), 0);
+        chunker.flush(text.length());
+        return chunker.chunks;
+    }
+
+    // Adds text[start, end), splitting it at separators[level] or finer if it does not fit in one chunk.
+    private void add(int start, int end, int level) {
+        int tokens = counter.count(text, start, end);
+        if (tokens <= maxTokens) {
+            if (chunkTokens + tokens > maxTokens) {
+                flush(start);
+            }
+            chunkTokens += tokens;
+            return;
+        }
+        if (level == SEPARATORS.length) {
+            addHard(start, end, tokens);
+            return;
+        }
+
+        String separator = SEPARATORS[level];
+        int pieceStart = start;
+        for (int i = indexOf(separator, start, end); i >= 0; i = indexOf(separator, pieceStart, end)) {
+            add(pieceStart, i + separator.length(), level + 1);
+            pieceStart = i + separator.length();
+        }
+        if (pieceStart < end) {
+            add(pieceStart, end, level + 1);
+        }
+    }
+
+    // Cuts text[start, end) into pieces of about maxTokens, sized in proportion to its token count.
+    private void addHard(int start, int end, int tokens) {
+        flush(start);
+        int step = Math.max(1, (int) ((long) (end - start) * maxTokens / tokens));
+        for (int pieceStart = start; pieceStart < end; ) {
+            int pieceEnd = Math.min(end, pieceStart + step);
+            while (pieceEnd - pieceStart > 1 && counter.count(text, pieceStart, pieceEnd) > maxTokens) {
+                pieceEnd = pieceStart + (pieceEnd - pieceStart) * 3 / 4;
+            }
+            // Never separate the two halves of a surrogate pair.
+            if (pieceEnd < end && Character.isLowSurrogate(text.charAt(pieceEnd)) && pieceEnd - pieceStart > 1) {
+                pieceEnd--;
+            }
+            chunks.add(text.subSequence(pieceStart, pieceEnd).toString());
+            pieceStart = pieceEnd;
+        }
+        chunkStart = end;
+        chunkTokens = 0;
+    }
+
+    private void flush(int end) {
+        if (end > chunkStart) {
+            chunks.add(text.subSequence(chunkStart, end).toString());
+        }
+        chunkStart = end;
+        chunkTokens = 0;
+    }
+
+    private int indexOf(String separator, int from, int end) {
+        for (int i = from; i + separator.length() <= end; i++) {
+            if (text.charAt(i) == separator.charAt(0) && (separator.length() == 1 || text.charAt(i + 1) == separator.charAt(1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,587 @@
+package aws.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.textract.TextractClient;
+import software.amazon.awssdk.services.textract.model.AnalyzeIDDetections;
+import software.amazon.awssdk.services.textract.model.AnalyzeIdRequest;
+import software.amazon.awssdk.services.textract.model.Block;
+import software.amazon.awssdk.services.textract.model.BlockType;
+import software.amazon.awssdk.services.textract.model.EntityType;
+import software.amazon.awssdk.services.textract.model.FeatureType;
+import software.amazon.awssdk.services.textract.model.GetDocumentAnalysisResponse;
+import software.amazon.awssdk.services.textract.model.IdentityDocument;
+import software.amazon.awssdk.services.textract.model.IdentityDocumentField;
+import software.amazon.awssdk.services.textract.model.JobStatus;
+import software.amazon.awssdk.services.textract.model.Relationship;
+import software.amazon.awssdk.services.textract.model.RelationshipType;
+import software.amazon.awssdk.services.textract.model.S3Object;
+import software.amazon.awssdk.services.textract.model.SelectionStatus;
+
+/*
+ * Extracts typed fields from scanned identity documents and forms with Textract, for whole
+ * directories at a time.
+ *
+ * Every document is split into units of work that run with at most `concurrency` Textract calls
+ * in flight, and each finished document is passed to the caller as soon as its last unit is done:
+ *  - a JPEG, PNG, single-page PDF or single-page TIFF within the synchronous size limit is one
+ *    AnalyzeID call;
+ *  - a multi-page TIFF is split into its pages, each sent to AnalyzeID on its own;
+ *  - a multi-page PDF, or any file over the synchronous limit, is staged in S3 and analyzed by an
+ *    asynchronous StartDocumentAnalysis job, whose form fields are read back one result page at a time.
+ * Every call goes through BedrockHelper's admission control. The results are ScannedDocuments, which
+ * BedrockHelper.documentInsight takes as context for a question.
+ */
+public final class TextractIngestion {
+
+    // A field read from a document: an identity document field (e.g. FIRST_NAME) or a form key.
+    public record Field(String type, String value, String normalizedValue, float confidence, int page) {
+
+        // The value as a date, for fields Textract normalized to one (e.g. DATE_OF_BIRTH), else null.
+        public LocalDate date() {
+            if (normalizedValue == null) {
+                return null;
+            }
+            try {
+                return LocalDateTime.parse(normalizedValue).toLocalDate();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    // The fields of one file, in page order, or the error that stopped it (fields then hold what was read).
+    public record ScannedDocument(Path source, int pages, List<Field> fields, Throwable error) {
+        public ScannedDocument {
+            fields = List.copyOf(fields);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        // The value of the first field of this type, or null.
+        public String value(String type) {
+            for (Field field : fields) {
+                if (field.type().equals(type)) {
+                    return field.value();
+                }
+            }
+            return null;
+        }
+
+        // The fields as "TYPE: value" lines, for a model prompt.
+        public String toContext() {
+            StringBuilder context = new StringBuilder();
+            for (Field field : fields) {
+                context.append(field.type()).append(": ").append(field.value()).append('\n');
+            }
+            return context.toString();
+        }
+    }
+
+    private static final Pattern PDF_PAGE = Pattern.compile("/Type\\s*/Page(?![a-zA-Z])");
+    private static final int MAX_RESULTS = 1000;
+
+    private final TextractClient client;
+    private final S3Client s3;
+    private final String stagingBucket;
+    private final String stagingPrefix;
+    private final int concurrency;
+    private final long maxSyncBytes;
+    private final Duration pollInterval;
+
+    private TextractIngestion(Builder builder) {
+        this.client = builder.client;
+        this.s3 = builder.s3;
+        this.stagingBucket = builder.stagingBucket;
+        this.stagingPrefix = builder.stagingPrefix;
+        this.concurrency = builder.concurrency;
+        this.maxSyncBytes = builder.maxSyncBytes;
+        this.pollInterval = builder.pollInterval;
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1, was " + concurrency);
+        }
+        if (maxSyncBytes < 1 || maxSyncBytes > MediaLoader.DEFAULT_MAX_TEXTRACT_BYTES) {
+            throw new IllegalArgumentException("maxSyncBytes must be between 1 and "
+                    + MediaLoader.DEFAULT_MAX_TEXTRACT_BYTES + ", was " + maxSyncBytes);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Scans one file and returns its fields, or the error in the result.
+    public ScannedDocument scan(Path file) throws InterruptedException {
+        AtomicReference<ScannedDocument> result = new AtomicReference<>();
+        scanAll(List.of(file), result::set);
+        return result.get();
+    }
+
+    /*
+    Non-blocking variant of scan. The Textract calls are still blocking ones, made on a thread of
+    their own; cancelling the future interrupts them, and any asynchronous job is no longer polled.
+    */
+    public CompletableFuture<ScannedDocument> scanAsync(Path file) {
+        var result = new CompletableFuture<ScannedDocument>();
+        var executor = TaskExecutors.newTaskExecutor(1, "textract-scan-");
+        executor.execute(() -> {
+            try {
+                result.complete(scan(file));
+            } catch (InterruptedException e) {
+                result.cancel(false);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((document, error) -> executor.shutdownNow());
+        return result;
+    }
+
+    /*
+    Scans every JPEG, PNG, PDF and TIFF file in the directory and its subdirectories.
+    Documents are passed to `documents` as they finish, one at a time. Returns the number of documents.
+    */
+    public int scanDirectory(Path directory, Consumer<ScannedDocument> documents) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile).filter(TextractIngestion::isSupported).sorted().toList();
+        }
+        return scanAll(files, documents);
+    }
+
+    // Same as above for a list of files.
+    public int scanAll(List<Path> files, Consumer<ScannedDocument> documents) throws InterruptedException {
+        Consumer<ScannedDocument> serialized = document -> {
+            synchronized (documents) {
+                documents.accept(document);
+            }
+        };
+        var permits = new Semaphore(concurrency);
+        var executor = TaskExecutors.newTaskExecutor(concurrency, "textract-");
+        List<Future<?>> pending = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                List<Unit> units;
+                try {
+                    units = plan(file);
+                } catch (IOException | RuntimeException e) {
+                    serialized.accept(new ScannedDocument(file, 0, List.of(), e));
+                    continue;
+                }
+                var assembly = new Assembly(file, units.size(), serialized);
+                for (Unit unit : units) {
+                    // Wait for a free slot, so files are read and split only as fast as calls complete.
+                    permits.acquire();
+                    pending.add(executor.submit(() -> {
+                        try {
+                            assembly.done(unit.run());
+                        } catch (Exception e) {
+                            assembly.failed(e);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                }
+            }
+            for (Future<?> unit : pending) {
+                unit.get();
+            }
+            return files.size();
+        } catch (ExecutionException e) {
+            // Only reachable for Errors; unit failures are reported in their document.
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ---- Planning ----
+
+    // One Textract call or job, returning the fields it read.
+    @FunctionalInterface
+    private interface Unit {
+        List<Field> run() throws Exception;
+    }
+
+    private List<Unit> plan(Path file) throws IOException {
+        long size = Files.size(file);
+        if (size > maxSyncBytes) {
+            return List.of(() -> analyzeDocument(file));
+        }
+        SdkBytes bytes = MediaLoader.shared().load(file, maxSyncBytes, "Textract document");
+        ByteBuffer head = bytes.asByteBuffer();
+        if (startsWith(head, "%PDF-") && pdfPages(bytes) != 1) {
+            return List.of(() -> analyzeDocument(file));
+        }
+        if (startsWith(head, "II*\0") || startsWith(head, "MM\0*")) {
+            int pages = tiffPages(bytes);
+            if (pages > 1) {
+                List<Unit> units = new ArrayList<>(pages);
+                for (int page = 0; page < pages; page++) {
+                    int index = page;
+                    units.add(() -> analyzeId(tiffPage(bytes, index), index + 1));
+                }
+                return units;
+            }
+        }
+        var document = MediaLoader.shared().textractDocument(file);
+        return List.of(() -> analyzeId(document, 1));
+    }
+
+    // ---- Synchronous identity documents ----
+
+    private List<Field> analyzeId(SdkBytes page, int pageNumber) {
+        return analyzeId(software.amazon.awssdk.services.textract.model.Document.builder().bytes(page).build(), pageNumber);
+    }
+
+    private List<Field> analyzeId(software.amazon.awssdk.services.textract.model.Document document, int pageNumber) {
+        var textract = textract();
+        var request = AnalyzeIdRequest.builder().documentPages(document).build();
+        var response = BedrockHelper.admissionControl().call(BedrockHelper.TEXTRACT_QUOTA, 0,
+                () -> textract.analyzeID(request));
+        List<Field> fields = new ArrayList<>();
+        for (IdentityDocument identityDocument : response.identityDocuments()) {
+            for (IdentityDocumentField field : identityDocument.identityDocumentFields()) {
+                AnalyzeIDDetections value = field.valueDetection();
+                if (field.type() == null || value == null || value.text() == null || value.text().isEmpty()) {
+                    continue;
+                }
+                fields.add(new Field(field.type().text(), value.text(),
+                        value.normalizedValue() == null ? null : value.normalizedValue().value(),
+                        value.confidence() == null ? 0 : value.confidence(),
+                        pageNumber));
+            }
+        }
+        return fields;
+    }
+
+    // ---- Asynchronous form analysis ----
+
+    private List<Field> analyzeDocument(Path file) throws IOException, InterruptedException {
+        if (s3 == null || stagingBucket == null) {
+            throw new IllegalStateException(file + " needs an asynchronous Textract job (multi-page PDF or over "
+                    + maxSyncBytes + " bytes); configure staging(...)");
+        }
+        var textract = textract();
+        String key = stagingPrefix + UUID.randomUUID() + "-" + file.getFileName();
+        s3.putObject(r -> r.bucket(stagingBucket).key(key), RequestBody.fromFile(file));
+        try {
+            String jobId = BedrockHelper.admissionControl().call(BedrockHelper.TEXTRACT_QUOTA, 0,
+                    () -> textract.startDocumentAnalysis(r -> r
+                            .documentLocation(location -> location.s3Object(S3Object.builder()
+                                    .bucket(stagingBucket)
+                                    .name(key)
+                                    .build()))
+                            .featureTypes(FeatureType.FORMS)))
+                    .jobId();
+
+            GetDocumentAnalysisResponse page = results(textract, jobId, null);
+            while (page.jobStatus() == JobStatus.IN_PROGRESS) {
+                Thread.sleep(pollInterval.toMillis());
+                page = results(textract, jobId, null);
+            }
+            if (page.jobStatus() != JobStatus.SUCCEEDED && page.jobStatus() != JobStatus.PARTIAL_SUCCESS) {
+                throw new IllegalStateException("Textract job " + jobId + " for " + file + " ended " + page.jobStatus()
+                        + (page.statusMessage() == null ? "" : ": " + page.statusMessage()));
+            }
+
+            // Blocks come in page order; each document page is resolved once its blocks are all read.
+            List<Field> fields = new ArrayList<>();
+            Map<String, Block> blocks = new HashMap<>();
+            int current = 0;
+            while (true) {
+                for (Block block : page.blocks()) {
+                    int blockPage = block.page() == null ? current : block.page();
+                    if (blockPage != current) {
+                        formFields(blocks, current, fields);
+                        blocks.clear();
+                        current = blockPage;
+                    }
+                    blocks.put(block.id(), block);
+                }
+                if (page.nextToken() == null) {
+                    break;
+                }
+                page = results(textract, jobId, page.nextToken());
+            }
+            formFields(blocks, current, fields);
+            return fields;
+        } finally {
+            s3.deleteObject(r -> r.bucket(stagingBucket).key(key));
+        }
+    }
+
+    private static GetDocumentAnalysisResponse results(TextractClient textract, String jobId, String nextToken) {
+        return BedrockHelper.admissionControl().call(BedrockHelper.TEXTRACT_QUOTA, 0,
+                () -> textract.getDocumentAnalysis(r -> r.jobId(jobId).maxResults(MAX_RESULTS).nextToken(nextToken)));
+    }
+
+    // Adds a field for every key of the page that has a value.
+    private static void formFields(Map<String, Block> blocks, int page, List<Field> fields) {
+        for (Block block : blocks.values()) {
+            if (block.blockType() != BlockType.KEY_VALUE_SET || block.entityTypes() == null
+                    || !block.entityTypes().contains(EntityType.KEY)) {
+                continue;
+            }
+            String name = text(block, blocks);
+            for (String valueId : ids(block, RelationshipType.VALUE)) {
+                Block value = blocks.get(valueId);
+                String text = value == null ? "" : text(value, blocks);
+                if (!name.isEmpty() && !text.isEmpty()) {
+                    fields.add(new Field(name, text, null,
+                            Math.min(confidence(block), confidence(value)), page));
+                }
+            }
+        }
+    }
+
+    // The words and selection marks a key or value block is made of.
+    private static String text(Block block, Map<String, Block> blocks) {
+        StringBuilder text = new StringBuilder();
+        for (String childId : ids(block, RelationshipType.CHILD)) {
+            Block child = blocks.get(childId);
+            if (child == null) {
+                continue;
+            }
+            String word = child.blockType() == BlockType.SELECTION_ELEMENT
+                    ? (child.selectionStatus() == SelectionStatus.SELECTED ? "[X]" : "[ ]")
+                    : child.text();
+            if (word != null) {
+                if (!text.isEmpty()) {
+                    text.append(' ');
+                }
+                text.append(word);
+            }
+        }
+        // Form keys usually end with a colon, which the "TYPE: value" context adds back.
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ':') {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    private static List<String> ids(Block block, RelationshipType type) {
+        if (block.relationships() == null) {
+            return List.of();
+        }
+        List<String> ids = new ArrayList<>();
+        for (Relationship relationship : block.relationships()) {
+            if (relationship.type() == type && relationship.ids() != null) {
+                ids.addAll(relationship.ids());
+            }
+        }
+        return ids;
+    }
+
+    private static float confidence(Block block) {
+        return block.confidence() == null ? 0 : block.confidence();
+    }
+
+    // ---- Files ----
+
+    private static boolean isSupported(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")
+                || name.endsWith(".pdf") || name.endsWith(".tif") || name.endsWith(".tiff");
+    }
+
+    // Page objects in the file; 0 when they are hidden in compressed object streams.
+    static int pdfPages(SdkBytes pdf) {
+        Matcher matcher = PDF_PAGE.matcher(new String(pdf.asByteArrayUnsafe(), StandardCharsets.ISO_8859_1));
+        int pages = 0;
+        while (matcher.find()) {
+            pages++;
+        }
+        return pages;
+    }
+
+    private static int tiffPages(SdkBytes tiff) throws IOException {
+        ImageReader reader = tiffReader(tiff);
+        try {
+            return reader.getNumImages(true);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    // One page of a multi-page TIFF, re-encoded as a PNG for AnalyzeID.
+    static SdkBytes tiffPage(SdkBytes tiff, int page) throws IOException {
+        ImageReader reader = tiffReader(tiff);
+        try {
+            var image = reader.read(page);
+            var png = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", png);
+            return SdkBytes.fromByteArrayUnsafe(png.toByteArray());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static ImageReader tiffReader(SdkBytes tiff) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("tiff");
+        if (!readers.hasNext()) {
+            throw new IOException("No TIFF image reader available");
+        }
+        ImageReader reader = readers.next();
+        ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(tiff.asByteArrayUnsafe()));
+        reader.setInput(input);
+        return reader;
+    }
+
+    private static boolean startsWith(ByteBuffer head, String signature) {
+        if (head.remaining() < signature.length()) {
+            return false;
+        }
+        for (int i = 0; i < signature.length(); i++) {
+            if (head.get(head.position() + i) != (byte) signature.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private TextractClient textract() {
+        return client != null ? client : BedrockClients.shared().textract();
+    }
+
+    // Collects the fields of a document's units and passes the document on when the last one finishes.
+    private static final class Assembly {
+        private final Path file;
+        private final int units;
+        private final Consumer<ScannedDocument> documents;
+        private final AtomicInteger remaining;
+        private final List<Field> fields = new ArrayList<>();
+        private Throwable error;
+
+        Assembly(Path file, int units, Consumer<ScannedDocument> documents) {
+            this.file = file;
+            this.units = units;
+            this.documents = documents;
+            this.remaining = new AtomicInteger(units);
+        }
+
+        void done(List<Field> unitFields) {
+            synchronized (this) {
+                fields.addAll(unitFields);
+            }
+            finish();
+        }
+
+        void failed(Throwable unitError) {
+            synchronized (this) {
+                if (error == null) {
+                    error = unitError;
+                } else {
+                    error.addSuppressed(unitError);
+                }
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            ScannedDocument document;
+            synchronized (this) {
+                fields.sort(Comparator.comparingInt(Field::page));
+                int pages = units;
+                for (Field field : fields) {
+                    pages = Math.max(pages, field.page());
+                }
+                document = new ScannedDocument(file, pages, fields, error);
+            }
+            documents.accept(document);
+        }
+    }
+
+    public static final class Builder {
+        private TextractClient client;
+        private S3Client s3;
+        private String stagingBucket;
+        private String stagingPrefix = "";
+        private int concurrency = 8;
+        private long maxSyncBytes = MediaLoader.DEFAULT_MAX_TEXTRACT_BYTES;
+        private Duration pollInterval = Duration.ofSeconds(5);
+
+        private Builder() {
+        }
+
+        // The shared Textract client of BedrockClients for the default region by default.
+        public Builder client(TextractClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /*
+        Where files for asynchronous jobs are uploaded while Textract reads them; they are deleted
+        once the job's results are read. Without staging, such files fail with an IllegalStateException.
+        */
+        public Builder staging(S3Client s3, String bucket, String prefix) {
+            this.s3 = Objects.requireNonNull(s3);
+            this.stagingBucket = Objects.requireNonNull(bucket);
+            this.stagingPrefix = prefix == null || prefix.isEmpty() ? "" : prefix.endsWith("/") ? prefix : prefix + "/";
+            return this;
+        }
+
+        // Textract calls and jobs in flight at once.
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        // Files above this size go to an asynchronous job; at most the synchronous limit of 10 MB.
+        public Builder maxSyncBytes(long maxSyncBytes) {
+            this.maxSyncBytes = maxSyncBytes;
+            return this;
+        }
+
+        public Builder pollInterval(Duration pollInterval) {
+            this.pollInterval = Objects.requireNonNull(pollInterval);
+            return this;
+        }
+
+        public TextractIngestion build() {
+            return new TextractIngestion(this);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package aws.example;
+
+import java.util.function.LongSupplier;
+
+/*
+ * Reservation-based token bucket.
+ * reserve() always takes the permits and returns how long the caller must wait before using them,
+ * so waiting callers are served in arrival order and nobody spins. The refill rate can be changed
+ * at runtime, which is how AdaptiveRateLimiter applies its AIMD adjustments.
+ */
+final class TokenBucket {
+
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    private final LongSupplier clock;
+    private final double capacity;
+    private double permitsPerNano;
+    private double available;
+    private long lastRefill;
+
+    TokenBucket(double permitsPerMinute, double capacity, LongSupplier clock) {
+        this.clock = clock;
+        this.capacity = Math.max(1, capacity);
+        this.permitsPerNano = permitsPerMinute / NANOS_PER_MINUTE;
+        this.available = this.capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    // Takes the permits and returns the nanoseconds to wait until they are covered by the refill.
+    synchronized long reserve(double permits) {
+        refill();
+        // A single request larger than the bucket would otherwise never fit; charge it a full bucket.
+        available -= Math.min(permits, capacity);
+        if (available >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-available / permitsPerNano);
+    }
+
+    // Gives back permits that were reserved but not used, e.g. when a call is abandoned before it is sent.
+    synchronized void release(double permits) {
+        refill();
+        available = Math.min(capacity, available + Math.min(permits, capacity));
+    }
+
+    synchronized void setRate(double permitsPerMinute) {
+        refill();
+        this.permitsPerNano = permitsPerMinute / NANOS_PER_MINUTE;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,50 @@
+package aws.example;
+
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/*
+ * Counts the tokens of a text the way a model family's tokenizer would, before the text is sent.
+ * BedrockHelper uses the counts to size max_tokens to the room left in the model's context
+ * (see ModelLimits), to reject or split prompts that do not fit, and to charge tokens-per-minute budgets.
+ *
+ * estimator(family) approximates the family's tokenizer from character classes in one pass and needs
+ * no vocabulary. bpe(vocabulary) counts exactly with a published byte-pair-encoding vocabulary,
+ * e.g. Llama 3's tokenizer.model.
+ * Install a counter for a family with BedrockHelper.setTokenCounter(...).
+ *
+ * Implementations are thread-safe and do not allocate per call once warmed up.
+ */
+public interface TokenCounter {
+
+    // Tokens of text[start, end).
+    int count(CharSequence text, int start, int end);
+
+    default int count(CharSequence text) {
+        return text == null ? 0 : count(text, 0, text.length());
+    }
+
+    // Character-class estimate tuned to the family's vocabulary size; see TokenEstimator.
+    static TokenCounter estimator(ModelFamily family) {
+        return TokenEstimator.of(family);
+    }
+
+    // Estimate for text of any model, e.g. a Converse-only model or a budget shared by several models.
+    static TokenCounter estimator() {
+        return TokenEstimator.GENERIC;
+    }
+
+    /*
+    Exact counts with a BPE vocabulary in tiktoken format: one "<base64 token> <rank>" line per token,
+    such as Llama 3's tokenizer.model. Text is split into pieces with Llama 3's pre-tokenizer pattern.
+    Each file is read once per JVM and shared by every counter for it.
+    */
+    static TokenCounter bpe(Path vocabulary) {
+        return BpeTokenCounter.load(vocabulary, BpeTokenCounter.LLAMA3_PIECES);
+    }
+
+    // Same as above with the vocabulary's own pre-tokenizer pattern.
+    static TokenCounter bpe(Path vocabulary, Pattern pieces) {
+        return BpeTokenCounter.load(vocabulary, pieces);
+    }
+}
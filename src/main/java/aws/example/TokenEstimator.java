@@ -0,0 +1,119 @@
+package aws.example;
+
+/*
+ * Token estimate from character classes, for models whose vocabulary is not published (e.g. Claude)
+ * or not installed. One pass over the text, no allocation.
+ *
+ * BPE tokenizers keep common words whole and cut rare ones into pieces, split numbers into short
+ * groups, fold a single space into the following word, and spend a token or more per character
+ * of scripts that are rare in their training data. The estimate follows the same rules: runs of
+ * each character class are charged one token per so many characters, with a rate per class that
+ * grows with the vocabulary. The rates are set so that English prose comes out at the characters
+ * per token commonly reported for each vocabulary; text with many rare words, code or mixed scripts
+ * can be off by more, and the estimate leans towards too many tokens rather than too few.
+ */
+final class TokenEstimator implements TokenCounter {
+
+    private static final int LATIN = 1;
+    private static final int DIGIT = 2;
+    private static final int SPACE = 3;
+    private static final int PUNCTUATION = 4;
+    private static final int OTHER_SCRIPT = 5;
+    private static final int IDEOGRAPH = 6;
+    private static final int SYMBOL = 7;
+
+    // Claude 3 and models without an estimator of their own (about 3.7 characters per token of English).
+    static final TokenEstimator GENERIC = new TokenEstimator(5.0, 3, 2.5, 1.0);
+    // Llama 3's 128k vocabulary.
+    static final TokenEstimator LLAMA = new TokenEstimator(7.0, 3, 3.0, 1.4);
+    // Command R's 256k vocabulary.
+    static final TokenEstimator COHERE = new TokenEstimator(8.0, 3, 3.0, 1.5);
+    // Sentencepiece vocabularies of 32k tokens, which also split numbers into single digits.
+    static final TokenEstimator MISTRAL = new TokenEstimator(4.5, 1, 2.0, 1.0);
+    static final TokenEstimator TITAN = new TokenEstimator(4.5, 2, 2.0, 1.0);
+
+    // Characters per token of Latin-script words, digit runs, other alphabetic scripts and CJK ideographs.
+    private final double wordChars;
+    private final int digitChars;
+    private final double otherScriptChars;
+    private final double ideographChars;
+
+    private TokenEstimator(double wordChars, int digitChars, double otherScriptChars, double ideographChars) {
+        this.wordChars = wordChars;
+        this.digitChars = digitChars;
+        this.otherScriptChars = otherScriptChars;
+        this.ideographChars = ideographChars;
+    }
+
+    static TokenEstimator of(ModelFamily family) {
+        return switch (family) {
+            case ANTHROPIC -> GENERIC;
+            case COHERE -> COHERE;
+            case TITAN -> TITAN;
+            case LLAMA -> LLAMA;
+            case MISTRAL -> MISTRAL;
+        };
+    }
+
+    @Override
+    public int count(CharSequence text, int start, int end) {
+        int tokens = 0;
+        int i = start;
+        while (i < end) {
+            int type = type(text, i);
+            int runStart = i;
+            int length = 0;
+            do {
+                i += Character.isHighSurrogate(text.charAt(i)) && i + 1 < end ? 2 : 1;
+                length++;
+            } while (i < end && type != SYMBOL && type(text, i) == type);
+            tokens += switch (type) {
+                case LATIN -> (int) Math.ceil(length / wordChars);
+                case DIGIT -> (length + digitChars - 1) / digitChars;
+                // A single space belongs to the next word; longer runs (indentation, blank lines) are a token.
+                case SPACE -> length == 1 && text.charAt(runStart) == ' ' ? 0 : 1;
+                case PUNCTUATION -> (length + 1) / 2;
+                case OTHER_SCRIPT -> (int) Math.ceil(length / otherScriptChars);
+                case IDEOGRAPH -> (int) Math.ceil(length / ideographChars);
+                // Emoji and other symbols outside the vocabulary fall back to their UTF-8 bytes.
+                default -> 2;
+            };
+        }
+        return tokens;
+    }
+
+    private static int type(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c < 128) {
+            if ((c | 0x20) >= 'a' && (c | 0x20) <= 'z') {
+                return LATIN;
+            }
+            if (c >= '0' && c <= '9') {
+                return DIGIT;
+            }
+            return c == ' ' || c == '\n' || c == '\t' || c == '\r' ? SPACE : PUNCTUATION;
+        }
+        int codePoint = Character.isHighSurrogate(c) && index + 1 < text.length()
+                ? Character.toCodePoint(c, text.charAt(index + 1))
+                : c;
+        if (Character.isIdeographic(codePoint)
+                || (codePoint >= 0x3040 && codePoint <= 0x30FF)      // Hiragana and Katakana
+                || (codePoint >= 0xAC00 && codePoint <= 0xD7AF)) {   // Hangul syllables
+            return IDEOGRAPH;
+        }
+        if (Character.isLetter(codePoint)) {
+            return codePoint < 0x250 ? LATIN : OTHER_SCRIPT;
+        }
+        if (Character.getType(codePoint) == Character.NON_SPACING_MARK
+                || Character.getType(codePoint) == Character.COMBINING_SPACING_MARK) {
+            return OTHER_SCRIPT;
+        }
+        if (Character.isDigit(codePoint)) {
+            return DIGIT;
+        }
+        if (Character.isWhitespace(codePoint)) {
+            return SPACE;
+        }
+        return codePoint < 0x2000 ? PUNCTUATION : SYMBOL;
+    }
+}
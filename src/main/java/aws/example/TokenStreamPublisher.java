@@ -0,0 +1,279 @@
+package aws.example;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelWithResponseStreamResponseHandler;
+import software.amazon.awssdk.services.bedrockruntime.model.PayloadPart;
+import software.amazon.awssdk.services.bedrockruntime.model.ResponseStream;
+
+/*
+ * Flow.Publisher of the text deltas of one streamed model response.
+ *
+ * The model call starts when a subscriber subscribes, and each delta is emitted as soon as its
+ * chunk arrives. Backpressure is end to end: one response chunk is requested from the SDK's event
+ * stream at a time, and only while the subscriber has outstanding demand. Cancelling the
+ * subscription aborts the HTTP stream, so an abandoned response stops consuming tokens.
+ *
+ * The publisher is single-use: it accepts one subscriber. timeToFirstToken() completes with the
+ * delay between subscribing and the first text delta. Each attempt is also reported to the
+ * installed BedrockMetrics, with its token usage, when it ends.
+ */
+public final class TokenStreamPublisher implements Flow.Publisher<String> {
+
+    private final BedrockRuntimeAsyncClient client;
+    private final InvokeModelWithResponseStreamRequest request;
+    private final AdmissionControl admissionControl;
+    private final int estimatedTokens;
+    private final RuntimeException failure;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final CompletableFuture<Duration> timeToFirstToken = new CompletableFuture<>();
+
+    TokenStreamPublisher(BedrockRuntimeAsyncClient client,
+                         InvokeModelWithResponseStreamRequest request,
+                         AdmissionControl admissionControl,
+                         int estimatedTokens) {
+        this.client = client;
+        this.request = request;
+        this.admissionControl = admissionControl;
+        this.estimatedTokens = estimatedTokens;
+        this.failure = null;
+    }
+
+    private TokenStreamPublisher(RuntimeException failure) {
+        this.client = null;
+        this.request = null;
+        this.admissionControl = null;
+        this.estimatedTokens = 0;
+        this.failure = failure;
+    }
+
+    // A publisher whose subscriber gets error without any call being made, e.g. for a prompt that does not fit.
+    static TokenStreamPublisher failed(RuntimeException error) {
+        return new TokenStreamPublisher(Objects.requireNonNull(error));
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            reject(subscriber, new IllegalStateException("TokenStreamPublisher accepts a single subscriber"));
+            return;
+        }
+        if (failure != null) {
+            timeToFirstToken.completeExceptionally(failure);
+            reject(subscriber, failure);
+            return;
+        }
+        new Bridge(subscriber).start();
+    }
+
+    private static void reject(Flow.Subscriber<?> subscriber, Throwable error) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(error);
+    }
+
+    /*
+    Completes with the time from subscription to the first text delta. Completes exceptionally
+    if the stream fails, is cancelled or ends without producing any text.
+    */
+    public CompletableFuture<Duration> timeToFirstToken() {
+        return timeToFirstToken;
+    }
+
+    // Connects the SDK's reactive-streams event publisher to the Flow subscriber.
+    private final class Bridge implements Flow.Subscription, Subscriber<ResponseStream> {
+        private final Flow.Subscriber<? super String> downstream;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicBoolean chunkRequested = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AnthropicStreamDecoder decoder = new AnthropicStreamDecoder();
+        private final StringBuilder delta = new StringBuilder();
+
+        private volatile Subscription upstream;
+        private volatile CompletableFuture<Void> call;
+        private volatile boolean emitted;
+        private volatile StreamMetrics streamMetrics;
+        private long startNanos;
+
+        Bridge(Flow.Subscriber<? super String> downstream) {
+            this.downstream = downstream;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            downstream.onSubscribe(this);
+            if (done.get()) {
+                return;
+            }
+
+            CompletableFuture<Void> future = admissionControl.callAsync(request.modelId(), estimatedTokens, () -> {
+                // Throttling is normally reported before the first chunk; once text has gone out, a retry would repeat it.
+                if (emitted) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("Stream failed after text was emitted"));
+                }
+                // Every attempt is measured on its own, so throttled attempts are reported too.
+                var attempt = StreamMetrics.start("InvokeModelWithResponseStream", request.modelId(),
+                        request.body().asByteArrayUnsafe().length);
+                streamMetrics = attempt;
+                var handler = InvokeModelWithResponseStreamResponseHandler.builder()
+                        .subscriber(() -> this)
+                        .onError(attempt::complete)
+                        .build();
+                return client.invokeModelWithResponseStream(request, handler);
+            });
+            call = future;
+            future.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    fail(error);
+                }
+            });
+            if (done.get()) {
+                future.cancel(true);
+            }
+        }
+
+        // ---- Flow.Subscription, called by the downstream subscriber ----
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " items; demand must be positive"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            requestChunk();
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                timeToFirstToken.cancel(false);
+                abortUpstream();
+                complete(new CancellationException("Subscription cancelled"));
+            }
+        }
+
+        // ---- Subscriber<ResponseStream>, called by the SDK ----
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            chunkRequested.set(false);
+            if (done.get()) {
+                subscription.cancel();
+            } else {
+                requestChunk();
+            }
+        }
+
+        @Override
+        public void onNext(ResponseStream event) {
+            chunkRequested.set(false);
+            if (done.get()) {
+                return;
+            }
+            if (event instanceof PayloadPart part) {
+                delta.setLength(0);
+                ByteBuffer bytes = part.bytes().asByteBuffer();
+                var type = decoder.decode(bytes, delta);
+                streamMetrics.chunk(type, bytes, delta.length() > 0);
+                if (delta.length() > 0) {
+                    emit(delta.toString());
+                }
+            }
+            requestChunk();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done.compareAndSet(false, true)) {
+                complete(null);
+                timeToFirstToken.completeExceptionally(new IllegalStateException("Stream ended without text"));
+                synchronized (this) {
+                    downstream.onComplete();
+                }
+            }
+        }
+
+        // ---- Helpers ----
+
+        private void emit(String text) {
+            if (!emitted) {
+                emitted = true;
+                timeToFirstToken.complete(Duration.ofNanos(System.nanoTime() - startNanos));
+            }
+            demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+            synchronized (this) {
+                downstream.onNext(text);
+            }
+        }
+
+        // Keeps at most one chunk outstanding, and only while the subscriber wants more text.
+        private void requestChunk() {
+            Subscription subscription = upstream;
+            if (subscription != null && !done.get() && demand.get() > 0 && chunkRequested.compareAndSet(false, true)) {
+                subscription.request(1);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (done.compareAndSet(false, true)) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                complete(cause);
+                timeToFirstToken.completeExceptionally(cause);
+                abortUpstream();
+                synchronized (this) {
+                    downstream.onError(cause);
+                }
+            }
+        }
+
+        private void complete(Throwable error) {
+            StreamMetrics attempt = streamMetrics;
+            if (attempt != null) {
+                attempt.complete(error);
+            }
+        }
+
+        // Cancelling the call future aborts the underlying HTTP stream.
+        private void abortUpstream() {
+            Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            CompletableFuture<Void> future = call;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+    }
+}
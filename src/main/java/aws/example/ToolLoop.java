@@ -0,0 +1,322 @@
+package aws.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import software.amazon.awssdk.core.document.Document;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ConversationRole;
+import software.amazon.awssdk.services.bedrockruntime.model.ConverseRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InferenceConfiguration;
+import software.amazon.awssdk.services.bedrockruntime.model.Message;
+import software.amazon.awssdk.services.bedrockruntime.model.StopReason;
+import software.amazon.awssdk.services.bedrockruntime.model.SystemContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultContentBlock;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolResultStatus;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolUseBlock;
+
+/*
+ * Agentic Converse loop: sends the conversation with the registry's tools, runs every tool the
+ * model asks for, returns the results and repeats until the model answers without using a tool
+ * or maxTurns model calls have been made.
+ *
+ * When one response asks for several tools they run in parallel, each bounded by toolTimeout,
+ * and all their results go back to the model in a single message, so a turn costs one model
+ * round-trip however many tools it uses. A failed, timed-out or unknown tool is reported to the
+ * model as an error result rather than failing the loop.
+ *
+ * A loop is immutable and can run many conversations concurrently. Cancelling the future of
+ * runAsync aborts the model call in flight and interrupts running tools.
+ */
+public final class ToolLoop {
+
+    private static final int DEFAULT_TOOL_THREADS = 16;
+    private static volatile ExecutorService defaultExecutor;
+
+    /*
+    stopReason is that of the last model response: TOOL_USE means maxTurns was reached while
+    the model still wanted to use tools. messages holds the whole conversation, including the
+    initial messages.
+    */
+    public record Result(String text, List<Message> messages, int modelCalls, StopReason stopReason) {
+    }
+
+    private final BedrockRuntimeAsyncClient client;
+    private final String modelId;
+    private final ToolRegistry tools;
+    private final int maxTurns;
+    private final Duration toolTimeout;
+    private final ExecutorService executor;
+    private final InferenceConfiguration inferenceConfig;
+    private final List<SystemContentBlock> system;
+
+    private ToolLoop(Builder builder) {
+        this.client = builder.client;
+        this.modelId = Objects.requireNonNull(builder.modelId, "modelId");
+        this.tools = Objects.requireNonNull(builder.tools, "tools");
+        this.maxTurns = builder.maxTurns;
+        this.toolTimeout = builder.toolTimeout;
+        this.executor = builder.executor;
+        this.inferenceConfig = builder.inferenceConfig;
+        this.system = builder.system == null ? List.of() : List.of(SystemContentBlock.fromText(builder.system));
+        if (maxTurns < 1) {
+            throw new IllegalArgumentException("maxTurns must be at least 1, was " + maxTurns);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Runs the loop for a single user prompt and returns the model's final answer.
+    public String run(String prompt) {
+        try {
+            return runAsync(prompt).get().text();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public CompletableFuture<Result> runAsync(String prompt) {
+        return runAsync(List.of(Message.builder()
+                .role(ConversationRole.USER)
+                .content(ContentBlock.fromText(prompt))
+                .build()));
+    }
+
+    // Continues an existing conversation, whose last message must be from the user.
+    public CompletableFuture<Result> runAsync(List<Message> conversation) {
+        return runAsync(conversation, null);
+    }
+
+    // Same as above with context appended to the system prompt, e.g. the summary of a ConversationSession.
+    CompletableFuture<Result> runAsync(List<Message> conversation, String context) {
+        List<SystemContentBlock> systemBlocks = system;
+        if (context != null) {
+            systemBlocks = new ArrayList<>(system);
+            systemBlocks.add(SystemContentBlock.fromText(context));
+        }
+        var calls = new BedrockAsyncHelper.InFlight();
+        var messages = new ArrayList<>(conversation);
+        return calls.bind(turn(messages, systemBlocks, 0, calls));
+    }
+
+    private CompletableFuture<Result> turn(List<Message> messages,
+                                           List<SystemContentBlock> systemBlocks,
+                                           int modelCalls,
+                                           BedrockAsyncHelper.InFlight calls) {
+        var runtime = client != null ? client : BedrockClients.shared().runtimeAsync();
+        var request = ConverseRequest.builder()
+                .modelId(modelId)
+                .messages(List.copyOf(messages))
+                .system(systemBlocks)
+                .toolConfig(tools.toolConfiguration())
+                .inferenceConfig(inferenceConfig)
+                .build();
+
+        return calls.track(BedrockHelper.admissionControl().callAsync(modelId, estimateTokens(request),
+                        () -> runtime.converse(request)))
+                .thenCompose(response -> {
+                    Message reply = response.output().message();
+                    messages.add(reply);
+                    int calledSoFar = modelCalls + 1;
+
+                    List<ToolUseBlock> toolUses = new ArrayList<>();
+                    for (ContentBlock block : reply.content()) {
+                        if (block.toolUse() != null) {
+                            toolUses.add(block.toolUse());
+                        }
+                    }
+                    if (toolUses.isEmpty() || calledSoFar >= maxTurns) {
+                        return CompletableFuture.completedFuture(
+                                new Result(text(reply), List.copyOf(messages), calledSoFar, response.stopReason()));
+                    }
+                    return runTools(toolUses, calls).thenCompose(results -> {
+                        messages.add(results);
+                        return turn(messages, systemBlocks, calledSoFar, calls);
+                    });
+                });
+    }
+
+    // Runs the tools in parallel and collects their results, in request order, into one user message.
+    private CompletableFuture<Message> runTools(List<ToolUseBlock> toolUses, BedrockAsyncHelper.InFlight calls) {
+        List<CompletableFuture<ContentBlock>> results = new ArrayList<>();
+        for (ToolUseBlock toolUse : toolUses) {
+            CompletableFuture<Document> output = calls.track(runTool(toolUse));
+            results.add(output.handle((value, error) -> ContentBlock.fromToolResult(toolResult(toolUse, value, error))));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> Message.builder()
+                        .role(ConversationRole.USER)
+                        .content(results.stream().map(CompletableFuture::join).toList())
+                        .build());
+    }
+
+    private CompletableFuture<Document> runTool(ToolUseBlock toolUse) {
+        var output = new CompletableFuture<Document>();
+        ToolRegistry.Handler handler = tools.handler(toolUse.name());
+        if (handler == null) {
+            output.completeExceptionally(new IllegalArgumentException("Unknown tool: " + toolUse.name()));
+            return output;
+        }
+
+        Future<?> running = executor().submit(() -> {
+            try {
+                output.complete(handler.call(toolUse.input()));
+            } catch (Throwable e) {
+                output.completeExceptionally(e);
+            }
+        });
+        // A timed-out or cancelled tool is interrupted, not left running.
+        output.orTimeout(toolTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, error) -> {
+                    if (error != null) {
+                        running.cancel(true);
+                    }
+                });
+        return output;
+    }
+
+    private ToolResultBlock toolResult(ToolUseBlock toolUse, Document output, Throwable error) {
+        var result = ToolResultBlock.builder().toolUseId(toolUse.toolUseId());
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            String message = cause instanceof TimeoutException
+                    ? "Tool " + toolUse.name() + " did not finish within " + toolTimeout.toMillis() + " ms"
+                    : Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getSimpleName());
+            return result.status(ToolResultStatus.ERROR)
+                    .content(ToolResultContentBlock.fromText(message))
+                    .build();
+        }
+        // Tool results must be JSON objects; other values are returned as text or wrapped in one.
+        ToolResultContentBlock content;
+        if (output != null && output.isMap()) {
+            content = ToolResultContentBlock.fromJson(output);
+        } else if (output != null && output.isString()) {
+            content = ToolResultContentBlock.fromText(output.asString());
+        } else {
+            content = ToolResultContentBlock.fromJson(Document.mapBuilder()
+                    .putDocument("result", output == null ? Document.fromNull() : output)
+                    .build());
+        }
+        return result.status(ToolResultStatus.SUCCESS).content(content).build();
+    }
+
+    private int estimateTokens(ConverseRequest request) {
+        int tokens = inferenceConfig != null && inferenceConfig.maxTokens() != null
+                ? inferenceConfig.maxTokens()
+                : BedrockHelper.CONVERSE_MAX_TOKENS;
+        for (Message message : request.messages()) {
+            for (ContentBlock block : message.content()) {
+                tokens += AdmissionControl.estimateTokens(block.text() != null ? block.text() : block.toString());
+            }
+        }
+        return tokens;
+    }
+
+    private static String text(Message message) {
+        var text = new StringBuilder();
+        for (ContentBlock block : message.content()) {
+            if (block.text() != null) {
+                text.append(block.text());
+            }
+        }
+        return text.toString();
+    }
+
+    private ExecutorService executor() {
+        if (executor != null) {
+            return executor;
+        }
+        ExecutorService shared = defaultExecutor;
+        if (shared == null) {
+            synchronized (ToolLoop.class) {
+                shared = defaultExecutor;
+                if (shared == null) {
+                    // Daemon threads (or virtual threads on Java 21+), so the pool never has to be shut down.
+                    defaultExecutor = shared = TaskExecutors.newTaskExecutor(DEFAULT_TOOL_THREADS, "bedrock-tool-");
+                }
+            }
+        }
+        return shared;
+    }
+
+    public static final class Builder {
+        private BedrockRuntimeAsyncClient client;
+        private String modelId;
+        private ToolRegistry tools;
+        private int maxTurns = 5;
+        private Duration toolTimeout = Duration.ofSeconds(30);
+        private ExecutorService executor;
+        private InferenceConfiguration inferenceConfig;
+        private String system;
+
+        private Builder() {
+        }
+
+        // Defaults to the shared client of BedrockClients for the default region.
+        public Builder client(BedrockRuntimeAsyncClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder modelId(String modelId) {
+            this.modelId = modelId;
+            return this;
+        }
+
+        public Builder tools(ToolRegistry tools) {
+            this.tools = tools;
+            return this;
+        }
+
+        // Maximum number of model calls for one conversation.
+        public Builder maxTurns(int maxTurns) {
+            this.maxTurns = maxTurns;
+            return this;
+        }
+
+        // Time allowed for each tool call; a tool that takes longer is interrupted and reported as failed.
+        public Builder toolTimeout(Duration toolTimeout) {
+            this.toolTimeout = toolTimeout;
+            return this;
+        }
+
+        // Where tools run; defaults to a shared pool of daemon threads (virtual threads on Java 21+).
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder inferenceConfig(Consumer<InferenceConfiguration.Builder> inferenceConfig) {
+            var config = InferenceConfiguration.builder();
+            inferenceConfig.accept(config);
+            this.inferenceConfig = config.build();
+            return this;
+        }
+
+        public Builder system(String system) {
+            this.system = system;
+            return this;
+        }
+
+        public ToolLoop build() {
+            return new ToolLoop(this);
+        }
+    }
+}
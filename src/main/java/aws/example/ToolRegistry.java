@@ -0,0 +1,104 @@
+package aws.example;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import software.amazon.awssdk.core.document.Document;
+import software.amazon.awssdk.services.bedrockruntime.model.Tool;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolConfiguration;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolInputSchema;
+import software.amazon.awssdk.services.bedrockruntime.model.ToolSpecification;
+
+/*
+ * The tools a ToolLoop offers to the model, each with its specification and the code that runs it.
+ *
+ * A tool is either registered with an explicit JSON Schema and a handler working on Documents, or
+ * with a record type describing its input. In the second case the input schema is generated from
+ * the record's components (see ToolSchemas), the model's input is converted into a record before
+ * the handler runs, and whatever the handler returns (a record, map, list, string, number...) is
+ * converted back into the JSON tool result.
+ */
+public final class ToolRegistry {
+
+    // Description of a tool input property, placed on a record component.
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.RECORD_COMPONENT, ElementType.FIELD, ElementType.PARAMETER})
+    public @interface Description {
+        String value();
+    }
+
+    // Runs a tool on its JSON input and returns its JSON result.
+    @FunctionalInterface
+    public interface Handler {
+        Document call(Document input) throws Exception;
+    }
+
+    // Runs a tool on its input converted to a record; the result is converted to JSON.
+    @FunctionalInterface
+    public interface TypedHandler<T extends Record> {
+        Object call(T input) throws Exception;
+    }
+
+    private record Registration(ToolSpecification specification, Handler handler) {
+    }
+
+    private final Map<String, Registration> tools = new LinkedHashMap<>();
+    private volatile ToolConfiguration toolConfiguration;
+
+    public static ToolRegistry create() {
+        return new ToolRegistry();
+    }
+
+    private ToolRegistry() {
+    }
+
+    public synchronized ToolRegistry register(String name, String description, Document inputSchema, Handler handler) {
+        Objects.requireNonNull(handler, "handler");
+        var specification = ToolSpecification.builder()
+                .name(name)
+                .description(description)
+                .inputSchema(ToolInputSchema.fromJson(inputSchema))
+                .build();
+        if (tools.putIfAbsent(name, new Registration(specification, handler)) != null) {
+            throw new IllegalArgumentException("A tool named " + name + " is already registered");
+        }
+        toolConfiguration = null;
+        return this;
+    }
+
+    public <T extends Record> ToolRegistry register(String name,
+                                                    String description,
+                                                    Class<T> inputType,
+                                                    TypedHandler<T> handler) {
+        Objects.requireNonNull(handler, "handler");
+        return register(name, description, ToolSchemas.schema(inputType),
+                input -> ToolSchemas.toDocument(handler.call(ToolSchemas.fromDocument(input, inputType))));
+    }
+
+    // The tool configuration sent with every Converse request of a ToolLoop.
+    public ToolConfiguration toolConfiguration() {
+        ToolConfiguration configuration = toolConfiguration;
+        if (configuration == null) {
+            synchronized (this) {
+                List<Tool> specifications = new ArrayList<>();
+                tools.values().forEach(tool -> specifications.add(Tool.fromToolSpec(tool.specification())));
+                configuration = ToolConfiguration.builder().tools(specifications).build();
+                toolConfiguration = configuration;
+            }
+        }
+        return configuration;
+    }
+
+    // Returns null when no tool has that name.
+    synchronized Handler handler(String name) {
+        Registration registration = tools.get(name);
+        return registration == null ? null : registration.handler();
+    }
+}
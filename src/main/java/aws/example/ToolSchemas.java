@@ -0,0 +1,315 @@
+package aws.example;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import software.amazon.awssdk.core.document.Document;
+
+/*
+ * Conversions between Java records and the JSON documents of the Converse tool API:
+ * the JSON Schema of a record type (the tool's input schema), a tool input document to a record,
+ * and a tool's return value to a document.
+ *
+ * Supported types are String, primitives and their wrappers, BigDecimal, BigInteger, enums,
+ * records, List/Collection, Map with String keys, Optional (an optional property) and Document
+ * (any JSON). Record components may carry a ToolRegistry.Description.
+ */
+final class ToolSchemas {
+
+    private ToolSchemas() {
+    }
+
+    // ---- Record type to JSON Schema ----
+
+    static Document schema(Class<? extends Record> type) {
+        return schema((Type) type, null);
+    }
+
+    private static Document schema(Type type, String description) {
+        var schema = new LinkedHashMap<String, Document>();
+        Class<?> raw = rawType(type);
+
+        if (raw == String.class || raw == char.class || raw == Character.class) {
+            schema.put("type", Document.fromString("string"));
+        } else if (isInteger(raw)) {
+            schema.put("type", Document.fromString("integer"));
+        } else if (isNumber(raw)) {
+            schema.put("type", Document.fromString("number"));
+        } else if (raw == boolean.class || raw == Boolean.class) {
+            schema.put("type", Document.fromString("boolean"));
+        } else if (raw.isEnum()) {
+            schema.put("type", Document.fromString("string"));
+            List<Document> names = new ArrayList<>();
+            for (Object constant : raw.getEnumConstants()) {
+                names.add(Document.fromString(((Enum<?>) constant).name()));
+            }
+            schema.put("enum", Document.fromList(names));
+        } else if (raw.isRecord()) {
+            var properties = new LinkedHashMap<String, Document>();
+            List<Document> required = new ArrayList<>();
+            for (RecordComponent component : raw.getRecordComponents()) {
+                var componentDescription = component.getAnnotation(ToolRegistry.Description.class);
+                properties.put(component.getName(), schema(component.getGenericType(),
+                        componentDescription == null ? null : componentDescription.value()));
+                if (component.getType() != Optional.class) {
+                    required.add(Document.fromString(component.getName()));
+                }
+            }
+            schema.put("type", Document.fromString("object"));
+            schema.put("properties", Document.fromMap(properties));
+            schema.put("required", Document.fromList(required));
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            schema.put("type", Document.fromString("array"));
+            schema.put("items", schema(typeArgument(type, 0), null));
+        } else if (Map.class.isAssignableFrom(raw)) {
+            schema.put("type", Document.fromString("object"));
+            schema.put("additionalProperties", schema(typeArgument(type, 1), null));
+        } else if (raw == Optional.class) {
+            return schema(typeArgument(type, 0), description);
+        } else if (raw != Document.class) {
+            throw new IllegalArgumentException("Tool inputs of type " + type.getTypeName() + " are not supported");
+        }
+
+        if (description != null) {
+            schema.put("description", Document.fromString(description));
+        }
+        return Document.fromMap(schema);
+    }
+
+    // ---- Document to Java value ----
+
+    static <T extends Record> T fromDocument(Document input, Class<T> type) {
+        return type.cast(read(input, type, type.getSimpleName()));
+    }
+
+    private static Object read(Document value, Type type, String path) {
+        Class<?> raw = rawType(type);
+        if (raw == Optional.class) {
+            return value == null || value.isNull() ? Optional.empty() : Optional.of(read(value, typeArgument(type, 0), path));
+        }
+        if (raw == Document.class) {
+            return value;
+        }
+        if (value == null || value.isNull()) {
+            if (raw.isPrimitive()) {
+                throw invalid(path, "is required");
+            }
+            return null;
+        }
+
+        if (raw == String.class) {
+            return expect(value, value.isString(), path, "a string").asString();
+        }
+        if (raw == char.class || raw == Character.class) {
+            String text = expect(value, value.isString(), path, "a string").asString();
+            if (text.length() != 1) {
+                throw invalid(path, "must be a single character");
+            }
+            return text.charAt(0);
+        }
+        if (raw == boolean.class || raw == Boolean.class) {
+            return expect(value, value.isBoolean(), path, "a boolean").asBoolean();
+        }
+        if (isInteger(raw) || isNumber(raw)) {
+            return number(expect(value, value.isNumber(), path, "a number").asNumber().bigDecimalValue(), raw, path);
+        }
+        if (raw.isEnum()) {
+            String name = expect(value, value.isString(), path, "a string").asString();
+            for (Object constant : raw.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(name)) {
+                    return constant;
+                }
+            }
+            throw invalid(path, "must be one of " + List.of(raw.getEnumConstants()));
+        }
+        if (raw.isRecord()) {
+            Map<String, Document> members = expect(value, value.isMap(), path, "an object").asMap();
+            RecordComponent[] components = raw.getRecordComponents();
+            Object[] arguments = new Object[components.length];
+            Class<?>[] parameterTypes = new Class<?>[components.length];
+            for (int i = 0; i < components.length; i++) {
+                arguments[i] = read(members.get(components[i].getName()), components[i].getGenericType(),
+                        path + "." + components[i].getName());
+                if (arguments[i] == null && components[i].getType() != Document.class) {
+                    throw invalid(path + "." + components[i].getName(), "is required");
+                }
+                parameterTypes[i] = components[i].getType();
+            }
+            return construct(raw, parameterTypes, arguments);
+        }
+        if (Collection.class.isAssignableFrom(raw)) {
+            List<Document> elements = expect(value, value.isList(), path, "an array").asList();
+            List<Object> list = new ArrayList<>(elements.size());
+            for (int i = 0; i < elements.size(); i++) {
+                list.add(read(elements.get(i), typeArgument(type, 0), path + "[" + i + "]"));
+            }
+            return list;
+        }
+        if (Map.class.isAssignableFrom(raw)) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            expect(value, value.isMap(), path, "an object").asMap().forEach((name, member) ->
+                    map.put(name, read(member, typeArgument(type, 1), path + "." + name)));
+            return map;
+        }
+        throw new IllegalArgumentException("Tool inputs of type " + type.getTypeName() + " are not supported");
+    }
+
+    private static Object number(BigDecimal number, Class<?> type, String path) {
+        try {
+            if (type == int.class || type == Integer.class) {
+                return number.intValueExact();
+            }
+            if (type == long.class || type == Long.class) {
+                return number.longValueExact();
+            }
+            if (type == short.class || type == Short.class) {
+                return number.shortValueExact();
+            }
+            if (type == byte.class || type == Byte.class) {
+                return number.byteValueExact();
+            }
+            if (type == BigInteger.class) {
+                return number.toBigIntegerExact();
+            }
+        } catch (ArithmeticException e) {
+            throw invalid(path, "must be an integer in the range of " + type.getSimpleName());
+        }
+        if (type == double.class || type == Double.class) {
+            return number.doubleValue();
+        }
+        if (type == float.class || type == Float.class) {
+            return number.floatValue();
+        }
+        return number;
+    }
+
+    private static Object construct(Class<?> type, Class<?>[] parameterTypes, Object[] arguments) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(parameterTypes);
+            constructor.setAccessible(true);
+            return constructor.newInstance(arguments);
+        } catch (InvocationTargetException e) {
+            // The record's compact constructor rejected the input.
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create " + type.getName(), e);
+        }
+    }
+
+    // ---- Java value to Document ----
+
+    static Document toDocument(Object value) {
+        if (value == null) {
+            return Document.fromNull();
+        }
+        if (value instanceof Document document) {
+            return document;
+        }
+        if (value instanceof String || value instanceof Character || value instanceof Enum<?>) {
+            return Document.fromString(value instanceof Enum<?> constant ? constant.name() : value.toString());
+        }
+        if (value instanceof Boolean bool) {
+            return Document.fromBoolean(bool);
+        }
+        if (value instanceof BigDecimal number) {
+            return Document.fromNumber(number);
+        }
+        if (value instanceof BigInteger number) {
+            return Document.fromNumber(number);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return Document.fromNumber(((Number) value).doubleValue());
+        }
+        if (value instanceof Number number) {
+            return Document.fromNumber(number.longValue());
+        }
+        if (value instanceof Optional<?> optional) {
+            return toDocument(optional.orElse(null));
+        }
+        if (value instanceof Record record) {
+            var members = new LinkedHashMap<String, Document>();
+            for (RecordComponent component : record.getClass().getRecordComponents()) {
+                try {
+                    var accessor = component.getAccessor();
+                    accessor.setAccessible(true);
+                    members.put(component.getName(), toDocument(accessor.invoke(record)));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Can't read " + component, e);
+                }
+            }
+            return Document.fromMap(members);
+        }
+        if (value instanceof Map<?, ?> map) {
+            var members = new LinkedHashMap<String, Document>();
+            map.forEach((name, member) -> members.put(String.valueOf(name), toDocument(member)));
+            return Document.fromMap(members);
+        }
+        if (value instanceof Iterable<?> iterable) {
+            List<Document> elements = new ArrayList<>();
+            iterable.forEach(element -> elements.add(toDocument(element)));
+            return Document.fromList(elements);
+        }
+        if (value.getClass().isArray()) {
+            List<Document> elements = new ArrayList<>();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                elements.add(toDocument(Array.get(value, i)));
+            }
+            return Document.fromList(elements);
+        }
+        throw new IllegalArgumentException("Tool results of type " + value.getClass().getName() + " are not supported");
+    }
+
+    // ---- Helpers ----
+
+    private static boolean isInteger(Class<?> type) {
+        return type == int.class || type == Integer.class || type == long.class || type == Long.class
+                || type == short.class || type == Short.class || type == byte.class || type == Byte.class
+                || type == BigInteger.class;
+    }
+
+    private static boolean isNumber(Class<?> type) {
+        return type == double.class || type == Double.class || type == float.class || type == Float.class
+                || type == BigDecimal.class;
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class<?> raw) {
+            return raw;
+        }
+        if (type instanceof ParameterizedType parameterized) {
+            return (Class<?>) parameterized.getRawType();
+        }
+        throw new IllegalArgumentException("Tool types must be concrete, was " + type.getTypeName());
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType parameterized) {
+            return parameterized.getActualTypeArguments()[index];
+        }
+        // A raw collection or map holds arbitrary JSON.
+        return Document.class;
+    }
+
+    private static Document expect(Document value, boolean matches, String path, String what) {
+        if (!matches) {
+            throw invalid(path, "must be " + what);
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalid(String path, String problem) {
+        return new IllegalArgumentException("Invalid tool input: " + path + " " + problem);
+    }
+}
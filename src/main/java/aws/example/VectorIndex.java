@@ -0,0 +1,271 @@
+package aws.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Flat (exact) top-k cosine similarity index over float vectors of a fixed dimension.
+ *
+ * Vectors are normalized when added and stored back to back in one direct, off-heap buffer
+ * (at most 2 GB, e.g. 500k vectors of 1024 dimensions), so they cost the heap nothing and add no
+ * GC work. Cosine similarity is then a dot product, and a search is one sequential scan: for 100k
+ * vectors of 1024 dimensions it reads 400 MB, tens of milliseconds, which is still small next to
+ * the model call a cache hit saves. At that size an approximate graph index (HNSW) would mostly
+ * add memory and recall loss; see VectorIndexBenchmark for figures on your hardware.
+ *
+ * Vector IDs are dense, starting at 0 in insertion order; set() overwrites one in place.
+ * Searches run concurrently with each other, additions take the index exclusively.
+ * save() and load() use a small binary format: "VIDX", dimensions and count (little-endian ints),
+ * then the normalized vectors as little-endian floats.
+ */
+public final class VectorIndex {
+
+    public record Hit(int id, float score) {
+    }
+
+    private static final int MAGIC = 0x58444956; // "VIDX" read as a little-endian int
+    private static final int HEADER_BYTES = 12;
+    // Direct buffers are indexed by int; a float is 4 bytes.
+    private static final int MAX_FLOATS = Integer.MAX_VALUE / Float.BYTES;
+
+    private final int dimensions;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // The same off-heap memory as bytes (for files) and as floats (for everything else).
+    private ByteBuffer storage;
+    private FloatBuffer vectors;
+    private int size;
+
+    public VectorIndex(int dimensions) {
+        this(dimensions, 1024);
+    }
+
+    public VectorIndex(int dimensions, int initialCapacity) {
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("dimensions must be at least 1, was " + dimensions);
+        }
+        this.dimensions = dimensions;
+        allocate(Math.max(1, initialCapacity));
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Adds the vector and returns its ID.
+    public int add(float[] vector) {
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            if ((long) (size + 1) * dimensions > vectors.capacity()) {
+                grow();
+            }
+            vectors.put(size * dimensions, normalized);
+            return size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Replaces the vector with this ID.
+    public void set(int id, float[] vector) {
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            checkId(id);
+            vectors.put(id * dimensions, normalized);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A copy of the stored (normalized) vector.
+    public float[] vector(int id) {
+        float[] vector = new float[dimensions];
+        lock.readLock().lock();
+        try {
+            checkId(id);
+            vectors.get(id * dimensions, vector);
+            return vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The k vectors most similar to the query, most similar first.
+    public List<Hit> search(float[] query, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1, was " + k);
+        }
+        float[] q = normalize(query);
+        // Top k kept sorted in two primitive arrays, best first; most vectors fail the first comparison.
+        int[] ids = new int[k];
+        float[] scores = new float[k];
+        int found = 0;
+
+        // Each row is bulk-copied on heap first: a memory copy, after which the dot product runs on
+        // plain arrays that the JIT compiles to much tighter code than per-element buffer reads.
+        float[] row = new float[dimensions];
+        lock.readLock().lock();
+        try {
+            FloatBuffer data = vectors;
+            for (int id = 0, base = 0; id < size; id++, base += dimensions) {
+                data.get(base, row);
+                float score = dot(row, q);
+                if (found == k && score <= scores[k - 1]) {
+                    continue;
+                }
+                int position = found < k ? found++ : k - 1;
+                while (position > 0 && scores[position - 1] < score) {
+                    scores[position] = scores[position - 1];
+                    ids[position] = ids[position - 1];
+                    position--;
+                }
+                scores[position] = score;
+                ids[position] = id;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Hit> hits = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            hits.add(new Hit(ids[i], scores[i]));
+        }
+        return hits;
+    }
+
+    public void save(Path file) throws IOException {
+        lock.readLock().lock();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC).putInt(dimensions).putInt(size).flip();
+            writeFully(channel, header);
+            writeFully(channel, bytes(size * dimensions));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static VectorIndex load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, file);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a vector index");
+            }
+            int dimensions = header.getInt();
+            int size = header.getInt();
+            if (dimensions < 1 || size < 0 || (long) dimensions * size > MAX_FLOATS) {
+                throw new IOException(file + " has an invalid header: " + size + " vectors of " + dimensions + " dimensions");
+            }
+
+            var index = new VectorIndex(dimensions, size);
+            readFully(channel, index.bytes(size * dimensions), file);
+            index.size = size;
+            return index;
+        }
+    }
+
+    // ---- Helpers ----
+
+    // Four independent sums, so the additions pipeline instead of waiting on each other.
+    private static float dot(float[] row, float[] q) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int d = 0;
+        for (; d + 3 < q.length; d += 4) {
+            s0 += row[d] * q[d];
+            s1 += row[d + 1] * q[d + 1];
+            s2 += row[d + 2] * q[d + 2];
+            s3 += row[d + 3] * q[d + 3];
+        }
+        for (; d < q.length; d++) {
+            s0 += row[d] * q[d];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected a vector of " + dimensions + " dimensions, got " + vector.length);
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += (double) value * value;
+        }
+        if (norm == 0 || !Double.isFinite(norm)) {
+            throw new IllegalArgumentException("Cannot index a zero or non-finite vector");
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    private void grow() {
+        long needed = (long) (size + 1) * dimensions;
+        if (needed > MAX_FLOATS) {
+            throw new IllegalStateException("Vector index is full: " + size + " vectors of " + dimensions + " dimensions");
+        }
+        int capacity = (int) Math.min(MAX_FLOATS / dimensions, Math.max(size + 1L, size * 2L));
+        FloatBuffer previous = vectors;
+        allocate(capacity);
+        vectors.put(0, previous, 0, size * dimensions);
+    }
+
+    private void allocate(int capacityVectors) {
+        long floats = (long) capacityVectors * dimensions;
+        if (floats > MAX_FLOATS) {
+            throw new IllegalArgumentException("Capacity of " + capacityVectors + " vectors of " + dimensions
+                    + " dimensions exceeds " + MAX_FLOATS + " floats");
+        }
+        storage = ByteBuffer.allocateDirect((int) floats * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        vectors = storage.asFloatBuffer();
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No vector " + id + " in an index of " + size);
+        }
+    }
+
+    // The first `floats` floats of the storage, as bytes.
+    private ByteBuffer bytes(int floats) {
+        return storage.duplicate().position(0).limit(floats * Float.BYTES);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, Path file) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException(file + " is truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+class AdaptiveRateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // The fake clock only moves when the limiter sleeps or a test advances it.
+    private long now = 1_000 * SECOND;
+    private final List<Long> sleeps = new ArrayList<>();
+
+    private AdaptiveRateLimiter.Builder limiter() {
+        return AdaptiveRateLimiter.builder()
+                .burst(Duration.ofSeconds(10))
+                .aimd(0.1, 0.5, 0.05)
+                .decreaseCooldown(Duration.ofSeconds(1))
+                .retries(RetryScheduler.builder().baseDelay(Duration.ofMillis(1)).maxDelay(Duration.ofMillis(1)).build())
+                .clock(() -> now)
+                .sleeper(nanos -> {
+                    sleeps.add(nanos);
+                    now += nanos;
+                });
+    }
+
+    private static ThrottlingException throttle() {
+        return ThrottlingException.builder().message("Too many requests").statusCode(429).build();
+    }
+
+    private static void assertWait(long expected, long actual) {
+        assertEquals(expected, actual, 1);
+    }
+
+    @Test
+    void waitsForTheRequestBudget() {
+        // 60 requests per minute with a 10 second burst: 10 calls at once, then one per second.
+        AdaptiveRateLimiter limiter = limiter().limit("model", 60, 0).build();
+        for (int i = 0; i < 10; i++) {
+            limiter.call("model", 1, () -> "ok");
+        }
+        assertEquals(List.of(), sleeps);
+        limiter.call("model", 1, () -> "ok");
+        assertEquals(1, sleeps.size());
+        assertWait(SECOND, sleeps.get(0));
+    }
+
+    @Test
+    void waitsForTheTokenBudget() {
+        // 600 tokens per minute: a burst of 100, then 10 per second.
+        AdaptiveRateLimiter limiter = limiter().limit("model", 0, 600).build();
+        limiter.call("model", 100, () -> "ok");
+        limiter.call("model", 50, () -> "ok");
+        assertEquals(1, sleeps.size());
+        assertWait(5 * SECOND, sleeps.get(0));
+    }
+
+    @Test
+    void modelsWithoutALimitGetTheDefault() {
+        AdaptiveRateLimiter limiter = limiter().limit("other", 6_000, 0).defaultLimit(6, 0).build();
+        limiter.call("model", 1, () -> "ok");
+        limiter.call("model", 1, () -> "ok");
+        assertEquals(1, sleeps.size());
+        assertWait(10 * SECOND, sleeps.get(0));
+    }
+
+    @Test
+    void throttleHalvesTheRateOncePerCooldownAndSuccessRecoversIt() {
+        AdaptiveRateLimiter limiter = limiter().build();
+        Runnable throttled = () -> assertThrows(ThrottlingException.class,
+                () -> limiter.callOnce("model", "model", 1, () -> {
+                    throw throttle();
+                }));
+
+        throttled.run();
+        assertEquals(0.5, limiter.stats().get("model").rateFraction(), 1e-9);
+        // A burst of 429s within the cooldown counts once.
+        throttled.run();
+        assertEquals(0.5, limiter.stats().get("model").rateFraction(), 1e-9);
+
+        now += SECOND;
+        throttled.run();
+        assertEquals(0.25, limiter.stats().get("model").rateFraction(), 1e-9);
+
+        limiter.call("model", 1, () -> "ok");
+        assertEquals(0.35, limiter.stats().get("model").rateFraction(), 1e-9);
+        assertEquals(3, limiter.stats().get("model").throttles());
+    }
+
+    @Test
+    void rateNeverFallsBelowTheFloor() {
+        AdaptiveRateLimiter limiter = limiter().build();
+        for (int i = 0; i < 10; i++) {
+            assertThrows(ThrottlingException.class, () -> limiter.callOnce("model", "model", 1, () -> {
+                throw throttle();
+            }));
+            now += SECOND;
+        }
+        assertEquals(0.05, limiter.stats().get("model").rateFraction(), 1e-9);
+    }
+
+    @Test
+    void throttleSlowsTheRefill() {
+        AdaptiveRateLimiter limiter = limiter().limit("model", 60, 0).build();
+        for (int i = 0; i < 9; i++) {
+            limiter.call("model", 1, () -> "ok");
+        }
+        assertThrows(ThrottlingException.class, () -> limiter.callOnce("model", "model", 1, () -> {
+            throw throttle();
+        }));
+        // Half of 60 per minute: the next request waits two seconds instead of one.
+        limiter.call("model", 1, () -> "ok");
+        assertEquals(1, sleeps.size());
+        assertWait(2 * SECOND, sleeps.get(0));
+    }
+
+    @Test
+    void callRetriesThrottles() {
+        AdaptiveRateLimiter limiter = limiter().build();
+        var attempts = new AtomicInteger();
+        String result = limiter.call("model", 1, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw throttle();
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, limiter.stats().get("model").retries());
+    }
+
+    @Test
+    void callOnceSendsTheCallOnce() {
+        AdaptiveRateLimiter limiter = limiter().build();
+        var attempts = new AtomicInteger();
+        ThrottlingException error = throttle();
+        assertSame(error, assertThrows(ThrottlingException.class, () -> limiter.callOnce("model", "model", 1, () -> {
+            attempts.incrementAndGet();
+            throw error;
+        })));
+        assertEquals(1, attempts.get());
+        assertEquals(0, limiter.stats().get("model").retries());
+    }
+
+    @Test
+    void callAsyncRetriesThrottles() {
+        AdaptiveRateLimiter limiter = limiter().build();
+        var attempts = new AtomicInteger();
+        String result = limiter.callAsync("model", 1, () -> attempts.incrementAndGet() < 3
+                ? CompletableFuture.<String>failedFuture(throttle())
+                : CompletableFuture.completedFuture("ok")).join();
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void routeGetsTheLimitOfItsModel() {
+        AdaptiveRateLimiter limiter = limiter().limit("model", 60, 0).build();
+        for (int i = 0; i < 10; i++) {
+            limiter.callOnce("primary", "model", 1, () -> "ok");
+        }
+        assertEquals(List.of(), sleeps);
+        limiter.callOnce("primary", "model", 1, () -> "ok");
+        assertEquals(1, sleeps.size());
+        // Each route has its own budget: another route of the model is not slowed down.
+        limiter.callOnce("secondary", "model", 1, () -> "ok");
+        assertEquals(1, sleeps.size());
+        assertEquals(List.of("primary", "secondary"), List.copyOf(limiter.stats().keySet()));
+    }
+
+    @Test
+    void routeLimitOverridesTheModelLimit() {
+        AdaptiveRateLimiter limiter = limiter().limit("model", 60, 0).limit("primary", 120, 0).build();
+        for (int i = 0; i < 20; i++) {
+            limiter.callOnce("primary", "model", 1, () -> "ok");
+        }
+        assertEquals(List.of(), sleeps);
+        limiter.callOnce("primary", "model", 1, () -> "ok");
+        assertWait(SECOND / 2, sleeps.get(0));
+    }
+}
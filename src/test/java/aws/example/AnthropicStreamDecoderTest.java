@@ -0,0 +1,131 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import aws.example.AnthropicStreamDecoder.EventType;
+import aws.example.AnthropicStreamDecoder.Usage;
+
+class AnthropicStreamDecoderTest {
+
+    private final AnthropicStreamDecoder decoder = new AnthropicStreamDecoder();
+
+    private static ByteBuffer chunk(String json) {
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String delta(String encodedText) {
+        return "{\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"" + encodedText + "\"}}";
+    }
+
+    @Test
+    void appendsTheTextOfContentBlockDeltas() {
+        var out = new StringBuilder("so far: ");
+        assertEquals(EventType.CONTENT_BLOCK_DELTA, decoder.decode(chunk(delta("Hello")), out));
+        assertEquals(EventType.CONTENT_BLOCK_DELTA, decoder.decode(chunk(delta(", world")), out));
+        assertEquals("so far: Hello, world", out.toString());
+    }
+
+    @Test
+    void findsTheTypeAfterTheDelta() {
+        var out = new StringBuilder();
+        String chunk = "{ \"index\" : 0 , \"delta\" : { \"text\" : \"hi\" , \"type\" : \"text_delta\" } , \"type\" : \"content_block_delta\" }";
+        assertEquals(EventType.CONTENT_BLOCK_DELTA, decoder.decode(chunk(chunk), out));
+        assertEquals("hi", out.toString());
+    }
+
+    @Test
+    void unescapesEscapeSequences() {
+        var out = new StringBuilder();
+        decoder.decode(chunk(delta("a\\\"b\\\\c\\/d\\n\\r\\t\\b\\f\\u00e9\\ud83d\\ude00")), out);
+        assertEquals("a\"b\\c/d\n\r\t\b\fé😀", out.toString());
+    }
+
+    @Test
+    void decodesMultiByteUtf8() {
+        var out = new StringBuilder();
+        decoder.decode(chunk(delta("é € 中文 😀")), out);
+        assertEquals("é € 中文 😀", out.toString());
+    }
+
+    @Test
+    void skipsNestedValuesContainingBrackets() {
+        var out = new StringBuilder();
+        String chunk = "{\"meta\":{\"list\":[1,{\"s\":\"}]{[\\\"\"}],\"n\":null,\"t\":true},\"type\":\"content_block_delta\","
+                + "\"delta\":{\"extra\":[\"text\"],\"text\":\"ok\"}}";
+        assertEquals(EventType.CONTENT_BLOCK_DELTA, decoder.decode(chunk(chunk), out));
+        assertEquals("ok", out.toString());
+    }
+
+    @Test
+    void dropsTextOfOtherEvents() {
+        var out = new StringBuilder("kept");
+        String chunk = "{\"type\":\"content_block_start\",\"index\":0,\"delta\":{\"text\":\"not generated\"}}";
+        assertEquals(EventType.CONTENT_BLOCK_START, decoder.decode(chunk(chunk), out));
+        assertEquals(EventType.PING, decoder.decode(chunk("{\"type\":\"ping\"}"), out));
+        assertEquals(EventType.OTHER, decoder.decode(chunk("{\"type\":\"something_new\"}"), out));
+        assertEquals("kept", out.toString());
+    }
+
+    @Test
+    void leavesTheChunkPositionUnchanged() {
+        ByteBuffer chunk = chunk("  " + delta("x"));
+        chunk.position(2);
+        decoder.decode(chunk, new StringBuilder());
+        assertEquals(2, chunk.position());
+    }
+
+    @Test
+    void rejectsMalformedChunksWithoutPartialOutput() {
+        var out = new StringBuilder("kept");
+        String[] malformed = {
+                "",
+                "[]",
+                "{\"type\":\"content_block_delta\"",
+                "{\"type\" \"content_block_delta\"}",
+                "{\"type\":\"content_block_delta\",\"delta\":{\"text\":\"unterminated",
+                "{\"type\":\"content_block_delta\",\"delta\":{\"text\":\"bad \\x escape\"}}",
+                "{\"type\":\"content_block_delta\",\"delta\":{\"text\":\"bad \\u12g4 escape\"}}",
+        };
+        for (String chunk : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> decoder.decode(chunk(chunk), out), chunk);
+            assertEquals("kept", out.toString(), chunk);
+        }
+    }
+
+    @Test
+    void rejectsInvalidUtf8() {
+        var out = new StringBuilder();
+        byte[] prefix = "{\"type\":\"content_block_delta\",\"delta\":{\"text\":\"".getBytes(StandardCharsets.US_ASCII);
+        byte[][] invalid = {
+                {(byte) 0x80},
+                {(byte) 0xC3, 'x'},
+                {(byte) 0xE2, (byte) 0x82},
+                {(byte) 0xFF},
+        };
+        for (byte[] bytes : invalid) {
+            ByteBuffer chunk = ByteBuffer.allocate(prefix.length + bytes.length + 3);
+            chunk.put(prefix).put(bytes).put("\"}}".getBytes(StandardCharsets.US_ASCII)).flip();
+            assertThrows(IllegalArgumentException.class, () -> decoder.decode(chunk, out));
+            assertEquals("", out.toString());
+        }
+    }
+
+    @Test
+    void readsUsageFromMessageEvents() {
+        String start = "{\"type\":\"message_start\",\"message\":{\"usage\":{\"input_tokens\":25,\"output_tokens\":1}}}";
+        String delta = "{\"type\":\"message_delta\",\"delta\":{\"stop_reason\":\"end_turn\"},\"usage\":{\"output_tokens\":42}}";
+        String stop = "{\"type\":\"message_stop\",\"amazon-bedrock-invocationMetrics\":{\"inputTokenCount\":25,\"outputTokenCount\":42}}";
+
+        assertEquals(new Usage(25, 1), AnthropicStreamDecoder.usage(decoder.decode(chunk(start), new StringBuilder()), chunk(start)));
+        assertEquals(new Usage(-1, 42), AnthropicStreamDecoder.usage(decoder.decode(chunk(delta), new StringBuilder()), chunk(delta)));
+        assertEquals(new Usage(25, 42), AnthropicStreamDecoder.usage(decoder.decode(chunk(stop), new StringBuilder()), chunk(stop)));
+        assertNull(AnthropicStreamDecoder.usage(EventType.CONTENT_BLOCK_DELTA, chunk(delta("x"))));
+    }
+}
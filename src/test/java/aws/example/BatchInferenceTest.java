@@ -0,0 +1,200 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+class BatchInferenceTest {
+
+    private static final String MODEL_ID = "cohere.command-r-v1:0";
+
+    @TempDir
+    Path root;
+
+    private final FakeJobs jobs = new FakeJobs();
+
+    private BatchInference.Builder batch() {
+        return BatchInference.builder()
+                .store(ObjectStore.directory(root))
+                .jobs(jobs)
+                .modelId(MODEL_ID)
+                .name("test-run")
+                .pollInterval(Duration.ZERO);
+    }
+
+    private static List<String> prompts(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "prompt " + i).toList();
+    }
+
+    @Test
+    void prepareRollsOverAndKeepsTheLastPartAboveTheMinimum() throws IOException {
+        BatchInference batch = batch().maxRecordsPerFile(10).minRecordsPerFile(3).build();
+        List<BatchInference.Part> parts = batch.prepare(prompts(25).iterator());
+
+        assertEquals(List.of(
+                new BatchInference.Part(0, "test-run/input/part-00000.jsonl", 0, 10),
+                new BatchInference.Part(1, "test-run/input/part-00001.jsonl", 10, 10),
+                new BatchInference.Part(2, "test-run/input/part-00002.jsonl", 20, 5)), parts);
+        for (BatchInference.Part part : parts) {
+            List<String> lines = Files.readAllLines(root.resolve(part.key()));
+            assertEquals(part.records(), lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                JSONObject record = new JSONObject(lines.get(i));
+                int index = part.firstIndex() + i;
+                assertEquals(BatchInference.recordId(index), record.getString("recordId"));
+                assertEquals("prompt " + index, record.getJSONObject("modelInput").getString("message"));
+            }
+        }
+    }
+
+    @Test
+    void prepareSharesTheHeldRecordsSoNoPartFallsBelowTheMinimum() throws IOException {
+        BatchInference batch = batch().maxRecordsPerFile(10).minRecordsPerFile(4).build();
+        List<BatchInference.Part> parts = batch.prepare(prompts(21).iterator());
+
+        assertEquals(List.of(10, 7, 4), parts.stream().map(BatchInference.Part::records).toList());
+    }
+
+    @Test
+    void prepareKeepsASmallInputInOnePart() throws IOException {
+        BatchInference batch = batch().maxRecordsPerFile(10).minRecordsPerFile(3).build();
+        List<BatchInference.Part> parts = batch.prepare(prompts(4).iterator());
+
+        assertEquals(List.of(new BatchInference.Part(0, "test-run/input/part-00000.jsonl", 0, 4)), parts);
+    }
+
+    @Test
+    void runMergesOutOfOrderOutputsInInputOrder() throws IOException, InterruptedException {
+        jobs.missing = 7;
+        jobs.failing = 12;
+        Path input = root.resolve("prompts.txt");
+        Files.write(input, prompts(25), StandardCharsets.UTF_8);
+        BatchInference batch = batch().maxRecordsPerFile(10).minRecordsPerFile(3).build();
+
+        List<BatchResult> results = new ArrayList<>();
+        BatchInference.Report report = batch.run(input, results::add);
+
+        assertEquals(25, report.records());
+        assertEquals(2, report.failed());
+        assertEquals(3, report.runs().size());
+        assertEquals(25, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BatchResult result = results.get(i);
+            assertEquals(i, result.index());
+            assertEquals("prompt " + i, result.prompt());
+            if (i == 7) {
+                assertNull(result.text());
+                assertTrue(result.error().getMessage().contains("No output for record 00000000007"), result.error().getMessage());
+            } else if (i == 12) {
+                assertNull(result.text());
+                assertTrue(result.error().getMessage().contains("bad input"), result.error().getMessage());
+            } else {
+                assertTrue(result.isSuccess(), () -> result.error().toString());
+                assertEquals("answer to prompt " + i, result.text());
+            }
+        }
+    }
+
+    @Test
+    void executeRetriesThrottledSubmissionsAndPollsWithinTheJobLimit() throws IOException, InterruptedException {
+        jobs.throttleSubmit = 2;
+        jobs.throttleStatus = 2;
+        BatchInference batch = batch().maxRecordsPerFile(10).minRecordsPerFile(0).maxConcurrentJobs(2).build();
+        List<BatchInference.Part> parts = batch.prepare(prompts(45).iterator());
+
+        List<BatchInference.Run> runs = batch.execute(parts);
+
+        assertEquals(5, runs.size());
+        for (int i = 0; i < runs.size(); i++) {
+            assertEquals(parts.get(i), runs.get(i).part());
+            assertEquals(BatchJobApi.State.COMPLETED, runs.get(i).status().state());
+        }
+        assertEquals(2, jobs.maxRunning);
+    }
+
+    // Answers every record of a job at submission, in reverse order, with one record left out and one failed.
+    private static final class FakeJobs implements BatchJobApi {
+        private final Map<String, Integer> polls = new HashMap<>();
+        int missing = -1;
+        int failing = -1;
+        int throttleSubmit;
+        int throttleStatus;
+        int running;
+        int maxRunning;
+
+        @Override
+        public String submit(Job job) {
+            if (throttleSubmit > 0) {
+                throttleSubmit--;
+                throw throttle();
+            }
+            String jobId = "job-" + polls.size();
+            Path input = Path.of(URI.create(job.inputUri()));
+            Path output = Path.of(URI.create(job.outputUri())).resolve(jobId).resolve(input.getFileName() + ".out");
+            try {
+                List<String> records = new ArrayList<>();
+                for (String line : Files.readAllLines(input, StandardCharsets.UTF_8)) {
+                    JSONObject record = new JSONObject(line);
+                    int index = Integer.parseInt(record.getString("recordId"));
+                    if (index == missing) {
+                        continue;
+                    }
+                    if (index == failing) {
+                        record.put("error", new JSONObject().put("errorCode", 400).put("errorMessage", "bad input"));
+                    } else {
+                        String prompt = record.getJSONObject("modelInput").getString("message");
+                        record.put("modelOutput", new JSONObject().put("text", "answer to " + prompt));
+                    }
+                    records.add(record.toString());
+                }
+                Collections.reverse(records);
+                Files.createDirectories(output.getParent());
+                Files.write(output, records, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            polls.put(jobId, 0);
+            maxRunning = Math.max(maxRunning, ++running);
+            return jobId;
+        }
+
+        // Each job is in progress at its first poll and completed at the second.
+        @Override
+        public Status status(String jobId) {
+            if (throttleStatus > 0) {
+                throttleStatus--;
+                throw throttle();
+            }
+            int poll = polls.merge(jobId, 1, Integer::sum);
+            if (poll < 2) {
+                return new Status(State.IN_PROGRESS, null);
+            }
+            running--;
+            return new Status(State.COMPLETED, null);
+        }
+
+        private static ThrottlingException throttle() {
+            return ThrottlingException.builder().message("Too many requests").statusCode(429).build();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BpeTokenCounterTest {
+
+    // Words and runs of whitespace, so each test controls its pieces.
+    private static final Pattern PIECES = Pattern.compile("\\S+|\\s+");
+
+    @TempDir
+    Path dir;
+
+    private TokenCounter counter;
+
+    // Single bytes first, then merges: "ab" and "cd" before "bc", and "abcd" only from "ab" + "cd".
+    @BeforeEach
+    void loadVocabulary() throws IOException {
+        counter = TokenCounter.bpe(vocabulary("a", "b", "c", "d", "e", " ", "ab", "cd", "bc", "abcd", "aa"), PIECES);
+    }
+
+    private Path vocabulary(String... tokens) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int rank = 0; rank < tokens.length; rank++) {
+            lines.add(Base64.getEncoder().encodeToString(tokens[rank].getBytes(StandardCharsets.UTF_8)) + " " + rank);
+        }
+        Path file = dir.resolve("vocabulary-" + tokens.length + ".tiktoken");
+        Files.write(file, lines, StandardCharsets.US_ASCII);
+        return file;
+    }
+
+    @Test
+    void pieceInTheVocabularyIsOneToken() {
+        assertEquals(1, counter.count("a"));
+        assertEquals(1, counter.count("ab"));
+        assertEquals(1, counter.count("abcd"));
+    }
+
+    @Test
+    void mergesTheLowestRankedPairFirst() {
+        // ab, then cd, then abcd: [abcd, e]. Merging the earlier pair bc first would leave [a, bc, d, e].
+        assertEquals(2, counter.count("abcde"));
+        // ab wins over bc: [ab, c, e].
+        assertEquals(3, counter.count("abce"));
+        assertEquals(5, counter.count("edcba"));
+    }
+
+    @Test
+    void bytesOutsideTheVocabularyAreOneTokenEach() {
+        assertEquals(2, counter.count("é"));
+        assertEquals(4, counter.count("xabyz"));
+    }
+
+    @Test
+    void countsEveryPiece() {
+        // "ab", " ", "abcde", "  ", "c": 1 + 1 + 2 + 2 + 1.
+        assertEquals(7, counter.count("ab abcde  c"));
+        assertEquals(0, counter.count(""));
+        assertEquals(0, counter.count(null));
+    }
+
+    @Test
+    void countsARegion() {
+        assertEquals(2, counter.count("xx abcde xx", 3, 8));
+    }
+
+    @Test
+    void mergesLongPiecesInWindows() {
+        // 512-byte windows of "aa" pairs: 1200 = 512 + 512 + 176 bytes, 256 + 256 + 88 tokens.
+        assertEquals(600, counter.count("a".repeat(1200)));
+    }
+
+    @Test
+    void loadsEachVocabularyOnce() throws IOException {
+        Path file = vocabulary("a", "b", "c", "d", "e", " ", "ab", "cd", "bc", "abcd", "aa");
+        assertSame(counter, TokenCounter.bpe(file, PIECES));
+    }
+
+    @Test
+    void rejectsLinesWithoutARank() throws IOException {
+        Path file = dir.resolve("broken.tiktoken");
+        Files.writeString(file, "YQ==\n", StandardCharsets.US_ASCII);
+        assertThrows(IllegalArgumentException.class, () -> TokenCounter.bpe(file, PIECES));
+    }
+}
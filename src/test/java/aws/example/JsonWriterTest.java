@@ -0,0 +1,79 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+
+    private static String json(JsonWriter writer) {
+        return writer.toSdkBytes().asUtf8String();
+    }
+
+    @Test
+    void escapesQuotesBackslashesAndControlCharacters() {
+        String value = "say \"hi\"\\ \n\r\t\b\f \u0000 \u001f end";
+        String json = json(JsonWriter.reusable().beginObject().member("text", value).endObject());
+
+        assertEquals("{\"text\":\"say \\\"hi\\\"\\\\ \\n\\r\\t\\b\\f \\u0000 \\u001f end\"}", json);
+        assertEquals(value, new JSONObject(json).getString("text"));
+    }
+
+    @Test
+    void encodesMultiByteCharactersAsUtf8() {
+        String value = "é ü € 中文 😀 𝄞";
+        byte[] body = JsonWriter.reusable().value(value).toSdkBytes().asByteArray();
+
+        assertEquals("\"" + value + "\"", new String(body, StandardCharsets.UTF_8));
+        assertEquals(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8).length, body.length);
+    }
+
+    @Test
+    void replacesUnpairedSurrogatesLikeGetBytes() {
+        String value = "a\uD83Db\uDE00c\uD83D";
+        byte[] body = JsonWriter.reusable().value(value).toSdkBytes().asByteArray();
+
+        assertEquals(new String(("\"" + value + "\"").getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+                new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void concatenatesPartsIntoOneString() {
+        String json = json(JsonWriter.reusable().beginObject()
+                .name("prompt").value("<s>[INST] ", "line\n\"quoted\"", " [/INST]")
+                .endObject());
+
+        assertEquals("<s>[INST] line\n\"quoted\" [/INST]", new JSONObject(json).getString("prompt"));
+    }
+
+    @Test
+    void separatesMembersAndElements() {
+        String json = json(JsonWriter.reusable().beginObject()
+                .member("a", 1)
+                .member("b", (String) null)
+                .member("c", 0.5f)
+                .member("d", List.of("x", "y"))
+                .name("e").beginArray().beginObject().member("f", "g").endObject().beginObject().endObject().endArray()
+                .endObject());
+
+        assertEquals("{\"a\":1,\"c\":0.5,\"d\":[\"x\",\"y\"],\"e\":[{\"f\":\"g\"},{}]}", json);
+    }
+
+    @Test
+    void growsBeyondTheInitialBuffer() {
+        String value = "\"é\n".repeat(10_000);
+        String json = json(JsonWriter.reusable().beginObject().member("text", value).endObject());
+
+        assertEquals(value, new JSONObject(json).getString("text"));
+    }
+
+    @Test
+    void rejectsNonFiniteNumbers() {
+        assertThrows(IllegalArgumentException.class, () -> JsonWriter.reusable().value(Float.NaN));
+    }
+}
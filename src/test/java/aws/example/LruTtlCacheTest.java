@@ -0,0 +1,103 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LruTtlCacheTest {
+
+    private static final long TTL = TimeUnit.MINUTES.toNanos(1);
+
+    private long now = 1_000 * TTL;
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(2, TTL, () -> now);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        // Reading a makes b the least recently used.
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void expiresEntriesAfterTheTtl() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(10, TTL, () -> now);
+        cache.put("a", "1");
+        now += TTL / 2;
+        cache.put("b", "2");
+        now += TTL / 2 - 1;
+        assertEquals("1", cache.get("a"));
+
+        now += 1;
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void putRefreshesTheTtl() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(10, TTL, () -> now);
+        cache.put("a", "1");
+        now += TTL - 1;
+        cache.put("a", "2");
+        now += TTL - 1;
+        assertEquals("2", cache.get("a"));
+    }
+
+    @Test
+    void evictsByWeight() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(10, String::length, TTL, () -> now);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals(8, cache.weight());
+        cache.put("c", "cccccc");
+
+        // Dropping the least recently used entry is enough to fit.
+        assertNull(cache.get("a"));
+        assertEquals("bbbb", cache.get("b"));
+        assertEquals(10, cache.weight());
+        assertEquals(1, cache.evictions());
+
+        cache.put("d", "dddddddd");
+        assertNull(cache.get("b"));
+        assertNull(cache.get("c"));
+        assertEquals(8, cache.weight());
+        assertEquals(3, cache.evictions());
+    }
+
+    @Test
+    void replacingAnEntryReplacesItsWeight() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(10, String::length, TTL, () -> now);
+        cache.put("a", "aaaa");
+        cache.put("a", "aaaaaaaa");
+        assertEquals(8, cache.weight());
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.evictions());
+
+        cache.remove("a");
+        assertEquals(0, cache.weight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void doesNotStoreAValueHeavierThanTheCache() {
+        LruTtlCache<String, String> cache = new LruTtlCache<>(10, String::length, TTL, () -> now);
+        cache.put("a", "aaaa");
+        cache.put("b", "b".repeat(11));
+
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals(4, cache.weight());
+    }
+}
@@ -0,0 +1,236 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeAsyncClient;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InternalServerException;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+import software.amazon.awssdk.services.bedrockruntime.model.ValidationException;
+
+class ModelRouterTest {
+
+    // The operations under test never touch the client; routes only need one to be eligible.
+    private static final BedrockRuntimeClient CLIENT = new BedrockRuntimeClient() {
+        @Override
+        public String serviceName() {
+            return "stub";
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final BedrockRuntimeAsyncClient ASYNC_CLIENT = new BedrockRuntimeAsyncClient() {
+        @Override
+        public String serviceName() {
+            return "stub";
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+    private static ModelRouter.Builder router() {
+        return ModelRouter.builder()
+                .route("a", CLIENT, ASYNC_CLIENT, "model-a")
+                .route("b", CLIENT, ASYNC_CLIENT, "model-b");
+    }
+
+    private void count(String modelId) {
+        calls.computeIfAbsent(modelId, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private Map<String, Integer> calls() {
+        return calls.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    private static Map<String, ModelRouter.RouteStats> stats(ModelRouter router) {
+        return router.stats().stream().collect(Collectors.toMap(ModelRouter.RouteStats::name, stats -> stats));
+    }
+
+    private static ThrottlingException throttle() {
+        return ThrottlingException.builder().message("Too many requests").statusCode(429).build();
+    }
+
+    private static InternalServerException serverError() {
+        return InternalServerException.builder().message("Internal error").statusCode(500).build();
+    }
+
+    @Test
+    void throttledCallMovesToTheNextRouteAndTheRouteCoolsDown() {
+        try (ModelRouter router = router().throttleCooldown(Duration.ofMinutes(1)).build()) {
+            for (int i = 0; i < 3; i++) {
+                String answer = router.call(1, (client, modelId) -> {
+                    count(modelId);
+                    if (modelId.equals("model-a")) {
+                        throw throttle();
+                    }
+                    return modelId;
+                });
+                assertEquals("model-b", answer);
+            }
+            // After the throttle, route a is left alone for the cooldown.
+            assertEquals(Map.of("model-a", 1, "model-b", 3), calls());
+            Map<String, ModelRouter.RouteStats> stats = stats(router);
+            assertEquals(1, stats.get("a").throttles());
+            assertFalse(stats.get("a").available());
+            assertEquals(3, stats.get("b").calls());
+        }
+    }
+
+    @Test
+    void clientErrorIsNotTriedElsewhere() {
+        ValidationException error = ValidationException.builder().message("Bad request").statusCode(400).build();
+        try (ModelRouter router = router().build()) {
+            assertSame(error, assertThrows(ValidationException.class, () -> router.call(1, (client, modelId) -> {
+                count(modelId);
+                throw error;
+            })));
+            assertEquals(1, calls().values().stream().mapToInt(Integer::intValue).sum());
+        }
+    }
+
+    @Test
+    void fallbackIsUsedOnlyWhenEveryPrimaryFails() {
+        try (ModelRouter router = ModelRouter.builder()
+                .route("primary", CLIENT, "model-p")
+                .fallback("fallback", CLIENT, "model-f")
+                .build()) {
+            assertEquals("model-p", router.call(1, (client, modelId) -> {
+                count(modelId);
+                return modelId;
+            }));
+            assertEquals("model-f", router.call(1, (client, modelId) -> {
+                count(modelId);
+                if (modelId.equals("model-p")) {
+                    throw serverError();
+                }
+                return modelId;
+            }));
+            assertEquals(Map.of("model-p", 2, "model-f", 1), calls());
+        }
+    }
+
+    @Test
+    void failsWithTheLastFailureWhenNoRouteIsLeft() {
+        try (ModelRouter router = router().build()) {
+            InternalServerException last = assertThrows(InternalServerException.class, () -> router.call(1, (client, modelId) -> {
+                count(modelId);
+                throw serverError();
+            }));
+            assertEquals(1, last.getSuppressed().length);
+            assertEquals(Map.of("model-a", 1, "model-b", 1), calls());
+        }
+    }
+
+    @Test
+    void routeFailingRepeatedlyIsTakenOutOfRotation() {
+        try (ModelRouter router = router().failureThreshold(2).cooldown(Duration.ofMinutes(1)).build()) {
+            for (int i = 0; i < 4; i++) {
+                router.call(1, (client, modelId) -> {
+                    count(modelId);
+                    if (modelId.equals("model-a")) {
+                        throw serverError();
+                    }
+                    return modelId;
+                });
+            }
+            assertFalse(stats(router).get("a").available());
+            assertEquals(4, calls().get("model-b"));
+            assertTrue(calls().get("model-a") <= 2, calls()::toString);
+        }
+    }
+
+    @Test
+    void slowCallIsHedgedOnAnotherRouteAndCancelled() throws InterruptedException {
+        try (ModelRouter router = router().hedging(true).minSamples(1).minHedgeDelay(Duration.ofMillis(20)).build()) {
+            // One fast call per route, so both have latency figures to hedge on.
+            router.call(1, (client, modelId) -> modelId);
+            router.call(1, (client, modelId) -> modelId);
+
+            var attempts = new AtomicInteger();
+            var cancelled = new CountDownLatch(1);
+            String answer = router.call(1, (client, modelId) -> {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                    } catch (InterruptedException e) {
+                        cancelled.countDown();
+                    }
+                    return "slow";
+                }
+                return "hedge";
+            });
+            assertEquals("hedge", answer);
+            assertEquals(2, attempts.get());
+            assertTrue(cancelled.await(5, TimeUnit.SECONDS), "the slow attempt was not cancelled");
+            assertEquals(1, router.stats().stream().mapToLong(ModelRouter.RouteStats::hedges).sum());
+        }
+    }
+
+    @Test
+    void asyncCallMovesToTheNextRoute() {
+        try (ModelRouter router = router().build()) {
+            String answer = router.<String>callAsync(1, (client, modelId) -> {
+                count(modelId);
+                return modelId.equals("model-a")
+                        ? CompletableFuture.failedFuture(throttle())
+                        : CompletableFuture.completedFuture(modelId);
+            }).join();
+            assertEquals("model-b", answer);
+            assertEquals(Map.of("model-a", 1, "model-b", 1), calls());
+        }
+    }
+
+    @Test
+    void asyncCallFailsWhenNoRouteIsLeft() {
+        try (ModelRouter router = router().build()) {
+            CompletionException error = assertThrows(CompletionException.class, () -> router.<String>callAsync(1, (client, modelId) -> {
+                count(modelId);
+                return CompletableFuture.failedFuture(serverError());
+            }).join());
+            assertTrue(error.getCause() instanceof InternalServerException, error::toString);
+            assertEquals(Map.of("model-a", 1, "model-b", 1), calls());
+        }
+    }
+
+    @Test
+    void slowAsyncCallIsHedgedAndCancelled() {
+        try (ModelRouter router = router().hedging(true).minSamples(1).minHedgeDelay(Duration.ofMillis(20)).build()) {
+            router.<String>callAsync(1, (client, modelId) -> CompletableFuture.completedFuture(modelId)).join();
+            router.<String>callAsync(1, (client, modelId) -> CompletableFuture.completedFuture(modelId)).join();
+
+            var slow = new CompletableFuture<String>();
+            var attempts = new AtomicInteger();
+            String answer = router.<String>callAsync(1, (client, modelId) -> attempts.incrementAndGet() == 1
+                    ? slow
+                    : CompletableFuture.completedFuture("hedge")).join();
+            assertEquals("hedge", answer);
+            assertEquals(2, attempts.get());
+            assertTrue(slow.isCancelled());
+            assertEquals(List.of(1L), router.stats().stream().map(ModelRouter.RouteStats::hedges).filter(h -> h > 0).toList());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package aws.example;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long now = 1_000 * SECOND;
+
+    // 60 per minute is one permit per second.
+    private TokenBucket bucket(double capacity) {
+        return new TokenBucket(60, capacity, () -> now);
+    }
+
+    // Waits are computed in floating point, so allow a nanosecond of rounding.
+    private static void assertWait(long expected, long actual) {
+        assertEquals(expected, actual, 1);
+    }
+
+    @Test
+    void startsFullAndWaitsOnceEmpty() {
+        TokenBucket bucket = bucket(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.reserve(1));
+        }
+        assertWait(SECOND, bucket.reserve(1));
+        // Waiting callers are served in arrival order: the next one waits behind the previous one.
+        assertWait(2 * SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void refillsWithTime() {
+        TokenBucket bucket = bucket(10);
+        bucket.reserve(10);
+        now += 3 * SECOND;
+        assertEquals(0, bucket.reserve(3));
+        assertWait(SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void neverRefillsBeyondCapacity() {
+        TokenBucket bucket = bucket(10);
+        now += 60 * SECOND;
+        assertEquals(0, bucket.reserve(10));
+        assertWait(SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void releaseRefundsAReservation() {
+        TokenBucket bucket = bucket(10);
+        bucket.reserve(10);
+        assertWait(SECOND, bucket.reserve(1));
+        bucket.release(1);
+        assertWait(SECOND, bucket.reserve(1));
+    }
+
+    @Test
+    void setRateChangesTheRefill() {
+        TokenBucket bucket = bucket(10);
+        bucket.reserve(10);
+        bucket.setRate(120);
+        assertWait(SECOND / 2, bucket.reserve(1));
+    }
+
+    @Test
+    void requestLargerThanTheBucketIsChargedAFullBucket() {
+        TokenBucket bucket = bucket(10);
+        assertEquals(0, bucket.reserve(25));
+        assertWait(SECOND, bucket.reserve(1));
+    }
+}